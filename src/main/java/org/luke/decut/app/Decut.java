@@ -1,6 +1,9 @@
 package org.luke.decut.app;
 
 import org.luke.decut.crossplatform.Os;
+import org.luke.decut.render.EncoderTuner;
+import org.luke.decut.render.RenderQueue;
+import org.luke.gui.threading.Platform;
 import org.luke.gui.controls.popup.Direction;
 import org.luke.gui.window.Page;
 import org.luke.gui.window.Window;
@@ -72,6 +75,11 @@ public class Decut extends Application {
 
         Runtime.getRuntime().addShutdownHook(new Thread(this::deleteTempFiles));
 
+        // resumes the exports left pending when the app was closed
+        Platform.runBack(RenderQueue::global);
+        // benchmarks the encoders before the first export, which uses defaults until then
+        Platform.runBack(() -> EncoderTuner.global().warmUp());
+
         window.setOnShown(_ -> window.loadPage(Home.class));
         window.show();
     }
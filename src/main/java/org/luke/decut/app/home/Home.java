@@ -21,10 +21,17 @@ import org.luke.decut.app.timeline.tracks.Track;
 import org.luke.decut.app.timeline.tracks.Tracks;
 import org.luke.decut.app.timeline.viewport.Viewport;
 import org.luke.decut.ffmpeg.FfmpegCommand;
+import org.luke.decut.ffmpeg.pipe.RawAudioPipe;
+import org.luke.decut.ffmpeg.pipe.RawVideoPipe;
 import org.luke.decut.file.FileDealer;
 import org.luke.decut.file.project.DecutProject;
+import org.luke.decut.render.ChunkedExport;
+import org.luke.decut.render.ClipSpan;
+import org.luke.decut.render.Rendition;
 import org.luke.decut.render.SegmentRenderer;
+import org.luke.decut.render.SmartExport;
 import org.luke.decut.render.TimelineRenderer;
+import org.luke.decut.render.TimelineSnapshot;
 import org.luke.gui.controls.button.MenuBarButton;
 import org.luke.gui.style.Style;
 import org.luke.gui.threading.Platform;
@@ -35,6 +42,7 @@ import java.awt.*;
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
+import java.util.List;
 
 public class Home extends Page {
     private final MenuBarButton file;
@@ -173,16 +181,43 @@ public class Home extends Page {
         perform(name, action, inverse, false, false);
     }
 
-    public FfmpegCommand render(File file) {
-        return renderer.generateRenderCommand(file);
+    public FfmpegCommand render(TimelineSnapshot timeline, File file) {
+        return renderer.generateRenderCommand(timeline, file);
     }
 
-    public FfmpegCommand previewFrames(File file, double startTime, double duration, double qualityFactor) {
-        return previewer.renderSegmentFrames(file, startTime, duration, qualityFactor);
+    public FfmpegCommand renderRenditions(TimelineSnapshot timeline, List<Rendition> renditions) {
+        return renderer.generateRenditionsCommand(timeline, renditions);
     }
 
-    public FfmpegCommand previewAudio(File file, double startTime, double duration) {
-        return previewer.renderSegmentAudio(file, startTime, duration);
+    /**
+     * Takes a snapshot of the timeline for an export, on the FX thread.
+     */
+    public TimelineSnapshot snapshotTimeline() {
+        return renderer.snapshot();
+    }
+
+    public ChunkedExport renderInChunks(TimelineSnapshot timeline, File file) {
+        return new ChunkedExport(renderer, timeline, file);
+    }
+
+    public SmartExport renderSmart(TimelineSnapshot timeline, File file) {
+        return new SmartExport(renderer, timeline, file);
+    }
+
+    public FfmpegCommand previewFrames(RawVideoPipe pipe, double startTime, double duration, double frameRate) {
+        return previewer.renderSegmentFrames(pipe, startTime, duration, frameRate);
+    }
+
+    public FfmpegCommand previewFrame(RawVideoPipe pipe, double time) {
+        return previewer.renderFrame(pipe, time);
+    }
+
+    public FfmpegCommand previewAudio(RawAudioPipe pipe, double startTime, double duration) {
+        return previewer.renderSegmentAudio(pipe, startTime, duration);
+    }
+
+    public List<ClipSpan> previewClips() {
+        return previewer.snapshotClips();
     }
 
     public void setPreviewQuality(double qualityFactor) {
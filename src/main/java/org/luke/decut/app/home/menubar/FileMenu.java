@@ -1,11 +1,14 @@
 package org.luke.decut.app.home.menubar;
 
+import javafx.stage.DirectoryChooser;
 import javafx.stage.FileChooser;
 import org.luke.decut.app.home.Home;
 import org.luke.decut.crossplatform.Os;
-import org.luke.decut.ffmpeg.FfmpegCommand;
-import org.luke.decut.ffmpeg.handlers.ProgressHandler;
 import org.luke.decut.file.FileDealer;
+import org.luke.decut.render.RenderJob;
+import org.luke.decut.render.RenderQueue;
+import org.luke.decut.render.Rendition;
+import org.luke.decut.render.TimelineSnapshot;
 import org.luke.gui.controls.popup.context.meta.MetaMenuItem;
 import org.luke.gui.controls.popup.context.meta.MetaMenuMenu;
 import org.luke.gui.exception.ErrorHandler;
@@ -15,7 +18,7 @@ import org.luke.gui.threading.Platform;
 import java.awt.*;
 import java.io.File;
 import java.io.IOException;
-import java.nio.file.Files;
+import java.util.List;
 
 public class FileMenu extends HomeMenuButton {
     public FileMenu(Home owner) {
@@ -51,20 +54,46 @@ public class FileMenu extends HomeMenuButton {
         addItem(new MetaMenuItem("Export", "export", () -> {
             File saveTo = exportAs.showSaveDialog(owner.getWindow());
             if(saveTo != null) {
-                FfmpegCommand com = owner.render(saveTo);
-                com.addHandler(new ProgressHandler()
-                        .addHandler(pi -> System.out.println(pi.getProgress())));
-
+                // the timeline is read here, building the command from it probes the sources
+                TimelineSnapshot timeline = owner.snapshotTimeline();
+                Platform.runBack(() -> {
+                    RenderJob job = RenderJob.of(saveTo.getName(), owner.render(timeline, saveTo))
+                            .addListener(j -> openWhenDone(j, saveTo));
+                    RenderQueue.global().submit(job);
+                });
+            }
+        }));
+        DirectoryChooser renditionsDir = new DirectoryChooser();
+        addItem(new MetaMenuItem("Export renditions", "export", () -> {
+            File dir = renditionsDir.showDialog(owner.getWindow());
+            if(dir != null) {
+                TimelineSnapshot timeline = owner.snapshotTimeline();
                 Platform.runBack(() -> {
-                    com.execute().waitFor();
-                    try {
-                        Desktop.getDesktop().open(saveTo);
-                    } catch (IOException e) {
-                        throw new RuntimeException(e);
-                    }
+                    List<Rendition> renditions = Rendition.ladder(dir, dir.getName(), timeline.getHeight());
+                    RenderJob job = RenderJob.of(dir.getName() + " renditions", owner.renderRenditions(timeline, renditions))
+                            .addListener(j -> openWhenDone(j, dir));
+                    RenderQueue.global().submit(job);
                 });
             }
         }));
+        addItem(new MetaMenuItem("Export in parallel", "export", () -> {
+            File saveTo = exportAs.showSaveDialog(owner.getWindow());
+            if(saveTo != null) {
+                TimelineSnapshot timeline = owner.snapshotTimeline();
+                RenderJob job = RenderJob.of(saveTo.getName(), saveTo, () -> owner.renderInChunks(timeline, saveTo))
+                        .addListener(j -> openWhenDone(j, saveTo));
+                RenderQueue.global().submit(job);
+            }
+        }));
+        addItem(new MetaMenuItem("Smart export", "export", () -> {
+            File saveTo = exportAs.showSaveDialog(owner.getWindow());
+            if(saveTo != null) {
+                TimelineSnapshot timeline = owner.snapshotTimeline();
+                RenderJob job = RenderJob.of(saveTo.getName(), saveTo, () -> owner.renderSmart(timeline, saveTo))
+                        .addListener(j -> openWhenDone(j, saveTo));
+                RenderQueue.global().submit(job);
+            }
+        }));
         separate();
         addItem(new MetaMenuItem("Zip project", "zip", () -> {
             File saveTo = zfc.showSaveDialog(owner.getWindow());
@@ -96,4 +125,14 @@ public class FileMenu extends HomeMenuButton {
         separate();
         addItem(new MetaMenuItem("Exit", "exit", null));
     }
+
+    private static void openWhenDone(RenderJob job, File output) {
+        if (job.getState() == RenderJob.State.DONE) {
+            try {
+                Desktop.getDesktop().open(output);
+            } catch (IOException e) {
+                ErrorHandler.handle(e, "open export");
+            }
+        }
+    }
 }
@@ -42,19 +42,20 @@ public class DecutAction {
     }
 
     public void perform() {
-        if (isFfmpeg() && FfmpegCommand.getFfmpegBinary() == null) {
+        // resolving reads the saved probes of the tool registry, it starts no process
+        FfmpegCommand.resetBinary();
+        FfprobeCommand.resetBinary();
+        if (isFfmpeg() && !FfmpegCommand.hasBinary()) {
             configure(
                     "Ffmpeg",
                     Decut.instance::openFfmpegConfig,
                     () -> FfmpegCommand.getFfmpegBinary() != null);
-        } else if(isFfprobe() && FfprobeCommand.getFfprobeBinary() == null) {
+        } else if(isFfprobe() && !FfprobeCommand.hasBinary()) {
             configure(
                     "Ffprobe",
                     Decut.instance::openFfprobeConfig,
                     () -> FfprobeCommand.getFfprobeBinary() != null);
         } else {
-            FfmpegCommand.resetBinary();
-            FfprobeCommand.resetBinary();
             if (perform != null) perform.run();
         }
     }
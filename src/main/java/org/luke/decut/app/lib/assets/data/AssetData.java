@@ -4,17 +4,26 @@ import javafx.geometry.Dimension2D;
 import javafx.scene.image.Image;
 import org.luke.decut.app.lib.assets.filter.AssetType;
 import org.luke.decut.app.lib.assets.display.ExtensionFilters;
+import org.luke.decut.ffprobe.FfprobeCommand;
+import org.luke.gui.exception.ErrorHandler;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.Date;
 
 public abstract class AssetData {
+    /**
+     * The number of times the duration of an asset is probed before it is marked as failed.
+     */
+    protected static final int PROBE_ATTEMPTS = 3;
+
     protected final File file;
     protected final AssetType type;
     protected long updated;
     protected long duration = -1;
     protected Dimension2D resolution;
     protected Image thumb;
+    protected boolean failed;
 
     public static AssetData getData(File file) {
         return switch (ExtensionFilters.typeOf(file)) {
@@ -41,6 +50,39 @@ public abstract class AssetData {
         updated = new Date().getTime();
     }
 
+    /**
+     * @return a probe reading the duration of the asset into {@link #duration}
+     */
+    protected FfprobeCommand durationProbe() {
+        return new FfprobeCommand()
+                .onOutput(str -> {
+                    duration = (long) (Double.parseDouble(str) * 1000);
+                })
+                .addArgument("-v")
+                .addArgument("error")
+                .addArgument("-show_entries")
+                .addArgument("format=duration")
+                .addArgument("-of")
+                .addArgument("default=noprint_wrappers=1:nokey=1")
+                .setInput(getFile());
+    }
+
+    /**
+     * Marks the asset as unreadable, after its probe failed {@link #PROBE_ATTEMPTS} times.
+     */
+    protected void probeFailed(int exitCode) {
+        failed = true;
+        ErrorHandler.handle(new IOException("ffprobe exited with " + exitCode), "probe " + getFile());
+    }
+
+    /**
+     * @return true if the last fetch could not read the asset, a missing ffprobe or a
+     * corrupt file, in which case getting its data again fetches it again
+     */
+    public boolean isFailed() {
+        return failed;
+    }
+
     public long getUpdated() {
         return updated;
     }
@@ -10,18 +10,15 @@ import org.luke.decut.ffmpeg.filter_complex.audio.Compand;
 import org.luke.decut.ffmpeg.handlers.ProgressHandler;
 import org.luke.decut.ffprobe.FfprobeCommand;
 import org.luke.gui.exception.ErrorHandler;
-import org.luke.gui.threading.Platform;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.IOException;
-import java.io.InputStream;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.atomic.AtomicReference;
 
 public class AudioAssetData extends AssetData {
     private static final HashMap<File, AudioAssetData> cache = new HashMap<>();
+    private static final long WAVEFORM_TIMEOUT = 30_000;
 
     AudioAssetData(File file) {
         super(file, AssetType.AUDIO);
@@ -35,7 +32,9 @@ public class AudioAssetData extends AssetData {
             cache.put(file, found);
         }
 
-        if (file.lastModified() > found.getUpdated()) {
+        // an asset that could not be read is probed again when it is imported again,
+        // e.g. once ffprobe was installed or the file was repaired
+        if (found.isFailed() || file.lastModified() > found.getUpdated()) {
             found.fetch();
         }
 
@@ -49,23 +48,17 @@ public class AudioAssetData extends AssetData {
     public void fetch(boolean parent) {
         super.fetch();
         if (parent) {
-            FfprobeCommand durCom = new FfprobeCommand()
-                    .onOutput(str -> {
-                        duration = (long) (Double.parseDouble(str) * 1000);
-                    })
-                    .addArgument("-v")
-                    .addArgument("error")
-                    .addArgument("-show_entries")
-                    .addArgument("format=duration")
-                    .addArgument("-of")
-                    .addArgument("default=noprint_wrappers=1:nokey=1")
-                    .setInput(getFile())
-                    .execute()
-                    .waitFor();
-            if(durCom.getExitCode() != 0) {
-                fetch(true);
+            int exitCode = -1;
+            for (int attempt = 0; attempt < PROBE_ATTEMPTS && exitCode != 0; attempt++) {
+                FfprobeCommand durCom = durationProbe();
+                durCom.execute();
+                exitCode = durCom.waitFor().getExitCode();
+            }
+            if (exitCode != 0) {
+                probeFailed(exitCode);
                 return;
             }
+            failed = false;
             thumb = generateWaveform(128, 128);
         }
     }
@@ -79,15 +72,14 @@ public class AudioAssetData extends AssetData {
                 .addComplexFilter(new Compand())
                 .addComplexFilter(new ShowWavesPic()
                         .setSize(width, height))
-                .setOnOutput(file -> {
-                    try (InputStream fis = new FileInputStream(file)) {
-                        res.set(new Image(fis));
-                    } catch (IOException x) {
-                        ErrorHandler.handle(x, "generate video thumbnail");
-                    }
-                }, ".png")
-                .execute();
-        Platform.waitWhile(() -> res.get() == null);
+                .setOnOutputStream(is -> res.set(new Image(is)), ".png")
+                .setTimeout(WAVEFORM_TIMEOUT)
+                .execute()
+                .exceptionally(e -> {
+                    ErrorHandler.handle(e, "generate waveform of " + getFile());
+                    return null;
+                })
+                .join();
         return res.get();
     }
 
@@ -101,9 +93,13 @@ public class AudioAssetData extends AssetData {
                 .addComplexFilter(new ATrimC(start, duration))
                 .addComplexFilter(new ShowWavesPic().setSize(width, height))
                 .setOnOutputStream(fis -> result.set(new Image(fis)), ".png")
-                .execute();
-
-        Platform.waitWhile(() -> result.get() == null);
+                .setTimeout(WAVEFORM_TIMEOUT)
+                .execute()
+                .exceptionally(e -> {
+                    ErrorHandler.handle(e, "generate waveform of " + getFile());
+                    return null;
+                })
+                .join();
         return result.get();
     }
 
@@ -6,12 +6,8 @@ import org.luke.decut.app.lib.assets.filter.AssetType;
 import org.luke.decut.ffmpeg.FfmpegCommand;
 import org.luke.decut.ffmpeg.options.VFrames;
 import org.luke.gui.controls.image.ImageProxy;
-import org.luke.gui.exception.ErrorHandler;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.IOException;
-import java.io.InputStream;
 import java.util.HashMap;
 
 public class ImageAssetData extends AssetData {
@@ -42,19 +38,15 @@ public class ImageAssetData extends AssetData {
         new FfmpegCommand()
                 .addInput(getFile())
                 .addOption(new VFrames(1))
-                .setOnOutput(file -> {
-                            try (InputStream fis = new FileInputStream(file)) {
-                                image = new Image(fis);
-                                resolution = new Dimension2D(image.getWidth(), image.getHeight());
-                                thumb = ImageProxy.resize(ImageUtils.cropCenter(image), 128);
-                                //Files.delete(file.toPath());
-                            } catch (IOException x) {
-                                ErrorHandler.handle(x, "generate video thumbnail");
-                            }
+                .setOnOutputStream(is -> {
+                            image = new Image(is);
+                            resolution = new Dimension2D(image.getWidth(), image.getHeight());
+                            thumb = ImageProxy.resize(ImageUtils.cropCenter(image), 128);
                         },
                         ".png")
                 .execute()
-                .waitFor();
+                .exceptionally(_ -> null)
+                .join();
     }
 
     public String getName() {
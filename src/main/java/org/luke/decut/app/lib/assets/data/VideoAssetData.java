@@ -3,6 +3,7 @@ package org.luke.decut.app.lib.assets.data;
 import javafx.geometry.Dimension2D;
 import javafx.scene.image.Image;
 import org.luke.decut.app.lib.assets.filter.AssetType;
+import org.luke.decut.cmd.ProcessScheduler;
 import org.luke.decut.ffmpeg.FfmpegCommand;
 import org.luke.decut.ffmpeg.bitrate.AudioBitrate;
 import org.luke.decut.ffmpeg.codec.VideoCodec;
@@ -14,13 +15,10 @@ import org.luke.decut.ffmpeg.options.VFrames;
 import org.luke.decut.ffmpeg.preset.Preset;
 import org.luke.decut.ffprobe.FfprobeCommand;
 import org.luke.gui.controls.image.ImageProxy;
-import org.luke.gui.exception.ErrorHandler;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.IOException;
-import java.io.InputStream;
 import java.util.HashMap;
+import java.util.concurrent.CompletableFuture;
 
 public class VideoAssetData extends AssetData {
     private static final HashMap<File, VideoAssetData> cache = new HashMap<>();
@@ -39,7 +37,9 @@ public class VideoAssetData extends AssetData {
             cache.put(file, found);
         }
 
-        if (file.lastModified() > found.getUpdated()) {
+        // an asset that could not be read is probed again when it is imported again,
+        // e.g. once ffprobe was installed or the file was repaired
+        if (found.isFailed() || file.lastModified() > found.getUpdated()) {
             found.fetch();
         }
 
@@ -61,52 +61,44 @@ public class VideoAssetData extends AssetData {
     public void fetch(boolean parent) {
         super.fetch();
         if (parent) {
-            FfprobeCommand durCom = new FfprobeCommand()
-                    .onOutput(str -> {
-                        duration = (long) (Double.parseDouble(str) * 1000);
-                    })
-                    .addArgument("-v")
-                    .addArgument("error")
-                    .addArgument("-show_entries")
-                    .addArgument("format=duration")
-                    .addArgument("-of")
-                    .addArgument("default=noprint_wrappers=1:nokey=1")
-                    .setInput(getFile())
-                    .execute();
-            FfmpegCommand makeThumbs = new FfmpegCommand()
-                    .addInput(getFile())
-                    .addOption(new Seek("00:00:01.000"))
-                    .addOption(new VFrames(1))
-                    .setOnOutput(file -> {
-                                try (InputStream fis = new FileInputStream(file)) {
-                                    Image im = new Image(fis);
+            int exitCode = -1;
+            for (int attempt = 0; attempt < PROBE_ATTEMPTS && exitCode != 0; attempt++) {
+                FfprobeCommand durCom = durationProbe();
+                FfmpegCommand makeThumbs = new FfmpegCommand()
+                        .addInput(getFile())
+                        .addOption(new Seek("00:00:01.000"))
+                        .addOption(new VFrames(1))
+                        .setOnOutputStream(is -> {
+                                    Image im = new Image(is);
                                     resolution = new Dimension2D(im.getWidth(), im.getHeight());
                                     thumb = ImageProxy.resize(ImageUtils.cropCenter(im), 128);
-                                } catch (IOException x) {
-                                    ErrorHandler.handle(x, "generate video thumbnail");
-                                }
-                            },
-                            ".jpg")
-                    .execute();
+                                },
+                                ".jpg");
 
-            makeThumbs.waitFor();
-            durCom.waitFor();
-            if (durCom.getExitCode() != 0) {
-                fetch(true);
+                // the probe and the thumbnail run side by side
+                CompletableFuture.allOf(durCom.execute(), makeThumbs.execute())
+                        .exceptionally(_ -> null)
+                        .join();
+                exitCode = durCom.getExitCode();
+            }
+            if (exitCode != 0) {
+                probeFailed(exitCode);
                 return;
             }
+            failed = false;
             String name = getFile().getName();
             String ext = name.substring(name.lastIndexOf("."));
             FfmpegCommand makeAud = new FfmpegCommand()
+                    .setPriority(ProcessScheduler.Priority.PROXY)
                     .addInput(getFile())
                     .addOption(Skip.VIDEO)
                     .addComplexFilter(new APad().setWholeDur(getDurationSeconds()))
                     .setBitrate(new AudioBitrate("160k"))
                     .setOnOutput(file -> {
                         audio = SubAudioAssetData.getData(file, this);
-                    }, ".mp3")
-                    .execute();
+                    }, ".mp3");
             FfmpegCommand makeVid = new FfmpegCommand()
+                    .setPriority(ProcessScheduler.Priority.PROXY)
                     .addInput(getFile())
                     .addOption(Skip.AUDIO)
                     .addOption(new FfmpegOption("profile:v").setValue("dnxhd"))
@@ -117,10 +109,10 @@ public class VideoAssetData extends AssetData {
                     .setCodec(VideoCodec.DNXHD)
                     .setOnOutput(file -> {
                         video = SubVideoAssetData.getData(file, this);
-                    }, ".mxf")
-                    .execute();
-            makeVid.waitFor();
-            makeAud.waitFor();
+                    }, ".mxf");
+            CompletableFuture.allOf(makeVid.execute(), makeAud.execute())
+                    .exceptionally(_ -> null)
+                    .join();
         }
     }
 
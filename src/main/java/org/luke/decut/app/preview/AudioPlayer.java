@@ -0,0 +1,169 @@
+package org.luke.decut.app.preview;
+
+import org.luke.decut.ffmpeg.pipe.PcmBuffer;
+import org.luke.decut.ffmpeg.pipe.RawAudioPipe;
+import org.luke.gui.exception.ErrorHandler;
+
+import javax.sound.sampled.*;
+import java.util.ArrayList;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Plays preview audio and serves as the master clock of preview playback.
+ * <p>
+ * The playback position is read from the audio device with
+ * {@link SourceDataLine#getLongFramePosition()}, relative to an anchor set by
+ * {@link #reset(double)}, so the video follows what is actually heard instead of
+ * a wall clock that drifts away from it. Audio is written to the device in small
+ * slices straight from the chunks of the queued {@link PcmBuffer}s, which needs no
+ * copy and lets a reset take effect within a few milliseconds.
+ */
+public class AudioPlayer {
+    public static final AudioFormat FORMAT = new AudioFormat(RawAudioPipe.SAMPLE_RATE, 16,
+            RawAudioPipe.CHANNELS, true, false);
+
+    private static final int QUEUE_CAPACITY = 5;
+    private static final int CHUNK_SIZE = 4096;
+    private static final long MAX_EXTRAPOLATION = 50_000_000;
+
+    private final SourceDataLine line;
+    private final BlockingQueue<Chunk> queue;
+    private final Object lock = new Object();
+    private final Thread thread;
+    private volatile boolean running;
+
+    private long epoch;
+    private double anchorTime;
+    private long anchorFrame;
+    private long lastFrame;
+    private long lastFrameNanos;
+    private double lastPosition;
+
+    /**
+     * Opens the default audio output.
+     *
+     * @throws LineUnavailableException if no output line can be opened
+     */
+    public AudioPlayer() throws LineUnavailableException {
+        DataLine.Info info = new DataLine.Info(SourceDataLine.class, FORMAT);
+        line = (SourceDataLine) AudioSystem.getLine(info);
+        line.open(FORMAT, (int) FORMAT.getSampleRate() * FORMAT.getFrameSize());
+        line.start();
+
+        queue = new LinkedBlockingQueue<>(QUEUE_CAPACITY);
+        running = true;
+        thread = new Thread(this::play, "Audio-Playback-Thread");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Drops all queued and buffered audio and anchors the clock at the given timeline
+     * time. The clock stays at that time until the audio queued next starts playing.
+     */
+    public void reset(double time) {
+        synchronized (lock) {
+            epoch++;
+            ArrayList<Chunk> dropped = new ArrayList<>();
+            queue.drainTo(dropped);
+            dropped.forEach(chunk -> chunk.pcm.release());
+            line.flush();
+            anchorTime = time;
+            anchorFrame = line.getLongFramePosition();
+            lastFrame = anchorFrame;
+            lastFrameNanos = System.nanoTime();
+            lastPosition = time;
+        }
+    }
+
+    /**
+     * Queues a part of a buffer to play right after the audio queued before it.
+     * The buffer is retained until that part has been played or dropped.
+     *
+     * @return false if the queue is full and the audio was not queued
+     */
+    public boolean queue(PcmBuffer pcm, long offset, long length) {
+        synchronized (lock) {
+            if (!queue.offer(new Chunk(pcm.retain(), offset, length, epoch))) {
+                pcm.release();
+                return false;
+            }
+            return true;
+        }
+    }
+
+    public boolean hasRoom() {
+        return queue.remainingCapacity() > 0;
+    }
+
+    /**
+     * @return the timeline time of the audio being heard right now
+     */
+    public double getPosition() {
+        synchronized (lock) {
+            long frame = line.getLongFramePosition();
+            long now = System.nanoTime();
+            if (frame != lastFrame) {
+                lastFrame = frame;
+                lastFrameNanos = now;
+            }
+            double position = anchorTime + (frame - anchorFrame) / FORMAT.getFrameRate();
+            boolean playing = frame > anchorFrame && line.available() < line.getBufferSize();
+            if (playing) {
+                // the device position moves in steps, fill the gaps between them with the wall clock
+                position += Math.min(now - lastFrameNanos, MAX_EXTRAPOLATION) / 1_000_000_000.0;
+            }
+            lastPosition = Math.max(lastPosition, position);
+            return lastPosition;
+        }
+    }
+
+    public void close() {
+        running = false;
+        thread.interrupt();
+        line.stop();
+        line.flush();
+        line.close();
+    }
+
+    private void play() {
+        try {
+            while (running) {
+                Chunk chunk = queue.take();
+                try {
+                    write(chunk);
+                } finally {
+                    chunk.pcm.release();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException e) {
+            ErrorHandler.handle(e, "play preview audio");
+        }
+    }
+
+    private void write(Chunk chunk) throws InterruptedException {
+        PcmBuffer pcm = chunk.pcm;
+        long position = chunk.offset;
+        long end = Math.min(pcm.length(), chunk.offset + chunk.length);
+        while (position < end && running) {
+            int offset = pcm.chunkOffset(position);
+            int length = (int) Math.min(Math.min(CHUNK_SIZE, end - position), pcm.getChunkSize() - offset);
+            if (line.available() < length) {
+                TimeUnit.MILLISECONDS.sleep(2);
+                continue;
+            }
+            synchronized (lock) {
+                if (chunk.epoch != epoch) return;
+                line.write(pcm.chunk(position), offset, length);
+            }
+            position += length;
+        }
+    }
+
+    private record Chunk(PcmBuffer pcm, long offset, long length, long epoch) {
+    }
+}
@@ -0,0 +1,296 @@
+package org.luke.decut.app.preview;
+
+import org.luke.decut.ffmpeg.pipe.PcmBuffer;
+import org.luke.decut.ffmpeg.pipe.PcmBufferPool;
+import org.luke.decut.ffmpeg.pipe.RawVideoPipe;
+import org.luke.decut.render.SegmentFingerprint;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Content-addressed store of rendered preview segments that survives restarts.
+ * Each segment is saved in one file named after its {@link SegmentFingerprint}, so
+ * a segment is found again whenever the same clips are rendered with the same
+ * settings, in any session and any project.
+ * <p>
+ * Files hold a small header, the PCM audio and the raw frames, deflated at the
+ * fastest level. The total size is kept under a quota by deleting the least
+ * recently used files, reading a file marks it as used.
+ * <p>
+ * Unreadable files, e.g. truncated by a crash or written by an older version, are deleted
+ * and read as a miss, and a segment that cannot be stored is simply rendered again next
+ * time. Neither is an error for the user, they are only logged at debug level.
+ */
+public class DiskSegmentCache {
+    private static final int MAGIC = 0x44435347;
+    private static final int VERSION = 2;
+    private static final String EXTENSION = ".seg";
+    private static final String PARTIAL = ".part";
+    /**
+     * The time after which a partial file nobody writes to is left over from a crash.
+     */
+    private static final long STALE_PARTIAL = 60_000;
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final System.Logger LOG = System.getLogger(DiskSegmentCache.class.getName());
+
+    private final File root;
+    private final PcmBufferPool pool;
+    private final AtomicBoolean swept = new AtomicBoolean();
+    private long quota;
+
+    /**
+     * @param root  the directory holding the cache files, created when needed
+     * @param quota the maximum total size of the cache files, in bytes
+     * @param pool  the pool the audio of read segments is loaded into
+     */
+    public DiskSegmentCache(File root, long quota, PcmBufferPool pool) {
+        this.root = root;
+        this.quota = quota;
+        this.pool = pool;
+    }
+
+    public void setQuota(long quota) {
+        this.quota = quota;
+        trim();
+    }
+
+    public long getQuota() {
+        return quota;
+    }
+
+    /**
+     * @return the total size of the cache files, in bytes
+     */
+    public long getSize() {
+        return Arrays.stream(listFiles()).mapToLong(File::length).sum();
+    }
+
+    /**
+     * Opens a cached segment for reading.
+     *
+     * @return a reader positioned at the first frame, or null if the segment is not cached
+     */
+    public Reader open(SegmentFingerprint fingerprint) {
+        File file = fileOf(fingerprint);
+        if (!file.isFile()) return null;
+        try {
+            Reader reader = new Reader(file, pool);
+            file.setLastModified(System.currentTimeMillis());
+            return reader;
+        } catch (IOException e) {
+            LOG.log(System.Logger.Level.DEBUG, "dropping unreadable preview segment " + fingerprint, e);
+            file.delete();
+            return null;
+        }
+    }
+
+    /**
+     * Saves a rendered segment, then deletes the least recently used segments if the
+     * cache went over its quota. The file only becomes visible once it is complete.
+     */
+    public void store(SegmentFingerprint fingerprint, int width, int height, double frameRate,
+                      PcmBuffer audio, List<ByteBuffer> frames) {
+        if (!root.exists() && !root.mkdirs()) return;
+        if (swept.compareAndSet(false, true)) {
+            sweepPartials();
+        }
+        File file = fileOf(fingerprint);
+        File partial = new File(root, fingerprint.toHex() + PARTIAL + Thread.currentThread().threadId());
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try (DataOutputStream out = new DataOutputStream(new DeflaterOutputStream(
+                new FileOutputStream(partial), deflater, BUFFER_SIZE))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(width);
+            out.writeInt(height);
+            out.writeDouble(frameRate);
+            out.writeLong(audio.length());
+            out.writeInt(frames.size());
+            audio.writeTo(out, 0, audio.length());
+
+            byte[] bytes = new byte[width * height * RawVideoPipe.BYTES_PER_PIXEL];
+            for (ByteBuffer frame : frames) {
+                frame.duplicate().rewind().get(bytes);
+                out.write(bytes);
+            }
+        } catch (IOException e) {
+            LOG.log(System.Logger.Level.DEBUG, "could not store preview segment " + fingerprint, e);
+            partial.delete();
+            return;
+        } finally {
+            deflater.end();
+        }
+
+        try {
+            Files.move(partial.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            LOG.log(System.Logger.Level.DEBUG, "could not store preview segment " + fingerprint, e);
+            partial.delete();
+            return;
+        }
+        trim();
+    }
+
+    public void clear() {
+        for (File file : listFiles()) {
+            file.delete();
+        }
+    }
+
+    /**
+     * Deletes the partial files a session killed mid-write left behind. They are never
+     * renamed to segments and do not count toward the quota, so nothing else removes
+     * them. Recent ones may still be written by another instance and are kept. This runs
+     * on the first store, which happens in the background, and not when the cache is created.
+     */
+    private void sweepPartials() {
+        long before = System.currentTimeMillis() - STALE_PARTIAL;
+        File[] partials = root.listFiles((_, name) -> name.contains(PARTIAL));
+        if (partials == null) return;
+        for (File partial : partials) {
+            if (partial.lastModified() < before) {
+                partial.delete();
+            }
+        }
+    }
+
+    private synchronized void trim() {
+        File[] files = listFiles();
+        long size = Arrays.stream(files).mapToLong(File::length).sum();
+        if (size <= quota) return;
+
+        Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+        for (File file : files) {
+            if (size <= quota) break;
+            long length = file.length();
+            if (file.delete()) {
+                size -= length;
+            }
+        }
+    }
+
+    private File[] listFiles() {
+        File[] files = root.listFiles((_, name) -> name.endsWith(EXTENSION));
+        return files == null ? new File[0] : files;
+    }
+
+    private File fileOf(SegmentFingerprint fingerprint) {
+        return new File(root, fingerprint.toHex() + EXTENSION);
+    }
+
+    /**
+     * Sequential reader over a cached segment. Frames are inflated one at a time into
+     * fresh direct buffers, so the first frame is available long before the last one.
+     */
+    public static class Reader implements Closeable {
+        private final File file;
+        private final DataInputStream in;
+        private final int width;
+        private final int height;
+        private final double frameRate;
+        private final int frameCount;
+        private final PcmBuffer audio;
+        private final byte[] bytes;
+        private int framesRead;
+        private boolean audioTaken;
+        private boolean closed;
+
+        private Reader(File file, PcmBufferPool pool) throws IOException {
+            this.file = file;
+            this.in = new DataInputStream(new InflaterInputStream(
+                    new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE)));
+            try {
+                if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                    throw new IOException("Unsupported preview segment file " + file.getName());
+                }
+                width = in.readInt();
+                height = in.readInt();
+                frameRate = in.readDouble();
+                long audioLength = in.readLong();
+                frameCount = in.readInt();
+                audio = new PcmBuffer(pool);
+                if (audio.readFrom(in, audioLength) != audioLength) {
+                    audio.release();
+                    throw new EOFException("Truncated preview segment file " + file.getName());
+                }
+                bytes = new byte[width * height * RawVideoPipe.BYTES_PER_PIXEL];
+            } catch (IOException e) {
+                in.close();
+                throw e;
+            }
+        }
+
+        public int getWidth() {
+            return width;
+        }
+
+        public int getHeight() {
+            return height;
+        }
+
+        public double getFrameRate() {
+            return frameRate;
+        }
+
+        public int getFrameCount() {
+            return frameCount;
+        }
+
+        /**
+         * @return the audio of the segment, released when the reader is closed
+         */
+        public PcmBuffer getAudio() {
+            return audio;
+        }
+
+        /**
+         * @return the audio of the segment, owned by the caller from now on
+         */
+        public PcmBuffer takeAudio() {
+            audioTaken = true;
+            return audio;
+        }
+
+        /**
+         * @return the next frame, positioned at 0, or null after the last frame
+         * @throws IOException if the file is truncated or corrupted, in which case it is deleted
+         */
+        public ByteBuffer nextFrame() throws IOException {
+            if (framesRead == frameCount) return null;
+            try {
+                in.readFully(bytes);
+            } catch (IOException e) {
+                LOG.log(System.Logger.Level.DEBUG, "dropping truncated preview segment " + file.getName(), e);
+                close();
+                file.delete();
+                throw e;
+            }
+            framesRead++;
+            return ByteBuffer.allocateDirect(bytes.length).put(bytes).flip();
+        }
+
+        /**
+         * Closes the file and releases the audio unless it was taken.
+         */
+        @Override
+        public void close() throws IOException {
+            if (closed) return;
+            closed = true;
+            if (!audioTaken) {
+                audio.release();
+            }
+            in.close();
+        }
+    }
+}
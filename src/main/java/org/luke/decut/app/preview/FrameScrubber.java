@@ -0,0 +1,133 @@
+package org.luke.decut.app.preview;
+
+import javafx.scene.image.Image;
+import javafx.scene.image.PixelBuffer;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
+import org.luke.decut.app.home.Home;
+import org.luke.decut.ffmpeg.FfmpegCommand;
+import org.luke.decut.ffmpeg.pipe.RawVideoPipe;
+import org.luke.gui.exception.ErrorHandler;
+import org.luke.gui.threading.Platform;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+
+/**
+ * Renders the single frame under the playhead while the user scrubs, so the preview
+ * shows something long before the full segment is rendered.
+ * <p>
+ * Requests are coalesced: at most one frame renders at a time, and the requests made
+ * meanwhile replace each other so only the latest one runs next.
+ */
+public class FrameScrubber {
+    private static final long FRAME_TIMEOUT = 5000;
+
+    private final Home owner;
+    private final Object lock = new Object();
+
+    private Request pending;
+    private boolean rendering;
+    private FfmpegCommand running;
+    private long generation;
+    private double lastTime = Double.NaN;
+
+    public FrameScrubber(Home owner) {
+        this.owner = owner;
+    }
+
+    /**
+     * Requests the frame at the given time. The frame is handed to the callback on
+     * the FX thread, unless {@link #cancel()} is called before it is ready. Asking again
+     * for the frame that was last requested does nothing.
+     */
+    public void request(double time, int width, int height, Consumer<Image> onFrame) {
+        synchronized (lock) {
+            if (time == lastTime) return;
+            lastTime = time;
+            pending = new Request(time, width, height, onFrame);
+            if (rendering) return;
+            rendering = true;
+        }
+        Platform.runBack(this::drain);
+    }
+
+    /**
+     * Drops the pending request and kills the frame being rendered, if any.
+     */
+    public void cancel() {
+        synchronized (lock) {
+            pending = null;
+            lastTime = Double.NaN;
+            generation++;
+            if (running != null) {
+                running.kill();
+            }
+        }
+    }
+
+    private void drain() {
+        while (true) {
+            Request request;
+            long requestGeneration;
+            synchronized (lock) {
+                request = pending;
+                pending = null;
+                if (request == null) {
+                    rendering = false;
+                    return;
+                }
+                requestGeneration = generation;
+            }
+
+            Image frame = render(request, requestGeneration);
+            if (frame != null) {
+                Platform.runLater(() -> {
+                    if (isCurrent(requestGeneration)) {
+                        request.onFrame.accept(frame);
+                    }
+                });
+            }
+        }
+    }
+
+    private Image render(Request request, long requestGeneration) {
+        CompletableFuture<ByteBuffer> pixels = new CompletableFuture<>();
+        RawVideoPipe pipe = new RawVideoPipe(request.width, request.height, pixels::complete)
+                .setOnEnd(() -> pixels.complete(null));
+        FfmpegCommand command = owner.previewFrame(pipe, request.time);
+        synchronized (lock) {
+            if (requestGeneration != generation) return null;
+            running = command;
+        }
+        try {
+            command.execute();
+            ByteBuffer frame = pixels.get(FRAME_TIMEOUT, TimeUnit.MILLISECONDS);
+            if (frame == null || !isCurrent(requestGeneration)) return null;
+            return new WritableImage(new PixelBuffer<>(request.width, request.height, frame,
+                    PixelFormat.getByteBgraPreInstance()));
+        } catch (TimeoutException e) {
+            command.kill();
+            return null;
+        } catch (Exception e) {
+            ErrorHandler.handle(e, "render scrub frame at " + request.time);
+            return null;
+        } finally {
+            synchronized (lock) {
+                running = null;
+            }
+        }
+    }
+
+    private boolean isCurrent(long requestGeneration) {
+        synchronized (lock) {
+            return requestGeneration == generation;
+        }
+    }
+
+    private record Request(double time, int width, int height, Consumer<Image> onFrame) {
+    }
+}
@@ -0,0 +1,16 @@
+package org.luke.decut.app.preview;
+
+/**
+ * Snapshot of the A/V sync counters of preview playback, since playback started or
+ * the counters were last reset.
+ *
+ * @param drift           the current offset of the audio clock from the wall clock, in seconds
+ * @param maxDrift        the largest absolute drift seen, in seconds
+ * @param presentedFrames the number of distinct frames shown
+ * @param droppedFrames   the number of frames skipped because the clock moved past them
+ * @param repeatedFrames  the number of display pulses that showed the same frame again
+ * @param lateFrames      the number of frames that were due but not rendered yet
+ */
+public record PlaybackStats(double drift, double maxDrift, long presentedFrames, long droppedFrames,
+                            long repeatedFrames, long lateFrames) {
+}
@@ -1,36 +1,62 @@
 package org.luke.decut.app.preview;
 
-import javafx.application.Platform;
 import javafx.geometry.Pos;
 import javafx.scene.image.Image;
 import javafx.scene.image.ImageView;
+import javafx.scene.image.PixelBuffer;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
 import javafx.scene.layout.CornerRadii;
 import javafx.scene.layout.VBox;
 import javafx.scene.shape.Rectangle;
 import org.luke.decut.app.home.Home;
 import org.luke.decut.crossplatform.Os;
 import org.luke.decut.ffmpeg.FfmpegCommand;
+import org.luke.decut.ffmpeg.handlers.ProgressHandler;
+import org.luke.decut.ffmpeg.pipe.FrameBufferPool;
+import org.luke.decut.ffmpeg.pipe.PcmBuffer;
+import org.luke.decut.ffmpeg.pipe.PcmBufferPool;
+import org.luke.decut.ffmpeg.pipe.RawAudioPipe;
+import org.luke.decut.ffmpeg.pipe.RawVideoPipe;
+import org.luke.decut.render.ClipSpan;
+import org.luke.decut.render.EncoderTuner;
+import org.luke.decut.render.SegmentFingerprint;
+import org.luke.decut.render.SegmentRenderer;
 import org.luke.gui.exception.ErrorHandler;
 import org.luke.gui.factory.Backgrounds;
 import org.luke.gui.style.Style;
 import org.luke.gui.style.Styleable;
+import org.luke.gui.threading.Platform;
+
+import com.sun.management.HotSpotDiagnosticMXBean;
+import com.sun.management.OperatingSystemMXBean;
 
 import javax.sound.sampled.*;
 import java.io.File;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.util.*;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
 public class Preview extends VBox implements Styleable {
     private static final double SEG_SIZE = 3;
     private static final int PRELOAD_BUFFER = 2;
-    private static final int AUDIO_QUEUE_CAPACITY = 5;
-    private static final double AUDIO_POS_THRESHOLD = 0.03;
-
-    private final HashMap<Integer, FrameSequence> segments;
-    private final HashMap<Integer, CompletableFuture<FrameSequence>> loadingSegments;
+    private static final long DISK_CACHE_QUOTA = 4L * 1024 * 1024 * 1024;
+    private static final long PIPE_TIMEOUT = 5000;
+    private static final long SEGMENT_AUDIO_BYTES = (long) (SEG_SIZE * RawAudioPipe.SAMPLE_RATE)
+            * RawAudioPipe.BYTES_PER_FRAME;
+
+    private final SegmentCache<FrameSequence> segments;
+    private final SegmentScheduler<FrameSequence> scheduler;
+    private final FrameScrubber scrubber;
+    private final DiskSegmentCache diskCache;
+    private final PcmBufferPool pcmPool;
+    private final FrameBufferPool framePool;
+    private final QualityGovernor governor;
     private final ImageView view;
     private final Home owner;
 
@@ -41,22 +67,29 @@ public class Preview extends VBox implements Styleable {
     private final AtomicBoolean isPlaying = new AtomicBoolean(false);
     private final AnimationTimer frameTimer;
 
-    private SourceDataLine audioLine;
-    private final BlockingQueue<byte[]> audioQueue = new LinkedBlockingQueue<>(AUDIO_QUEUE_CAPACITY);
-    private Thread audioThread;
-    private final AtomicBoolean isAudioRunning = new AtomicBoolean(false);
+    private AudioPlayer audio;
+    private long audioQueuedFrames;
 
     private long playbackStartTime = -1;
     private double playbackStartPosition = 0;
 
-    private final ExecutorService executor;
+    private int lastFrame = -1;
+    private int lastLateFrame = -1;
+    private double drift;
+    private double maxDrift;
+    private long presentedFrames;
+    private long droppedFrames;
+    private long repeatedFrames;
+    private long lateFrames;
 
     public Preview(Home owner) {
         this.owner = owner;
         setAlignment(Pos.CENTER);
 
-        segments = new HashMap<>();
-        loadingSegments = new HashMap<>();
+        long budget = frameBudget();
+        segments = new SegmentCache<>(budget, FrameSequence::getByteSize, FrameSequence::dispose);
+        // enough to render the next segments into the frames of the evicted ones
+        framePool = new FrameBufferPool(budget / 8);
 
         view = new ImageView();
 
@@ -97,85 +130,180 @@ public class Preview extends VBox implements Styleable {
         clip.heightProperty().bind(heightProperty());
         setClip(clip);
 
-        executor = Executors.newFixedThreadPool(1, (r) -> {
-            Thread t = new Thread(r, "preview thread");
-            t.setDaemon(true);
-            return t;
-        });
+        scheduler = new SegmentScheduler<>("preview thread",
+                SegmentScheduler.defaultWorkerCount(PRELOAD_BUFFER * 2 + 1));
+
+        scrubber = new FrameScrubber(owner);
+        governor = new QualityGovernor();
+        pcmPool = new PcmBufferPool();
+        diskCache = new DiskSegmentCache(new File(Os.fromSystem().getDecutCache(), "preview"), DISK_CACHE_QUOTA,
+                pcmPool);
 
         frameTimer = new AnimationTimer();
         initAudio();
         applyStyle(owner.getWindow().getStyl());
     }
 
+    /**
+     * Sets the highest preview quality, as a fraction of the canvas resolution. Segments
+     * render at that quality as long as they render faster than real time, the
+     * {@link QualityGovernor} lowers it otherwise. Segments already rendered are kept,
+     * those below the new quality are re-rendered when the preview has time for it.
+     */
     public void setQualityFactor(double qualityFactor) {
         this.qualityFactor = qualityFactor;
-        clearCache();
+        governor.reset();
+        Platform.runLater(() -> {
+            if (currentSegment >= 0) {
+                preloadAdjacentSegments(currentSegment);
+            }
+        });
+    }
+
+    /**
+     * @return the quality level new segments are rendered at
+     */
+    public QualityGovernor.QualityLevel getQualityLevel() {
+        return governor.current();
+    }
+
+    /**
+     * Sets how many bytes of decoded frames and audio the preview may keep in memory.
+     * Segments over the budget are evicted, the segment under the playhead is always kept.
+     */
+    public void setCacheBudget(long bytes) {
+        segments.setBudget(bytes);
+    }
+
+    public SegmentCache.CacheStats getCacheStats() {
+        return segments.getStats();
+    }
+
+    /**
+     * Sets how many bytes of rendered segments are kept on disk across sessions.
+     */
+    public void setDiskCacheQuota(long bytes) {
+        Platform.runBack(() -> diskCache.setQuota(bytes));
+    }
+
+    public PlaybackStats getPlaybackStats() {
+        return new PlaybackStats(drift, maxDrift, presentedFrames, droppedFrames, repeatedFrames, lateFrames);
+    }
+
+    public void resetPlaybackStats() {
+        maxDrift = 0;
+        presentedFrames = 0;
+        droppedFrames = 0;
+        repeatedFrames = 0;
+        lateFrames = 0;
     }
 
     private void initAudio() {
         try {
-            AudioFormat format = new AudioFormat(44100, 16, 2, true, false);
-            DataLine.Info info = new DataLine.Info(SourceDataLine.class, format);
-            audioLine = (SourceDataLine) AudioSystem.getLine(info);
-            audioLine.open(format, 44100 * 4);
-            audioLine.start();
-
-            isAudioRunning.set(true);
-            audioThread = new Thread(() -> {
-                try {
-                    while (isAudioRunning.get()) {
-                        byte[] buffer = audioQueue.take();
-                        if (buffer.length > 0) {
-                            audioLine.write(buffer, 0, buffer.length);
-                        }
-                    }
-                } catch (InterruptedException e) {
-                    Thread.currentThread().interrupt();
-                }
-            });
-            audioThread.setDaemon(true);
-            audioThread.setName("Audio-Playback-Thread");
-            audioThread.start();
-
+            audio = new AudioPlayer();
         } catch (LineUnavailableException e) {
             ErrorHandler.handle(e, "Failed to initialize audio line");
         }
     }
 
+    /**
+     * Drops the cached segments an edit made stale. The timeline is snapshotted here,
+     * the segment fingerprints are compared in the background, and only the segments
+     * whose fingerprint changed are invalidated.
+     */
     public void clearCache() {
         owner.pausePlayback();
-        ArrayList<Integer> toRemove = new ArrayList<>();
-        File out = Os.fromSystem().getDecutRoot();
-        segments.keySet().forEach(index -> {
-            FfmpegCommand imgCom = owner.previewFrames(out, index * SEG_SIZE, SEG_SIZE, qualityFactor);
-            FfmpegCommand audioCom = owner.previewAudio(out, index * SEG_SIZE, SEG_SIZE);
-            String com = imgCom.setOutput(out).apply(imgCom, "ffmpeg").toString() + audioCom.setOutput(out).apply(audioCom, "ffmpeg").toString();
-            if(segments.get(index) != null && !segments.get(index).getCommand().equals(com)) {
-                toRemove.add(index);
+        scrubber.cancel();
+        for (int index = currentSegment - PRELOAD_BUFFER; index <= currentSegment + PRELOAD_BUFFER; index++) {
+            // renders that have not produced a segment yet may be rendering the old timeline
+            if (scheduler.isScheduled(index) && !segments.contains(index)) {
+                scheduler.cancel(index);
             }
-        });
-        toRemove.forEach(segments::remove);
-        toRemove.forEach(index -> {
-            if(loadingSegments.get(index) != null) {
-                loadingSegments.get(index).cancel(true);
+        }
+
+        List<ClipSpan> spans = owner.previewClips();
+        HashMap<Integer, FrameSequence> cached = new HashMap<>();
+        segments.indices().forEach(index -> cached.put(index, segments.peek(index)));
+
+        Platform.runBack(() -> {
+            List<ClipSpan> stamped = stamp(spans);
+            HashMap<Integer, FrameSequence> stale = new HashMap<>();
+            cached.forEach((index, sequence) -> {
+                // every segment is checked at the quality it was rendered at
+                SegmentFingerprint fingerprint = fingerprint(stamped, index, sequence.getWidth(),
+                        sequence.getHeight(), sequence.getFrameRate());
+                if (!fingerprint.equals(sequence.getFingerprint())) {
+                    stale.put(index, sequence);
+                }
+            });
+            if (!stale.isEmpty()) {
+                Platform.runLater(() -> invalidate(stale));
             }
         });
-        toRemove.forEach(loadingSegments::remove);
-        if (currentSequence != null) {
-            view.setImage(null);
-            FfmpegCommand imgCom = owner.previewFrames(out, currentSegment * SEG_SIZE, SEG_SIZE, qualityFactor);
-            FfmpegCommand audioCom = owner.previewAudio(out, currentSegment * SEG_SIZE, SEG_SIZE);
-            String com = imgCom.setOutput(out).apply(imgCom, "ffmpeg").toString() + audioCom.setOutput(out).apply(audioCom, "ffmpeg").toString();
-            if(!currentSequence.getCommand().equals(com)) {
-                currentSequence = null;
-                double at = owner.atProperty().get();
-                int index = segIndex(at);
-                switchToSegment(index, at);
+    }
+
+    private void invalidate(HashMap<Integer, FrameSequence> stale) {
+        boolean currentStale = false;
+        for (Integer index : stale.keySet()) {
+            FrameSequence sequence = stale.get(index);
+            if (segments.peek(index) != sequence) continue;
+            scheduler.cancel(index);
+            if (sequence == currentSequence) {
+                currentStale = true;
             }
+            segments.invalidate(index);
+        }
+        if (currentStale) {
+            currentSequence = null;
+            double at = owner.atProperty().get();
+            switchToSegment(segIndex(at), at);
         }
     }
 
+    /**
+     * The frames of cached segments are direct buffers, so they are bounded by the direct
+     * memory limit and not by the heap. Half of that limit is left to the decoding pipes and
+     * JavaFX, and the budget never exceeds a quarter of the physical memory, which a large
+     * -XX:MaxDirectMemorySize would otherwise let the cache swap through.
+     *
+     * @return the memory budget of the frames of cached segments, in bytes
+     */
+    private static long frameBudget() {
+        // without -XX:MaxDirectMemorySize the direct memory limit is the maximum heap size
+        long direct = Runtime.getRuntime().maxMemory();
+        HotSpotDiagnosticMXBean vm = ManagementFactory.getPlatformMXBean(HotSpotDiagnosticMXBean.class);
+        long configured = vm == null ? 0 : Long.parseLong(vm.getVMOption("MaxDirectMemorySize").getValue());
+        if (configured > 0) {
+            direct = configured;
+        }
+        long budget = direct / 2;
+        if (ManagementFactory.getOperatingSystemMXBean() instanceof OperatingSystemMXBean os) {
+            budget = Math.min(budget, os.getTotalMemorySize() / 4);
+        }
+        return budget;
+    }
+
+    private static List<ClipSpan> stamp(List<ClipSpan> spans) {
+        return spans.stream().map(ClipSpan::stamped).toList();
+    }
+
+    private static SegmentFingerprint fingerprint(List<ClipSpan> stamped, int index, int width, int height,
+                                                  double frameRate) {
+        return SegmentFingerprint.compute(stamped, index * SEG_SIZE, SEG_SIZE, width, height, frameRate);
+    }
+
+    private int previewWidth(QualityGovernor.QualityLevel quality) {
+        return (int) (owner.canvasWidthProperty().get() * qualityFactor * quality.scale());
+    }
+
+    private int previewHeight(QualityGovernor.QualityLevel quality) {
+        return (int) (owner.canvasHeightProperty().get() * qualityFactor * quality.scale());
+    }
+
+    private double previewFrameRate(QualityGovernor.QualityLevel quality) {
+        return quality.frameRate(owner.framerateProperty().get());
+    }
+
     private void switchToSegment(int index, double time) {
         if (index * SEG_SIZE >= owner.durationProperty().get()) {
             owner.pausePlayback();
@@ -186,34 +314,31 @@ public class Preview extends VBox implements Styleable {
             return;
         }
 
+        int direction = isPlaying.get() || index >= currentSegment ? 1 : -1;
+        scheduler.setPlayhead(index, direction);
+        scheduler.retain(index - PRELOAD_BUFFER, index + PRELOAD_BUFFER);
+        segments.setPlayhead(index);
         FrameSequence sequence = segments.get(index);
         if (sequence != null) {
             setCurrentSequence(sequence, index, time);
             preloadAdjacentSegments(index);
         } else {
-            view.setImage(null);
             boolean wasPlaying = frameTimer.isRunning();
-            frameTimer.stop();
-            CompletableFuture<FrameSequence> loadingFuture = loadingSegments.get(index);
-            if (loadingFuture != null) {
-                loadingFuture.thenAccept(loadedSequence -> Platform.runLater(() -> {
-                    if (segIndex(owner.atProperty().get()) == index) {
-                        setCurrentSequence(loadedSequence, index, time);
-                        if(wasPlaying) {
-                            frameTimer.start();
-                        }
-                    }
-                }));
+            if (isPlaying.get()) {
+                view.setImage(null);
             } else {
-                loadSegmentAsync(index).thenAccept(loadedSequence -> Platform.runLater(() -> {
-                    if (segIndex(owner.atProperty().get()) == index) {
-                        setCurrentSequence(loadedSequence, index, time);
-                        if(wasPlaying) {
-                            frameTimer.start();
-                        }
-                    }
-                }));
+                scrub(time);
             }
+            frameTimer.stop();
+            loadSegmentAsync(index).thenAccept(loadedSequence -> Platform.runLater(() -> {
+                double at = owner.atProperty().get();
+                if (loadedSequence != null && segIndex(at) == index) {
+                    setCurrentSequence(loadedSequence, index, wasPlaying ? time : at);
+                    if(wasPlaying) {
+                        frameTimer.start();
+                    }
+                }
+            }));
             preloadAdjacentSegments(index);
         }
     }
@@ -221,133 +346,417 @@ public class Preview extends VBox implements Styleable {
     private void setCurrentSequence(FrameSequence sequence, int index, double time) {
         currentSequence = sequence;
         currentSegment = index;
+        scrubber.cancel();
         updateFrameOnly(time);
 
         if (isPlaying.get()) {
-            audioQueue.clear();
             currentSequence.play(time);
-            resetPlaybackTiming(time);
-            updateAudioPosition(time);
+            double queuedFrom = playbackStartPosition;
+            double queuedUntil = audioQueuedFrames / AudioPlayer.FORMAT.getFrameRate();
+            if (time < queuedFrom || time >= queuedUntil) {
+                startAudio(time);
+            }
         }
     }
 
-    private void updateFrameOnly(double time) {
+    /**
+     * Shows the frame due at the given time.
+     *
+     * @return false if that frame is not rendered yet
+     */
+    private boolean updateFrameOnly(double time) {
         if (currentSequence != null) {
             double segmentTime = time - (currentSegment * SEG_SIZE);
-            int frameIndex = (int) (segmentTime * owner.framerateProperty().get());
+            int frameIndex = (int) (segmentTime * currentSequence.getFrameRate());
             Image frame = currentSequence.getFrame(frameIndex);
             if (frame != null) {
                 view.setImage(frame);
+                return true;
+            } else if (!isPlaying.get() && !currentSequence.isComplete()) {
+                scrub(time);
             }
         }
+        return false;
     }
 
-    private void updateAudioPosition(double time) {
-        if (currentSequence != null) {
-            double segmentTime = time - (currentSegment * SEG_SIZE);
-            if(segmentTime < AUDIO_POS_THRESHOLD) {
-                audioQueue.offer(currentSequence.audioData);
-            } else {
-                AudioFormat format = audioLine.getFormat();
-                int frameSize = format.getFrameSize();
-                float frameRate = format.getFrameRate();
-                int byteOffset = (int) (segmentTime * frameRate * frameSize);
-
-                byteOffset -= byteOffset % frameSize;
-
-                byte[] fullAudioData = currentSequence.getAudioData();
-                if (byteOffset < fullAudioData.length) {
-                    byte[] partialAudio = Arrays.copyOfRange(fullAudioData, byteOffset, fullAudioData.length);
-                    try {
-                        audioQueue.put(partialAudio);
-                    } catch (InterruptedException e) {
-                        Thread.currentThread().interrupt();
-                    }
-                }
+    /**
+     * Shows the frame at the given time as soon as possible while the segment holding
+     * it is still rendering, by rendering that single frame on its own.
+     */
+    private void scrub(double time) {
+        QualityGovernor.QualityLevel quality = governor.current();
+        scrubber.request(time, previewWidth(quality), previewHeight(quality), frame -> {
+            if (!isPlaying.get() && !hasFrame(owner.atProperty().get())) {
+                view.setImage(frame);
             }
+        });
+    }
 
-        }
+    private boolean hasFrame(double time) {
+        if (currentSequence == null || segIndex(time) != currentSegment) return false;
+        double segmentTime = time - (currentSegment * SEG_SIZE);
+        return currentSequence.getFrame((int) (segmentTime * currentSequence.getFrameRate())) != null;
     }
 
-    private void resetPlaybackTiming(double time) {
+    /**
+     * Restarts the audio, and with it the playback clock, at the given time.
+     */
+    private void startAudio(double time) {
         playbackStartTime = System.nanoTime();
         playbackStartPosition = time;
+        lastFrame = -1;
+        audioQueuedFrames = (long) (time * AudioPlayer.FORMAT.getFrameRate());
+        if (audio != null) {
+            audio.reset(time);
+            feedAudio(time);
+        }
+    }
+
+    /**
+     * Keeps about one segment of audio queued ahead of the clock, taken from the cached
+     * segments, so consecutive segments play back to back without a gap or a resync.
+     */
+    private void feedAudio(double time) {
+        if (audio == null) return;
+        AudioFormat format = AudioPlayer.FORMAT;
+        int frameSize = format.getFrameSize();
+        long segmentFrames = (long) (SEG_SIZE * format.getFrameRate());
+        while (audio.hasRoom() && audioQueuedFrames / format.getFrameRate() - time < SEG_SIZE) {
+            int index = (int) (audioQueuedFrames / segmentFrames);
+            FrameSequence sequence = segments.peek(index);
+            // a segment published before its audio is mixed holds the clock until it arrives
+            if (sequence == null || sequence.getAudioData() == null) break;
+
+            PcmBuffer data = sequence.getAudioData();
+            long offsetFrames = audioQueuedFrames - index * segmentFrames;
+            long remainingFrames = segmentFrames - offsetFrames;
+            long offset = offsetFrames * frameSize;
+            long length = Math.min(Math.max(0, data.length() - offset), remainingFrames * frameSize);
+            length -= length % frameSize;
+            if (length > 0 && !audio.queue(data, offset, length)) break;
+            audioQueuedFrames += length / frameSize;
+
+            long padding = (remainingFrames * frameSize) - length;
+            if (padding > 0) {
+                // segments with short audio are padded with silence so the next one starts on time
+                if (!audio.queue(PcmBuffer.silence(padding), 0, padding)) break;
+                audioQueuedFrames += padding / frameSize;
+            }
+        }
+    }
+
+    /**
+     * Reads the playback clock, the audio device position when there is audio output,
+     * and the wall clock otherwise. The difference between the two is tracked as drift.
+     */
+    private double playbackTime() {
+        double wallTime = playbackStartPosition + (System.nanoTime() - playbackStartTime) / 1_000_000_000.0;
+        if (audio == null) {
+            return wallTime;
+        }
+        double audioTime = audio.getPosition();
+        drift = audioTime - wallTime;
+        maxDrift = Math.max(maxDrift, Math.abs(drift));
+        return audioTime;
+    }
+
+    private void countFrame(double time, boolean shown) {
+        int frame = (int) (time * owner.framerateProperty().get());
+        if (!shown) {
+            if (frame != lastLateFrame) {
+                lateFrames++;
+                lastLateFrame = frame;
+            }
+            return;
+        }
+        if (lastFrame >= 0) {
+            int step = frame - lastFrame;
+            if (step == 0) {
+                repeatedFrames++;
+                return;
+            }
+            if (step > 1) {
+                droppedFrames += step - 1;
+            }
+        }
+        presentedFrames++;
+        lastFrame = frame;
     }
 
     private void preloadAdjacentSegments(int currentIndex) {
+        boolean busy = false;
         for (int i = currentIndex - PRELOAD_BUFFER; i <= currentIndex + PRELOAD_BUFFER; i++) {
-            if (i >= 0 && i != currentIndex && !segments.containsKey(i) && !loadingSegments.containsKey(i)) {
-                if (i * SEG_SIZE >= owner.durationProperty().get()) continue;
+            if (i < 0 || i * SEG_SIZE >= owner.durationProperty().get()) continue;
+            if (scheduler.isScheduled(i)) {
+                busy = true;
+            } else if (i != currentIndex && !segments.contains(i)) {
+                loadSegmentAsync(i);
+                busy = true;
+            }
+        }
+        if (!busy) {
+            upgradeAdjacentSegments(currentIndex);
+        }
+    }
+
+    /**
+     * Re-renders the segments around the playhead that were rendered at a lower quality
+     * than the current one. This only runs when no missing segment is waiting, and the
+     * lower quality segments stay in use until their replacement is complete.
+     */
+    private void upgradeAdjacentSegments(int currentIndex) {
+        QualityGovernor.QualityLevel quality = governor.current();
+        double pixelRate = (double) previewWidth(quality) * previewHeight(quality) * previewFrameRate(quality);
+        int from = isPlaying.get() ? currentIndex + 1 : currentIndex - PRELOAD_BUFFER;
+        for (int i = Math.max(0, from); i <= currentIndex + PRELOAD_BUFFER; i++) {
+            FrameSequence sequence = segments.peek(i);
+            if (sequence != null && sequence.isComplete() && sequence.getPixelRate() < pixelRate) {
                 loadSegmentAsync(i);
             }
         }
     }
 
     private CompletableFuture<FrameSequence> loadSegmentAsync(int index) {
-        CompletableFuture<FrameSequence> future = CompletableFuture.supplyAsync(() -> {
-            try {
-                double start = index * SEG_SIZE;
-                File tempDir = Os.fromSystem().createTempDirectory("preview_" + index + "_");
-                FfmpegCommand imageCom = owner.previewFrames(tempDir, start, SEG_SIZE, qualityFactor);
-                imageCom.execute();
+        return scheduler.submit(index, this::renderSegment);
+    }
+
+    private FrameSequence renderSegment(int index, SegmentScheduler.Ticket<FrameSequence> ticket) throws Exception {
+        int level = governor.getLevel();
+        List<ClipSpan> stamped = stamp(owner.previewClips());
+        double start = index * SEG_SIZE;
+        boolean hasVideo = SegmentRenderer.hasActiveClips(stamped, ClipSpan.Kind.VIDEO, start, SEG_SIZE);
+        boolean hasAudio = SegmentRenderer.hasActiveClips(stamped, ClipSpan.Kind.AUDIO, start, SEG_SIZE);
+
+        // a segment cached at a higher quality than the current one is just as good,
+        // a cached file that turns out to be truncated is a miss and the segment is rendered
+        for (int cachedLevel = 0; hasVideo && cachedLevel <= level; cachedLevel++) {
+            QualityGovernor.QualityLevel quality = governor.getLevels().get(cachedLevel);
+            int width = previewWidth(quality);
+            int height = previewHeight(quality);
+            SegmentFingerprint fingerprint = fingerprint(stamped, index, width, height, previewFrameRate(quality));
+            try (DiskSegmentCache.Reader cached = diskCache.open(fingerprint)) {
+                if (cached != null && cached.getWidth() == width && cached.getHeight() == height) {
+                    return loadCachedSegment(index, ticket, fingerprint, cached);
+                }
+            } catch (IOException e) {
+                break;
+            }
+        }
 
-                File audioFile = new File(tempDir, "audio_" + index + ".wav");
-                FfmpegCommand audioCom = owner.previewAudio(audioFile, start, SEG_SIZE);
+        QualityGovernor.QualityLevel quality = governor.getLevels().get(level);
+        int width = previewWidth(quality);
+        int height = previewHeight(quality);
+        double frameRate = previewFrameRate(quality);
+        SegmentFingerprint fingerprint = fingerprint(stamped, index, width, height, frameRate);
+
+        FrameSequence sequence = new FrameSequence(frameRate);
+        sequence.setSize(width, height);
+        sequence.setFingerprint(fingerprint);
+        try {
+            RawAudioPipe audioPipe = new RawAudioPipe(pcmPool);
+            FfmpegCommand audioCom = null;
+            if (hasAudio) {
+                // mixing a few seconds of audio is light, the cores are left to the video
+                audioCom = ticket.track(owner.previewAudio(audioPipe, start, SEG_SIZE)).setThreads(1);
                 audioCom.execute();
+            }
+
+            if (!hasVideo) {
+                // gaps are black, their frames all share one buffer and need no FFmpeg process
+                sequence.addStillFrames(RawVideoPipe.blankFrame(width, height),
+                        SegmentRenderer.frameCount(SEG_SIZE, frameRate));
+                publish(index, ticket, sequence);
+                attachAudio(index, sequence, awaitAudio(ticket, audioCom, audioPipe));
+                finish(index, ticket, sequence);
+                return sequence;
+            }
+
+            RawVideoPipe pipe = new RawVideoPipe(width, height, framePool, sequence::addFrame)
+                    .setOnEnd(() -> finish(index, ticket, sequence));
+            sequence.setOnFrame(() -> {
+                if (currentSequence == sequence && !isPlaying.get()) {
+                    Platform.runLater(() -> updateFrameOnly(owner.atProperty().get()));
+                }
+            });
+            AtomicReference<Float> speed = new AtomicReference<>(0f);
+            // every worker renders a segment at the same time, each gets its share of the cores
+            FfmpegCommand imageCom = ticket.track(owner.previewFrames(pipe, start, SEG_SIZE, frameRate))
+                    .setThreads(EncoderTuner.global().threadsFor(scheduler.getWorkerCount()))
+                    .addHandler(new ProgressHandler().addHandler(info -> {
+                        if (info.speed() > 0) {
+                            speed.set(info.speed());
+                        }
+                    }));
+            long startedAt = System.nanoTime();
+            imageCom.execute();
+
+            // the first frame is shown while the audio is still mixing, playback waits for the audio
+            sequence.awaitFirstFrame();
+            if (ticket.isCancelled()) {
+                throw new CancellationException();
+            }
+            if (sequence.getFrameCount() == 0) {
+                throw new IOException("No frames rendered for segment " + index);
+            }
+            publish(index, ticket, sequence);
+
+            PcmBuffer audioData = awaitAudio(ticket, audioCom, audioPipe);
+            // the segment may be evicted and release the audio before it is stored on disk
+            audioData.retain();
+            try {
+                attachAudio(index, sequence, audioData);
 
                 imageCom.waitFor();
+                if (ticket.isCancelled()) {
+                    throw new CancellationException();
+                }
+                if (imageCom.getExitCode() == 0) {
+                    // without a speed from FFmpeg, e.g. for very short renders, fall back to the wall clock
+                    float measured = speed.get() > 0 ? speed.get()
+                            : (float) (SEG_SIZE * 1_000_000_000 / Math.max(1, System.nanoTime() - startedAt));
+                    governor.report(level, measured);
+                }
+                // the frames are pinned, so they are not recycled while they are written
+                if (imageCom.getExitCode() == 0 && sequence.getFrameCount() > 0 && sequence.pin()) {
+                    List<ByteBuffer> frames = sequence.getPixels();
+                    audioData.retain();
+                    Platform.runBack(() -> {
+                        try {
+                            diskCache.store(fingerprint, width, height, frameRate, audioData, frames);
+                        } finally {
+                            audioData.release();
+                            sequence.unpin();
+                        }
+                    });
+                }
+            } finally {
+                audioData.release();
+            }
+            return sequence;
+        } catch (Exception e) {
+            drop(index, sequence);
+            throw e;
+        }
+    }
+
+    /**
+     * Waits for the audio of a segment, segments without an audio render get silence.
+     */
+    private PcmBuffer awaitAudio(SegmentScheduler.Ticket<FrameSequence> ticket, FfmpegCommand audioCom,
+                                 RawAudioPipe audioPipe) throws IOException, InterruptedException {
+        if (audioCom == null) {
+            return PcmBuffer.silence(SEGMENT_AUDIO_BYTES);
+        }
+        audioCom.waitFor();
+        if (ticket.isCancelled()) {
+            throw new CancellationException();
+        }
+        return audioPipe.await(PIPE_TIMEOUT);
+    }
 
-                File[] imageFiles = tempDir.listFiles((dir, name) -> name.matches("frame_\\d{6}\\.bmp"));
-                if (imageFiles == null || imageFiles.length == 0) {
-                    throw new IOException("No frames rendered for segment " + index);
+    /**
+     * Gives a published segment its audio. Until then the audio clock holds playback at
+     * the start of the segment.
+     */
+    private void attachAudio(int index, FrameSequence sequence, PcmBuffer audioData) {
+        sequence.setAudio(audioData);
+        Platform.runLater(() -> {
+            if (segments.peek(index) == sequence) {
+                segments.recharge(index);
+            }
+        });
+    }
+
+    private FrameSequence loadCachedSegment(int index, SegmentScheduler.Ticket<FrameSequence> ticket,
+                                            SegmentFingerprint fingerprint, DiskSegmentCache.Reader cached)
+            throws IOException {
+        FrameSequence sequence = new FrameSequence(cached.getFrameRate());
+        sequence.setSize(cached.getWidth(), cached.getHeight());
+        sequence.setFingerprint(fingerprint);
+        sequence.setAudio(cached.takeAudio());
+        try {
+            ByteBuffer frame;
+            while ((frame = cached.nextFrame()) != null) {
+                if (ticket.isCancelled()) {
+                    throw new CancellationException();
+                }
+                sequence.addFrame(frame);
+                if (sequence.getFrameCount() == 1) {
+                    publish(index, ticket, sequence);
                 }
+            }
+            if (sequence.getFrameCount() == 0) {
+                throw new IOException("No frames cached for segment " + index);
+            }
+            finish(index, ticket, sequence);
+            return sequence;
+        } catch (IOException | RuntimeException e) {
+            drop(index, sequence);
+            throw e;
+        }
+    }
 
-                List<Image> frames = new ArrayList<>();
-                Arrays.stream(imageFiles).sorted(Comparator.comparing(File::getName)).forEach(imageFile -> {
-                    frames.add(new Image(imageFile.toURI().toString(), true));
-                });
-
-                audioCom.waitFor();
-                AudioInputStream audioStream = AudioSystem.getAudioInputStream(audioFile);
-                byte[] audioData = audioStream.readAllBytes();
-                audioStream.close();
-
-                String com = imageCom.setOutput(Os.fromSystem().getDecutRoot()).apply(imageCom, "ffmpeg").toString() + audioCom.setOutput(Os.fromSystem().getDecutRoot()).apply(audioCom, "ffmpeg").toString();
-                FrameSequence sequence = new FrameSequence(com, frames, audioData, audioStream,
-                        owner.framerateProperty().get(), tempDir);
-
-                sequence.setOnEnd(() -> {
-                    if (isPlaying.get()) {
-                        double nextTime = (index + 1) * SEG_SIZE;
-                        owner.atProperty().set(nextTime);
-                        switchToSegment(index + 1, nextTime);
-                    }
-                });
+    /**
+     * Makes a segment available for playback while it may still be receiving frames.
+     */
+    private void publish(int index, SegmentScheduler.Ticket<FrameSequence> ticket, FrameSequence sequence) {
+        sequence.setOnEnd(() -> {
+            if (isPlaying.get()) {
+                double nextTime = (index + 1) * SEG_SIZE;
+                owner.atProperty().set(nextTime);
+                switchToSegment(index + 1, nextTime);
+            }
+        });
 
-                Platform.runLater(() -> {
-                    segments.put(index, sequence);
-                    loadingSegments.remove(index);
-                });
+        Platform.runLater(() -> {
+            // a segment re-rendered at a higher quality only replaces the cached one once complete
+            if (!ticket.isCancelled() && !segments.contains(index)) {
+                segments.put(index, sequence);
+            }
+        });
+        ticket.publish(sequence);
+    }
 
-                return sequence;
-            } catch (Exception e) {
-                ErrorHandler.handle(e, "render segment " + index);
-                loadingSegments.remove(index);
-                return null;
+    private void finish(int index, SegmentScheduler.Ticket<FrameSequence> ticket, FrameSequence sequence) {
+        sequence.finish();
+        Platform.runLater(() -> {
+            FrameSequence cached = segments.peek(index);
+            if (cached == sequence) {
+                segments.recharge(index);
+            } else if (!ticket.isCancelled() && !sequence.isDisposed()
+                    && (cached == null || sequence.getLength() >= cached.getLength())) {
+                segments.put(index, sequence);
+                if (cached != null && cached == currentSequence) {
+                    currentSequence = sequence;
+                    if (!isPlaying.get()) {
+                        updateFrameOnly(owner.atProperty().get());
+                    }
+                }
             }
-        }, executor);
+        });
+    }
 
-        loadingSegments.put(index, future);
-        return future;
+    /**
+     * Frees a segment that failed or was cancelled. A segment published with the frames
+     * it had is removed from the memory cache, since it will never be complete.
+     */
+    private void drop(int index, FrameSequence sequence) {
+        Platform.runLater(() -> {
+            if (segments.peek(index) == sequence) {
+                segments.invalidate(index);
+            } else {
+                sequence.dispose();
+            }
+        });
     }
 
     public void play() {
         if (currentSequence != null && !isPlaying.get()) {
             isPlaying.set(true);
+            scrubber.cancel();
             double time = owner.atProperty().get();
-            resetPlaybackTiming(time);
+            startAudio(time);
             frameTimer.start();
-            updateAudioPosition(time);
         }
     }
 
@@ -355,8 +764,9 @@ public class Preview extends VBox implements Styleable {
         if (currentSequence != null && isPlaying.get()) {
             isPlaying.set(false);
             frameTimer.stop();
-            audioQueue.clear();
-            audioLine.flush();
+            if (audio != null) {
+                audio.reset(owner.atProperty().get());
+            }
         }
     }
 
@@ -365,21 +775,15 @@ public class Preview extends VBox implements Styleable {
     }
 
     public void dispose() {
-        segments.values().forEach(FrameSequence::dispose);
         segments.clear();
 
-        loadingSegments.values().forEach(future -> future.cancel(true));
-        loadingSegments.clear();
+        scheduler.shutdown();
+        scrubber.cancel();
 
         frameTimer.stop();
 
-        isAudioRunning.set(false);
-        if (audioThread != null) {
-            audioThread.interrupt();
-        }
-        if (audioLine != null) {
-            audioLine.drain();
-            audioLine.close();
+        if (audio != null) {
+            audio.close();
         }
     }
 
@@ -389,31 +793,152 @@ public class Preview extends VBox implements Styleable {
     }
 
     private class FrameSequence {
-        private final String command;
         private final List<Image> frames;
-        private final byte[] audioData;
-        private final AudioInputStream audioStream;
+        private final List<ByteBuffer> pixels;
+        private final List<ByteBuffer> owned;
+        private final CompletableFuture<Void> firstFrame;
         private final double frameRate;
-        private final File tempDir;
+        private SegmentFingerprint fingerprint;
+        private volatile PcmBuffer audioData;
+        private int width;
+        private int height;
+        private long pixelBytes;
+        private volatile boolean complete;
+        private volatile boolean disposed;
+        private int pins;
+        private Runnable onFrame;
         private Runnable onEnd;
 
-        public FrameSequence(String command, List<Image> frames, byte[] audioData, AudioInputStream audioStream,
-                             double frameRate, File tempDir) {
-            this.command = command;
-            this.frames = frames;
-            this.audioData = audioData;
-            this.audioStream = audioStream;
+        public FrameSequence(double frameRate) {
+            this.frames = new ArrayList<>();
+            this.pixels = new ArrayList<>();
+            this.owned = new ArrayList<>();
+            this.firstFrame = new CompletableFuture<>();
             this.frameRate = frameRate;
-            this.tempDir = tempDir;
         }
 
-        public String getCommand() {
-            return command;
+        public void setSize(int width, int height) {
+            this.width = width;
+            this.height = height;
+        }
+
+        public int getWidth() {
+            return width;
+        }
+
+        public int getHeight() {
+            return height;
+        }
+
+        public double getFrameRate() {
+            return frameRate;
+        }
+
+        /**
+         * @return the number of pixels per second of playback, to compare the quality of segments
+         */
+        public double getPixelRate() {
+            return (double) width * height * frameRate;
+        }
+
+        /**
+         * Adds a frame read from the pool, which is returned to it when the segment is disposed.
+         */
+        public void addFrame(ByteBuffer pixels) {
+            PixelBuffer<ByteBuffer> buffer = new PixelBuffer<>(width, height, pixels,
+                    PixelFormat.getByteBgraPreInstance());
+            Image frame = new WritableImage(buffer);
+            synchronized (frames) {
+                if (disposed) {
+                    framePool.release(pixels);
+                    return;
+                }
+                frames.add(frame);
+                this.pixels.add(pixels);
+                owned.add(pixels);
+                pixelBytes += pixels.capacity();
+            }
+            firstFrame.complete(null);
+            if (onFrame != null) {
+                onFrame.run();
+            }
+        }
+
+        /**
+         * Adds the same frame several times. The pixels are shared, not copied, and are
+         * not counted in the size of the segment.
+         */
+        public void addStillFrames(ByteBuffer pixels, int count) {
+            if (disposed) return;
+            Image frame = new WritableImage(new PixelBuffer<>(width, height, pixels,
+                    PixelFormat.getByteBgraPreInstance()));
+            synchronized (frames) {
+                for (int i = 0; i < count; i++) {
+                    frames.add(frame);
+                    this.pixels.add(pixels);
+                }
+            }
+            firstFrame.complete(null);
+            if (onFrame != null) {
+                onFrame.run();
+            }
+        }
+
+        public void finish() {
+            complete = true;
+            firstFrame.complete(null);
+        }
+
+        public boolean isComplete() {
+            return complete;
+        }
+
+        /**
+         * @return the duration covered by the frames received so far, in seconds
+         */
+        public double getLength() {
+            return getFrameCount() / frameRate;
+        }
+
+        public boolean isDisposed() {
+            return disposed;
+        }
+
+        public void awaitFirstFrame() {
+            firstFrame.join();
+        }
+
+        public SegmentFingerprint getFingerprint() {
+            return fingerprint;
+        }
+
+        public void setFingerprint(SegmentFingerprint fingerprint) {
+            this.fingerprint = fingerprint;
+        }
+
+        public long getByteSize() {
+            synchronized (frames) {
+                return pixelBytes + (audioData == null ? 0 : audioData.getRetainedBytes());
+            }
+        }
+
+        public List<ByteBuffer> getPixels() {
+            synchronized (frames) {
+                return new ArrayList<>(pixels);
+            }
+        }
+
+        public int getFrameCount() {
+            synchronized (frames) {
+                return frames.size();
+            }
         }
 
         public Image getFrame(int index) {
-            if (index >= 0 && index < frames.size()) {
-                return frames.get(index);
+            synchronized (frames) {
+                if (index >= 0 && index < frames.size()) {
+                    return frames.get(index);
+                }
             }
             return null;
         }
@@ -422,8 +947,8 @@ public class Preview extends VBox implements Styleable {
             double segmentTime = time - (currentSegment * SEG_SIZE);
             int frameIndex = (int) (segmentTime * frameRate);
 
-            if (frameIndex >= frames.size()) {
-                if (onEnd != null) {
+            if (frameIndex >= getFrameCount()) {
+                if (isComplete() && onEnd != null) {
                     onEnd.run();
                 }
                 return;
@@ -432,53 +957,96 @@ public class Preview extends VBox implements Styleable {
             view.setImage(getFrame(frameIndex));
         }
 
-        public byte[] getAudioData() {
+        public PcmBuffer getAudioData() {
             return audioData;
         }
 
+        /**
+         * Takes ownership of the audio, which is released right away if the segment was
+         * disposed before it arrived.
+         */
+        public void setAudio(PcmBuffer audioData) {
+            synchronized (frames) {
+                if (!disposed) {
+                    this.audioData = audioData;
+                    return;
+                }
+            }
+            audioData.release();
+        }
+
+        public void setOnFrame(Runnable onFrame) {
+            this.onFrame = onFrame;
+        }
+
         public void setOnEnd(Runnable onEnd) {
             this.onEnd = onEnd;
         }
 
+        /**
+         * Keeps the frames from being recycled when the segment is disposed, until
+         * {@link #unpin}.
+         *
+         * @return false if the segment was already disposed
+         */
+        public boolean pin() {
+            synchronized (frames) {
+                if (disposed) return false;
+                pins++;
+                return true;
+            }
+        }
+
+        public void unpin() {
+            synchronized (frames) {
+                if (--pins > 0 || !disposed) return;
+            }
+            Platform.runLater(this::recycle);
+        }
+
+        /**
+         * Called on the FX thread.
+         */
         public void dispose() {
-            frames.forEach(Image::cancel);
-            if (audioStream != null) {
-                try {
-                    audioStream.close();
-                } catch (IOException e) {
-                    System.err.println("Error closing audio stream: " + e.getMessage());
+            PcmBuffer released;
+            boolean pinned;
+            synchronized (frames) {
+                if (disposed) return;
+                disposed = true;
+                // the frame on screen stays there until the next one is shown, it is not recycled
+                int shown = frames.indexOf(view.getImage());
+                if (shown >= 0) {
+                    owned.remove(pixels.get(shown));
                 }
+                frames.clear();
+                pixels.clear();
+                released = audioData;
+                pinned = pins > 0;
             }
-            if (tempDir != null && tempDir.exists()) {
-                File[] files = tempDir.listFiles();
-                if (files != null) {
-                    for (File file : files) {
-                        file.delete();
-                    }
-                }
-                tempDir.delete();
+            if (released != null) {
+                released.release();
+            }
+            if (!pinned) {
+                recycle();
             }
         }
+
+        private void recycle() {
+            List<ByteBuffer> recycled;
+            synchronized (frames) {
+                recycled = new ArrayList<>(owned);
+                owned.clear();
+            }
+            recycled.forEach(framePool::release);
+        }
     }
 
     private class AnimationTimer extends javafx.animation.AnimationTimer {
-        private long lastUpdate = 0;
-
         private boolean running =false;
 
         @Override
         public void handle(long now) {
-            if (lastUpdate == 0) {
-                lastUpdate = now;
-                return;
-            }
-
-            double elapsedSeconds = (now - lastUpdate) / 1_000_000_000.0;
-            lastUpdate = now;
-
-            double currentTime = playbackStartTime > 0 ?
-                    playbackStartPosition + ((now - playbackStartTime) / 1_000_000_000.0) :
-                    owner.atProperty().get() + elapsedSeconds;
+            double currentTime = playbackTime();
 
             if (currentTime >= owner.durationProperty().get()) {
                 stop();
@@ -489,9 +1057,11 @@ public class Preview extends VBox implements Styleable {
             int newSegment = segIndex(currentTime);
             if (newSegment != currentSegment) {
                 switchToSegment(newSegment, currentTime);
+                countFrame(currentTime, currentSegment == newSegment && hasFrame(currentTime));
             } else {
-                updateFrameOnly(currentTime);
+                countFrame(currentTime, updateFrameOnly(currentTime));
             }
+            feedAudio(currentTime);
 
             owner.atProperty().set(currentTime);
         }
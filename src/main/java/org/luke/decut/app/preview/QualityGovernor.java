@@ -0,0 +1,120 @@
+package org.luke.decut.app.preview;
+
+import java.util.List;
+
+/**
+ * Picks the resolution and frame rate preview segments are rendered at, from how fast
+ * the previous segments rendered compared to real time.
+ * <p>
+ * Each finished render reports the FFmpeg speed it reached at its level. A render
+ * that barely keeps up with playback drops the quality right away, as far as needed
+ * to get back to a comfortable speed, estimated from the pixel rate of each level.
+ * The quality only goes back up after a few renders in a row were fast enough to
+ * afford the next level, so it does not oscillate between two levels.
+ */
+public class QualityGovernor {
+    public static final List<QualityLevel> LEVELS = List.of(
+            new QualityLevel(1, 1),
+            new QualityLevel(.75, 1),
+            new QualityLevel(.5, 1),
+            new QualityLevel(.5, 2),
+            new QualityLevel(.35, 2),
+            new QualityLevel(.25, 2));
+
+    private static final float MIN_SPEED = 1.1f;
+    private static final float TARGET_SPEED = 1.5f;
+    private static final int UPSHIFT_STREAK = 2;
+
+    private final List<QualityLevel> levels;
+
+    private int level;
+    private int fastStreak;
+
+    public QualityGovernor() {
+        this(LEVELS);
+    }
+
+    /**
+     * @param levels the quality levels, from the highest to the lowest
+     */
+    public QualityGovernor(List<QualityLevel> levels) {
+        this.levels = levels;
+    }
+
+    public List<QualityLevel> getLevels() {
+        return levels;
+    }
+
+    /**
+     * @return the index of the level the next segments should render at
+     */
+    public synchronized int getLevel() {
+        return level;
+    }
+
+    public synchronized QualityLevel current() {
+        return levels.get(level);
+    }
+
+    /**
+     * Reports the speed a segment rendered at. Reports from a level other than the
+     * current one were started before the last change and are ignored.
+     *
+     * @param renderedLevel the index of the level the segment was rendered at
+     * @param speed         the ratio of rendered media time to elapsed time
+     * @return the level to render the next segments at
+     */
+    public synchronized QualityLevel report(int renderedLevel, float speed) {
+        if (renderedLevel != level || speed <= 0) {
+            return current();
+        }
+
+        if (speed < MIN_SPEED) {
+            fastStreak = 0;
+            int next = level + 1;
+            while (next < levels.size() - 1 && estimate(speed, next) < TARGET_SPEED) {
+                next++;
+            }
+            level = Math.min(next, levels.size() - 1);
+        } else if (level > 0 && estimate(speed, level - 1) >= TARGET_SPEED) {
+            if (++fastStreak >= UPSHIFT_STREAK) {
+                fastStreak = 0;
+                level--;
+            }
+        } else {
+            fastStreak = 0;
+        }
+        return current();
+    }
+
+    /**
+     * Goes back to the highest level, e.g. after the quality ceiling changed.
+     */
+    public synchronized void reset() {
+        level = 0;
+        fastStreak = 0;
+    }
+
+    private float estimate(float speed, int target) {
+        return (float) (speed * levels.get(level).cost() / levels.get(target).cost());
+    }
+
+    /**
+     * A preview quality level.
+     *
+     * @param scale     the resolution, relative to the preview quality ceiling
+     * @param frameStep renders one frame out of this many timeline frames
+     */
+    public record QualityLevel(double scale, int frameStep) {
+        public double frameRate(double timelineFrameRate) {
+            return timelineFrameRate / frameStep;
+        }
+
+        /**
+         * @return the relative number of pixels rendered per second at this level
+         */
+        public double cost() {
+            return scale * scale / frameStep;
+        }
+    }
+}
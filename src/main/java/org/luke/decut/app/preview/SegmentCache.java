@@ -0,0 +1,217 @@
+package org.luke.decut.app.preview;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.ToLongFunction;
+
+/**
+ * Memory-budgeted cache of rendered preview segments, keyed by segment index.
+ * Each entry is charged by its real size in bytes, as reported by the sizer.
+ * When the total size goes over the budget, entries are evicted by least recent
+ * use, weighted by their distance from the playhead segment. The playhead segment
+ * itself is never evicted.
+ * <p>
+ * The cache is not thread safe and is meant to be used from the FX thread.
+ *
+ * @param <T> the type of the cached segments
+ */
+public class SegmentCache<T> {
+    private final HashMap<Integer, Entry<T>> entries;
+    private final ToLongFunction<T> sizer;
+    private final Consumer<T> onEvict;
+
+    private long budget;
+    private double distanceWeight = 4;
+    private long occupancy;
+    private long tick;
+    private int playhead;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    /**
+     * Creates an empty cache.
+     *
+     * @param budget  the maximum number of bytes the cached segments may occupy
+     * @param sizer   computes the size of a segment in bytes
+     * @param onEvict called with every segment that leaves the cache, to free its resources
+     */
+    public SegmentCache(long budget, ToLongFunction<T> sizer, Consumer<T> onEvict) {
+        this.entries = new HashMap<>();
+        this.budget = budget;
+        this.sizer = sizer;
+        this.onEvict = onEvict;
+    }
+
+    /**
+     * Looks up a segment, counting the lookup as a hit or a miss.
+     *
+     * @return the cached segment, or null if it is not cached
+     */
+    public T get(int index) {
+        Entry<T> entry = entries.get(index);
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        entry.lastAccess = ++tick;
+        return entry.value;
+    }
+
+    /**
+     * Looks up a segment without affecting the statistics or the eviction order.
+     */
+    public T peek(int index) {
+        Entry<T> entry = entries.get(index);
+        return entry == null ? null : entry.value;
+    }
+
+    public boolean contains(int index) {
+        return entries.containsKey(index);
+    }
+
+    public void put(int index, T value) {
+        Entry<T> old = entries.remove(index);
+        if (old != null) {
+            occupancy -= old.size;
+            if (old.value != value) {
+                onEvict.accept(old.value);
+            }
+        }
+        Entry<T> entry = new Entry<>(value, sizer.applyAsLong(value), ++tick);
+        entries.put(index, entry);
+        occupancy += entry.size;
+        evict();
+    }
+
+    /**
+     * Re-measures a segment whose size changed after it was added, e.g. a segment
+     * that kept receiving frames while it was already cached.
+     */
+    public void recharge(int index) {
+        Entry<T> entry = entries.get(index);
+        if (entry == null) return;
+        long size = sizer.applyAsLong(entry.value);
+        occupancy += size - entry.size;
+        entry.size = size;
+        evict();
+    }
+
+    /**
+     * Removes a segment from the cache and frees it.
+     */
+    public void invalidate(int index) {
+        Entry<T> entry = entries.remove(index);
+        if (entry != null) {
+            occupancy -= entry.size;
+            onEvict.accept(entry.value);
+        }
+    }
+
+    public void clear() {
+        entries.values().forEach(entry -> onEvict.accept(entry.value));
+        entries.clear();
+        occupancy = 0;
+    }
+
+    public Set<Integer> indices() {
+        return Set.copyOf(entries.keySet());
+    }
+
+    /**
+     * Moves the playhead, which pins its segment and changes the distance weighting.
+     */
+    public void setPlayhead(int playhead) {
+        this.playhead = playhead;
+    }
+
+    public void setBudget(long budget) {
+        this.budget = budget;
+        evict();
+    }
+
+    public long getBudget() {
+        return budget;
+    }
+
+    /**
+     * Sets how many accesses of age one segment of distance from the playhead is worth
+     * when choosing which segment to evict.
+     */
+    public void setDistanceWeight(double distanceWeight) {
+        this.distanceWeight = distanceWeight;
+    }
+
+    public long getOccupancy() {
+        return occupancy;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public double getHitRate() {
+        long lookups = hits + misses;
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+
+    public CacheStats getStats() {
+        return new CacheStats(entries.size(), occupancy, budget, hits, misses, evictions);
+    }
+
+    private void evict() {
+        while (occupancy > budget) {
+            Integer victim = pickVictim();
+            if (victim == null) {
+                // only the pinned playhead segment is left, it stays even when it alone is over budget
+                return;
+            }
+            Entry<T> entry = entries.remove(victim);
+            occupancy -= entry.size;
+            evictions++;
+            onEvict.accept(entry.value);
+        }
+    }
+
+    private Integer pickVictim() {
+        Integer victim = null;
+        double worst = Double.NEGATIVE_INFINITY;
+        for (Map.Entry<Integer, Entry<T>> candidate : entries.entrySet()) {
+            int index = candidate.getKey();
+            if (index == playhead) continue;
+            double score = (tick - candidate.getValue().lastAccess) + distanceWeight * Math.abs(index - playhead);
+            if (score > worst) {
+                worst = score;
+                victim = index;
+            }
+        }
+        return victim;
+    }
+
+    private static class Entry<T> {
+        private final T value;
+        private long size;
+        private long lastAccess;
+
+        private Entry(T value, long size, long lastAccess) {
+            this.value = value;
+            this.size = size;
+            this.lastAccess = lastAccess;
+        }
+    }
+
+    public record CacheStats(int segments, long occupancy, long budget, long hits, long misses, long evictions) {
+        public double getHitRate() {
+            long lookups = hits + misses;
+            return lookups == 0 ? 0 : (double) hits / lookups;
+        }
+
+        public double getFill() {
+            return budget <= 0 ? 0 : (double) occupancy / budget;
+        }
+    }
+}
@@ -0,0 +1,277 @@
+package org.luke.decut.app.preview;
+
+import org.luke.decut.ffmpeg.FfmpegCommand;
+import org.luke.gui.exception.ErrorHandler;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Runs preview segment renders on a pool of worker threads, always starting the
+ * most urgent segment first. The segment under the playhead comes first, then the
+ * segments ahead of it in the play direction, nearest first, then the segments
+ * behind it.
+ * <p>
+ * Renders register the FFmpeg commands they run with their {@link Ticket}, so
+ * cancelling a segment also kills its processes.
+ *
+ * @param <T> the type of the rendered segments
+ */
+public class SegmentScheduler<T> {
+    private static final int BEHIND_PENALTY = 1_000_000;
+
+    private final HashMap<Integer, Task> tasks;
+    private final List<Task> pending;
+    private final List<Thread> workers;
+
+    private int playhead;
+    private int direction = 1;
+    private boolean shutdown;
+
+    /**
+     * Creates a scheduler and starts its worker threads.
+     *
+     * @param name        the name prefix of the worker threads
+     * @param workerCount the number of segments rendered at the same time
+     */
+    public SegmentScheduler(String name, int workerCount) {
+        this.tasks = new HashMap<>();
+        this.pending = new ArrayList<>();
+        this.workers = new ArrayList<>();
+
+        for (int i = 0; i < workerCount; i++) {
+            Thread worker = new Thread(this::work, name + "_" + i);
+            worker.setDaemon(true);
+            worker.start();
+            workers.add(worker);
+        }
+    }
+
+    /**
+     * Picks a worker count from the available cores. Every segment render runs its
+     * own multithreaded FFmpeg processes, so one worker per two cores keeps the
+     * machine busy without the renders starving each other.
+     *
+     * @param max the largest useful number of workers, e.g. the preload window size
+     */
+    public static int defaultWorkerCount(int max) {
+        int cores = Runtime.getRuntime().availableProcessors();
+        return Math.clamp(cores / 2, 1, Math.max(1, max));
+    }
+
+    /**
+     * @return the number of segments rendered at the same time
+     */
+    public int getWorkerCount() {
+        return workers.size();
+    }
+
+    /**
+     * Schedules a segment render. If the segment is already scheduled or rendering,
+     * the existing future is returned and the job is ignored.
+     */
+    public synchronized CompletableFuture<T> submit(int index, SegmentJob<T> job) {
+        Task existing = tasks.get(index);
+        if (existing != null) {
+            return existing.future;
+        }
+        Task task = new Task(index, job);
+        tasks.put(index, task);
+        pending.add(task);
+        notifyAll();
+        return task.future;
+    }
+
+    /**
+     * @return the future of a scheduled or rendering segment, or null if it has none
+     */
+    public synchronized CompletableFuture<T> getFuture(int index) {
+        Task task = tasks.get(index);
+        return task == null ? null : task.future;
+    }
+
+    public synchronized boolean isScheduled(int index) {
+        return tasks.containsKey(index);
+    }
+
+    /**
+     * Moves the playhead, which reorders the pending renders.
+     *
+     * @param index     the segment under the playhead
+     * @param direction 1 when playing or scrubbing forward, -1 when going backwards
+     */
+    public synchronized void setPlayhead(int index, int direction) {
+        this.playhead = index;
+        this.direction = direction < 0 ? -1 : 1;
+    }
+
+    /**
+     * Cancels every scheduled or running segment outside the given range, inclusive.
+     */
+    public synchronized void retain(int from, int to) {
+        new ArrayList<>(tasks.values()).forEach(task -> {
+            if (task.index < from || task.index > to) {
+                cancel(task);
+            }
+        });
+    }
+
+    public synchronized void cancel(int index) {
+        Task task = tasks.get(index);
+        if (task != null) {
+            cancel(task);
+        }
+    }
+
+    public synchronized void cancelAll() {
+        new ArrayList<>(tasks.values()).forEach(this::cancel);
+    }
+
+    public void shutdown() {
+        synchronized (this) {
+            shutdown = true;
+            cancelAll();
+            notifyAll();
+        }
+        workers.forEach(Thread::interrupt);
+    }
+
+    private void cancel(Task task) {
+        pending.remove(task);
+        tasks.remove(task.index, task);
+        task.cancel();
+    }
+
+    private int rank(int index) {
+        int offset = (index - playhead) * direction;
+        return offset >= 0 ? offset : BEHIND_PENALTY - offset;
+    }
+
+    private synchronized Task take() throws InterruptedException {
+        while (pending.isEmpty() && !shutdown) {
+            wait();
+        }
+        if (shutdown) {
+            return null;
+        }
+        Task next = pending.getFirst();
+        for (Task task : pending) {
+            if (rank(task.index) < rank(next.index)) {
+                next = task;
+            }
+        }
+        pending.remove(next);
+        return next;
+    }
+
+    private void work() {
+        while (true) {
+            Task task;
+            try {
+                task = take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (task == null) {
+                return;
+            }
+            task.run();
+            synchronized (this) {
+                tasks.remove(task.index, task);
+            }
+        }
+    }
+
+    /**
+     * Renders one segment. The job may publish the segment through its ticket as soon
+     * as it is usable, and keep running to finish it; the returned value is published
+     * when the job ends, unless one was published before.
+     */
+    @FunctionalInterface
+    public interface SegmentJob<T> {
+        T render(int index, Ticket<T> ticket) throws Exception;
+    }
+
+    /**
+     * Handle given to a running job to publish its segment early and to tie its
+     * FFmpeg commands to the segment's cancellation.
+     */
+    public interface Ticket<T> {
+        /**
+         * Registers a command to be killed if the segment is cancelled. A command
+         * registered after the cancellation is killed right away.
+         *
+         * @return the command
+         */
+        FfmpegCommand track(FfmpegCommand command);
+
+        void publish(T segment);
+
+        boolean isCancelled();
+    }
+
+    private class Task implements Ticket<T> {
+        private final int index;
+        private final SegmentJob<T> job;
+        private final CompletableFuture<T> future;
+        private final List<FfmpegCommand> commands;
+        private volatile boolean cancelled;
+
+        private Task(int index, SegmentJob<T> job) {
+            this.index = index;
+            this.job = job;
+            this.future = new CompletableFuture<>();
+            this.commands = new ArrayList<>();
+        }
+
+        private void run() {
+            if (cancelled) return;
+            try {
+                T segment = job.render(index, this);
+                if (cancelled) {
+                    throw new CancellationException();
+                }
+                future.complete(segment);
+            } catch (Exception e) {
+                if (!cancelled) {
+                    ErrorHandler.handle(e, "render segment " + index);
+                }
+                future.completeExceptionally(e);
+            }
+        }
+
+        private void cancel() {
+            List<FfmpegCommand> toKill;
+            synchronized (commands) {
+                cancelled = true;
+                toKill = new ArrayList<>(commands);
+            }
+            toKill.forEach(FfmpegCommand::kill);
+            future.cancel(false);
+        }
+
+        @Override
+        public FfmpegCommand track(FfmpegCommand command) {
+            synchronized (commands) {
+                if (!cancelled) {
+                    commands.add(command);
+                    return command;
+                }
+            }
+            return command.kill();
+        }
+
+        @Override
+        public void publish(T segment) {
+            future.complete(segment);
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return cancelled;
+        }
+    }
+}
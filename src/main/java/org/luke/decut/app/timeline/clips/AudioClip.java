@@ -66,7 +66,7 @@ public class AudioClip extends TimelineClip {
                     Image img = sourceAsset.generateWaveform((int) displayWidth, (int) (getHeight() - 4),
                             audioStartTime, audioDuration);
 
-                    if(command == lastCommand) {
+                    if(img != null && command == lastCommand) {
                         this.visibleStartTime = audioStartTime;
                         this.visibleEndTime = audioEndTime;
                         Platform.runLater(() -> {
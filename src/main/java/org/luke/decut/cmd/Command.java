@@ -10,7 +10,8 @@ import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 import java.util.function.Consumer;
 
 import org.luke.decut.crossplatform.Os;
@@ -27,9 +28,11 @@ public class Command {
 
     private final ArrayList<Consumer<Integer>> onExit;
 
+    private Consumer<InputStream> outputStreamHandler;
+
     private boolean urlDecode = false;
 
-    private final AtomicBoolean streamClosed;
+    private final CompletableFuture<Integer> completion;
 
     public Command(Consumer<String> inputHandler, Consumer<String> errorHandler, String... command) {
         this.command = command;
@@ -37,7 +40,7 @@ public class Command {
         this.errorHandlers = new ArrayList<>();
         this.onExit = new ArrayList<>();
 
-        streamClosed = new AtomicBoolean(false);
+        completion = new CompletableFuture<>();
 
         if (inputHandler != null)
             inputHandlers.add(inputHandler);
@@ -71,6 +74,15 @@ public class Command {
         return this;
     }
 
+    /**
+     * Hands the raw standard output of the process to the given handler instead of
+     * splitting it into lines, for commands that write binary data to stdout.
+     */
+    public Command setOutputStreamHandler(Consumer<InputStream> outputStreamHandler) {
+        this.outputStreamHandler = outputStreamHandler;
+        return this;
+    }
+
     public void write(String b) {
         try {
             input.append(b);
@@ -86,6 +98,14 @@ public class Command {
         return this;
     }
 
+    /**
+     * @return a future completed with the exit code once the process exited and its
+     * output was fully handled, or completed exceptionally if the process failed to start
+     */
+    public CompletableFuture<Integer> getCompletion() {
+        return completion;
+    }
+
     public Process execute() {
         if(urlDecode) {
             for (int i = 0; i < command.length; i++) {
@@ -97,21 +117,20 @@ public class Command {
 
             input = new OutputStreamWriter(process.getOutputStream(), StandardCharsets.UTF_8);
 
-            registerHandler(process.getInputStream(), inputHandlers);
-            registerHandler(process.getErrorStream(), errorHandlers);
+            CompletableFuture<Void> stdout = outputStreamHandler != null
+                    ? registerStreamHandler(process.getInputStream(), outputStreamHandler)
+                    : registerHandler(process.getInputStream(), inputHandlers);
+            CompletableFuture<Void> stderr = registerHandler(process.getErrorStream(), errorHandlers);
 
-            Platform.runBack(() -> {
-                try {
-                    int exitCode = process.waitFor();
-                    onExit.forEach(oe -> oe.accept(exitCode));
-                } catch (InterruptedException e) {
-                    ErrorHandler.handle(e, "wait for command to finish");
-                    Thread.currentThread().interrupt();
-                }
-            });
+            process.onExit().thenAccept(exited ->
+                    Platform.runBack(() -> onExit.forEach(oe -> oe.accept(exited.exitValue()))));
+            process.onExit()
+                    .thenCombine(CompletableFuture.allOf(stdout, stderr), (exited, _) -> exited.exitValue())
+                    .thenAccept(completion::complete);
 
             return process;
         } catch (IOException e) {
+            completion.completeExceptionally(e);
             ErrorHandler.handle(e, "executing process");
             return null;
         }
@@ -123,15 +142,29 @@ public class Command {
         onExit.clear();
         try {
             if(process == null) return;
-            int exitCode = process.waitFor();
-            Platform.waitWhile(() -> !streamClosed.get());
+            int exitCode = completion.get();
             onExits.forEach(oe -> oe.accept(exitCode));
-        } catch (InterruptedException e) {
+        } catch (InterruptedException | ExecutionException e) {
             throw new RuntimeException(e);
         }
     }
 
-    private void registerHandler(InputStream stream, List<Consumer<String>> handlers) {
+    private CompletableFuture<Void> registerStreamHandler(InputStream stream, Consumer<InputStream> handler) {
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        Platform.runBack(() -> {
+            try (stream) {
+                handler.accept(stream);
+            } catch (IOException e) {
+                ErrorHandler.handle(e, "handling output stream");
+            } finally {
+                done.complete(null);
+            }
+        });
+        return done;
+    }
+
+    private CompletableFuture<Void> registerHandler(InputStream stream, List<Consumer<String>> handlers) {
+        CompletableFuture<Void> done = new CompletableFuture<>();
         Platform.runBack(() -> {
             BufferedReader br = new BufferedReader(new InputStreamReader(stream, StandardCharsets.UTF_8));
             String line;
@@ -143,10 +176,12 @@ public class Command {
                             handler.accept(fline);
                     });
                 }
-                streamClosed.set(true);
             } catch (IOException e) {
                 ErrorHandler.handle(e, "handling output");
+            } finally {
+                done.complete(null);
             }
         });
+        return done;
     }
 }
\ No newline at end of file
@@ -0,0 +1,50 @@
+package org.luke.decut.cmd;
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * The outcome of a finished FFmpeg or FFprobe process.
+ *
+ * @param exitCode  the exit code of the process, 0 on success
+ * @param output    the file the process wrote, or null if it wrote none or wrote to a pipe
+ * @param errorTail the last lines the process wrote to its error stream, where FFmpeg
+ *                  explains its failures
+ * @param wallTime  the time the process ran, in milliseconds, not counting the time it
+ *                  waited in the {@link ProcessScheduler}
+ */
+public record ProcessResult(int exitCode, File output, List<String> errorTail, long wallTime) {
+    /**
+     * The number of error lines a result keeps.
+     */
+    public static final int TAIL_LINES = 20;
+
+    public ProcessResult {
+        errorTail = List.copyOf(errorTail);
+    }
+
+    public boolean isSuccess() {
+        return exitCode == 0;
+    }
+
+    /**
+     * Collects the last {@link #TAIL_LINES} lines of a stream.
+     */
+    public static class Tail implements Consumer<String> {
+        private final ArrayDeque<String> lines = new ArrayDeque<>();
+
+        @Override
+        public synchronized void accept(String line) {
+            if (lines.size() == TAIL_LINES) {
+                lines.removeFirst();
+            }
+            lines.addLast(line);
+        }
+
+        public synchronized List<String> lines() {
+            return List.copyOf(lines);
+        }
+    }
+}
@@ -0,0 +1,298 @@
+package org.luke.decut.cmd;
+
+import org.luke.gui.exception.ErrorHandler;
+import org.luke.gui.threading.Platform;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Limits the number of external processes running at once, so the app does not start a
+ * process per imported file or per preview segment and thrash the machine.
+ * <p>
+ * Every process is started through a {@link Ticket} with a {@link Priority}. Queued
+ * tickets start by priority, then in the order they were submitted, so interactive work
+ * overtakes everything queued before it. Lower priorities may only fill part of the
+ * slots, one less per class below {@link Priority#PREVIEW}, which keeps slots free for
+ * the playback and scrubbing that would otherwise wait for long exports and imports to
+ * finish. A priority may be given a {@link #setFloor floor} it can always fill, exports
+ * get one so parted exports still run their parts side by side on small machines.
+ * Running processes are never stopped to make room.
+ * <p>
+ * Example usage:
+ * <pre>
+ * Ticket ticket = ProcessScheduler.global().submit(Priority.THUMBNAIL, () -> new Command("ffprobe", "-i", path).execute());
+ * Process process = ticket.await();
+ * </pre>
+ */
+public class ProcessScheduler {
+    private static ProcessScheduler global;
+
+    /**
+     * The classes of processes, most urgent first.
+     */
+    public enum Priority {
+        /**
+         * Renders of the segment being played and the segments around it.
+         */
+        PREVIEW,
+        /**
+         * Single frames shown while the playhead is dragged.
+         */
+        SCRUB,
+        /**
+         * Thumbnails, waveforms and the probes of imported media.
+         */
+        THUMBNAIL,
+        /**
+         * Editing proxies of imported media.
+         */
+        PROXY,
+        /**
+         * Exports of the timeline.
+         */
+        EXPORT
+    }
+
+    private final List<Ticket> queue;
+    private final AtomicLong submitted;
+    private final EnumMap<Priority, Long> waited;
+    private final EnumMap<Priority, Long> started;
+    private final EnumMap<Priority, Integer> floors;
+    private int limit;
+    private int running;
+
+    /**
+     * @param limit the number of processes running at once
+     */
+    public ProcessScheduler(int limit) {
+        this.limit = Math.max(1, limit);
+        this.queue = new ArrayList<>();
+        this.submitted = new AtomicLong();
+        this.waited = new EnumMap<>(Priority.class);
+        this.started = new EnumMap<>(Priority.class);
+        this.floors = new EnumMap<>(Priority.class);
+    }
+
+    /**
+     * @return the scheduler every FFmpeg and FFprobe command goes through, running one
+     * process per core
+     */
+    public static synchronized ProcessScheduler global() {
+        if (global == null) {
+            global = new ProcessScheduler(defaultLimit());
+            global.setFloor(Priority.EXPORT, defaultExportFloor());
+        }
+        return global;
+    }
+
+    /**
+     * Picks a limit from the available cores. Most processes are short probes and single
+     * frame renders, and the long ones limit their own threads, so one per core keeps the
+     * machine busy without oversubscribing it.
+     */
+    public static int defaultLimit() {
+        return Math.max(2, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Picks the number of slots exports may always fill. Parted exports run one encode per
+     * four cores along with their audio, with only the slots left below the other classes
+     * they would run one part at a time on four cores.
+     */
+    public static int defaultExportFloor() {
+        return Math.max(2, Runtime.getRuntime().availableProcessors() / 4 + 1);
+    }
+
+    /**
+     * Queues a process start, the process is started right away if a slot is free.
+     *
+     * @param priority the class of the process
+     * @param starter  starts the process on the thread the slot frees on, returns null
+     *                 if the process could not start
+     * @return the ticket of the process
+     */
+    public Ticket submit(Priority priority, Supplier<Process> starter) {
+        Ticket ticket = new Ticket(priority, submitted.getAndIncrement(), starter);
+        synchronized (this) {
+            queue.add(ticket);
+        }
+        dispatch();
+        return ticket;
+    }
+
+    /**
+     * Changes the number of processes running at once, running processes are not stopped.
+     */
+    public void setLimit(int limit) {
+        synchronized (this) {
+            this.limit = Math.max(1, limit);
+        }
+        Platform.runBack(this::dispatch);
+    }
+
+    public synchronized int getLimit() {
+        return limit;
+    }
+
+    /**
+     * Lets a priority fill at least a number of slots, whatever its rank, up to the limit.
+     */
+    public void setFloor(Priority priority, int slots) {
+        synchronized (this) {
+            floors.put(priority, slots);
+        }
+        Platform.runBack(this::dispatch);
+    }
+
+    /**
+     * @return the number of slots a priority may fill, one less per class below the first
+     * but no less than its floor
+     */
+    public synchronized int getLimit(Priority priority) {
+        int floor = Math.min(limit, floors.getOrDefault(priority, 1));
+        return Math.max(floor, limit - priority.ordinal());
+    }
+
+    public synchronized int getRunningCount() {
+        return running;
+    }
+
+    /**
+     * @return the number of processes waiting for a slot
+     */
+    public synchronized int getQueueDepth() {
+        return queue.size();
+    }
+
+    /**
+     * @return the number of processes of a priority waiting for a slot
+     */
+    public synchronized int getQueueDepth(Priority priority) {
+        return (int) queue.stream().filter(ticket -> ticket.priority == priority).count();
+    }
+
+    /**
+     * @return the average time processes of a priority waited for a slot, in milliseconds
+     */
+    public synchronized double getAverageWait(Priority priority) {
+        long count = started.getOrDefault(priority, 0L);
+        return count == 0 ? 0 : waited.getOrDefault(priority, 0L) / 1_000_000d / count;
+    }
+
+    /**
+     * @return the time the oldest queued process of a priority has been waiting, in
+     * milliseconds, or 0 if none is queued
+     */
+    public synchronized long getLongestWait(Priority priority) {
+        long now = System.nanoTime();
+        return queue.stream()
+                .filter(ticket -> ticket.priority == priority)
+                .mapToLong(ticket -> (now - ticket.queuedAt) / 1_000_000)
+                .max()
+                .orElse(0);
+    }
+
+    private void dispatch() {
+        List<Ticket> starting = new ArrayList<>();
+        synchronized (this) {
+            queue.sort(Comparator.comparing((Ticket ticket) -> ticket.priority).thenComparingLong(ticket -> ticket.order));
+            for (Ticket ticket : List.copyOf(queue)) {
+                // a class that cannot start leaves no room for the classes after it either
+                if (running >= getLimit(ticket.priority)) break;
+                queue.remove(ticket);
+                running++;
+                long wait = System.nanoTime() - ticket.queuedAt;
+                waited.merge(ticket.priority, wait, Long::sum);
+                started.merge(ticket.priority, 1L, Long::sum);
+                starting.add(ticket);
+            }
+        }
+        starting.forEach(this::start);
+    }
+
+    private void start(Ticket ticket) {
+        Process process = null;
+        try {
+            process = ticket.starter.get();
+        } catch (Exception e) {
+            ErrorHandler.handle(e, "start process");
+        }
+        if (process == null) {
+            release();
+        } else {
+            process.onExit().whenComplete((_, _) -> release());
+        }
+        ticket.process.complete(process);
+    }
+
+    private void release() {
+        synchronized (this) {
+            running--;
+        }
+        // the exit is reported on the process reaper, starting the next ones is left to a worker
+        Platform.runBack(this::dispatch);
+    }
+
+    /**
+     * A process waiting for, or holding, a slot of a {@link ProcessScheduler}.
+     */
+    public class Ticket {
+        private final Priority priority;
+        private final long order;
+        private final long queuedAt;
+        private final Supplier<Process> starter;
+        private final CompletableFuture<Process> process;
+
+        private Ticket(Priority priority, long order, Supplier<Process> starter) {
+            this.priority = priority;
+            this.order = order;
+            this.starter = starter;
+            this.queuedAt = System.nanoTime();
+            this.process = new CompletableFuture<>();
+        }
+
+        public Priority getPriority() {
+            return priority;
+        }
+
+        /**
+         * @return true if the process was started or failed to start
+         */
+        public boolean isStarted() {
+            return process.isDone();
+        }
+
+        /**
+         * Removes the ticket from the queue if its process has not started yet.
+         *
+         * @return true if the process will not start
+         */
+        public boolean cancel() {
+            synchronized (ProcessScheduler.this) {
+                if (!queue.remove(this)) return false;
+            }
+            process.complete(null);
+            return true;
+        }
+
+        /**
+         * Waits for the process to start.
+         *
+         * @return the process, or null if it failed to start or the ticket was cancelled
+         */
+        public Process await() throws InterruptedException {
+            try {
+                return process.get();
+            } catch (ExecutionException e) {
+                return null;
+            }
+        }
+    }
+}
@@ -1,8 +1,11 @@
 package org.luke.decut.ffmpeg;
 
 import org.luke.decut.cmd.Command;
+import org.luke.decut.cmd.ProcessResult;
+import org.luke.decut.cmd.ProcessScheduler;
 import org.luke.decut.crossplatform.Os;
 import org.luke.decut.ffmpeg.bitrate.Bitrate;
+import org.luke.decut.ffmpeg.codec.AudioCodec;
 import org.luke.decut.ffmpeg.codec.Codec;
 import org.luke.decut.ffmpeg.codec.VideoCodec;
 import org.luke.decut.ffmpeg.filter_complex.core.ComplexFilter;
@@ -12,22 +15,32 @@ import org.luke.decut.ffmpeg.filters.core.Filter;
 import org.luke.decut.ffmpeg.filters.core.FilterGraph;
 import org.luke.decut.ffmpeg.handlers.ProgressHandler;
 import org.luke.decut.ffmpeg.options.FfmpegOption;
+import org.luke.decut.ffmpeg.options.Map;
+import org.luke.decut.ffmpeg.pipe.RawAudioPipe;
+import org.luke.decut.ffmpeg.pipe.RawVideoPipe;
 import org.luke.decut.ffmpeg.preset.Preset;
 import org.luke.decut.local.LocalStore;
 import org.luke.decut.local.managers.FfmpegManager;
 import org.luke.decut.local.managers.LocalInstall;
 import org.luke.gui.exception.ErrorHandler;
-import org.luke.gui.threading.Platform;
 
 import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 
 public class FfmpegCommand implements CommandPart {
     private static String binary;
 
+    private final ArrayList<String> arguments;
     private final ArrayList<FfmpegInput> inputs;
+    private final ArrayList<FfmpegOutput> outputs;
     private final ArrayList<LineHandler> handlers;
     private final ArrayList<FilterGraph> graphs;
     private final ArrayList<FfmpegOption> options;
@@ -36,17 +49,26 @@ public class FfmpegCommand implements CommandPart {
     private final ComplexFilterGraph complexFilterGraph;
     private File output;
     private Consumer<File> onOutput;
-    private boolean outputHandled = false;
+    private Consumer<InputStream> onOutputPipe;
     private Command runningCom;
-    private Process running;
+    private volatile Process running;
+    private volatile boolean killed = false;
+    private RawVideoPipe rawVideoPipe;
+    private volatile ProcessScheduler.Ticket ticket;
+    private volatile CompletableFuture<ProcessResult> result;
+    private long timeout;
+    private ProcessScheduler.Priority priority = ProcessScheduler.Priority.THUMBNAIL;
     private Preset preset;
 
     private long duration = -1;
+    private int threads;
 
     private boolean progress = false;
 
     public FfmpegCommand() {
+        arguments = new ArrayList<>();
         inputs = new ArrayList<>();
+        outputs = new ArrayList<>();
         handlers = new ArrayList<>();
         graphs = new ArrayList<>();
         options = new ArrayList<>();
@@ -59,6 +81,27 @@ public class FfmpegCommand implements CommandPart {
         binary = getFfmpegBinary();
     }
 
+    /**
+     * Sets the binary commands run with, without resolving it.
+     */
+    static void setBinary(String binary) {
+        FfmpegCommand.binary = binary;
+    }
+
+    /**
+     * @return true if the binary commands run with was resolved, see {@link #resetBinary()}
+     */
+    public static boolean hasBinary() {
+        return binary != null;
+    }
+
+    /**
+     * @return the binary commands run with, or null if it was not resolved yet
+     */
+    public static String getBinary() {
+        return binary;
+    }
+
     public static String getFfmpegBinary() {
         String defStr = LocalStore.getDefaultFfmpeg();
         if (defStr == null) {
@@ -90,51 +133,169 @@ public class FfmpegCommand implements CommandPart {
         return version != null;
     }
 
-    private FfmpegCommand execute(String ffmpegBinary) {
-        List<String> comStr = apply(this, ffmpegBinary);
-        Command com = new Command(this::handleLine, this::handleLine, comStr.toArray(new String[0])).addOnExit(_ -> {
-            if (output != null && output.exists() && output.length() > 0) {
-                if (onOutput != null) {
-                    onOutput.accept(output);
+    private Process start(String ffmpegBinary, CompletableFuture<ProcessResult> result) {
+        if (killed || result.isDone()) {
+            result.cancel(false);
+            return null;
+        }
+        List<String> comStr;
+        try {
+            comStr = apply(this, ffmpegBinary);
+        } catch (Exception e) {
+            // an invalid filter graph or an unwritable filter script, the process never starts
+            complexFilterGraph.deleteScript();
+            result.completeExceptionally(e);
+            return null;
+        }
+        ProcessResult.Tail errorTail = new ProcessResult.Tail();
+        Command com = new Command(onOutputPipe == null ? this::handleLine : null, line -> {
+            errorTail.accept(line);
+            handleLine(line);
+        }, comStr.toArray(new String[0]));
+        if (onOutputPipe != null) {
+            com.setOutputStreamHandler(onOutputPipe);
+        }
+        runningCom = com;
+        long startedAt = System.nanoTime();
+        Process process = com.execute();
+        running = process;
+        if (killed && process != null) {
+            process.destroyForcibly();
+        }
+
+        // the completion follows the exit once the output was read, so handlers saw every line
+        com.getCompletion().whenComplete((exitCode, error) -> {
+            complexFilterGraph.deleteScript();
+            if (error != null) {
+                result.completeExceptionally(error);
+                return;
+            }
+            File written = output != null && output.exists() && output.length() > 0 ? output : null;
+            if (written != null && onOutput != null) {
+                try {
+                    onOutput.accept(written);
+                } catch (Exception e) {
+                    ErrorHandler.handle(e, "handle ffmpeg output file");
                 }
-                outputHandled = true;
             }
+            result.complete(new ProcessResult(exitCode, written, errorTail.lines(),
+                    (System.nanoTime() - startedAt) / 1_000_000));
         });
-        runningCom = com;
-        running = com.execute();
+        return process;
+    }
 
+    /**
+     * Stops this command, forcibly killing the FFmpeg process if it is running.
+     * A command that is killed before it starts will not start, and its result is
+     * cancelled. The result of a running command completes when the process exits.
+     *
+     * @return this command
+     */
+    public FfmpegCommand kill() {
+        killed = true;
+        RawVideoPipe pipe = rawVideoPipe;
+        if (pipe != null) {
+            // the stream breaks when the process dies, that is not an error
+            pipe.stop();
+        }
+        ProcessScheduler.Ticket queued = ticket;
+        CompletableFuture<ProcessResult> pending = result;
+        if (queued != null && queued.cancel() && pending != null) {
+            pending.cancel(false);
+        }
+        Process process = running;
+        if (process != null && process.isAlive()) {
+            process.destroyForcibly();
+        }
         return this;
     }
 
+    public boolean isKilled() {
+        return killed;
+    }
+
     public Command getRunningCom() {
         return runningCom;
     }
 
-    public FfmpegCommand execute() {
+    /**
+     * Sets the class this command is scheduled in, see {@link ProcessScheduler}.
+     * Commands are {@link ProcessScheduler.Priority#THUMBNAIL} by default.
+     */
+    public FfmpegCommand setPriority(ProcessScheduler.Priority priority) {
+        this.priority = priority;
+        return this;
+    }
+
+    public ProcessScheduler.Priority getPriority() {
+        return priority;
+    }
+
+    /**
+     * Sets the time the command may take, counted from {@link #execute()} so including
+     * the time it waits for a slot. A command running out of time is killed and its
+     * result completes with a {@link java.util.concurrent.TimeoutException}.
+     *
+     * @param timeout the time in milliseconds, or 0 for no limit
+     */
+    public FfmpegCommand setTimeout(long timeout) {
+        this.timeout = Math.max(0, timeout);
+        return this;
+    }
+
+    /**
+     * Starts this command through the {@link ProcessScheduler#global() process scheduler},
+     * right away if a slot is free, otherwise once its turn comes.
+     * <p>
+     * The returned future completes once the process exited and its output was handled,
+     * {@link #setOnOutput output handlers} included. It completes exceptionally if the
+     * process could not start or ran out of {@link #setTimeout time}, and cancelling it
+     * kills the process.
+     *
+     * @return the result of the process
+     */
+    public CompletableFuture<ProcessResult> execute() {
+        CompletableFuture<ProcessResult> future = new CompletableFuture<>();
+        result = future;
         String ffmpegBinary = binary;
-        if (ffmpegBinary == null) return this;
-        return execute(ffmpegBinary);
+        if (ffmpegBinary == null) {
+            future.completeExceptionally(new IllegalStateException("No FFmpeg binary was found"));
+            return future;
+        }
+        if (timeout > 0) {
+            future.orTimeout(timeout, TimeUnit.MILLISECONDS);
+        }
+        future.whenComplete((_, error) -> {
+            if (error != null) {
+                kill();
+            }
+        });
+        ticket = ProcessScheduler.global().submit(priority, () -> start(ffmpegBinary, future));
+        return future;
     }
 
+    /**
+     * @return the exit code of the process, or -1 if it did not start
+     * @throws IllegalThreadStateException if the process is still running
+     */
     public int getExitCode() {
-        return running.exitValue();
+        Process process = running;
+        return process == null ? -1 : process.exitValue();
     }
 
+    /**
+     * Blocks until the result of the last {@link #execute()} completes, whether it
+     * succeeded or not. Prefer composing on the future execute returns.
+     *
+     * @return this command
+     */
     public FfmpegCommand waitFor() {
-        Platform.waitWhile(() -> running == null, 10000);
-        if(running == null) {
-            System.out.println(apply(this));
-            System.out.println("\texecution failed, retrying...");
-            return execute().waitFor();
-        }
-        if (running.isAlive()) {
-            try {
-                running.waitFor();
-            } catch (InterruptedException e) {
-                throw new RuntimeException(e);
-            }
-
-            Platform.waitWhile(() -> output != null && onOutput != null && !outputHandled, 1000);
+        CompletableFuture<ProcessResult> pending = result;
+        if (pending == null) return this;
+        try {
+            pending.join();
+        } catch (CompletionException | CancellationException e) {
+            // failures show through the exit code
         }
         return this;
     }
@@ -195,16 +356,92 @@ public class FfmpegCommand implements CommandPart {
         return this;
     }
 
+    /**
+     * Sets the length above which the complex filter graph is passed in a
+     * -filter_complex_script file, see {@link ComplexFilterGraph#SCRIPT_THRESHOLD}.
+     */
+    public FfmpegCommand setFilterScriptThreshold(int threshold) {
+        complexFilterGraph.setScriptThreshold(threshold);
+        return this;
+    }
+
+    /**
+     * Adds arguments as they are, before the inputs. Used to rebuild a command from the
+     * {@link #getArguments() arguments} of another one.
+     */
+    public FfmpegCommand addArguments(List<String> arguments) {
+        this.arguments.addAll(arguments);
+        return this;
+    }
+
+    /**
+     * @return the arguments describing the inputs and the encoding of this command, without
+     * the binary, the progress reporting, the complex filter graph and the main output
+     */
+    public List<String> getArguments() {
+        ArrayList<String> parts = new ArrayList<>(inputArguments(this));
+        parts.addAll(outputArguments(this, 0));
+        return parts;
+    }
+
+    /**
+     * @return the compiled complex filter graph, or null if this command has none
+     * @throws IllegalStateException if the graph is not valid
+     */
+    public String getFilterGraph() {
+        return complexFilterGraph.compile(this);
+    }
+
+    /**
+     * Uses a complex filter graph compiled by {@link #getFilterGraph()} as it is.
+     */
+    public FfmpegCommand setFilterGraph(String graph) {
+        complexFilterGraph.setCompiled(graph);
+        return this;
+    }
+
     public FfmpegCommand addOption(FfmpegOption option) {
         options.add(option);
         return this;
     }
 
+    /**
+     * @return the filter graph labels mapped to the outputs with -map, e.g. [final_video]
+     */
+    public List<String> getMappedLabels() {
+        List<String> labels = new ArrayList<>();
+        for (FfmpegOutput output : outputs) {
+            labels.addAll(output.getMappedLabels());
+        }
+        options.stream()
+                .filter(option -> option instanceof Map && option.getValue() != null && option.getValue().startsWith("["))
+                .map(FfmpegOption::getValue)
+                .forEach(labels::add);
+        return labels;
+    }
+
     public FfmpegCommand setPreset(Preset preset) {
         this.preset = preset;
         return this;
     }
 
+    /**
+     * Limits the threads of this command, for commands running next to others. The
+     * encoders of every output and the filter graphs each get this many threads.
+     * Threads are not part of the {@link #getArguments() arguments}, as they depend on
+     * what runs at the same time as the command rather than on what it produces.
+     *
+     * @param threads the number of threads, or 0 to let FFmpeg use every core
+     */
+    public FfmpegCommand setThreads(int threads) {
+        this.threads = Math.max(0, threads);
+        return this;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
     public FfmpegCommand setCodec(Codec codec) {
         codecs.removeIf(c -> c.getType() == codec.getType());
         codecs.add(codec);
@@ -240,11 +477,75 @@ public class FfmpegCommand implements CommandPart {
         return this;
     }
 
+    public List<FfmpegInput> getInputs() {
+        return new ArrayList<>(inputs);
+    }
+
+    /**
+     * @return the number of inputs added so far, which is the index the next input gets
+     */
+    public int getInputCount() {
+        return inputs.size();
+    }
+
+    /**
+     * Adds an output with its own settings, written before the {@link #setOutput main output}.
+     * The codecs, bitrates and options set on the command only apply to the main output,
+     * a command may have no main output when all of its outputs are added this way.
+     */
+    public FfmpegCommand addOutput(FfmpegOutput output) {
+        outputs.add(output);
+        return this;
+    }
+
+    public List<FfmpegOutput> getOutputs() {
+        return new ArrayList<>(outputs);
+    }
+
     public FfmpegCommand setOutput(File file) {
         this.output = file;
         return this;
     }
 
+    public File getOutput() {
+        return output;
+    }
+
+    /**
+     * Sends the muxer output to stdout and hands the live stream to the given consumer.
+     * Progress reporting moves to stderr while a pipe output is set.
+     */
+    public FfmpegCommand setOutputPipe(Consumer<InputStream> onOutputPipe) {
+        this.onOutputPipe = onOutputPipe;
+        return this;
+    }
+
+    /**
+     * Streams the output as uncompressed {@link RawVideoPipe#PIXEL_FORMAT} frames through the given pipe.
+     */
+    public FfmpegCommand setRawVideoOutput(RawVideoPipe pipe) {
+        rawVideoPipe = pipe;
+        setCodec(VideoCodec.RAWVIDEO);
+        addOption(new FfmpegOption("pix_fmt").setValue(RawVideoPipe.PIXEL_FORMAT));
+        addOption(new FfmpegOption("f").setValue("rawvideo"));
+        return setOutputPipe(pipe);
+    }
+
+    /**
+     * Streams the output as interleaved {@link RawAudioPipe#SAMPLE_FORMAT} samples through the given pipe.
+     */
+    public FfmpegCommand setRawAudioOutput(RawAudioPipe pipe) {
+        setCodec(new AudioCodec("pcm_" + RawAudioPipe.SAMPLE_FORMAT));
+        addOption(new FfmpegOption("ar").setValue(String.valueOf(RawAudioPipe.SAMPLE_RATE)));
+        addOption(new FfmpegOption("ac").setValue(String.valueOf(RawAudioPipe.CHANNELS)));
+        addOption(new FfmpegOption("f").setValue(RawAudioPipe.SAMPLE_FORMAT));
+        return setOutputPipe(pipe);
+    }
+
+    public boolean isPipeOutput() {
+        return onOutputPipe != null;
+    }
+
     private void handleLine(String line) {
         handlers.forEach(handler -> {
             if (handler.match(this, line)) {
@@ -263,26 +564,100 @@ public class FfmpegCommand implements CommandPart {
         return this;
     }
 
+    /**
+     * Hands the output to the given consumer as a live stream, without writing it to
+     * disk when the extension has a pipe muxer: images, and wav, mp3, flac and ogg
+     * audio. Other extensions go through a temporary file. The consumer is not called
+     * if FFmpeg wrote nothing.
+     */
     public FfmpegCommand setOnOutputStream(Consumer<InputStream> onOutput, String extension) {
-        setOnOutput(file -> {
-            try (InputStream is = new FileInputStream(file)){
-                onOutput.accept(is);
-            } catch (Exception e) {
-                ErrorHandler.handle(e, "handle ffmpeg output");
+        FfmpegOption format = new FfmpegOption("f");
+        switch (extension.toLowerCase()) {
+            case ".png" -> setCodec(VideoCodec.PNG).addOption(format.setValue("image2pipe"));
+            case ".jpg", ".jpeg" -> setCodec(VideoCodec.MJPEG).addOption(format.setValue("image2pipe"));
+            case ".wav", ".mp3", ".flac", ".ogg" -> addOption(format.setValue(extension.substring(1).toLowerCase()));
+            default -> {
+                return setOnOutput(file -> {
+                    try (InputStream is = new FileInputStream(file)) {
+                        onOutput.accept(is);
+                    } catch (Exception e) {
+                        ErrorHandler.handle(e, "handle ffmpeg output");
+                    }
+                }, extension);
             }
-        }, extension);
-        return this;
+        }
+        return setOutputPipe(stream -> handleOutputStream(stream, onOutput));
+    }
+
+    /**
+     * Same as {@link #setOnOutputStream(Consumer, String)}, handing the output as a channel.
+     */
+    public FfmpegCommand setOnOutputChannel(Consumer<ReadableByteChannel> onOutput, String extension) {
+        return setOnOutputStream(stream -> onOutput.accept(Channels.newChannel(stream)), extension);
+    }
+
+    private static void handleOutputStream(InputStream stream, Consumer<InputStream> onOutput) {
+        try {
+            PushbackInputStream output = new PushbackInputStream(stream);
+            int first = output.read();
+            if (first < 0) return;
+            output.unread(first);
+            onOutput.accept(output);
+            // decoders stop at the end of the image, the rest is read so FFmpeg never blocks on a full pipe
+            output.transferTo(OutputStream.nullOutputStream());
+        } catch (IOException e) {
+            // the consumer closed the stream, FFmpeg stops on the broken pipe
+        } catch (Exception e) {
+            ErrorHandler.handle(e, "handle ffmpeg output");
+        }
     }
 
     public List<String> apply(FfmpegCommand command, String ffmpegBinary) {
+        return apply(command, ffmpegBinary, false);
+    }
+
+    /**
+     * Builds the command line for messages, without writing the filter script a long
+     * complex filter graph is passed in, see {@link ComplexFilterGraph#describe}.
+     *
+     * @return the command line, with the binary commands run with
+     */
+    public String describe() {
+        return String.join(" ", apply(this, binary, true));
+    }
+
+    private List<String> apply(FfmpegCommand command, String ffmpegBinary, boolean describe) {
         ArrayList<String> outParts = new ArrayList<>();
 
         outParts.add(ffmpegBinary);
         if(progress) {
             outParts.add("-progress");
-            outParts.add("pipe:1");
+            outParts.add(onOutputPipe == null ? "pipe:1" : "pipe:2");
         }
         outParts.add("-y");
+        if (threads > 0) {
+            outParts.add("-filter_threads");
+            outParts.add(String.valueOf(threads));
+            outParts.add("-filter_complex_threads");
+            outParts.add(String.valueOf(threads));
+        }
+
+        // the filter graph is a global option, it comes first so it applies whatever follows
+        outParts.addAll(describe ? complexFilterGraph.describe(command) : complexFilterGraph.apply(command));
+        outParts.addAll(inputArguments(command));
+        outParts.addAll(outputArguments(command, threads));
+
+        if(onOutputPipe != null) {
+            outParts.add("pipe:1");
+        } else if(output != null) {
+            outParts.add(output.getAbsolutePath());
+        }
+
+        return outParts;
+    }
+
+    private List<String> inputArguments(FfmpegCommand command) {
+        ArrayList<String> outParts = new ArrayList<>(arguments);
 
         for (FfmpegInput input : inputs) {
             outParts.addAll(input.apply(command));
@@ -291,8 +666,21 @@ public class FfmpegCommand implements CommandPart {
         for (FilterGraph graph : graphs) {
             outParts.addAll(graph.apply(command));
         }
+        return outParts;
+    }
+
+    private List<String> outputArguments(FfmpegCommand command, int threads) {
+        ArrayList<String> outParts = new ArrayList<>();
+        // -threads is an output option, every output gets its own
+        List<String> threadParts = threads > 0 ? List.of("-threads", String.valueOf(threads)) : List.of();
+        for (FfmpegOutput out : outputs) {
+            outParts.addAll(threadParts);
+            outParts.addAll(out.apply(command));
+        }
+        if (output != null || onOutputPipe != null) {
+            outParts.addAll(threadParts);
+        }
 
-        outParts.addAll(complexFilterGraph.apply(command));
         if(preset != null) {
             outParts.addAll(preset.apply(command));
         }
@@ -308,11 +696,6 @@ public class FfmpegCommand implements CommandPart {
         for (FfmpegOption option : options) {
             outParts.addAll(option.apply(command));
         }
-
-        if(output != null) {
-            outParts.add(output.getAbsolutePath());
-        }
-
         return outParts;
     }
 
@@ -12,6 +12,9 @@ public class FfmpegInput implements CommandPart {
 
     private final ArrayList<FfmpegOption> options;
 
+    private int frameWidth;
+    private int frameHeight;
+
 
     public FfmpegInput(File source) {
         this.source = source;
@@ -24,6 +27,30 @@ public class FfmpegInput implements CommandPart {
     }
 
 
+    /**
+     * Records the size of the video frames of this input, when it is known, so filters
+     * that would not change it can be skipped.
+     */
+    public FfmpegInput setFrameSize(int width, int height) {
+        this.frameWidth = width;
+        this.frameHeight = height;
+        return this;
+    }
+
+    /**
+     * @return the width of the video frames of this input, or 0 if unknown
+     */
+    public int getFrameWidth() {
+        return frameWidth;
+    }
+
+    /**
+     * @return the height of the video frames of this input, or 0 if unknown
+     */
+    public int getFrameHeight() {
+        return frameHeight;
+    }
+
     @Override
     public List<String> apply(FfmpegCommand command) {
         ArrayList<String> out = new ArrayList<>();
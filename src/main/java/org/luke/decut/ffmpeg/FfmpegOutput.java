@@ -0,0 +1,95 @@
+package org.luke.decut.ffmpeg;
+
+import org.luke.decut.ffmpeg.bitrate.Bitrate;
+import org.luke.decut.ffmpeg.codec.Codec;
+import org.luke.decut.ffmpeg.codec.VideoCodec;
+import org.luke.decut.ffmpeg.options.FfmpegOption;
+import org.luke.decut.ffmpeg.options.Map;
+import org.luke.decut.ffmpeg.preset.Preset;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An additional output of a command, with its own streams and encoding settings, which
+ * lets a single FFmpeg process decode and filter the inputs once for several files.
+ * <p>
+ * Example usage:
+ * <pre>
+ * command.addOutput(new FfmpegOutput(new File("out_720p.mp4"))
+ *     .addOption(new Map("[v720]"))
+ *     .setCodec(VideoCodec.H264)
+ *     .setBitrate(new VideoBitrate("3M")));
+ * </pre>
+ */
+public class FfmpegOutput implements CommandPart {
+    private final File target;
+
+    private final ArrayList<Codec> codecs;
+    private final ArrayList<Bitrate> bitrates;
+    private final ArrayList<FfmpegOption> options;
+    private Preset preset;
+
+    public FfmpegOutput(File target) {
+        this.target = target;
+        codecs = new ArrayList<>();
+        bitrates = new ArrayList<>();
+        options = new ArrayList<>();
+    }
+
+    public FfmpegOutput setCodec(Codec codec) {
+        codecs.removeIf(c -> c.getType() == codec.getType());
+        codecs.add(codec);
+        return this;
+    }
+
+    /**
+     * Sets the preset of the video encoder of this output, ignored if its codec has no
+     * matching preset, see {@link Preset#getValueForCodec(String)}.
+     */
+    public FfmpegOutput setPreset(Preset preset) {
+        this.preset = preset;
+        return this;
+    }
+
+    public FfmpegOutput setBitrate(Bitrate bitrate) {
+        bitrates.removeIf(b -> b.getType() == bitrate.getType());
+        bitrates.add(bitrate);
+        return this;
+    }
+
+    public FfmpegOutput addOption(FfmpegOption option) {
+        options.add(option);
+        return this;
+    }
+
+    public File getTarget() {
+        return target;
+    }
+
+    /**
+     * @return the filter graph labels mapped to this output with -map
+     */
+    public List<String> getMappedLabels() {
+        return options.stream()
+                .filter(option -> option instanceof Map && option.getValue() != null && option.getValue().startsWith("["))
+                .map(FfmpegOption::getValue)
+                .toList();
+    }
+
+    @Override
+    public List<String> apply(FfmpegCommand command) {
+        ArrayList<String> out = new ArrayList<>();
+        codecs.forEach(codec -> {
+            out.addAll(codec.apply(command));
+            if (preset != null && codec instanceof VideoCodec) {
+                out.addAll(preset.applyForCodec(codec.getCodecName()));
+            }
+        });
+        bitrates.forEach(bitrate -> out.addAll(bitrate.apply(command)));
+        options.forEach(option -> out.addAll(option.apply(command)));
+        out.add(target.getAbsolutePath());
+        return out;
+    }
+}
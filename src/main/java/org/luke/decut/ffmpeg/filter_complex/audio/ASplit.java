@@ -0,0 +1,29 @@
+package org.luke.decut.ffmpeg.filter_complex.audio;
+
+import org.luke.decut.ffmpeg.filter_complex.core.ComplexFilter;
+import org.luke.decut.ffmpeg.filters.core.FilterOption;
+
+public class ASplit extends ComplexFilter {
+    private final FilterOption outputs;
+
+    public ASplit() {
+        super("asplit");
+
+        outputs = new FilterOption("outputs");
+
+        addOptions(outputs);
+    }
+
+    /**
+     * Sends every sample of its input to the given number of outputs.
+     */
+    public ASplit(int outputs) {
+        this();
+        setOutputs(outputs);
+    }
+
+    public ASplit setOutputs(int value) {
+        outputs.setValue(String.valueOf(value));
+        return this;
+    }
+}
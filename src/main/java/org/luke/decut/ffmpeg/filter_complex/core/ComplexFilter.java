@@ -23,6 +23,7 @@ public abstract class ComplexFilter {
     private final String name;
     private final FilterOption enable;
     private final ArrayList<FilterOption> options;
+    private Rendered rendered;
 
     /**
      * Creates a new filter with the specified name and type.
@@ -37,6 +38,32 @@ public abstract class ComplexFilter {
         addOption(enable);
     }
 
+    /**
+     * @return the name of the filter (e.g., "scale", "crop")
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the value of the named option, or null if it was not set
+     */
+    public String getOption(String name) {
+        for (FilterOption option : options) {
+            if (option.isChanged() && option.getName().equals(name)) {
+                return option.getValue();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the names of the options that were set
+     */
+    public List<String> getSetOptions() {
+        return options.stream().filter(FilterOption::isChanged).map(FilterOption::getName).toList();
+    }
+
     /**
      * Adds a single option to the filter.
      *
@@ -67,16 +94,45 @@ public abstract class ComplexFilter {
         return this;
     }
 
+    /**
+     * @return a number that grows whenever an option is added or set, which lets graphs
+     * tell whether text they compiled from this filter is still up to date
+     */
+    public int getVersion() {
+        int version = options.size();
+        for (FilterOption option : options) {
+            version += option.getVersion();
+        }
+        return version;
+    }
+
     /**
      * Generates the FFmpeg filter syntax for this filter and its options.
      * The format is: name=option1:option2:option3
+     * <p>
+     * The text is kept until an option is set again, so a filter reused across commands
+     * is only rendered once.
      *
      * @return the FFmpeg filter syntax string
      */
     public String apply(FfmpegCommand command) {
+        int stamp = getVersion();
+        Rendered last = rendered;
+        if (last != null && last.stamp() == stamp) {
+            return last.text();
+        }
+
         List<String> filtered = options.stream().filter(FilterOption::isChanged).map(fo -> fo.apply(command)).toList();
-        return name.concat(filtered.isEmpty() ? "" : "=").concat(options.isEmpty() ? "" :
+        String text = name.concat(filtered.isEmpty() ? "" : "=").concat(options.isEmpty() ? "" :
             String.join(":", filtered)
         );
+        rendered = new Rendered(stamp, text);
+        return text;
+    }
+
+    /**
+     * The text of the filter along with its {@link #getVersion version} when it was rendered.
+     */
+    private record Rendered(int stamp, String text) {
     }
 }
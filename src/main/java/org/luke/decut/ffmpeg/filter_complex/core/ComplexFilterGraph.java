@@ -1,8 +1,14 @@
 package org.luke.decut.ffmpeg.filter_complex.core;
 
+import org.luke.decut.crossplatform.Os;
 import org.luke.decut.ffmpeg.CommandPart;
 import org.luke.decut.ffmpeg.FfmpegCommand;
+import org.luke.gui.exception.ErrorHandler;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.stream.Collectors;
@@ -31,7 +37,19 @@ import java.util.stream.Collectors;
  * </pre>
  */
 public class ComplexFilterGraph implements CommandPart {
+    /**
+     * The default length above which the graph is passed in a script file, well under the
+     * 32767 characters Windows allows for a whole command line.
+     */
+    public static final int SCRIPT_THRESHOLD = 8192;
+
     private final List<ComplexFilterNode> nodes;
+    private int scriptThreshold = SCRIPT_THRESHOLD;
+    private File script;
+    private String scriptText;
+    private String compiled;
+    private int version;
+    private Compiled cache;
 
     /**
      * Creates a new empty complex filter graph.
@@ -48,6 +66,7 @@ public class ComplexFilterGraph implements CommandPart {
      */
     public ComplexFilterGraph addNode(ComplexFilterNode node) {
         nodes.add(node);
+        version++;
         return this;
     }
 
@@ -87,31 +106,155 @@ public class ComplexFilterGraph implements CommandPart {
         return addNode(node);
     }
 
+    /**
+     * Sets the length of graph text above which the graph is written to a file passed with
+     * -filter_complex_script, instead of being passed on the command line.
+     *
+     * @param scriptThreshold the number of characters, 0 to always use a script file
+     * @return this ComplexFilterGraph instance for method chaining
+     */
+    public ComplexFilterGraph setScriptThreshold(int scriptThreshold) {
+        this.scriptThreshold = scriptThreshold;
+        return this;
+    }
+
+    /**
+     * Uses the text of a graph compiled earlier, e.g. by a command that was saved, instead
+     * of compiling the nodes.
+     *
+     * @param compiled the text returned by {@link #compile}
+     * @return this ComplexFilterGraph instance for method chaining
+     */
+    public ComplexFilterGraph setCompiled(String compiled) {
+        this.compiled = compiled;
+        return this;
+    }
+
+    /**
+     * Compiles the nodes into the text FFmpeg reads.
+     * <p>
+     * The nodes are validated, rewritten by a {@link FilterGraphOptimizer} to skip filters
+     * that change nothing, then compiled with a {@link FilterGraphDag}, which drops branches
+     * that are never mapped and splits pads consumed more than once. The text is kept until
+     * a node, a filter option, the mapped labels or the frame size of an input changes.
+     *
+     * @return the graph as "node1;node2;node3", or null if the graph is empty
+     * @throws IllegalStateException if the nodes do not form a valid graph
+     */
+    public String compile(FfmpegCommand command) {
+        if (compiled != null) {
+            return compiled;
+        }
+        if (nodes.isEmpty()) {
+            return null;
+        }
+
+        int stamp = version;
+        for (ComplexFilterNode node : nodes) {
+            stamp += node.getVersion();
+        }
+        List<String> mapped = command.getMappedLabels();
+        List<Long> frameSizes = command.getInputs().stream()
+                .map(input -> (long) input.getFrameWidth() << 32 | input.getFrameHeight())
+                .toList();
+        Compiled last = cache;
+        if (last != null && last.stamp() == stamp && last.mapped().equals(mapped)
+                && last.frameSizes().equals(frameSizes)) {
+            return last.text();
+        }
+
+        new FilterGraphDag(nodes, command.getInputCount(), mapped).validate();
+        List<ComplexFilterNode> optimized = new FilterGraphOptimizer(command.getInputs(), mapped)
+                .optimize(nodes);
+        String text = new FilterGraphDag(optimized, command.getInputCount(), mapped).compile()
+                .stream()
+                .map(cfn -> cfn.apply(command))
+                .collect(Collectors.joining(";"));
+        cache = new Compiled(stamp, mapped, frameSizes, text);
+        return text;
+    }
+
     /**
      * Generates the FFmpeg filter_complex syntax.
-     * The format is: -filter_complex "node1;node2;node3"
+     * The format is: -filter_complex "node1;node2;node3", or -filter_complex_script file
+     * when the graph is longer than the script threshold, since timelines with thousands of
+     * clips would exceed the operating system's limit on argument lengths.
      *
-     * @return the FFmpeg filter_complex command string
+     * @return the FFmpeg filter_complex arguments
+     * @throws IllegalStateException if the nodes do not form a valid graph
+     * @see #compile
      */
     @Override
     public List<String> apply(FfmpegCommand command) {
-        if (nodes.isEmpty()) {
+        String filterString = compile(command);
+        if (filterString == null) {
             return List.of();
         }
 
-        String filterString = nodes.stream()
-                .map(cfn -> cfn.apply(command))
-                .collect(Collectors.joining(";"));
+        if (filterString.length() > scriptThreshold) {
+            try {
+                // the script is written once and reused until deleteScript
+                if (script == null) {
+                    script = Os.fromSystem().createTempFile("filter_", ".txt");
+                    scriptText = null;
+                }
+                if (!filterString.equals(scriptText)) {
+                    Files.writeString(script.toPath(), filterString, StandardCharsets.UTF_8);
+                    scriptText = filterString;
+                }
+                return List.of("-filter_complex_script", script.getAbsolutePath());
+            } catch (IOException e) {
+                ErrorHandler.handle(e, "write filter script");
+            }
+        }
+        return List.of("-filter_complex", filterString);
+    }
 
+    /**
+     * Same as {@link #apply}, without writing a script file, for showing the command line
+     * in messages. A graph passed in a script shows the script's path, or its length if
+     * the script was already deleted.
+     *
+     * @throws IllegalStateException if the nodes do not form a valid graph
+     */
+    public List<String> describe(FfmpegCommand command) {
+        String filterString = compile(command);
+        if (filterString == null) {
+            return List.of();
+        }
+        if (filterString.length() > scriptThreshold) {
+            return List.of("-filter_complex_script",
+                    script == null ? "<" + filterString.length() + " characters>" : script.getAbsolutePath());
+        }
         return List.of("-filter_complex", filterString);
     }
 
+    /**
+     * Deletes the script file written by the last {@link #apply}, once FFmpeg is done with it.
+     */
+    public void deleteScript() {
+        if (script != null) {
+            if (!script.delete()) {
+                script.deleteOnExit();
+            }
+            script = null;
+            scriptText = null;
+        }
+    }
+
     /**
      * Checks if this complex filter graph is empty.
      *
      * @return true if no nodes have been added, false otherwise
      */
     public boolean isEmpty() {
-        return nodes.isEmpty();
+        return nodes.isEmpty() && compiled == null;
+    }
+
+    /**
+     * The text of the graph along with what it was compiled from: the versions of the nodes,
+     * and the mapped labels and input frame sizes the optimizer read from the command.
+     */
+    private record Compiled(int stamp, List<String> mapped, List<Long> frameSizes, String text) {
     }
 }
\ No newline at end of file
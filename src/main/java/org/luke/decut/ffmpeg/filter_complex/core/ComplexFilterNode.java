@@ -24,6 +24,8 @@ public class ComplexFilterNode {
     private final List<String> inputs;
     private final List<ComplexFilter> filters;
     private final List<String> outputs;
+    private boolean opaque;
+    private int version;
     
     /**
      * Creates a new empty complex filter node.
@@ -43,6 +45,7 @@ public class ComplexFilterNode {
     public ComplexFilterNode setInput(String input) {
         inputs.clear();
         inputs.add(input);
+        version++;
         return this;
     }
     
@@ -55,6 +58,7 @@ public class ComplexFilterNode {
     public ComplexFilterNode setInputs(String... inputs) {
         this.inputs.clear();
         this.inputs.addAll(Arrays.asList(inputs));
+        version++;
         return this;
     }
     
@@ -66,6 +70,7 @@ public class ComplexFilterNode {
      */
     public ComplexFilterNode addInput(String input) {
         inputs.add(input);
+        version++;
         return this;
     }
     
@@ -78,6 +83,7 @@ public class ComplexFilterNode {
     public ComplexFilterNode setOutput(String output) {
         outputs.clear();
         outputs.add(output);
+        version++;
         return this;
     }
     
@@ -90,6 +96,7 @@ public class ComplexFilterNode {
     public ComplexFilterNode setOutputs(String... outputs) {
         this.outputs.clear();
         this.outputs.addAll(Arrays.asList(outputs));
+        version++;
         return this;
     }
     
@@ -101,6 +108,7 @@ public class ComplexFilterNode {
      */
     public ComplexFilterNode addOutput(String output) {
         outputs.add(output);
+        version++;
         return this;
     }
     
@@ -112,6 +120,7 @@ public class ComplexFilterNode {
      */
     public ComplexFilterNode addFilter(ComplexFilter filter) {
         filters.add(filter);
+        version++;
         return this;
     }
     
@@ -123,9 +132,50 @@ public class ComplexFilterNode {
      */
     public ComplexFilterNode addFilters(ComplexFilter... filters) {
         this.filters.addAll(Arrays.asList(filters));
+        version++;
+        return this;
+    }
+
+    /**
+     * Adds multiple filters to this node's filter chain.
+     *
+     * @param filters the filters to add, e.g. a chain from a {@link FilterChainCache}
+     * @return this ComplexFilterNode instance for method chaining
+     */
+    public ComplexFilterNode addFilters(List<ComplexFilter> filters) {
+        this.filters.addAll(filters);
+        version++;
         return this;
     }
     
+    /**
+     * Marks the output of this node as opaque frames covering the whole canvas for as long
+     * as whatever it is overlaid on, which lets the optimizer drop what it hides.
+     *
+     * @param opaque true if nothing under this node's output can be seen
+     * @return this ComplexFilterNode instance for method chaining
+     */
+    public ComplexFilterNode setOpaque(boolean opaque) {
+        this.opaque = opaque;
+        version++;
+        return this;
+    }
+
+    public boolean isOpaque() {
+        return opaque;
+    }
+
+    /**
+     * @return a number that grows whenever the labels, the filters or their options change
+     */
+    public int getVersion() {
+        int total = version;
+        for (ComplexFilter filter : filters) {
+            total += filter.getVersion();
+        }
+        return total;
+    }
+
     /**
      * Generates the FFmpeg syntax for this filter node.
      * The format is: [input1][input2]filter1,filter2[output1][output2]
@@ -0,0 +1,58 @@
+package org.luke.decut.ffmpeg.filter_complex.core;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Keeps the filter chains a renderer built for recently rendered clips, so regenerating a
+ * command after an edit reuses the filters of every clip that did not change, along with
+ * the text they already {@link ComplexFilter#apply rendered}.
+ * <p>
+ * The key must hold every value the chain is built from, but not the labels of the node
+ * it ends up in, which change whenever an input is added before it. The cached filters
+ * are shared between commands and must not be modified.
+ * <p>
+ * Example usage:
+ * <pre>
+ * List&lt;ComplexFilter&gt; filters = cache.get(new ClipKey(start, duration),
+ *     () -&gt; List.of(new TrimC(start, duration), new SetPts().setExpr("PTS-STARTPTS")));
+ * </pre>
+ */
+public class FilterChainCache {
+    private final LinkedHashMap<Object, List<ComplexFilter>> chains;
+
+    /**
+     * @param capacity the number of chains to keep, the least recently used ones are dropped first
+     */
+    public FilterChainCache(int capacity) {
+        chains = new LinkedHashMap<>(16, .75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Object, List<ComplexFilter>> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * @param key     the values the chain is built from
+     * @param builder builds the chain when none is cached for the key
+     * @return the filters of the chain
+     */
+    public synchronized List<ComplexFilter> get(Object key, Supplier<List<ComplexFilter>> builder) {
+        List<ComplexFilter> filters = chains.get(key);
+        if (filters == null) {
+            filters = List.copyOf(builder.get());
+            chains.put(key, filters);
+        }
+        return filters;
+    }
+
+    /**
+     * @return the number of chains currently cached
+     */
+    public synchronized int size() {
+        return chains.size();
+    }
+}
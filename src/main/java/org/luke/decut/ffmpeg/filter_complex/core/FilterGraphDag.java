@@ -0,0 +1,245 @@
+package org.luke.decut.ffmpeg.filter_complex.core;
+
+import org.luke.decut.ffmpeg.core.StreamType;
+import org.luke.decut.ffmpeg.filter_complex.audio.ASplit;
+import org.luke.decut.ffmpeg.filter_complex.video.Split;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The nodes of a complex filter graph seen as a graph of pads, used to turn the nodes
+ * the renderers build into a graph FFmpeg accepts.
+ * <p>
+ * {@link #compile()} checks the wiring, drops the nodes whose outputs never reach a
+ * mapped label, and gives every pad consumed more than once a split or asplit node, so
+ * each input stream is decoded once however many nodes read from it. The given nodes
+ * are never modified, rewritten nodes are copies.
+ * <p>
+ * Example usage:
+ * <pre>
+ * List&lt;ComplexFilterNode&gt; compiled = new FilterGraphDag(nodes, 2, List.of("[out]")).compile();
+ * </pre>
+ */
+public class FilterGraphDag {
+    static final Pattern INPUT_STREAM = Pattern.compile("\\[(\\d+)(?::([vas])(?::\\d+)?)?]");
+    private static final Set<String> AUDIO_SOURCES = Set.of("aevalsrc", "anullsrc", "anoisesrc", "sine", "amovie");
+
+    private final List<ComplexFilterNode> nodes;
+    private final int inputCount;
+    private final Set<String> mappedLabels;
+    private final HashMap<String, ComplexFilterNode> producers;
+
+    /**
+     * @param nodes        the nodes of the graph, in the order they were added
+     * @param inputCount   the number of inputs of the command, which input stream labels refer to
+     * @param mappedLabels the labels mapped to the output, the only pads that are kept alive;
+     *                     when empty, FFmpeg maps every unconnected pad and nothing is dropped
+     */
+    public FilterGraphDag(List<ComplexFilterNode> nodes, int inputCount, List<String> mappedLabels) {
+        this.nodes = nodes;
+        this.inputCount = inputCount;
+        this.mappedLabels = new HashSet<>(mappedLabels);
+        this.producers = new HashMap<>();
+    }
+
+    /**
+     * Validates the graph, then removes its dead branches and fans out shared pads.
+     *
+     * @return the nodes to pass to FFmpeg
+     * @throws IllegalStateException if the graph is not valid
+     */
+    public List<ComplexFilterNode> compile() {
+        validate();
+        return fanOut(prune());
+    }
+
+    /**
+     * Checks that every consumed label is an existing input stream or the output of
+     * exactly one node, that every mapped label is produced and that there is no cycle.
+     *
+     * @throws IllegalStateException listing every problem found
+     */
+    public void validate() {
+        List<String> problems = new ArrayList<>();
+        producers.clear();
+        for (ComplexFilterNode node : nodes) {
+            for (String output : node.getOutputs()) {
+                if (producers.put(output, node) != null) {
+                    problems.add(output + " is produced by more than one node");
+                }
+            }
+        }
+
+        for (ComplexFilterNode node : nodes) {
+            for (String input : node.getInputs()) {
+                Matcher stream = INPUT_STREAM.matcher(input);
+                if (stream.matches()) {
+                    if (Integer.parseInt(stream.group(1)) >= inputCount) {
+                        problems.add(input + " refers to a missing input");
+                    }
+                } else if (!producers.containsKey(input)) {
+                    problems.add(input + " is consumed but never produced");
+                } else if (mappedLabels.contains(input)) {
+                    problems.add(input + " is both mapped and consumed by a filter");
+                }
+            }
+        }
+
+        for (String mapped : mappedLabels) {
+            if (!producers.containsKey(mapped)) {
+                problems.add(mapped + " is mapped but never produced");
+            }
+        }
+
+        HashSet<ComplexFilterNode> done = new HashSet<>();
+        HashSet<ComplexFilterNode> visiting = new HashSet<>();
+        for (ComplexFilterNode node : nodes) {
+            if (hasCycle(node, done, visiting)) {
+                problems.add("the graph has a cycle through " + String.join("", node.getOutputs()));
+                break;
+            }
+        }
+
+        if (!problems.isEmpty()) {
+            throw new IllegalStateException("Invalid filter graph: " + String.join("; ", problems));
+        }
+    }
+
+    private boolean hasCycle(ComplexFilterNode node, Set<ComplexFilterNode> done, Set<ComplexFilterNode> visiting) {
+        if (done.contains(node)) return false;
+        if (!visiting.add(node)) return true;
+        for (String input : node.getInputs()) {
+            ComplexFilterNode producer = producers.get(input);
+            if (producer != null && hasCycle(producer, done, visiting)) {
+                return true;
+            }
+        }
+        visiting.remove(node);
+        done.add(node);
+        return false;
+    }
+
+    /**
+     * @return the nodes leading to a mapped label or to an unlabeled output, in their original order
+     */
+    private List<ComplexFilterNode> prune() {
+        if (mappedLabels.isEmpty()) {
+            return nodes;
+        }
+        HashSet<ComplexFilterNode> live = new HashSet<>();
+        List<ComplexFilterNode> pending = new ArrayList<>();
+        for (ComplexFilterNode node : nodes) {
+            if (node.getOutputs().isEmpty() || node.getOutputs().stream().anyMatch(mappedLabels::contains)) {
+                pending.add(node);
+            }
+        }
+        while (!pending.isEmpty()) {
+            ComplexFilterNode node = pending.removeLast();
+            if (live.add(node)) {
+                for (String input : node.getInputs()) {
+                    ComplexFilterNode producer = producers.get(input);
+                    if (producer != null) {
+                        pending.add(producer);
+                    }
+                }
+            }
+        }
+        return nodes.stream().filter(live::contains).toList();
+    }
+
+    private List<ComplexFilterNode> fanOut(List<ComplexFilterNode> graph) {
+        LinkedHashMap<String, Integer> uses = new LinkedHashMap<>();
+        for (ComplexFilterNode node : graph) {
+            for (String input : node.getInputs()) {
+                uses.merge(input, 1, Integer::sum);
+            }
+        }
+        HashMap<String, List<String>> branches = new HashMap<>();
+        uses.forEach((label, count) -> {
+            if (count > 1) {
+                String base = "[" + label.substring(1, label.length() - 1).replaceAll("\\W", "_") + "_fan_";
+                List<String> labels = new ArrayList<>();
+                for (int i = 0; i < count; i++) {
+                    labels.add(base + i + "]");
+                }
+                branches.put(label, labels);
+            }
+        });
+        if (branches.isEmpty()) {
+            return graph;
+        }
+
+        List<ComplexFilterNode> compiled = new ArrayList<>();
+        for (String label : uses.keySet()) {
+            if (branches.containsKey(label) && !producers.containsKey(label)) {
+                compiled.add(splitNode(label, branches.get(label)));
+            }
+        }
+        HashMap<String, Integer> taken = new HashMap<>();
+        for (ComplexFilterNode node : graph) {
+            List<String> inputs = new ArrayList<>();
+            for (String input : node.getInputs()) {
+                List<String> labels = branches.get(input);
+                inputs.add(labels == null ? input : labels.get(taken.merge(input, 1, Integer::sum) - 1));
+            }
+            compiled.add(new ComplexFilterNode()
+                    .setInputs(inputs.toArray(new String[0]))
+                    .addFilters(node.getFilters().toArray(new ComplexFilter[0]))
+                    .setOutputs(node.getOutputs().toArray(new String[0])));
+            for (String output : node.getOutputs()) {
+                if (branches.containsKey(output)) {
+                    compiled.add(splitNode(output, branches.get(output)));
+                }
+            }
+        }
+        return compiled;
+    }
+
+    private ComplexFilterNode splitNode(String label, List<String> outputs) {
+        return new ComplexFilterNode()
+                .setInput(label)
+                .addFilter(split(typeOf(label), outputs.size()))
+                .setOutputs(outputs.toArray(new String[0]));
+    }
+
+    /**
+     * Finds the type of a pad from its input stream specifier, or from the first input
+     * of the node producing it, down to the source filter of the chain.
+     */
+    StreamType typeOf(String label) {
+        Matcher stream = INPUT_STREAM.matcher(label);
+        if (stream.matches()) {
+            return "a".equals(stream.group(2)) ? StreamType.AUDIO : StreamType.VIDEO;
+        }
+        ComplexFilterNode producer = producers.get(label);
+        if (producer == null) {
+            return StreamType.VIDEO;
+        }
+        if (!producer.getInputs().isEmpty()) {
+            return typeOf(producer.getInputs().getFirst());
+        }
+        List<ComplexFilter> filters = producer.getFilters();
+        return filters.isEmpty() ? StreamType.VIDEO : ofSource(filters.getFirst().getName());
+    }
+
+    /**
+     * @return a filter sending its input of the given type to the given number of outputs
+     */
+    static ComplexFilter split(StreamType type, int outputs) {
+        return type == StreamType.VIDEO ? new Split(outputs) : new ASplit(outputs);
+    }
+
+    /**
+     * @return the type of the streams generated by a source filter with the given name
+     */
+    static StreamType ofSource(String filterName) {
+        return AUDIO_SOURCES.contains(filterName) ? StreamType.AUDIO : StreamType.VIDEO;
+    }
+}
@@ -0,0 +1,392 @@
+package org.luke.decut.ffmpeg.filter_complex.core;
+
+import org.luke.decut.ffmpeg.FfmpegInput;
+import org.luke.decut.ffmpeg.filter_complex.audio.AMix;
+import org.luke.decut.ffmpeg.filter_complex.audio.ANull;
+import org.luke.decut.ffmpeg.filter_complex.audio.Volume;
+import org.luke.decut.ffmpeg.filter_complex.video.Crop;
+import org.luke.decut.ffmpeg.filter_complex.video.Null;
+import org.luke.decut.ffmpeg.filter_complex.video.Overlay;
+import org.luke.decut.ffmpeg.filter_complex.video.Scale;
+import org.luke.decut.ffmpeg.filter_complex.video.SetPts;
+import org.luke.decut.ffmpeg.filter_complex.video.TrimC;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Rewrites the nodes of a complex filter graph to skip the filtering that would not
+ * change the output, before the graph is compiled and passed to FFmpeg.
+ * <p>
+ * The optimizer:
+ * <ul>
+ *     <li>drops overlays whose top input is {@link ComplexFilterNode#setOpaque(boolean) opaque},
+ *     along with whatever they would have been drawn on,</li>
+ *     <li>joins nodes that only feed each other into single chains,</li>
+ *     <li>removes scale and crop filters whose input already has the target size, when the
+ *     size of the input is {@link FfmpegInput#setFrameSize(int, int) known},</li>
+ *     <li>merges consecutive trims and timestamp resets,</li>
+ *     <li>removes unit volumes and mixes of a single input, bypassing nodes left empty.</li>
+ * </ul>
+ * The given nodes are never modified, rewritten nodes are copies.
+ */
+public class FilterGraphOptimizer {
+    private static final Pattern TRANSLATION = Pattern.compile("PTS(-STARTPTS)?([+-][0-9.]+(/TB)?)?");
+    private static final String RESET = "PTS-STARTPTS";
+    private static final Set<String> SIZE_KEEPING = Set.of("trim", "setpts", "fps", "setsar", "null", "format", "overlay",
+            "concat");
+
+    private final List<FfmpegInput> inputs;
+    private final Set<String> mappedLabels;
+    private final LinkedHashSet<Chain> chains;
+    private final HashMap<String, Chain> producers;
+    private final HashMap<String, List<Chain>> consumers;
+
+    /**
+     * @param inputs       the inputs of the command, which input stream labels refer to
+     * @param mappedLabels the labels mapped to the output, which must keep their names
+     */
+    public FilterGraphOptimizer(List<FfmpegInput> inputs, List<String> mappedLabels) {
+        this.inputs = inputs;
+        this.mappedLabels = new HashSet<>(mappedLabels);
+        this.chains = new LinkedHashSet<>();
+        this.producers = new HashMap<>();
+        this.consumers = new HashMap<>();
+    }
+
+    /**
+     * @param nodes a valid graph
+     * @return an equivalent graph doing less work
+     */
+    public List<ComplexFilterNode> optimize(List<ComplexFilterNode> nodes) {
+        chains.clear();
+        producers.clear();
+        consumers.clear();
+        for (ComplexFilterNode node : nodes) {
+            Chain chain = new Chain(node);
+            chains.add(chain);
+            chain.outputs.forEach(label -> producers.put(label, chain));
+            chain.inputs.forEach(label -> consumers.computeIfAbsent(label, _ -> new ArrayList<>()).add(chain));
+        }
+
+        dropHidden();
+        fuse();
+        chains.forEach(this::simplify);
+        bypassEmpty();
+
+        return chains.stream().map(Chain::toNode).toList();
+    }
+
+    /**
+     * Drops overlays under opaque clips. Dropping one can make another droppable, only
+     * the chains reading the pads it changed are checked again.
+     */
+    private void dropHidden() {
+        Worklist work = new Worklist(chains);
+        Chain chain;
+        while ((chain = work.poll()) != null) {
+            if (!chains.contains(chain) || chain.inputs.size() != 2 || chain.outputs.size() != 1
+                    || chain.filters.size() != 1 || !(chain.filters.getFirst() instanceof Overlay overlay)
+                    || overlay.getOption("enable") != null) {
+                continue;
+            }
+            String top = chain.inputs.get(1);
+            Chain producer = producers.get(top);
+            if (producer != null && producer.opaque && producer.outputs.size() == 1 && uses(top) == 1) {
+                remove(chain);
+                setOutputs(producer, new ArrayList<>(chain.outputs));
+                chain.inputs.forEach(label -> work.addAll(consumers.get(label)));
+                work.addAll(consumers.get(chain.outputs.getFirst()));
+            }
+        }
+    }
+
+    /**
+     * Joins every chain into the chain producing its only input, when nothing else reads it.
+     */
+    private void fuse() {
+        Worklist work = new Worklist(chains);
+        Chain chain;
+        while ((chain = work.poll()) != null) {
+            if (!chains.contains(chain) || chain.inputs.size() != 1) continue;
+            String label = chain.inputs.getFirst();
+            Chain producer = producers.get(label);
+            if (producer != null && producer != chain && producer.outputs.size() == 1
+                    && uses(label) == 1 && !mappedLabels.contains(label)) {
+                remove(chain);
+                producer.filters.addAll(chain.filters);
+                setOutputs(producer, chain.outputs);
+                producer.opaque = chain.opaque;
+                chain.outputs.forEach(output -> work.addAll(consumers.get(output)));
+            }
+        }
+    }
+
+    private void simplify(Chain chain) {
+        int[] size = chain.inputs.isEmpty() ? null : sizeOf(chain.inputs.getFirst(), new HashSet<>());
+        List<ComplexFilter> kept = new ArrayList<>();
+        for (int i = 0; i < chain.filters.size(); i++) {
+            ComplexFilter filter = chain.filters.get(i);
+            // only the first filter of a chain can have several inputs
+            if (isNoOp(filter, size, i > 0 || chain.inputs.size() == 1)) {
+                chain.audio |= filter instanceof Volume || filter instanceof AMix || filter instanceof ANull;
+                continue;
+            }
+
+            if (filter instanceof SetPts setPts && isReset(setPts, true)) {
+                // the reset cancels whatever shifts came before it
+                while (!kept.isEmpty() && kept.getLast() instanceof SetPts previous && isTranslation(previous)) {
+                    kept.removeLast();
+                }
+            }
+
+            if (filter instanceof TrimC trim && isPlain(trim) && !kept.isEmpty()) {
+                if (kept.getLast() instanceof TrimC previous && isPlain(previous)) {
+                    kept.removeLast();
+                    filter = intersect(previous, trim);
+                } else if (kept.size() >= 2 && kept.getLast() instanceof SetPts reset && isReset(reset, false)
+                        && kept.get(kept.size() - 2) instanceof TrimC previous && isPlain(previous)) {
+                    kept.removeLast();
+                    kept.removeLast();
+                    kept.add(nest(previous, trim));
+                    kept.add(reset);
+                    continue;
+                }
+            }
+
+            size = sizeAfter(filter, size);
+            kept.add(filter);
+        }
+        chain.filters = kept;
+    }
+
+    private void bypassEmpty() {
+        for (Chain chain : new ArrayList<>(chains)) {
+            if (!chain.filters.isEmpty() || chain.inputs.size() != 1 || chain.outputs.size() != 1) {
+                continue;
+            }
+            String in = chain.inputs.getFirst();
+            String out = chain.outputs.getFirst();
+            Chain producer = producers.get(in);
+            if (!mappedLabels.contains(out)) {
+                remove(chain);
+                List<Chain> readers = consumers.remove(out);
+                if (readers != null) {
+                    for (Chain consumer : readers) {
+                        consumer.inputs.replaceAll(label -> label.equals(out) ? in : label);
+                    }
+                    consumers.computeIfAbsent(in, _ -> new ArrayList<>()).addAll(readers);
+                }
+            } else if (producer != null && producer.outputs.size() == 1 && uses(in) == 1) {
+                remove(chain);
+                setOutputs(producer, new ArrayList<>(List.of(out)));
+            } else {
+                chain.filters.add(chain.audio ? new ANull() : new Null());
+            }
+        }
+    }
+
+    private boolean isNoOp(ComplexFilter filter, int[] size, boolean singleInput) {
+        if (filter instanceof Scale) {
+            return size != null && Set.of("width", "height", "force_original_aspect_ratio").containsAll(filter.getSetOptions())
+                    && matches(filter.getOption("width"), filter.getOption("height"), size);
+        }
+        if (filter instanceof Crop) {
+            return size != null && Set.of("w", "h").containsAll(filter.getSetOptions())
+                    && matches(filter.getOption("w"), filter.getOption("h"), size);
+        }
+        if (filter instanceof Volume) {
+            return filter.getSetOptions().equals(List.of("volume")) && parse(filter.getOption("volume")) == 1;
+        }
+        if (filter instanceof AMix) {
+            return "1".equals(filter.getOption("inputs")) || singleInput;
+        }
+        return filter instanceof Null || filter instanceof ANull;
+    }
+
+    private static boolean matches(String width, String height, int[] size) {
+        return String.valueOf(size[0]).equals(width) && String.valueOf(size[1]).equals(height);
+    }
+
+    private static boolean isTranslation(SetPts setPts) {
+        String expr = setPts.getOption("expr");
+        return setPts.getSetOptions().equals(List.of("expr")) && expr != null && TRANSLATION.matcher(expr).matches();
+    }
+
+    /**
+     * @param shifted whether the reset may be followed by a constant shift
+     */
+    private static boolean isReset(SetPts setPts, boolean shifted) {
+        String expr = setPts.getOption("expr");
+        return isTranslation(setPts) && (shifted ? expr.startsWith(RESET) : expr.equals(RESET));
+    }
+
+    private static boolean isPlain(TrimC trim) {
+        return trim.getSetOptions().equals(List.of("start", "duration"));
+    }
+
+    /**
+     * @return a trim keeping what both trims keep, for two trims on the same timestamps
+     */
+    private static TrimC intersect(TrimC first, TrimC second) {
+        double start = Math.max(parse(first.getOption("start")), parse(second.getOption("start")));
+        double end = Math.min(parse(first.getOption("start")) + parse(first.getOption("duration")),
+                parse(second.getOption("start")) + parse(second.getOption("duration")));
+        return new TrimC(start, Math.max(0, end - start));
+    }
+
+    /**
+     * @return a trim keeping what the inner trim keeps of the output of the outer one, once
+     * its timestamps are reset to start at 0
+     */
+    private static TrimC nest(TrimC outer, TrimC inner) {
+        double innerStart = parse(inner.getOption("start"));
+        double duration = Math.min(parse(outer.getOption("duration")) - innerStart, parse(inner.getOption("duration")));
+        return new TrimC(parse(outer.getOption("start")) + innerStart, Math.max(0, duration));
+    }
+
+    private static double parse(String value) {
+        try {
+            return value == null ? Double.NaN : Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            return Double.NaN;
+        }
+    }
+
+    private static int[] parseSize(String width, String height) {
+        try {
+            return new int[]{Integer.parseInt(width), Integer.parseInt(height)};
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private int[] sizeAfter(ComplexFilter filter, int[] size) {
+        if (filter instanceof Scale) {
+            String force = filter.getOption("force_original_aspect_ratio");
+            return force == null || "disable".equals(force)
+                    ? parseSize(filter.getOption("width"), filter.getOption("height")) : null;
+        }
+        if (filter instanceof Crop) {
+            return parseSize(filter.getOption("w"), filter.getOption("h"));
+        }
+        if ("color".equals(filter.getName()) && filter.getOption("size") != null) {
+            String[] dims = filter.getOption("size").split("x");
+            return dims.length == 2 ? parseSize(dims[0], dims[1]) : null;
+        }
+        return SIZE_KEEPING.contains(filter.getName()) ? size : null;
+    }
+
+    /**
+     * @return the frame size of a pad as {width, height}, or null if unknown
+     */
+    private int[] sizeOf(String label, Set<Chain> visiting) {
+        Matcher stream = FilterGraphDag.INPUT_STREAM.matcher(label);
+        if (stream.matches()) {
+            int index = Integer.parseInt(stream.group(1));
+            if (index >= inputs.size() || "a".equals(stream.group(2))) return null;
+            FfmpegInput input = inputs.get(index);
+            return input.getFrameWidth() > 0 && input.getFrameHeight() > 0
+                    ? new int[]{input.getFrameWidth(), input.getFrameHeight()} : null;
+        }
+        Chain producer = producers.get(label);
+        if (producer == null || producer.outputs.size() != 1 || !visiting.add(producer)) {
+            return null;
+        }
+        int[] size = producer.inputs.isEmpty() ? null : sizeOf(producer.inputs.getFirst(), visiting);
+        for (ComplexFilter filter : producer.filters) {
+            size = sizeAfter(filter, size);
+        }
+        return size;
+    }
+
+    private int uses(String label) {
+        List<Chain> readers = consumers.get(label);
+        return (mappedLabels.contains(label) ? 1 : 0) + (readers == null ? 0 : readers.size());
+    }
+
+    /**
+     * Removes a chain from the graph and from the pads it produces and reads.
+     */
+    private void remove(Chain chain) {
+        chains.remove(chain);
+        for (String label : chain.outputs) {
+            producers.remove(label, chain);
+        }
+        for (String label : chain.inputs) {
+            List<Chain> readers = consumers.get(label);
+            if (readers != null) {
+                readers.remove(chain);
+            }
+        }
+    }
+
+    private void setOutputs(Chain chain, List<String> outputs) {
+        for (String label : chain.outputs) {
+            producers.remove(label, chain);
+        }
+        chain.outputs = outputs;
+        outputs.forEach(label -> producers.put(label, chain));
+    }
+
+    /**
+     * Chains left to check, each queued once at a time, in graph order at first.
+     */
+    private static final class Worklist {
+        private final ArrayDeque<Chain> queue;
+        private final Set<Chain> queued;
+
+        private Worklist(Collection<Chain> chains) {
+            queue = new ArrayDeque<>(chains);
+            queued = new HashSet<>(chains);
+        }
+
+        private void addAll(Collection<Chain> chains) {
+            if (chains == null) return;
+            for (Chain chain : chains) {
+                if (queued.add(chain)) {
+                    queue.add(chain);
+                }
+            }
+        }
+
+        private Chain poll() {
+            Chain chain = queue.poll();
+            if (chain != null) {
+                queued.remove(chain);
+            }
+            return chain;
+        }
+    }
+
+    private static final class Chain {
+        private final List<String> inputs;
+        private List<ComplexFilter> filters;
+        private List<String> outputs;
+        private boolean opaque;
+        private boolean audio;
+
+        private Chain(ComplexFilterNode node) {
+            inputs = node.getInputs();
+            filters = node.getFilters();
+            outputs = node.getOutputs();
+            opaque = node.isOpaque();
+        }
+
+        private ComplexFilterNode toNode() {
+            return new ComplexFilterNode()
+                    .setInputs(inputs.toArray(new String[0]))
+                    .addFilters(filters.toArray(new ComplexFilter[0]))
+                    .setOutputs(outputs.toArray(new String[0]))
+                    .setOpaque(opaque);
+        }
+    }
+}
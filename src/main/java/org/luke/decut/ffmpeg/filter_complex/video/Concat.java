@@ -0,0 +1,52 @@
+package org.luke.decut.ffmpeg.filter_complex.video;
+
+import org.luke.decut.ffmpeg.filter_complex.core.ComplexFilter;
+import org.luke.decut.ffmpeg.filters.core.FilterOption;
+
+public class Concat extends ComplexFilter {
+    private final FilterOption n;
+    private final FilterOption v;
+    private final FilterOption a;
+    private final FilterOption unsafe;
+
+    public Concat() {
+        super("concat");
+
+        n = new FilterOption("n");
+        v = new FilterOption("v");
+        a = new FilterOption("a");
+        unsafe = new FilterOption("unsafe");
+
+        addOptions(n, v, a, unsafe);
+    }
+
+    /**
+     * Joins the given number of video-only segments one after the other.
+     */
+    public Concat(int segments) {
+        this();
+        setSegments(segments);
+        setVideoStreams(1);
+        setAudioStreams(0);
+    }
+
+    public Concat setSegments(int value) {
+        n.setValue(String.valueOf(value));
+        return this;
+    }
+
+    public Concat setVideoStreams(int value) {
+        v.setValue(String.valueOf(value));
+        return this;
+    }
+
+    public Concat setAudioStreams(int value) {
+        a.setValue(String.valueOf(value));
+        return this;
+    }
+
+    public Concat setUnsafe(String value) {
+        unsafe.setValue(value);
+        return this;
+    }
+}
@@ -0,0 +1,65 @@
+package org.luke.decut.ffmpeg.filter_complex.video;
+
+import org.luke.decut.ffmpeg.filter_complex.core.ComplexFilter;
+import org.luke.decut.ffmpeg.filters.core.FilterOption;
+
+public class Crop extends ComplexFilter {
+    private final FilterOption w;
+    private final FilterOption h;
+    private final FilterOption x;
+    private final FilterOption y;
+    private final FilterOption keep_aspect;
+    private final FilterOption exact;
+
+    public Crop() {
+        super("crop");
+
+        w = new FilterOption("w");
+        h = new FilterOption("h");
+        x = new FilterOption("x");
+        y = new FilterOption("y");
+        keep_aspect = new FilterOption("keep_aspect");
+        exact = new FilterOption("exact");
+
+        addOptions(w, h, x, y, keep_aspect, exact);
+    }
+
+    /**
+     * Crops the center of the frame to the given size, x and y default to centering.
+     */
+    public Crop(int width, int height) {
+        this();
+        setWidth(String.valueOf(width));
+        setHeight(String.valueOf(height));
+    }
+
+    public Crop setWidth(String value) {
+        w.setValue(value);
+        return this;
+    }
+
+    public Crop setHeight(String value) {
+        h.setValue(value);
+        return this;
+    }
+
+    public Crop setX(String value) {
+        x.setValue(value);
+        return this;
+    }
+
+    public Crop setY(String value) {
+        y.setValue(value);
+        return this;
+    }
+
+    public Crop setKeepAspect(String value) {
+        keep_aspect.setValue(value);
+        return this;
+    }
+
+    public Crop setExact(String value) {
+        exact.setValue(value);
+        return this;
+    }
+}
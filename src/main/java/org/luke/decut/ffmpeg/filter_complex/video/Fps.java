@@ -0,0 +1,47 @@
+package org.luke.decut.ffmpeg.filter_complex.video;
+
+import org.luke.decut.ffmpeg.filter_complex.core.ComplexFilter;
+import org.luke.decut.ffmpeg.filters.core.FilterOption;
+
+public class Fps extends ComplexFilter {
+    private final FilterOption fps;
+    private final FilterOption start_time;
+    private final FilterOption round;
+    private final FilterOption eof_action;
+
+    public Fps() {
+        super("fps");
+
+        fps = new FilterOption("fps");
+        start_time = new FilterOption("start_time");
+        round = new FilterOption("round");
+        eof_action = new FilterOption("eof_action");
+
+        addOptions(fps, start_time, round, eof_action);
+    }
+
+    public Fps(double fps) {
+        this();
+        setFps(String.valueOf(fps));
+    }
+
+    public Fps setFps(String value) {
+        fps.setValue(value);
+        return this;
+    }
+
+    public Fps setStartTime(String value) {
+        start_time.setValue(value);
+        return this;
+    }
+
+    public Fps setRound(String value) {
+        round.setValue(value);
+        return this;
+    }
+
+    public Fps setEofAction(String value) {
+        eof_action.setValue(value);
+        return this;
+    }
+}
@@ -0,0 +1,33 @@
+package org.luke.decut.ffmpeg.filter_complex.video;
+
+import org.luke.decut.ffmpeg.filter_complex.core.ComplexFilter;
+import org.luke.decut.ffmpeg.filters.core.FilterOption;
+
+public class SetSar extends ComplexFilter {
+    private final FilterOption ratio;
+    private final FilterOption max;
+
+    public SetSar() {
+        super("setsar");
+
+        ratio = new FilterOption("r");
+        max = new FilterOption("max");
+
+        addOptions(ratio, max);
+    }
+
+    public SetSar(String ratio) {
+        this();
+        setRatio(ratio);
+    }
+
+    public SetSar setRatio(String value) {
+        ratio.setValue(value);
+        return this;
+    }
+
+    public SetSar setMax(String value) {
+        max.setValue(value);
+        return this;
+    }
+}
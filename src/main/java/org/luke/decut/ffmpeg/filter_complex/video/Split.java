@@ -0,0 +1,29 @@
+package org.luke.decut.ffmpeg.filter_complex.video;
+
+import org.luke.decut.ffmpeg.filter_complex.core.ComplexFilter;
+import org.luke.decut.ffmpeg.filters.core.FilterOption;
+
+public class Split extends ComplexFilter {
+    private final FilterOption outputs;
+
+    public Split() {
+        super("split");
+
+        outputs = new FilterOption("outputs");
+
+        addOptions(outputs);
+    }
+
+    /**
+     * Sends every frame of its input to the given number of outputs.
+     */
+    public Split(int outputs) {
+        this();
+        setOutputs(outputs);
+    }
+
+    public Split setOutputs(int value) {
+        outputs.setValue(String.valueOf(value));
+        return this;
+    }
+}
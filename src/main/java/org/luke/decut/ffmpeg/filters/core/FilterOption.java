@@ -15,6 +15,7 @@ public class FilterOption {
     private final String name;
     private String value;
     private boolean changed;
+    private int version;
 
     /**
      * Creates a new filter option with the specified name and value.
@@ -34,12 +35,21 @@ public class FilterOption {
     public void setValue(String value) {
         this.value = value;
         changed = true;
+        version++;
     }
 
     public boolean isChanged() {
         return changed;
     }
 
+    /**
+     * @return the number of times this option was set, which lets filters tell whether
+     * text they rendered from it is still up to date
+     */
+    public int getVersion() {
+        return version;
+    }
+
     /**
      * Gets the name of this option.
      *
@@ -12,25 +12,41 @@ import java.util.function.Consumer;
  * processing status, including frame count, FPS, bitrate, file size, processing time,
  * total duration, and processing speed.
  * <p>
+ * FFmpeg reports progress in blocks of {@code key=value} lines closed by a
+ * {@code progress=continue} or {@code progress=end} line. The lines are read in place,
+ * without splitting them, and consumers receive one {@link ProgressInfo} per block, at
+ * most once per {@link #setInterval(long) interval}. The last block is always delivered.
+ * <p>
  * Example usage:
  * <pre>
  * ProgressHandler handler = new ProgressHandler()
+ *     .setInterval(250)
  *     .addHandler(progress -> {
  *         System.out.println("Progress: " + progress.getTime() + " / " + progress.getDuration());
  *     });
  * </pre>
  */
 public class ProgressHandler implements LineHandler {
+    /**
+     * The default minimum time between two notifications, in milliseconds.
+     */
+    public static final long DEFAULT_INTERVAL = 100;
+
     private final ArrayList<Consumer<ProgressInfo>> handlers;
 
     private int frame;
     private float fps;
-    private String bitRate;
+    private String bitRateLine;
     private long size;
     private long time;
     private long duration = -1;
     private float speed;
 
+    private long interval = DEFAULT_INTERVAL;
+    private long lastDispatch;
+    private boolean dispatched;
+    private ProgressInfo pending;
+
     /**
      * Creates a new progress handler with an empty list of progress consumers.
      */
@@ -52,104 +68,186 @@ public class ProgressHandler implements LineHandler {
     }
 
     /**
-     * Determines if a line of FFmpeg output should be processed by this handler.
-     * This handler processes lines that:
-     * 1. Match "progress=continue"
-     * 2. Contain duration information in the format "duration:HH:MM:SS.mmm"
-     * 3. Contain progress information in key=value format
+     * Sets the minimum time between two notifications, blocks reported sooner are
+     * dropped, except for the last one.
      *
-     * @param line the line of FFmpeg output to check
-     * @return true if the line should be handled, false otherwise
+     * @param interval the time in milliseconds, 0 to notify every block
+     * @return this ProgressHandler instance for method chaining
      */
-    @Override
-    public boolean match(FfmpegCommand command, String line) {
-        if (line.equalsIgnoreCase("progress=continue")) {
-            return true;
-        }
+    public ProgressHandler setInterval(long interval) {
+        this.interval = Math.max(0, interval);
+        return this;
+    }
 
-        String[] parts = line.split(":");
-        if (command.getDuration() == -1 && duration == -1) {
-            if (parts.length == 4 && parts[0].trim().equalsIgnoreCase("duration")) {
-                int hours = Integer.parseInt(parts[1].trim());
-                int minutes = Integer.parseInt(parts[2].trim());
-                String[] subParts = parts[3].split("\\.");
-                int seconds = Integer.parseInt(subParts[0].trim());
-                int milliseconds = (int) (Float.parseFloat("0." + subParts[1].trim()) * 1000);
-
-                duration =
-                        hours * 3600_000L +
-                                minutes * 60_000L +
-                                seconds * 1_000L +
-                                milliseconds;
-                return false;
-            }
+    public long getInterval() {
+        return interval;
+    }
 
-            parts = line.split(",");
-            if (parts.length == 3 && line.trim().startsWith("Duration:")) {
-                String[] subParts = parts[0].split(":");
-                int hours = Integer.parseInt(subParts[1].trim());
-                int minutes = Integer.parseInt(subParts[2].trim());
-                String[] subSubParts = subParts[3].split("\\.");
-                int seconds = Integer.parseInt(subSubParts[0].trim());
-                StringBuilder millis = new StringBuilder(subSubParts[1]);
-                while (millis.length() < 3) {
-                    millis.append("0");
+    /**
+     * Reads a line of FFmpeg output into the current block. Lines holding the duration
+     * of the input, like {@code Duration: 00:01:02.50, start: 0.000000}, are read until
+     * the duration is known.
+     *
+     * @param line the line of FFmpeg output to read
+     * @return true when the line closes a block that should be delivered to the consumers
+     */
+    @Override
+    public synchronized boolean match(FfmpegCommand command, String line) {
+        if (duration == -1) {
+            if (command.getDuration() != -1) {
+                duration = command.getDuration();
+            } else if (line.regionMatches(true, 0, "duration", 0, 8)) {
+                long parsed = parseClock(line, line.indexOf(':') + 1);
+                if (parsed >= 0) {
+                    duration = parsed;
                 }
-                int milliseconds = (int) (Float.parseFloat("0." + millis) * 1000);
-                duration =
-                        hours * 3600_000L +
-                                minutes * 60_000L +
-                                seconds * 1_000L +
-                                milliseconds;
                 return false;
             }
         }
 
-        if(command.getDuration() != -1 && duration == -1) {
-            duration = command.getDuration();
+        int eq = line.indexOf('=');
+        if (eq <= 0) {
+            return false;
         }
+        int from = eq + 1;
+        int to = line.length();
 
-        parts = line.split("=");
-        if (parts.length == 2) {
-            try {
-                switch (parts[0]) {
-                    case "frame":
-                        frame = Integer.parseInt(parts[1]);
-                        break;
-                    case "fps":
-                        fps = Float.parseFloat(parts[1]);
-                        break;
-                    case "bitrate":
-                        bitRate = parts[1];
-                        break;
-                    case "total_size":
-                        size = Long.parseLong(parts[1]);
-                        break;
-                    case "out_time_ms":
-                        time = Long.parseLong(parts[1]) / 1000;
-                        break;
-                    case "speed":
-                        speed = Float.parseFloat(parts[1].replace("x", ""));
-                        break;
-                }
-            } catch (Exception x) {
-                //ErrorHandler.handle(x, "parsing progress");
+        if (key(line, eq, "progress")) {
+            boolean end = line.startsWith("end", from);
+            long now = System.nanoTime();
+            if (!end && dispatched && now - lastDispatch < interval * 1_000_000) {
+                return false;
             }
+            dispatched = true;
+            lastDispatch = now;
+            String bitRate = bitRateLine == null ? null : bitRateLine.substring(bitRateLine.indexOf('=') + 1);
+            pending = new ProgressInfo(frame, fps, bitRate, size, time, duration, speed);
+            return true;
+        }
+
+        // values FFmpeg does not know yet read "N/A" and keep the previous value
+        if (key(line, eq, "frame")) {
+            long value = parseLong(line, from, to);
+            if (value >= 0) frame = (int) value;
+        } else if (key(line, eq, "fps")) {
+            float value = parseFloat(line, from, to);
+            if (value >= 0) fps = value;
+        } else if (key(line, eq, "bitrate")) {
+            bitRateLine = line;
+        } else if (key(line, eq, "total_size")) {
+            long value = parseLong(line, from, to);
+            if (value >= 0) size = value;
+        } else if (key(line, eq, "out_time_ms") || key(line, eq, "out_time_us")) {
+            // both are in microseconds
+            long value = parseLong(line, from, to);
+            if (value >= 0) time = value / 1000;
+        } else if (key(line, eq, "speed")) {
+            float value = parseFloat(line, from, to);
+            if (value >= 0) speed = value;
         }
-        handle(command, "");
         return false;
     }
 
     /**
-     * Processes a line of FFmpeg output and notifies all registered handlers
-     * with the current progress information.
+     * Notifies all registered handlers with the block the last matched line closed.
      * This method is called for each line that matches the criteria in {@link #match(FfmpegCommand, String)}.
      *
-     * @param line the line of FFmpeg output to process
+     * @param line the line of FFmpeg output that closed the block
      */
     @Override
     public void handle(FfmpegCommand command, String line) {
-        ProgressInfo state = new ProgressInfo(frame, fps, bitRate, size, time, duration, speed);
-        handlers.forEach(handler -> handler.accept(state));
+        ProgressInfo state;
+        synchronized (this) {
+            state = pending;
+        }
+        if (state != null) {
+            handlers.forEach(handler -> handler.accept(state));
+        }
+    }
+
+    private static boolean key(String line, int eq, String key) {
+        return eq == key.length() && line.startsWith(key);
+    }
+
+    /**
+     * @return the non-negative integer at the start of the range, or -1 if it holds none
+     */
+    static long parseLong(CharSequence text, int from, int to) {
+        long value = 0;
+        int i = from;
+        while (i < to && Character.isDigit(text.charAt(i))) {
+            value = value * 10 + (text.charAt(i) - '0');
+            i++;
+        }
+        return i == from ? -1 : value;
+    }
+
+    /**
+     * Reads a non-negative decimal like {@code 29.97} or {@code 1.5x}, stopping at the
+     * first character that is not part of it.
+     *
+     * @return the number, or -1 if the range does not start with one
+     */
+    static float parseFloat(CharSequence text, int from, int to) {
+        long whole = 0;
+        long fraction = 0;
+        long scale = 1;
+        int i = from;
+        while (i < to && Character.isDigit(text.charAt(i))) {
+            whole = whole * 10 + (text.charAt(i) - '0');
+            i++;
+        }
+        if (i == from) {
+            return -1;
+        }
+        if (i < to && text.charAt(i) == '.') {
+            i++;
+            while (i < to && Character.isDigit(text.charAt(i)) && scale < 1_000_000_000L) {
+                fraction = fraction * 10 + (text.charAt(i) - '0');
+                scale *= 10;
+                i++;
+            }
+        }
+        return (float) (whole + (double) fraction / scale);
+    }
+
+    /**
+     * Reads a clock like {@code 00:01:02.50}, skipping the spaces before it.
+     *
+     * @return the time in milliseconds, or -1 if the text holds no clock at that position
+     */
+    static long parseClock(CharSequence text, int from) {
+        int to = text.length();
+        int i = from;
+        while (i < to && text.charAt(i) == ' ') i++;
+
+        long total = 0;
+        for (int part = 0; part < 3; part++) {
+            int start = i;
+            long value = 0;
+            while (i < to && Character.isDigit(text.charAt(i))) {
+                value = value * 10 + (text.charAt(i) - '0');
+                i++;
+            }
+            if (i == start) return -1;
+            total = total * 60 + value;
+            if (part < 2) {
+                if (i >= to || text.charAt(i) != ':') return -1;
+                i++;
+            }
+        }
+        total *= 1000;
+
+        if (i < to && text.charAt(i) == '.') {
+            i++;
+            // the fraction is read as milliseconds, "50" being 500
+            int scale = 100;
+            while (i < to && Character.isDigit(text.charAt(i))) {
+                total += (text.charAt(i) - '0') * scale;
+                scale /= 10;
+                i++;
+            }
+        }
+        return total;
     }
 }
@@ -18,6 +18,14 @@ public class FfmpegOption implements CommandPart {
         return this;
     }
 
+    public String getName() {
+        return name;
+    }
+
+    public String getValue() {
+        return value;
+    }
+
     @Override
     public List<String> apply(FfmpegCommand command) {
         String nameStr = "-".concat(name);
@@ -5,4 +5,8 @@ public class Seek extends FfmpegOption {
         super("ss");
         setValue(value);
     }
+
+    public Seek(double seconds) {
+        this(DECIMAL.format(seconds));
+    }
 }
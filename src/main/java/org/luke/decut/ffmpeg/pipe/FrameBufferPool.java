@@ -0,0 +1,57 @@
+package org.luke.decut.ffmpeg.pipe;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+
+/**
+ * Pool of the direct buffers {@link RawVideoPipe} reads frames into, so rendering one
+ * segment after another reuses the buffers of evicted segments instead of allocating
+ * direct memory for every frame, which is slow to allocate and only freed by the GC.
+ * <p>
+ * Buffers are pooled by size, frames of every preview quality share the same pool.
+ */
+public class FrameBufferPool {
+    private final long maxRetained;
+    private final HashMap<Integer, ArrayDeque<ByteBuffer>> free;
+    private long retained;
+
+    /**
+     * @param maxRetained the total size of the free buffers kept for reuse, in bytes, extra
+     *                    buffers are left to the GC
+     */
+    public FrameBufferPool(long maxRetained) {
+        this.maxRetained = maxRetained;
+        this.free = new HashMap<>();
+    }
+
+    /**
+     * @return a buffer of the given capacity, positioned at 0 with its limit at its capacity
+     */
+    public synchronized ByteBuffer acquire(int size) {
+        ArrayDeque<ByteBuffer> buffers = free.get(size);
+        ByteBuffer buffer = buffers == null ? null : buffers.poll();
+        if (buffer == null) {
+            return ByteBuffer.allocateDirect(size);
+        }
+        retained -= size;
+        return buffer.clear();
+    }
+
+    /**
+     * Returns a buffer to the pool, it must not be used afterwards.
+     */
+    public synchronized void release(ByteBuffer buffer) {
+        int size = buffer.capacity();
+        if (!buffer.isDirect() || retained + size > maxRetained) return;
+        free.computeIfAbsent(size, _ -> new ArrayDeque<>()).push(buffer);
+        retained += size;
+    }
+
+    /**
+     * @return the total size of the free buffers, in bytes
+     */
+    public synchronized long getRetainedBytes() {
+        return retained;
+    }
+}
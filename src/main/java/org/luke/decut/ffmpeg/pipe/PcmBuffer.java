@@ -0,0 +1,140 @@
+package org.luke.decut.ffmpeg.pipe;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * PCM audio held in pooled chunks. Readers address it by byte position and get the
+ * chunk holding that position along with the offset inside it, so any part of the
+ * audio can be played or saved without copying it into a new array.
+ * <p>
+ * Buffers are reference counted: whoever keeps a buffer past its owner's lifetime,
+ * like a playback queue, calls {@link #retain()} and later {@link #release()}. The
+ * chunks go back to the pool when the last reference is released.
+ */
+public class PcmBuffer {
+    private static final byte[] SILENT_CHUNK = new byte[PcmBufferPool.DEFAULT_CHUNK_SIZE];
+
+    private final PcmBufferPool pool;
+    private final List<byte[]> chunks;
+    private final int chunkSize;
+    private final AtomicInteger references;
+    private long length;
+
+    public PcmBuffer(PcmBufferPool pool) {
+        this.pool = pool;
+        this.chunks = new ArrayList<>();
+        this.chunkSize = pool.getChunkSize();
+        this.references = new AtomicInteger(1);
+    }
+
+    private PcmBuffer(long length) {
+        this.pool = null;
+        this.chunks = null;
+        this.chunkSize = SILENT_CHUNK.length;
+        this.references = new AtomicInteger(1);
+        this.length = length;
+    }
+
+    /**
+     * Creates a buffer of silence. All its positions share one immutable zeroed chunk,
+     * so it costs nothing whatever its length.
+     */
+    public static PcmBuffer silence(long length) {
+        return new PcmBuffer(length);
+    }
+
+    /**
+     * Appends the content of a stream until its end or until the limit is reached.
+     *
+     * @return the number of bytes appended
+     */
+    public long readFrom(InputStream in, long limit) throws IOException {
+        if (chunks == null) {
+            throw new IllegalStateException("silence buffers are immutable");
+        }
+        long read = 0;
+        while (read < limit) {
+            int offset = (int) (length % chunkSize);
+            byte[] chunk;
+            if (offset == 0) {
+                chunk = pool.acquire();
+                chunks.add(chunk);
+            } else {
+                chunk = chunks.getLast();
+            }
+            int n = in.readNBytes(chunk, offset, (int) Math.min(chunkSize - offset, limit - read));
+            length += n;
+            read += n;
+            if (n == 0) {
+                if (offset == 0) {
+                    pool.release(chunks.removeLast());
+                }
+                break;
+            }
+        }
+        return read;
+    }
+
+    /**
+     * Writes a part of the buffer to a stream, one chunk slice at a time.
+     */
+    public void writeTo(OutputStream out, long from, long count) throws IOException {
+        long position = from;
+        long end = Math.min(length, from + count);
+        while (position < end) {
+            int offset = chunkOffset(position);
+            int slice = (int) Math.min(chunkSize - offset, end - position);
+            out.write(chunk(position), offset, slice);
+            position += slice;
+        }
+    }
+
+    /**
+     * @return the chunk holding the byte at the given position
+     */
+    public byte[] chunk(long position) {
+        return chunks == null ? SILENT_CHUNK : chunks.get((int) (position / chunkSize));
+    }
+
+    /**
+     * @return the offset of the given position inside its chunk
+     */
+    public int chunkOffset(long position) {
+        return (int) (position % chunkSize);
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    public long length() {
+        return length;
+    }
+
+    /**
+     * @return the memory held by this buffer's chunks, zero for silence
+     */
+    public long getRetainedBytes() {
+        return chunks == null ? 0 : (long) chunks.size() * chunkSize;
+    }
+
+    public PcmBuffer retain() {
+        references.incrementAndGet();
+        return this;
+    }
+
+    public void release() {
+        if (references.decrementAndGet() == 0 && chunks != null) {
+            synchronized (chunks) {
+                chunks.forEach(pool::release);
+                chunks.clear();
+                length = 0;
+            }
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package org.luke.decut.ffmpeg.pipe;
+
+import java.util.ArrayDeque;
+
+/**
+ * Pool of fixed-size chunks backing {@link PcmBuffer}s, so streaming audio for one
+ * segment after another reuses the same arrays instead of allocating new ones.
+ * <p>
+ * Chunks are heap arrays rather than direct buffers because
+ * {@link javax.sound.sampled.SourceDataLine#write(byte[], int, int)} only takes
+ * arrays, a direct buffer would have to be copied into one on every write.
+ */
+public class PcmBufferPool {
+    public static final int DEFAULT_CHUNK_SIZE = 64 * 1024;
+
+    private final int chunkSize;
+    private final int maxRetained;
+    private final ArrayDeque<byte[]> free;
+
+    /**
+     * @param chunkSize   the size of each chunk in bytes, a multiple of the PCM frame size
+     * @param maxRetained the number of free chunks kept for reuse, extra chunks are left to the GC
+     */
+    public PcmBufferPool(int chunkSize, int maxRetained) {
+        this.chunkSize = chunkSize;
+        this.maxRetained = maxRetained;
+        this.free = new ArrayDeque<>();
+    }
+
+    public PcmBufferPool() {
+        this(DEFAULT_CHUNK_SIZE, 256);
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    synchronized byte[] acquire() {
+        byte[] chunk = free.poll();
+        return chunk == null ? new byte[chunkSize] : chunk;
+    }
+
+    synchronized void release(byte[] chunk) {
+        if (chunk.length == chunkSize && free.size() < maxRetained) {
+            free.push(chunk);
+        }
+    }
+
+    public synchronized int getFreeChunks() {
+        return free.size();
+    }
+}
@@ -0,0 +1,64 @@
+package org.luke.decut.ffmpeg.pipe;
+
+import org.luke.gui.exception.ErrorHandler;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+
+/**
+ * Reads raw PCM audio from an FFmpeg s16le pipe into a {@link PcmBuffer}.
+ * <p>
+ * Example usage:
+ * <pre>
+ * RawAudioPipe pipe = new RawAudioPipe(pool);
+ * new FfmpegCommand()
+ *     .addInput(file)
+ *     .setRawAudioOutput(pipe)
+ *     .execute();
+ * PcmBuffer pcm = pipe.await(5000);
+ * </pre>
+ */
+public class RawAudioPipe implements Consumer<InputStream> {
+    public static final String SAMPLE_FORMAT = "s16le";
+    public static final int SAMPLE_RATE = 44100;
+    public static final int CHANNELS = 2;
+    public static final int BYTES_PER_FRAME = 2 * CHANNELS;
+
+    private final PcmBuffer buffer;
+    private final CompletableFuture<PcmBuffer> done;
+
+    public RawAudioPipe(PcmBufferPool pool) {
+        this.buffer = new PcmBuffer(pool);
+        this.done = new CompletableFuture<>();
+    }
+
+    @Override
+    public void accept(InputStream stream) {
+        try {
+            buffer.readFrom(stream, Long.MAX_VALUE);
+        } catch (IOException e) {
+            ErrorHandler.handle(e, "read raw audio");
+        } finally {
+            done.complete(buffer);
+        }
+    }
+
+    /**
+     * Waits for the end of the stream.
+     *
+     * @return the audio read from the pipe
+     * @throws IOException if the stream did not end in time
+     */
+    public PcmBuffer await(long timeout) throws IOException, InterruptedException {
+        try {
+            return done.get(timeout, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException | ExecutionException e) {
+            throw new IOException("Raw audio stream did not end", e);
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package org.luke.decut.ffmpeg.pipe;
+
+import org.luke.gui.exception.ErrorHandler;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * Reads uncompressed video frames from an FFmpeg rawvideo pipe.
+ * Frames are read straight into direct buffers and handed to the frame consumer
+ * as soon as they are complete, so callers can display a frame while FFmpeg is
+ * still producing the rest of the stream. The buffers are taken from a
+ * {@link FrameBufferPool} when one is given, the consumer then owns them and returns
+ * them to the pool once it is done with them.
+ * <p>
+ * Example usage:
+ * <pre>
+ * RawVideoPipe pipe = new RawVideoPipe(640, 360, frame -> frames.add(frame));
+ * new FfmpegCommand()
+ *     .addInput(file)
+ *     .setRawVideoOutput(pipe)
+ *     .execute();
+ * </pre>
+ */
+public class RawVideoPipe implements Consumer<InputStream> {
+    public static final String PIXEL_FORMAT = "bgra";
+    public static final int BYTES_PER_PIXEL = 4;
+
+    private static final ConcurrentHashMap<Long, ByteBuffer> BLANK_FRAMES = new ConcurrentHashMap<>();
+
+    private final int width;
+    private final int height;
+    private final FrameBufferPool pool;
+    private final Consumer<ByteBuffer> onFrame;
+    private Runnable onEnd;
+    private volatile boolean stopped;
+
+    /**
+     * Creates a pipe reader for frames of the given size.
+     *
+     * @param width   the frame width in pixels
+     * @param height  the frame height in pixels
+     * @param onFrame the consumer receiving each complete frame, positioned at 0
+     */
+    public RawVideoPipe(int width, int height, Consumer<ByteBuffer> onFrame) {
+        this(width, height, null, onFrame);
+    }
+
+    /**
+     * Creates a pipe reader for frames of the given size, read into buffers of a pool.
+     *
+     * @param pool    the pool the frame buffers are taken from, or null to allocate them
+     * @param onFrame the consumer receiving each complete frame, positioned at 0
+     */
+    public RawVideoPipe(int width, int height, FrameBufferPool pool, Consumer<ByteBuffer> onFrame) {
+        this.width = width;
+        this.height = height;
+        this.pool = pool;
+        this.onFrame = onFrame;
+    }
+
+    /**
+     * Returns an opaque black frame of the given size. Frames of the same size share
+     * their pixels, which must not be modified.
+     *
+     * @return a view of the shared frame, positioned at 0
+     */
+    public static ByteBuffer blankFrame(int width, int height) {
+        return BLANK_FRAMES.computeIfAbsent(((long) width << 32) | height, _ -> {
+            ByteBuffer frame = ByteBuffer.allocateDirect(width * height * BYTES_PER_PIXEL);
+            while (frame.hasRemaining()) {
+                frame.putInt(0xFF);
+            }
+            return frame.flip();
+        }).duplicate();
+    }
+
+    public RawVideoPipe setOnEnd(Runnable onEnd) {
+        this.onEnd = onEnd;
+        return this;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getFrameSize() {
+        return width * height * BYTES_PER_PIXEL;
+    }
+
+    /**
+     * Stops reading frames, e.g. because the process writing them is being killed. The
+     * error reading the stream of a killed process then is not reported.
+     */
+    public void stop() {
+        stopped = true;
+    }
+
+    @Override
+    public void accept(InputStream stream) {
+        int frameSize = getFrameSize();
+        try (ReadableByteChannel channel = Channels.newChannel(stream)) {
+            while (!stopped) {
+                ByteBuffer frame = pool == null ? ByteBuffer.allocateDirect(frameSize) : pool.acquire(frameSize);
+                try {
+                    while (frame.hasRemaining()) {
+                        if (stopped || channel.read(frame) < 0) {
+                            release(frame);
+                            return;
+                        }
+                    }
+                } catch (IOException e) {
+                    release(frame);
+                    throw e;
+                }
+                frame.flip();
+                if (onFrame != null) {
+                    onFrame.accept(frame);
+                } else {
+                    release(frame);
+                }
+            }
+        } catch (IOException e) {
+            if (!stopped) {
+                ErrorHandler.handle(e, "read raw video frames");
+            }
+        } finally {
+            if (onEnd != null) {
+                onEnd.run();
+            }
+        }
+    }
+
+    private void release(ByteBuffer frame) {
+        if (pool != null) {
+            pool.release(frame);
+        }
+    }
+}
@@ -1,14 +1,19 @@
 package org.luke.decut.ffprobe;
 
 import org.luke.decut.cmd.Command;
+import org.luke.decut.cmd.ProcessResult;
+import org.luke.decut.cmd.ProcessScheduler;
 import org.luke.decut.local.LocalStore;
 import org.luke.decut.local.managers.FfprobeManager;
 import org.luke.decut.local.managers.LocalInstall;
-import org.luke.gui.threading.Platform;
 
 import java.io.File;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 
 public class FfprobeCommand {
@@ -18,12 +23,23 @@ public class FfprobeCommand {
     private File input;
     private Consumer<String> onOutput;
     private Consumer<String> onError;
-    private Process running;
+    private volatile Process running;
+    private volatile ProcessScheduler.Ticket ticket;
+    private volatile CompletableFuture<ProcessResult> result;
+    private long timeout;
+    private ProcessScheduler.Priority priority = ProcessScheduler.Priority.THUMBNAIL;
 
     public static void resetBinary() {
         binary = getFfprobeBinary();
     }
 
+    /**
+     * @return true if the binary commands run with was resolved, see {@link #resetBinary()}
+     */
+    public static boolean hasBinary() {
+        return binary != null;
+    }
+
     public static String getFfprobeBinary() {
         String defStr = LocalStore.getDefaultFfprobe();
         if (defStr == null) {
@@ -74,35 +90,117 @@ public class FfprobeCommand {
         return this;
     }
 
-    public FfprobeCommand execute() {
+    /**
+     * Sets the class this probe is scheduled in, see {@link ProcessScheduler}.
+     * Probes are {@link ProcessScheduler.Priority#THUMBNAIL} by default.
+     */
+    public FfprobeCommand setPriority(ProcessScheduler.Priority priority) {
+        this.priority = priority;
+        return this;
+    }
+
+    /**
+     * Sets the time the probe may take, counted from {@link #execute()}. A probe running
+     * out of time is killed and its result completes with a
+     * {@link java.util.concurrent.TimeoutException}.
+     *
+     * @param timeout the time in milliseconds, or 0 for no limit
+     */
+    public FfprobeCommand setTimeout(long timeout) {
+        this.timeout = Math.max(0, timeout);
+        return this;
+    }
+
+    /**
+     * Starts this probe through the {@link ProcessScheduler#global() process scheduler}.
+     * The returned future completes once the process exited and its output was handled,
+     * and cancelling it kills the process.
+     *
+     * @return the result of the probe
+     */
+    public CompletableFuture<ProcessResult> execute() {
+        CompletableFuture<ProcessResult> future = new CompletableFuture<>();
+        result = future;
+        if (binary == null) {
+            future.completeExceptionally(new IllegalStateException("No FFprobe binary was found"));
+            return future;
+        }
+
         List<String> command = new ArrayList<>();
         command.add(binary);
         command.addAll(args);
         command.add("-i");
         command.add(input.getAbsolutePath());
 
-        Command com = new Command(onOutput, onError, command.toArray(new String[0]));
-        running = com.execute();
+        if (timeout > 0) {
+            future.orTimeout(timeout, TimeUnit.MILLISECONDS);
+        }
+        future.whenComplete((_, error) -> {
+            if (error != null) {
+                kill();
+            }
+        });
+        ticket = ProcessScheduler.global().submit(priority, () -> {
+            if (future.isDone()) return null;
+            ProcessResult.Tail errorTail = new ProcessResult.Tail();
+            Command com = new Command(onOutput, errorTail, command.toArray(new String[0]));
+            if (onError != null) {
+                com.addErrorHandler(onError);
+            }
+            long startedAt = System.nanoTime();
+            running = com.execute();
+            com.getCompletion().whenComplete((exitCode, error) -> {
+                if (error != null) {
+                    future.completeExceptionally(error);
+                } else {
+                    future.complete(new ProcessResult(exitCode, null, errorTail.lines(),
+                            (System.nanoTime() - startedAt) / 1_000_000));
+                }
+            });
+            return running;
+        });
+        return future;
+    }
+
+    /**
+     * Stops this probe, a probe that did not start yet never starts and its result is
+     * cancelled.
+     */
+    public FfprobeCommand kill() {
+        ProcessScheduler.Ticket queued = ticket;
+        CompletableFuture<ProcessResult> pending = result;
+        if (queued != null && queued.cancel() && pending != null) {
+            pending.cancel(false);
+        }
+        Process process = running;
+        if (process != null && process.isAlive()) {
+            process.destroyForcibly();
+        }
         return this;
     }
 
+    /**
+     * @return the exit code of the process, or -1 if it did not start
+     * @throws IllegalThreadStateException if the process is still running
+     */
     public int getExitCode() {
-        return running.exitValue();
+        Process process = running;
+        return process == null ? -1 : process.exitValue();
     }
 
+    /**
+     * Blocks until the result of the last {@link #execute()} completes, whether it
+     * succeeded or not. Prefer composing on the future execute returns.
+     *
+     * @return this probe
+     */
     public FfprobeCommand waitFor() {
-        Platform.waitWhile(() -> running == null, 10000);
-        if(running == null) {
-            System.out.println(binary + " " + String.join(" ", args) + " -i " + input);
-            System.out.println("\texecution failed, retrying...");
-            return execute().waitFor();
-        }
-        if (running.isAlive()) {
-            try {
-                running.waitFor();
-            } catch (InterruptedException e) {
-                throw new RuntimeException(e);
-            }
+        CompletableFuture<ProcessResult> pending = result;
+        if (pending == null) return this;
+        try {
+            pending.join();
+        } catch (CompletionException | CancellationException e) {
+            // failures show through the exit code
         }
         return this;
     }
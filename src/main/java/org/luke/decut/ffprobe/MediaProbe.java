@@ -0,0 +1,169 @@
+package org.luke.decut.ffprobe;
+
+import org.luke.decut.cmd.ProcessResult;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Reads stream formats and keyframe positions of media files with ffprobe. Results are
+ * cached per file and dropped when the file is modified, since listing the keyframes of
+ * a long file reads all of its packets.
+ */
+public class MediaProbe {
+    private static final HashMap<File, Probed<VideoStreamInfo>> streams = new HashMap<>();
+    private static final HashMap<File, Probed<List<Double>>> keyframes = new HashMap<>();
+
+    private MediaProbe() {
+    }
+
+    /**
+     * @return the format of the first video stream of the file, or null if it has none or probing failed
+     */
+    public static VideoStreamInfo videoStream(File file) {
+        synchronized (streams) {
+            Probed<VideoStreamInfo> found = streams.get(file);
+            if (found != null && found.lastModified() == file.lastModified()) {
+                return found.value();
+            }
+        }
+
+        HashMap<String, String> entries = new HashMap<>();
+        FfprobeCommand probe = new FfprobeCommand()
+                .onOutput(line -> {
+                    int eq = line.indexOf('=');
+                    if (eq > 0) {
+                        synchronized (entries) {
+                            entries.put(line.substring(0, eq), line.substring(eq + 1));
+                        }
+                    }
+                })
+                .addArgument("-v").addArgument("error")
+                .addArgument("-select_streams").addArgument("v:0")
+                .addArgument("-show_entries")
+                .addArgument("stream=codec_name,profile,width,height,pix_fmt,avg_frame_rate,start_time"
+                        + ":stream_side_data=rotation")
+                .addArgument("-of").addArgument("default=noprint_wrappers=1")
+                .setInput(file);
+        boolean probed = succeeded(probe.execute());
+
+        VideoStreamInfo info = null;
+        synchronized (entries) {
+            if (probed && entries.containsKey("codec_name")) {
+                info = new VideoStreamInfo(
+                        entries.get("codec_name"),
+                        entries.get("profile"),
+                        parseInt(entries.get("width")),
+                        parseInt(entries.get("height")),
+                        parseRate(entries.get("avg_frame_rate")),
+                        entries.get("pix_fmt"),
+                        startTime(entries.get("start_time")),
+                        parseInt(entries.get("rotation")));
+            }
+        }
+        synchronized (streams) {
+            streams.put(file, new Probed<>(info, file.lastModified()));
+        }
+        return info;
+    }
+
+    /**
+     * Lists the keyframes of the first video stream from its packet flags, without decoding.
+     *
+     * @return the sorted keyframe times in seconds, relative to the start of the stream, or
+     * an empty list if probing failed
+     */
+    public static List<Double> keyframes(File file) {
+        synchronized (keyframes) {
+            Probed<List<Double>> found = keyframes.get(file);
+            if (found != null && found.lastModified() == file.lastModified()) {
+                return found.value();
+            }
+        }
+
+        VideoStreamInfo info = videoStream(file);
+        if (info == null) {
+            return List.of();
+        }
+
+        List<Double> times = new ArrayList<>();
+        FfprobeCommand probe = new FfprobeCommand()
+                .onOutput(line -> {
+                    // pts_time,flags with K set on keyframes, e.g. 2.002000,K__
+                    int comma = line.indexOf(',');
+                    if (comma > 0 && line.startsWith("K", comma + 1)) {
+                        double time = parseTime(line.substring(0, comma));
+                        if (!Double.isNaN(time)) {
+                            synchronized (times) {
+                                times.add(time - info.startTime());
+                            }
+                        }
+                    }
+                })
+                .addArgument("-v").addArgument("error")
+                .addArgument("-select_streams").addArgument("v:0")
+                .addArgument("-show_entries").addArgument("packet=pts_time,flags")
+                .addArgument("-of").addArgument("csv=p=0")
+                .setInput(file);
+        boolean probed = succeeded(probe.execute());
+
+        List<Double> result;
+        synchronized (times) {
+            Collections.sort(times);
+            result = probed ? List.copyOf(times) : List.of();
+        }
+        synchronized (keyframes) {
+            keyframes.put(file, new Probed<>(result, file.lastModified()));
+        }
+        return result;
+    }
+
+    private static boolean succeeded(CompletableFuture<ProcessResult> result) {
+        return result.thenApply(ProcessResult::isSuccess)
+                .exceptionally(_ -> false)
+                .join();
+    }
+
+    private static int parseInt(String value) {
+        try {
+            return value == null ? 0 : Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static double parseTime(String value) {
+        try {
+            return value == null ? Double.NaN : Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            return Double.NaN;
+        }
+    }
+
+    private static double startTime(String value) {
+        double time = parseTime(value);
+        return Double.isNaN(time) ? 0 : time;
+    }
+
+    /**
+     * Parses a rational rate such as 30000/1001.
+     */
+    private static double parseRate(String value) {
+        if (value == null) return 0;
+        int slash = value.indexOf('/');
+        if (slash < 0) {
+            double rate = parseTime(value);
+            return Double.isNaN(rate) ? 0 : rate;
+        }
+        double num = parseTime(value.substring(0, slash));
+        double den = parseTime(value.substring(slash + 1));
+        return Double.isNaN(num) || Double.isNaN(den) || den == 0 ? 0 : num / den;
+    }
+
+    private record Probed<T>(T value, long lastModified) {
+    }
+}
@@ -0,0 +1,54 @@
+package org.luke.decut.ffprobe;
+
+/**
+ * The format of the first video stream of a media file, as reported by ffprobe.
+ *
+ * @param codec       the codec name, e.g. h264
+ * @param profile     the codec profile, e.g. High, or null if unknown
+ * @param width       the coded width in pixels
+ * @param height      the coded height in pixels
+ * @param frameRate   the average frame rate, or 0 if unknown
+ * @param pixelFormat the pixel format, e.g. yuv420p
+ * @param startTime   the timestamp of the first frame in seconds, which seeking is relative to
+ * @param rotation    the display rotation in degrees, which FFmpeg applies when decoding
+ */
+public record VideoStreamInfo(String codec, String profile, int width, int height, double frameRate,
+                              String pixelFormat, double startTime, int rotation) {
+
+    /**
+     * @return the width of decoded frames, once rotated
+     */
+    public int displayWidth() {
+        return rotation % 180 == 0 ? width : height;
+    }
+
+    /**
+     * @return the height of decoded frames, once rotated
+     */
+    public int displayHeight() {
+        return rotation % 180 == 0 ? height : width;
+    }
+
+    /**
+     * @return true if frames of this stream can be copied into an output of the given format as they are
+     */
+    public boolean matches(String codec, int width, int height, double frameRate, String pixelFormat) {
+        return codec.equals(this.codec)
+                && rotation == 0
+                && width == this.width
+                && height == this.height
+                && Math.abs(frameRate - this.frameRate) < 1e-3
+                && pixelFormat.equals(this.pixelFormat);
+    }
+
+    /**
+     * @return true if frames of this stream may be transparent, or the pixel format is unknown
+     */
+    public boolean hasAlpha() {
+        if (pixelFormat == null) return true;
+        return pixelFormat.startsWith("yuva") || pixelFormat.startsWith("gbrap") || pixelFormat.startsWith("ya")
+                || pixelFormat.contains("rgba") || pixelFormat.contains("bgra")
+                || pixelFormat.contains("argb") || pixelFormat.contains("abgr")
+                || pixelFormat.equals("pal8");
+    }
+}
@@ -222,7 +222,17 @@ public class FfmpegManager {
         }
     }
 
+    /**
+     * @return the version of the binary, probed once per binary, see {@link ToolRegistry}
+     */
     public static String getFFmpegVersion(String ffmpegBinary) {
+        return ToolRegistry.global().getVersion(ffmpegBinary, FfmpegManager::probeVersion);
+    }
+
+    /**
+     * Runs the binary to read its version, prefer {@link #getFFmpegVersion(String)} which remembers it.
+     */
+    public static String probeVersion(String ffmpegBinary) {
         AtomicReference<String> versionRef = new AtomicReference<>();
         Consumer<String> parser = line -> {
             if (line.startsWith("ffmpeg version")) {
@@ -205,7 +205,17 @@ public class FfprobeManager {
 		}
 	}
 
+	/**
+	 * @return the version of the binary, probed once per binary, see {@link ToolRegistry}
+	 */
 	public static String getFfprobeVersion(String ffprobeBinary) {
+		return ToolRegistry.global().getVersion(ffprobeBinary, FfprobeManager::probeVersion);
+	}
+
+	/**
+	 * Runs the binary to read its version, prefer {@link #getFfprobeVersion(String)} which remembers it.
+	 */
+	public static String probeVersion(String ffprobeBinary) {
 		AtomicReference<String> versionRef = new AtomicReference<>();
 		Consumer<String> parser = line -> {
 			if (line.startsWith("ffprobe version")) {
@@ -0,0 +1,275 @@
+package org.luke.decut.local.managers;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.luke.decut.cmd.Command;
+import org.luke.decut.crossplatform.Os;
+import org.luke.decut.file.FileDealer;
+import org.luke.gui.exception.ErrorHandler;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Remembers what the FFmpeg and FFprobe binaries on this machine are, so they are probed
+ * once instead of every time a binary is resolved.
+ * <p>
+ * Each binary is known by its absolute path, size and modification time. Its version,
+ * encoders and filters are probed the first time they are asked for and saved, and are
+ * probed again only when the binary is replaced or removed. Resolving a binary for an
+ * edit then only reads the file attributes and never starts a process.
+ * <p>
+ * A probe that fails, e.g. because the binary timed out or was locked by a scan, is not
+ * saved. It is remembered for {@link #FAILURE_RETRY} milliseconds, then probed again.
+ * <p>
+ * Example usage:
+ * <pre>
+ * ToolRegistry registry = ToolRegistry.global();
+ * String version = registry.getVersion("ffmpeg", FfmpegManager::probeVersion);
+ * Set&lt;String&gt; encoders = registry.getEncoders("ffmpeg");
+ * </pre>
+ */
+public class ToolRegistry {
+    private static final Pattern ENCODER_LINE = Pattern.compile("^\\s*([VAS][.A-Z]{5})\\s+(\\S+)");
+    /**
+     * The time after which a failed probe is retried, in milliseconds.
+     */
+    public static final long FAILURE_RETRY = 60_000;
+
+    private static final Pattern FILTER_LINE = Pattern.compile("^\\s*([.A-Z]{2,3})\\s+(\\S+)\\s+\\S*->\\S*");
+
+    private static final String SIZE = "size";
+    private static final String MODIFIED = "modified";
+    private static final String VERSION = "version";
+    private static final String ENCODERS = "encoders";
+    private static final String FILTERS = "filters";
+
+    private static ToolRegistry global;
+
+    private final File store;
+    private final JSONObject tools;
+    private final HashMap<String, Long> failures;
+
+    /**
+     * @param store the file probed binaries are saved to and loaded from
+     */
+    public ToolRegistry(File store) {
+        this.store = store;
+
+        JSONObject loaded = new JSONObject();
+        if (store.exists()) {
+            try {
+                loaded = new JSONObject(FileDealer.read(store));
+            } catch (Exception e) {
+                ErrorHandler.handle(e, "load tool registry");
+            }
+        }
+        this.tools = loaded;
+        this.failures = new HashMap<>();
+    }
+
+    /**
+     * @return the registry of this machine, saving its binaries under the decut root
+     */
+    public static synchronized ToolRegistry global() {
+        if (global == null) {
+            global = new ToolRegistry(new File(Os.fromSystem().getDecutRoot(), "tools.json"));
+        }
+        return global;
+    }
+
+    /**
+     * Finds the file a binary name runs, looking it up on the {@code PATH} like the
+     * processes started with it do.
+     *
+     * @param binary a path, or a bare name like {@code ffmpeg}
+     * @return the file, or null if no such file exists
+     */
+    public static File locate(String binary) {
+        File direct = new File(binary);
+        if (binary.contains(File.separator) || binary.contains("/")) {
+            return direct.isFile() ? direct.getAbsoluteFile() : null;
+        }
+        List<String> names = Os.fromSystem().isWindows() && !binary.toLowerCase().endsWith(".exe")
+                ? List.of(binary + ".exe", binary)
+                : List.of(binary);
+        List<String> dirs = new ArrayList<>();
+        if (Os.fromSystem().isWindows()) {
+            dirs.add(".");
+        }
+        String path = System.getenv("PATH");
+        if (path != null) {
+            Collections.addAll(dirs, path.split(File.pathSeparator));
+        }
+        for (String dir : dirs) {
+            if (dir.isBlank()) continue;
+            for (String name : names) {
+                File file = new File(dir, name);
+                if (file.isFile()) {
+                    return file.getAbsoluteFile();
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the key a binary is known by, its path, size and modification time, or null
+     * if it does not exist
+     */
+    public static String keyOf(String binary) {
+        File file = locate(binary);
+        return file == null ? null : file.getPath() + "|" + file.length() + "|" + file.lastModified();
+    }
+
+    /**
+     * @param binary the binary
+     * @param probe  runs the binary and parses its version, called only when the binary is
+     *               unknown
+     * @return the version of the binary, or null if it does not exist, is not the tool
+     * the probe expects or failed to run
+     */
+    public synchronized String getVersion(String binary, Function<String, String> probe) {
+        JSONObject entry = entry(binary);
+        if (entry == null) return null;
+        // failures saved by older versions are probed again
+        if (entry.has(VERSION) && !entry.isNull(VERSION)) {
+            return entry.getString(VERSION);
+        }
+        if (failedRecently(binary, VERSION)) return null;
+        String version = probe.apply(binary);
+        if (version == null) {
+            failed(binary, VERSION);
+            return null;
+        }
+        entry.put(VERSION, version);
+        save();
+        return version;
+    }
+
+    /**
+     * @return the names of the encoders the FFmpeg binary lists, empty if it does not exist
+     */
+    public Set<String> getEncoders(String binary) {
+        return capability(binary, ENCODERS, "-encoders", ToolRegistry::parseEncoders);
+    }
+
+    /**
+     * @return the names of the filters the FFmpeg binary lists, empty if it does not exist
+     */
+    public Set<String> getFilters(String binary) {
+        return capability(binary, FILTERS, "-filters", ToolRegistry::parseFilters);
+    }
+
+    private synchronized Set<String> capability(String binary, String field, String option,
+                                                Function<List<String>, Set<String>> parser) {
+        JSONObject entry = entry(binary);
+        if (entry == null) return Set.of();
+        if (!entry.has(field)) {
+            if (failedRecently(binary, field)) return Set.of();
+            Set<String> listed = parser.apply(listing(binary, option));
+            // every build lists some, an empty listing means the binary did not run
+            if (listed.isEmpty()) {
+                failed(binary, field);
+                return Set.of();
+            }
+            entry.put(field, new JSONArray(listed));
+            save();
+        }
+        Set<String> res = new LinkedHashSet<>();
+        entry.getJSONArray(field).forEach(name -> res.add((String) name));
+        return res;
+    }
+
+    /**
+     * @return the saved entry of the binary, replacing it if the binary changed since it
+     * was saved, or null if the binary does not exist
+     */
+    private synchronized JSONObject entry(String binary) {
+        File file = locate(binary);
+        if (file == null) {
+            if (tools.remove(new File(binary).getAbsolutePath()) != null) save();
+            return null;
+        }
+        JSONObject entry = tools.optJSONObject(file.getPath());
+        if (entry == null || entry.optLong(SIZE) != file.length() || entry.optLong(MODIFIED) != file.lastModified()) {
+            entry = new JSONObject();
+            entry.put(SIZE, file.length());
+            entry.put(MODIFIED, file.lastModified());
+            tools.put(file.getPath(), entry);
+        }
+        return entry;
+    }
+
+    private boolean failedRecently(String binary, String field) {
+        Long failedAt = failures.get(keyOf(binary) + "|" + field);
+        return failedAt != null && System.currentTimeMillis() - failedAt < FAILURE_RETRY;
+    }
+
+    private void failed(String binary, String field) {
+        failures.put(keyOf(binary) + "|" + field, System.currentTimeMillis());
+    }
+
+    private static List<String> listing(String binary, String option) {
+        List<String> lines = new ArrayList<>();
+        Consumer<String> collect = line -> {
+            synchronized (lines) {
+                lines.add(line);
+            }
+        };
+        new Command(binary, "-hide_banner", option)
+                .addInputHandler(collect)
+                .addErrorHandler(collect)
+                .executeAndJoin();
+        return lines;
+    }
+
+    /**
+     * Parses the output of {@code ffmpeg -encoders}, lines like
+     * {@code  V....D libx264   libx264 H.264 / AVC / MPEG-4 AVC}.
+     */
+    static Set<String> parseEncoders(List<String> lines) {
+        Set<String> encoders = new LinkedHashSet<>();
+        for (String line : lines) {
+            Matcher matcher = ENCODER_LINE.matcher(line);
+            // the legend lines read "V..... = Video"
+            if (matcher.find() && !matcher.group(2).equals("=")) {
+                encoders.add(matcher.group(2));
+            }
+        }
+        return encoders;
+    }
+
+    /**
+     * Parses the output of {@code ffmpeg -filters}, lines like
+     * {@code  TSC scale   V->V   Scale the input video size.}, the legend lines have no
+     * arrow.
+     */
+    static Set<String> parseFilters(List<String> lines) {
+        Set<String> filters = new LinkedHashSet<>();
+        for (String line : lines) {
+            Matcher matcher = FILTER_LINE.matcher(line);
+            if (matcher.find()) {
+                filters.add(matcher.group(2));
+            }
+        }
+        return filters;
+    }
+
+    private synchronized void save() {
+        File parent = store.getParentFile();
+        if (parent != null && !parent.exists()) {
+            parent.mkdirs();
+        }
+        FileDealer.write(tools.toString(4), store);
+    }
+}
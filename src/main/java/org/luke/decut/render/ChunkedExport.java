@@ -0,0 +1,92 @@
+package org.luke.decut.render;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Exports the timeline by encoding its video in several parts at the same time, then
+ * joining the parts with the concat demuxer without re-encoding them.
+ * <p>
+ * The parts split the timeline on frame boundaries and are cut to exact frame counts,
+ * so the joined video has every frame exactly once.
+ * <p>
+ * Example usage:
+ * <pre>
+ * new ChunkedExport(renderer, home.snapshotTimeline(), output)
+ *     .setOnProgress(progress -> Platform.runLater(() -> progressBar.setProgress(progress)))
+ *     .run();
+ * </pre>
+ */
+public class ChunkedExport extends PartedExport {
+    private static final double MIN_CHUNK_DURATION = 10;
+    private static final int CORES_PER_CHUNK = 4;
+    private static final int MAX_CHUNKS = 16;
+
+    private final int chunkCount;
+
+    /**
+     * Creates an export split into as many parts as the machine can encode at once.
+     */
+    public ChunkedExport(TimelineRenderer renderer, TimelineSnapshot timeline, File output) {
+        this(renderer, timeline, output, defaultChunkCount(timeline.getDuration()));
+    }
+
+    public ChunkedExport(TimelineRenderer renderer, TimelineSnapshot timeline, File output, int chunkCount) {
+        super(renderer, timeline, output);
+        this.chunkCount = Math.max(1, chunkCount);
+    }
+
+    /**
+     * Picks a number of parts from the available cores. Encoders scale well up to a few
+     * threads each, so one part per four cores keeps every core busy, while parts shorter
+     * than ten seconds would spend more time starting up than encoding.
+     */
+    public static int defaultChunkCount(double duration) {
+        int cores = Runtime.getRuntime().availableProcessors();
+        int byLength = (int) (duration / MIN_CHUNK_DURATION);
+        return Math.clamp(Math.min(cores / CORES_PER_CHUNK, byLength), 1, MAX_CHUNKS);
+    }
+
+    public int getChunkCount() {
+        return chunkCount;
+    }
+
+    @Override
+    protected List<Part> createParts(File dir) {
+        int totalFrames = SegmentRenderer.frameCount(timeline.getDuration(), timeline.getFrameRate());
+        List<Chunk> chunks = split(totalFrames, chunkCount);
+        int threads = EncoderTuner.global().threadsFor(chunks.size());
+
+        List<Part> parts = new ArrayList<>();
+        for (int i = 0; i < chunks.size(); i++) {
+            Chunk chunk = chunks.get(i);
+            File part = new File(dir, "part_" + i + ".mkv");
+            parts.add(new Part(part, chunk.frameCount(),
+                    renderer.generateVideoChunkCommand(timeline, part, chunk.startFrame(), chunk.frameCount(), threads)));
+        }
+        return parts;
+    }
+
+    /**
+     * Splits a number of frames into the given number of consecutive parts whose sizes
+     * differ by one frame at most.
+     */
+    static List<Chunk> split(int totalFrames, int chunkCount) {
+        int count = Math.clamp(chunkCount, 1, Math.max(1, totalFrames));
+        List<Chunk> chunks = new ArrayList<>();
+        int start = 0;
+        for (int i = 0; i < count; i++) {
+            int end = (int) ((long) totalFrames * (i + 1) / count);
+            chunks.add(new Chunk(start, end - start));
+            start = end;
+        }
+        return chunks;
+    }
+
+    /**
+     * A part of the timeline, in frames at the timeline frame rate.
+     */
+    record Chunk(int startFrame, int frameCount) {
+    }
+}
@@ -0,0 +1,78 @@
+package org.luke.decut.render;
+
+import org.luke.decut.ffmpeg.FfmpegCommand;
+import org.luke.decut.ffmpeg.FfmpegInput;
+import org.luke.decut.ffmpeg.options.Duration;
+import org.luke.decut.ffmpeg.options.Seek;
+import org.luke.decut.ffprobe.VideoStreamInfo;
+
+import java.io.File;
+
+/**
+ * An input reading only the part of a source file a clip uses. The input is seeked with
+ * -ss before -i, so FFmpeg jumps to the keyframe before the clip instead of decoding and
+ * discarding everything before it, and -t stops reading right after the clip.
+ * <p>
+ * Timestamps of a seeked input start at 0 at the seek point, so trims on it must be
+ * {@link #rebase(double) rebased}. The seek point is placed a little before the clip and
+ * rounded down, so the first frame of the clip is never dropped by the rounding of the
+ * seek time; the trim then cuts the clip exactly.
+ *
+ * @param index the index of the input in its command
+ * @param seek  the source time the input starts at
+ */
+record ClipInput(int index, double seek) {
+    private static final double SEEK_MARGIN = .1;
+
+    /**
+     * Adds an input covering [sourceStart, sourceStart + duration) of the file.
+     */
+    static ClipInput add(FfmpegCommand command, File file, double sourceStart, double duration) {
+        return add(command, file, sourceStart, duration, null);
+    }
+
+    /**
+     * Adds an input covering [sourceStart, sourceStart + duration) of the file, recording
+     * the size of its frames when the video stream was probed.
+     *
+     * @param stream the probed video stream of the file, or null
+     */
+    static ClipInput add(FfmpegCommand command, File file, double sourceStart, double duration,
+                         VideoStreamInfo stream) {
+        double seek = Math.max(0, Math.floor((sourceStart - SEEK_MARGIN) * 1000) / 1000);
+        FfmpegInput input = new FfmpegInput(file);
+        if (seek > 0) {
+            input.addOption(new Seek(seek));
+        }
+        input.addOption(new Duration(sourceStart - seek + duration + SEEK_MARGIN));
+        if (stream != null) {
+            input.setFrameSize(stream.displayWidth(), stream.displayHeight());
+        }
+
+        int index = command.getInputCount();
+        command.addInput(input);
+        return new ClipInput(index, seek);
+    }
+
+    /**
+     * @return true if frames of the probed stream are opaque, false if they may not be or it was not probed
+     */
+    static boolean isOpaque(VideoStreamInfo stream) {
+        return stream != null && !stream.hasAlpha();
+    }
+
+    /**
+     * @return the time of the given source time in the timestamps of this input
+     */
+    double rebase(double sourceTime) {
+        return sourceTime - seek;
+    }
+
+    String video() {
+        return "[" + index + ":v]";
+    }
+
+    String audio() {
+        return "[" + index + ":a]";
+    }
+}
@@ -0,0 +1,44 @@
+package org.luke.decut.render;
+
+import java.io.File;
+
+/**
+ * Immutable snapshot of the render-relevant state of a timeline clip.
+ * Taking snapshots is cheap and does no I/O, so it can be done on the FX thread;
+ * {@link #stamped()} then reads the source file state and can be done in the background.
+ *
+ * @param kind         whether the clip feeds the video or the audio of a render
+ * @param file         the source file the clip reads from
+ * @param layer        the index of the clip's track, higher layers are drawn first
+ * @param start        the timeline time the clip starts at, in seconds
+ * @param end          the timeline time the clip ends at, in seconds
+ * @param inPoint      the source time the clip starts reading from, in seconds
+ * @param outPoint     the source time the clip stops reading at, in seconds
+ * @param length       the size of the source file in bytes, or -1 if not stamped
+ * @param lastModified the modification time of the source file, or -1 if not stamped
+ */
+public record ClipSpan(Kind kind, File file, int layer, double start, double end, double inPoint,
+                       double outPoint, long length, long lastModified) {
+
+    public ClipSpan(Kind kind, File file, int layer, double start, double end, double inPoint, double outPoint) {
+        this(kind, file, layer, start, end, inPoint, outPoint, -1, -1);
+    }
+
+    /**
+     * @return a copy of this span carrying the current size and modification time of its file
+     */
+    public ClipSpan stamped() {
+        return new ClipSpan(kind, file, layer, start, end, inPoint, outPoint, file.length(), file.lastModified());
+    }
+
+    /**
+     * @return true if the clip is visible or audible anywhere in [from, to)
+     */
+    public boolean intersects(double from, double to) {
+        return start < to && end > from;
+    }
+
+    public enum Kind {
+        VIDEO, AUDIO
+    }
+}
@@ -0,0 +1,357 @@
+package org.luke.decut.render;
+
+import org.json.JSONObject;
+import org.luke.decut.cmd.Command;
+import org.luke.decut.cmd.ProcessScheduler;
+import org.luke.decut.crossplatform.Os;
+import org.luke.decut.ffmpeg.FfmpegCommand;
+import org.luke.decut.ffmpeg.FfmpegOutput;
+import org.luke.decut.ffmpeg.codec.VideoCodec;
+import org.luke.decut.ffmpeg.preset.Preset;
+import org.luke.decut.file.FileDealer;
+import org.luke.decut.local.managers.ToolRegistry;
+import org.luke.gui.exception.ErrorHandler;
+import org.luke.gui.threading.Platform;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Picks the H.264 encoder and preset exports use, and splits the cores between the
+ * FFmpeg processes running at the same time.
+ * <p>
+ * The encoder is the first of the hardware encoders matching the graphics cards of the
+ * {@link HardwareProfile} that the FFmpeg build lists in {@code -encoders} and that
+ * actually opens, libx264 otherwise. Its preset is the slowest, so the best looking,
+ * of a few candidates that still encodes a short synthetic clip {@link #MIN_SPEED}
+ * times faster than real time. Tunings are measured once per FFmpeg binary and saved,
+ * as the benchmark takes a few seconds. The app {@link #warmUp warms} the tuner up when it
+ * starts, and commands are built with {@link #getTuningNow}, which never waits for it.
+ * <p>
+ * Example usage:
+ * <pre>
+ * EncoderTuner tuner = EncoderTuner.global();
+ * tuner.getTuningNow().applyTo(command);
+ * command.setThreads(tuner.threadsFor(2));
+ * </pre>
+ */
+public class EncoderTuner {
+    /**
+     * The speed, relative to real time, the picked preset encodes the benchmark clip at.
+     */
+    public static final float MIN_SPEED = 2;
+
+    /**
+     * The number of hardware encoding sessions a single command may open. Consumer
+     * NVENC drivers have long capped the sessions of a machine at 3, and QSV and AMF
+     * degrade or fail past a few, so commands with more outputs use libx264.
+     */
+    public static final int HARDWARE_SESSIONS = 3;
+
+    private static final double BENCHMARK_DURATION = 2;
+    private static final String BENCHMARK_SOURCE = "testsrc2=size=1280x720:rate=30";
+    private static final List<Preset> CANDIDATES =
+            List.of(Preset.MEDIUM, Preset.FAST, Preset.FASTER, Preset.VERYFAST, Preset.ULTRAFAST);
+
+    private static EncoderTuner global;
+
+    private final File store;
+    private final HardwareProfile hardware;
+    private final JSONObject tunings;
+    private final Map<String, Tuning> known;
+    private final AtomicBoolean warming;
+
+    /**
+     * The encoding settings of exports.
+     *
+     * @param codec  the video encoder
+     * @param preset the preset of the encoder, or null if it has none
+     */
+    public record Tuning(VideoCodec codec, Preset preset) {
+        public static final Tuning DEFAULT = new Tuning(VideoCodec.H264, Preset.MEDIUM);
+
+        /**
+         * @return true if the encoder runs on a graphics card or media engine
+         */
+        public boolean isHardware() {
+            return !codec.getCodecName().equals(VideoCodec.H264.getCodecName());
+        }
+
+        /**
+         * @param sessions the number of outputs encoding at once with this tuning
+         * @return this tuning, or {@link #DEFAULT} if it is a hardware encoder and the
+         * outputs exceed {@link #HARDWARE_SESSIONS}
+         */
+        public Tuning forSessions(int sessions) {
+            return isHardware() && sessions > HARDWARE_SESSIONS ? DEFAULT : this;
+        }
+
+        public FfmpegCommand applyTo(FfmpegCommand command) {
+            command.setCodec(codec);
+            if (preset != null) {
+                command.setPreset(preset);
+            }
+            return command;
+        }
+
+        public FfmpegOutput applyTo(FfmpegOutput output) {
+            output.setCodec(codec);
+            if (preset != null) {
+                output.setPreset(preset);
+            }
+            return output;
+        }
+
+        JSONObject serialize() {
+            JSONObject obj = new JSONObject();
+            obj.put("codec", codec.getCodecName());
+            if (preset != null) {
+                obj.put("preset", preset.name());
+            }
+            return obj;
+        }
+
+        static Tuning deserialize(JSONObject obj) {
+            String name = obj.getString("codec");
+            VideoCodec codec = VideoCodec.getAllSupported().stream()
+                    .filter(c -> c.getCodecName().equals(name))
+                    .findFirst()
+                    .orElseThrow(() -> new IllegalArgumentException("unknown encoder " + name));
+            String preset = obj.optString("preset", null);
+            return new Tuning(codec, preset == null ? null : Preset.valueOf(preset));
+        }
+    }
+
+    /**
+     * @param store    the file measured tunings are saved to and loaded from
+     * @param hardware the machine the tunings are measured on
+     */
+    public EncoderTuner(File store, HardwareProfile hardware) {
+        this.store = store;
+        this.hardware = hardware;
+
+        JSONObject loaded = new JSONObject();
+        if (store.exists()) {
+            try {
+                loaded = new JSONObject(FileDealer.read(store));
+            } catch (Exception e) {
+                ErrorHandler.handle(e, "load encoder tunings");
+            }
+        }
+        this.tunings = loaded;
+        this.known = new ConcurrentHashMap<>();
+        this.warming = new AtomicBoolean();
+    }
+
+    /**
+     * @return the tuner of this machine, saving its tunings under the decut root
+     */
+    public static synchronized EncoderTuner global() {
+        if (global == null) {
+            global = new EncoderTuner(new File(Os.fromSystem().getDecutRoot(), "encoder_tuning.json"),
+                    HardwareProfile.current());
+        }
+        return global;
+    }
+
+    /**
+     * Splits the cores evenly between FFmpeg processes running at the same time, so
+     * they do not each start a thread per core and fight over them.
+     *
+     * @param concurrentJobs the number of processes sharing the machine
+     * @return the number of threads each process should use, at least 1
+     */
+    public int threadsFor(int concurrentJobs) {
+        return Math.max(1, hardware.logicalCores() / Math.max(1, concurrentJobs));
+    }
+
+    /**
+     * Measures the tuning of the current FFmpeg binary in the background, unless it is
+     * already being measured.
+     */
+    public void warmUp() {
+        if (!warming.compareAndSet(false, true)) return;
+        Platform.runBack(() -> {
+            try {
+                getTuning();
+            } finally {
+                warming.set(false);
+            }
+        });
+    }
+
+    /**
+     * Returns the tuning of the current FFmpeg binary if it was already measured or loaded,
+     * otherwise {@link #warmUp warms up} the tuner and returns {@link Tuning#DEFAULT}, so
+     * building a command never waits for the benchmark.
+     */
+    public Tuning getTuningNow() {
+        String binary = FfmpegCommand.getBinary();
+        Tuning tuning = binary == null ? null : known.get(keyOf(binary));
+        if (tuning == null) {
+            warmUp();
+            return Tuning.DEFAULT;
+        }
+        return tuning;
+    }
+
+    /**
+     * Returns the tuning of the current FFmpeg binary, measuring it on the first call for
+     * that binary. The measure runs FFmpeg and blocks for a few seconds, so this is best
+     * called off the ui thread.
+     *
+     * @return the tuning, or {@link Tuning#DEFAULT} if no FFmpeg binary is available
+     */
+    public Tuning getTuning() {
+        if (!FfmpegCommand.hasBinary()) {
+            FfmpegCommand.resetBinary();
+        }
+        String binary = FfmpegCommand.getBinary();
+        return binary == null ? Tuning.DEFAULT : getTuning(binary);
+    }
+
+    /**
+     * @param binary the FFmpeg binary to tune
+     */
+    public synchronized Tuning getTuning(String binary) {
+        String key = keyOf(binary);
+        JSONObject saved = tunings.optJSONObject(key);
+        if (saved != null) {
+            try {
+                Tuning tuning = Tuning.deserialize(saved);
+                known.put(key, tuning);
+                return tuning;
+            } catch (Exception e) {
+                ErrorHandler.handle(e, "read encoder tuning");
+            }
+        }
+
+        Tuning tuning = measure(binary);
+        tunings.put(key, tuning.serialize());
+        save();
+        known.put(key, tuning);
+        return tuning;
+    }
+
+    /**
+     * @return the key of the tuning of a binary, a binary replaced in place is tuned again
+     */
+    private String keyOf(String binary) {
+        return ToolRegistry.keyOf(binary) + "|" + hardware.signature();
+    }
+
+    private Tuning measure(String binary) {
+        Set<String> available = ToolRegistry.global().getEncoders(binary);
+        for (VideoCodec codec : candidates(hardware, Os.fromSystem().isOsx(), available)) {
+            List<Preset> presets = distinctPresets(codec);
+            Preset picked = null;
+            boolean opened = false;
+            for (Preset preset : presets) {
+                double speed = benchmark(binary, codec, preset);
+                if (speed <= 0) {
+                    // the hardware encoder is listed but the device or driver is missing
+                    break;
+                }
+                opened = true;
+                picked = preset;
+                if (speed >= MIN_SPEED) {
+                    break;
+                }
+            }
+            if (opened) {
+                return new Tuning(codec, picked);
+            }
+        }
+        return Tuning.DEFAULT;
+    }
+
+    /**
+     * @return the encoders to try, best first: the hardware encoders of the vendors
+     * present, then libx264, keeping only those the build lists
+     */
+    static List<VideoCodec> candidates(HardwareProfile hardware, boolean osx, Set<String> available) {
+        List<VideoCodec> candidates = new ArrayList<>();
+        if (osx) {
+            candidates.add(VideoCodec.H264_VIDEOTOOLBOX);
+        }
+        if (hardware.hasGpu("nvidia")) {
+            candidates.add(VideoCodec.H264_NVENC);
+        }
+        if (hardware.hasGpu("amd") || hardware.hasGpu("advanced micro devices")) {
+            candidates.add(VideoCodec.H264_AMF);
+        }
+        if (hardware.hasGpu("intel")) {
+            candidates.add(VideoCodec.H264_QSV);
+        }
+        candidates.add(VideoCodec.H264);
+        candidates.removeIf(codec -> !available.contains(codec.getCodecName()));
+        return candidates;
+    }
+
+    /**
+     * @return the candidate presets, slowest first, skipping those the encoder maps to
+     * the same setting, or a single null preset if the encoder has none
+     */
+    static List<Preset> distinctPresets(VideoCodec codec) {
+        List<Preset> presets = new ArrayList<>();
+        Set<String> values = new HashSet<>();
+        for (Preset preset : CANDIDATES) {
+            String value = preset.getValueForCodec(codec.getCodecName());
+            if (value != null && values.add(value)) {
+                presets.add(preset);
+            }
+        }
+        if (presets.isEmpty()) {
+            presets.add(null);
+        }
+        return presets;
+    }
+
+    /**
+     * Encodes the synthetic clip and discards the result.
+     *
+     * @return the speed relative to real time, or 0 if the encode failed
+     */
+    private double benchmark(String binary, VideoCodec codec, Preset preset) {
+        List<String> args = new ArrayList<>(List.of(binary, "-hide_banner", "-nostats",
+                "-f", "lavfi", "-i", BENCHMARK_SOURCE,
+                "-t", String.valueOf(BENCHMARK_DURATION),
+                "-c:v", codec.getCodecName()));
+        if (preset != null) {
+            args.addAll(preset.applyForCodec(codec.getCodecName()));
+        }
+        args.addAll(List.of("-f", "null", "-"));
+
+        // the encode takes an export slot, so it neither competes with running exports nor
+        // measures a machine busy with more processes than an export would run beside
+        Command command = new Command(args.toArray(new String[0]));
+        try {
+            ProcessScheduler.Ticket ticket = ProcessScheduler.global().submit(ProcessScheduler.Priority.EXPORT, command::execute);
+            if (ticket.await() == null) return 0;
+            long start = System.nanoTime();
+            int exitCode = command.getCompletion().get();
+            long elapsed = System.nanoTime() - start;
+            return exitCode == 0 ? BENCHMARK_DURATION * 1_000_000_000 / Math.max(1, elapsed) : 0;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return 0;
+        } catch (ExecutionException e) {
+            return 0;
+        }
+    }
+
+    private void save() {
+        File parent = store.getParentFile();
+        if (parent != null && !parent.exists()) {
+            parent.mkdirs();
+        }
+        FileDealer.write(tunings.toString(4), store);
+    }
+}
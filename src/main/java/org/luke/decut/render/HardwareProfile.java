@@ -0,0 +1,70 @@
+package org.luke.decut.render;
+
+import org.luke.gui.exception.ErrorHandler;
+import oshi.SystemInfo;
+import oshi.hardware.CentralProcessor;
+import oshi.hardware.GraphicsCard;
+import oshi.hardware.HardwareAbstractionLayer;
+
+import java.util.List;
+
+/**
+ * The parts of the machine that decide how exports are encoded: the number of cores
+ * FFmpeg processes share and the graphics cards that may offer a hardware encoder.
+ *
+ * @param logicalCores the number of logical processors
+ * @param cpuVendor    the vendor of the processor in lower case, e.g. intel
+ * @param gpuVendors   the vendors of the graphics cards in lower case, e.g. nvidia
+ */
+public record HardwareProfile(int logicalCores, String cpuVendor, List<String> gpuVendors) {
+    private static HardwareProfile current;
+
+    public HardwareProfile {
+        logicalCores = Math.max(1, logicalCores);
+        gpuVendors = List.copyOf(gpuVendors);
+    }
+
+    /**
+     * @return the profile of this machine, read once with the same oshi data the
+     * hardware settings show
+     */
+    public static synchronized HardwareProfile current() {
+        if (current == null) {
+            current = detect();
+        }
+        return current;
+    }
+
+    private static HardwareProfile detect() {
+        try {
+            HardwareAbstractionLayer hal = new SystemInfo().getHardware();
+            CentralProcessor cpu = hal.getProcessor();
+            String cpuVendor = cpu.getProcessorIdentifier().getVendor()
+                    .toLowerCase()
+                    .replace("genuineintel", "intel");
+            List<String> gpuVendors = hal.getGraphicsCards().stream()
+                    .map(GraphicsCard::getVendor)
+                    .map(String::toLowerCase)
+                    .toList();
+            return new HardwareProfile(cpu.getLogicalProcessorCount(), cpuVendor, gpuVendors);
+        } catch (Exception e) {
+            ErrorHandler.handle(e, "read hardware profile");
+            return new HardwareProfile(Runtime.getRuntime().availableProcessors(), "", List.of());
+        }
+    }
+
+    /**
+     * @return true if a graphics card is made by the vendor
+     */
+    public boolean hasGpu(String vendor) {
+        return gpuVendors.stream().anyMatch(gpu -> gpu.contains(vendor));
+    }
+
+    /**
+     * @return a key that changes with the hardware, used to drop tunings measured on
+     * another machine
+     */
+    public String signature() {
+        return logicalCores + "|" + cpuVendor + "|" + String.join(",", gpuVendors);
+    }
+}
@@ -0,0 +1,174 @@
+package org.luke.decut.render;
+
+import org.luke.decut.cmd.ProcessScheduler;
+import org.luke.decut.crossplatform.Os;
+import org.luke.decut.ffmpeg.FfmpegCommand;
+import org.luke.decut.ffmpeg.FfmpegInput;
+import org.luke.decut.ffmpeg.codec.AudioCodec;
+import org.luke.decut.ffmpeg.codec.VideoCodec;
+import org.luke.decut.ffmpeg.handlers.ProgressHandler;
+import org.luke.decut.ffmpeg.options.FfmpegOption;
+import org.luke.decut.ffmpeg.options.Map;
+import org.luke.gui.file.DirUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.function.Consumer;
+
+/**
+ * An export producing the video of the timeline as consecutive parts that are joined
+ * with the concat demuxer without re-encoding them. Subclasses decide how the timeline
+ * is split and how each part is produced.
+ * <p>
+ * The audio is encoded in one piece next to the video parts and muxed in when joining,
+ * so it has no gap at the part boundaries. Parts are built from the
+ * {@link TimelineSnapshot snapshot} the export was created with, their commands are only
+ * created when it runs.
+ */
+public abstract class PartedExport {
+    protected final TimelineRenderer renderer;
+    protected final TimelineSnapshot timeline;
+    private final File output;
+    private final List<FfmpegCommand> running;
+    private Consumer<Float> onProgress;
+    private volatile boolean cancelled;
+
+    protected PartedExport(TimelineRenderer renderer, TimelineSnapshot timeline, File output) {
+        this.renderer = renderer;
+        this.timeline = timeline;
+        this.output = output;
+        this.running = new ArrayList<>();
+    }
+
+    /**
+     * Creates the commands producing the video parts, in timeline order.
+     *
+     * @param dir a temporary directory to write the parts to, deleted after the export
+     */
+    protected abstract List<Part> createParts(File dir) throws IOException;
+
+    /**
+     * @return the number of commands to run at the same time, the audio command included
+     */
+    protected int getConcurrency() {
+        return Integer.MAX_VALUE;
+    }
+
+    /**
+     * Sets the consumer receiving the overall progress, from 0 to 1. It is called
+     * from the threads reading FFmpeg's output.
+     */
+    public PartedExport setOnProgress(Consumer<Float> onProgress) {
+        this.onProgress = onProgress;
+        return this;
+    }
+
+    /**
+     * Runs the export and waits for it to finish.
+     *
+     * @throws IOException if a part or the joining failed, or the export was cancelled
+     */
+    public void run() throws IOException {
+        File dir = Os.fromSystem().createTempDirectory("export_");
+        try {
+            List<Part> parts = createParts(dir);
+            int totalFrames = parts.stream().mapToInt(Part::frameCount).sum();
+            AtomicIntegerArray framesDone = new AtomicIntegerArray(parts.size());
+
+            File audio = new File(dir, "audio.m4a");
+            List<FfmpegCommand> commands = new ArrayList<>();
+            commands.add(renderer.generateAudioCommand(timeline, audio));
+            for (int i = 0; i < parts.size(); i++) {
+                Part part = parts.get(i);
+                int index = i;
+                commands.add(part.command().addHandler(new ProgressHandler().addHandler(info -> {
+                    framesDone.set(index, Math.min(info.frame(), part.frameCount()));
+                    reportProgress(framesDone, totalFrames);
+                })));
+            }
+
+            int batch = Math.max(1, getConcurrency());
+            for (int from = 0; from < commands.size(); from += batch) {
+                runAll(commands.subList(from, Math.min(commands.size(), from + batch)));
+            }
+
+            File list = new File(dir, "parts.txt");
+            StringBuilder listContent = new StringBuilder();
+            for (Part part : parts) {
+                listContent.append("file '").append(part.file().getAbsolutePath().replace("'", "'\\''")).append("'\n");
+            }
+            Files.writeString(list.toPath(), listContent);
+
+            runAll(List.of(new FfmpegCommand()
+                    .addInput(new FfmpegInput(list)
+                            .addOption(new FfmpegOption("f").setValue("concat"))
+                            .addOption(new FfmpegOption("safe").setValue("0")))
+                    .addInput(audio)
+                    .addOption(new Map("0:v"))
+                    .addOption(new Map("1:a"))
+                    .setCodec(VideoCodec.COPY)
+                    .setCodec(AudioCodec.COPY)
+                    .setOutput(output)));
+            if (onProgress != null) {
+                onProgress.accept(1f);
+            }
+        } finally {
+            DirUtils.deleteDir(dir);
+        }
+    }
+
+    /**
+     * Kills the running FFmpeg processes, {@link #run()} then fails.
+     */
+    public void cancel() {
+        synchronized (running) {
+            cancelled = true;
+            running.forEach(FfmpegCommand::kill);
+        }
+    }
+
+    private void runAll(List<FfmpegCommand> commands) throws IOException {
+        synchronized (running) {
+            if (cancelled) {
+                throw new IOException("Export cancelled");
+            }
+            running.clear();
+            running.addAll(commands);
+            commands.forEach(command -> command.setPriority(ProcessScheduler.Priority.EXPORT).execute());
+        }
+        commands.forEach(FfmpegCommand::waitFor);
+        if (cancelled) {
+            throw new IOException("Export cancelled");
+        }
+        for (FfmpegCommand command : commands) {
+            if (command.getExitCode() != 0) {
+                throw new IOException("FFmpeg exited with code " + command.getExitCode() + ": "
+                        + command.describe());
+            }
+        }
+    }
+
+    private void reportProgress(AtomicIntegerArray framesDone, int totalFrames) {
+        if (onProgress == null) return;
+        long done = 0;
+        for (int i = 0; i < framesDone.length(); i++) {
+            done += framesDone.get(i);
+        }
+        // joining is quick, keep a little room for it
+        onProgress.accept(.99f * done / Math.max(1, totalFrames));
+    }
+
+    /**
+     * A video part of the export.
+     *
+     * @param file       the file the command writes the part to
+     * @param frameCount the number of frames in the part
+     * @param command    the command producing the part
+     */
+    protected record Part(File file, int frameCount, FfmpegCommand command) {
+    }
+}
@@ -0,0 +1,281 @@
+package org.luke.decut.render;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.luke.decut.cmd.ProcessScheduler;
+import org.luke.decut.ffmpeg.FfmpegCommand;
+import org.luke.decut.ffmpeg.handlers.ProgressHandler;
+import org.luke.decut.ffmpeg.handlers.ProgressInfo;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * An export waiting in, or run by, a {@link RenderQueue}.
+ * <p>
+ * The job keeps the arguments and compiled filter graph of its command and builds a new
+ * command from them every time it starts, so it can be paused and saved. A job can also
+ * run a {@link PartedExport}, created from a {@link TimelineSnapshot} every time it starts.
+ * <p>
+ * Example usage:
+ * <pre>
+ * RenderQueue.global().submit(RenderJob.of("final.mp4", home.render(home.snapshotTimeline(), file)));
+ * </pre>
+ */
+public class RenderJob {
+    private static final AtomicLong CREATED = new AtomicLong();
+
+    public enum State {
+        QUEUED, RUNNING, PAUSED, DONE, FAILED, CANCELLED;
+
+        /**
+         * @return true if a job in this state will not run again
+         */
+        public boolean isFinished() {
+            return this == DONE || this == FAILED || this == CANCELLED;
+        }
+    }
+
+    private final String id;
+    private final String name;
+    private final File output;
+    private final long duration;
+    private final List<String> arguments;
+    private final String filterGraph;
+    private final Supplier<PartedExport> export;
+    private final long order;
+    private final ArrayList<Consumer<RenderJob>> listeners;
+
+    private volatile int priority;
+    private volatile State state;
+    private volatile ProgressInfo progress;
+    private volatile FfmpegCommand command;
+    private volatile PartedExport running;
+    private volatile float partedProgress;
+
+    private RenderJob(String id, String name, File output, long duration, List<String> arguments,
+                      String filterGraph, Supplier<PartedExport> export) {
+        this.id = id;
+        this.name = name;
+        this.output = output;
+        this.duration = duration;
+        this.arguments = List.copyOf(arguments);
+        this.filterGraph = filterGraph;
+        this.export = export;
+        this.order = CREATED.getAndIncrement();
+        this.listeners = new ArrayList<>();
+        this.state = State.QUEUED;
+    }
+
+    /**
+     * Takes a snapshot of a command that writes to files.
+     *
+     * @param name    the name shown for the job, e.g. the output file name
+     * @param command the command to run, which is never executed itself
+     * @throws IllegalArgumentException if the command has no output file
+     * @throws IllegalStateException    if the filter graph of the command is not valid
+     */
+    public static RenderJob of(String name, FfmpegCommand command) {
+        if (command.getOutput() == null && command.getOutputs().isEmpty()) {
+            throw new IllegalArgumentException("a render job needs an output file");
+        }
+        return new RenderJob(UUID.randomUUID().toString(), name, command.getOutput(), command.getDuration(),
+                command.getArguments(), command.getFilterGraph(), null);
+    }
+
+    /**
+     * Creates a job running a parted export.
+     *
+     * @param name   the name shown for the job, e.g. the output file name
+     * @param output the file the export writes
+     * @param export creates the export from a timeline snapshot taken at submit, called on the
+     *               thread running the job every time it starts
+     */
+    public static RenderJob of(String name, File output, Supplier<PartedExport> export) {
+        return new RenderJob(UUID.randomUUID().toString(), name, output, -1, List.of(), null, export);
+    }
+
+    /**
+     * @return true if the job runs a {@link PartedExport} rather than a single command
+     */
+    public boolean isParted() {
+        return export != null;
+    }
+
+    /**
+     * Creates a fresh export, reporting its progress to this job.
+     */
+    PartedExport createExport(Consumer<Float> onProgress) {
+        return export.get().setOnProgress(onProgress);
+    }
+
+    /**
+     * Builds a fresh command from the snapshot, reporting its progress to this job.
+     */
+    FfmpegCommand createCommand(Consumer<ProgressInfo> onProgress) {
+        return new FfmpegCommand()
+                .setPriority(ProcessScheduler.Priority.EXPORT)
+                .addArguments(arguments)
+                .setFilterGraph(filterGraph)
+                .setDuration(duration)
+                .setOutput(output)
+                .addHandler(new ProgressHandler().addHandler(onProgress));
+    }
+
+    /**
+     * Adds a listener called whenever the state or the progress of this job changes.
+     * Listeners are called on the thread running the job, and are not saved with it.
+     */
+    public RenderJob addListener(Consumer<RenderJob> listener) {
+        synchronized (listeners) {
+            listeners.add(listener);
+        }
+        return this;
+    }
+
+    void fireChanged() {
+        List<Consumer<RenderJob>> current;
+        synchronized (listeners) {
+            current = new ArrayList<>(listeners);
+        }
+        current.forEach(listener -> listener.accept(this));
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the main output of the job, or null if it only writes {@link FfmpegCommand#addOutput added outputs}
+     */
+    public File getOutput() {
+        return output;
+    }
+
+    /**
+     * @return the priority of the job, jobs with a higher priority start first
+     */
+    public int getPriority() {
+        return priority;
+    }
+
+    void setPriority(int priority) {
+        this.priority = priority;
+    }
+
+    /**
+     * @return the order jobs of the same priority start in
+     */
+    long getOrder() {
+        return order;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    void setState(State state) {
+        this.state = state;
+        if (state != State.RUNNING) {
+            command = null;
+            running = null;
+        }
+    }
+
+    FfmpegCommand getCommand() {
+        return command;
+    }
+
+    void setCommand(FfmpegCommand command) {
+        this.command = command;
+    }
+
+    PartedExport getExport() {
+        return running;
+    }
+
+    void setExport(PartedExport running) {
+        this.running = running;
+    }
+
+    void setProgress(ProgressInfo progress) {
+        this.progress = progress;
+    }
+
+    void setProgress(float progress) {
+        this.partedProgress = progress;
+    }
+
+    /**
+     * @return the last progress reported by FFmpeg, or null if the job has not reported any
+     */
+    public ProgressInfo getProgressInfo() {
+        return progress;
+    }
+
+    /**
+     * @return the part of the output written so far, between 0 and 1
+     */
+    public float getProgress() {
+        if (state == State.DONE) return 1;
+        if (isParted()) return Math.clamp(partedProgress, 0, 1);
+        ProgressInfo info = progress;
+        return info == null || info.duration() <= 0 ? 0 : Math.clamp(info.getProgress(), 0, 1);
+    }
+
+    /**
+     * @return the estimated time left in milliseconds, or -1 if unknown
+     */
+    public long getEta() {
+        ProgressInfo info = progress;
+        return info == null || state != State.RUNNING ? -1 : info.getEstimatedRemainingTime();
+    }
+
+    /**
+     * @return the number of frames encoded per second, or 0 if the job is not running
+     */
+    public float getThroughput() {
+        ProgressInfo info = progress;
+        return info == null || state != State.RUNNING ? 0 : info.fps();
+    }
+
+    JSONObject serialize() {
+        JSONObject obj = new JSONObject();
+        obj.put("id", id);
+        obj.put("name", name);
+        if (output != null) {
+            obj.put("output", output.getAbsolutePath());
+        }
+        obj.put("duration", duration);
+        obj.put("arguments", new JSONArray(arguments));
+        if (filterGraph != null) {
+            obj.put("filter_graph", filterGraph);
+        }
+        obj.put("priority", priority);
+        obj.put("paused", state == State.PAUSED);
+        return obj;
+    }
+
+    /**
+     * Restores a job saved by a queue, jobs that were running start over.
+     */
+    static RenderJob deserialize(JSONObject obj) {
+        List<String> arguments = new ArrayList<>();
+        obj.getJSONArray("arguments").forEach(arg -> arguments.add((String) arg));
+        String output = obj.optString("output", null);
+        RenderJob job = new RenderJob(obj.getString("id"), obj.getString("name"), output == null ? null : new File(output),
+                obj.getLong("duration"), arguments, obj.optString("filter_graph", null), null);
+        job.priority = obj.optInt("priority");
+        job.state = obj.optBoolean("paused") ? State.PAUSED : State.QUEUED;
+        return job;
+    }
+}
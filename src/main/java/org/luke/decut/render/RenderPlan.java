@@ -0,0 +1,102 @@
+package org.luke.decut.render;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * The video of a part of the timeline, sliced at every clip boundary into intervals
+ * during which the same clips are visible. Each interval is rendered from its own
+ * clips only, and the intervals are joined in order, so the cost of a frame depends on
+ * the clips visible in it instead of on every clip of the timeline.
+ * <p>
+ * Boundaries are rounded to frames, so every interval holds a whole number of frames
+ * and joining them keeps the timeline's timing exact.
+ *
+ * @param intervals the consecutive intervals covering the planned part of the timeline
+ */
+public record RenderPlan(List<Interval> intervals) {
+
+    /**
+     * Plans the video of [from, to) from the given clip snapshots. Audio spans are ignored.
+     */
+    public static RenderPlan compile(List<ClipSpan> spans, double from, double to, double frameRate) {
+        List<ClipSpan> video = spans.stream()
+                .filter(span -> span.kind() == ClipSpan.Kind.VIDEO)
+                .filter(span -> span.intersects(from, to))
+                .sorted(drawOrder())
+                .toList();
+
+        long first = toFrame(from, frameRate);
+        long last = toFrame(to, frameRate);
+        TreeSet<Long> cuts = new TreeSet<>();
+        cuts.add(first);
+        cuts.add(last);
+        for (ClipSpan span : video) {
+            cuts.add(Math.clamp(toFrame(span.start(), frameRate), first, last));
+            cuts.add(Math.clamp(toFrame(span.end(), frameRate), first, last));
+        }
+
+        List<Interval> intervals = new ArrayList<>();
+        Long previous = null;
+        for (long cut : cuts) {
+            if (previous != null) {
+                long start = previous;
+                List<ClipSpan> layers = video.stream()
+                        .filter(span -> toFrame(span.start(), frameRate) <= start
+                                && toFrame(span.end(), frameRate) >= cut)
+                        .toList();
+                Interval interval = new Interval(start / frameRate, cut / frameRate, (int) (cut - start), layers);
+                if (!intervals.isEmpty() && intervals.getLast().layers().equals(layers)) {
+                    Interval merged = intervals.removeLast();
+                    interval = new Interval(merged.start(), interval.end(),
+                            merged.frameCount() + interval.frameCount(), layers);
+                }
+                intervals.add(interval);
+            }
+            previous = cut;
+        }
+        return new RenderPlan(intervals);
+    }
+
+    /**
+     * @return the sum of the visible clips of every frame, the number of clip frames the plan composites
+     */
+    public long getCost() {
+        return intervals.stream().mapToLong(interval -> (long) interval.frameCount() * interval.layers().size()).sum();
+    }
+
+    /**
+     * Orders clips from the bottom layer to the top one, the order they are drawn in.
+     * Higher layers are drawn first, clips of the same layer by start time.
+     */
+    public static Comparator<ClipSpan> drawOrder() {
+        return Comparator.comparingInt(ClipSpan::layer).reversed().thenComparingDouble(ClipSpan::start);
+    }
+
+    private static long toFrame(double time, double frameRate) {
+        return Math.round(time * frameRate);
+    }
+
+    /**
+     * A part of the timeline during which the same clips are visible.
+     *
+     * @param start      the timeline time the interval starts at, on a frame boundary
+     * @param end        the timeline time the interval ends at, on a frame boundary
+     * @param frameCount the number of frames in the interval
+     * @param layers     the visible clips, from the bottom one to the top one, empty for a gap
+     */
+    public record Interval(double start, double end, int frameCount, List<ClipSpan> layers) {
+        public double duration() {
+            return end - start;
+        }
+
+        /**
+         * @return the source time the given clip is at when this interval starts
+         */
+        public double sourceStart(ClipSpan span) {
+            return span.inPoint() + start - span.start();
+        }
+    }
+}
@@ -0,0 +1,287 @@
+package org.luke.decut.render;
+
+import org.json.JSONArray;
+import org.luke.decut.crossplatform.Os;
+import org.luke.decut.ffmpeg.FfmpegCommand;
+import org.luke.decut.file.FileDealer;
+import org.luke.gui.exception.ErrorHandler;
+import org.luke.gui.threading.Platform;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Runs exports in the background, a limited number at a time, highest priority first.
+ * <p>
+ * Queued and paused jobs are saved after every change and loaded back when the queue is
+ * created, jobs that were running start over. Jobs running a {@link PartedExport} have no
+ * command line to save and are dropped when the app closes. Pausing a job stops its
+ * encode, which starts over on resume, and every running job gets an even share of the
+ * cores, see {@link EncoderTuner#threadsFor(int)}.
+ * <p>
+ * Example usage:
+ * <pre>
+ * RenderQueue.global().submit(RenderJob.of("final.mp4", home.render(home.snapshotTimeline(), file)));
+ * </pre>
+ */
+public class RenderQueue {
+    private static RenderQueue global;
+
+    private final File store;
+    private final ArrayList<RenderJob> jobs;
+    private final ArrayList<Consumer<RenderJob>> listeners;
+    private int maxConcurrent;
+
+    /**
+     * @param store         the file pending jobs are saved to and loaded from
+     * @param maxConcurrent the number of jobs running at once, 0 to hold every job
+     */
+    public RenderQueue(File store, int maxConcurrent) {
+        this.store = store;
+        this.maxConcurrent = maxConcurrent;
+        this.jobs = new ArrayList<>();
+        this.listeners = new ArrayList<>();
+
+        if (store.exists()) {
+            try {
+                JSONArray saved = new JSONArray(FileDealer.read(store));
+                for (int i = 0; i < saved.length(); i++) {
+                    jobs.add(RenderJob.deserialize(saved.getJSONObject(i)));
+                }
+            } catch (Exception e) {
+                ErrorHandler.handle(e, "load render queue");
+            }
+        }
+        schedule();
+    }
+
+    /**
+     * @return the queue shared by every window, saved under the decut root, which
+     * resumes the exports pending when the app was closed
+     */
+    public static synchronized RenderQueue global() {
+        if (global == null) {
+            global = new RenderQueue(new File(Os.fromSystem().getDecutRoot(), "render_queue.json"), 2);
+        }
+        return global;
+    }
+
+    /**
+     * Adds a listener called whenever a job of this queue changes, on the thread that
+     * changed it.
+     */
+    public RenderQueue addListener(Consumer<RenderJob> listener) {
+        synchronized (listeners) {
+            listeners.add(listener);
+        }
+        return this;
+    }
+
+    public RenderJob submit(RenderJob job) {
+        synchronized (this) {
+            jobs.add(job);
+            save();
+        }
+        changed(job);
+        schedule();
+        return job;
+    }
+
+    /**
+     * Holds a job, stopping it if it is running.
+     */
+    public void pause(RenderJob job) {
+        stop(job, RenderJob.State.PAUSED);
+    }
+
+    public void resume(RenderJob job) {
+        synchronized (this) {
+            if (job.getState() != RenderJob.State.PAUSED) return;
+            job.setState(RenderJob.State.QUEUED);
+            save();
+        }
+        changed(job);
+        schedule();
+    }
+
+    /**
+     * Drops a job, stopping it if it is running.
+     */
+    public void cancel(RenderJob job) {
+        stop(job, RenderJob.State.CANCELLED);
+    }
+
+    /**
+     * Changes the priority of a job, jobs with a higher priority start first.
+     * Running jobs are not interrupted.
+     */
+    public void setPriority(RenderJob job, int priority) {
+        synchronized (this) {
+            job.setPriority(priority);
+            save();
+        }
+        changed(job);
+    }
+
+    /**
+     * @param maxConcurrent the number of jobs running at once, 0 to hold every job
+     */
+    public void setMaxConcurrent(int maxConcurrent) {
+        synchronized (this) {
+            this.maxConcurrent = maxConcurrent;
+        }
+        schedule();
+    }
+
+    /**
+     * @return the jobs of this queue in the order they run
+     */
+    public synchronized List<RenderJob> getJobs() {
+        List<RenderJob> ordered = new ArrayList<>(jobs);
+        ordered.sort(runOrder());
+        return ordered;
+    }
+
+    /**
+     * Removes the jobs that are done, failed or cancelled.
+     */
+    public synchronized void clearFinished() {
+        jobs.removeIf(job -> job.getState().isFinished());
+    }
+
+    private void stop(RenderJob job, RenderJob.State state) {
+        FfmpegCommand running;
+        PartedExport export;
+        synchronized (this) {
+            if (job.getState().isFinished()) return;
+            running = job.getCommand();
+            export = job.getExport();
+            job.setState(state);
+            save();
+        }
+        if (running != null) {
+            running.kill();
+        }
+        if (export != null) {
+            export.cancel();
+        }
+        changed(job);
+        schedule();
+    }
+
+    private void schedule() {
+        List<RenderJob> starting = new ArrayList<>();
+        synchronized (this) {
+            long running = jobs.stream().filter(job -> job.getState() == RenderJob.State.RUNNING).count();
+            for (RenderJob job : getJobs()) {
+                if (running + starting.size() >= maxConcurrent) break;
+                if (job.getState() == RenderJob.State.QUEUED) {
+                    job.setState(RenderJob.State.RUNNING);
+                    starting.add(job);
+                }
+            }
+        }
+        starting.forEach(job -> {
+            changed(job);
+            Platform.runBack(() -> run(job));
+        });
+    }
+
+    private void run(RenderJob job) {
+        if (!FfmpegCommand.hasBinary()) {
+            FfmpegCommand.resetBinary();
+        }
+        if (job.isParted()) {
+            runParted(job);
+            return;
+        }
+        FfmpegCommand command = job.createCommand(progress -> {
+            job.setProgress(progress);
+            changed(job);
+        });
+        synchronized (this) {
+            if (job.getState() != RenderJob.State.RUNNING) return;
+            job.setCommand(command);
+            // the jobs running together share the cores instead of each taking all of them
+            command.setThreads(EncoderTuner.global().threadsFor(maxConcurrent));
+        }
+
+        boolean success = false;
+        try {
+            // a missing binary or an invalid graph fails the result at once, it never reports exit code 0
+            command.execute();
+            command.waitFor();
+            success = !command.isKilled() && command.getExitCode() == 0;
+        } catch (Exception e) {
+            ErrorHandler.handle(e, "render " + job.getName());
+        }
+
+        finish(job, success);
+    }
+
+    private void runParted(RenderJob job) {
+        boolean success = false;
+        try {
+            // creating the export probes the sources, which happens here rather than on the ui thread
+            PartedExport export = job.createExport(progress -> {
+                job.setProgress(progress);
+                changed(job);
+            });
+            synchronized (this) {
+                if (job.getState() != RenderJob.State.RUNNING) return;
+                job.setExport(export);
+            }
+            export.run();
+            success = true;
+        } catch (Exception e) {
+            // a paused or cancelled export fails on purpose
+            if (job.getState() == RenderJob.State.RUNNING) {
+                ErrorHandler.handle(e, "render " + job.getName());
+            }
+        }
+        finish(job, success);
+    }
+
+    private void finish(RenderJob job, boolean success) {
+        synchronized (this) {
+            // paused and cancelled jobs were already moved on
+            if (job.getState() == RenderJob.State.RUNNING) {
+                job.setState(success ? RenderJob.State.DONE : RenderJob.State.FAILED);
+                save();
+            }
+        }
+        changed(job);
+        schedule();
+    }
+
+    private static Comparator<RenderJob> runOrder() {
+        return Comparator.comparingInt(RenderJob::getPriority).reversed()
+                .thenComparingLong(RenderJob::getOrder);
+    }
+
+    private void changed(RenderJob job) {
+        job.fireChanged();
+        List<Consumer<RenderJob>> current;
+        synchronized (listeners) {
+            current = new ArrayList<>(listeners);
+        }
+        current.forEach(listener -> listener.accept(job));
+    }
+
+    private synchronized void save() {
+        JSONArray pending = new JSONArray();
+        for (RenderJob job : getJobs()) {
+            if (!job.getState().isFinished() && !job.isParted()) {
+                pending.put(job.serialize());
+            }
+        }
+        File parent = store.getParentFile();
+        if (parent != null && !parent.exists()) {
+            parent.mkdirs();
+        }
+        FileDealer.write(pending.toString(4), store);
+    }
+}
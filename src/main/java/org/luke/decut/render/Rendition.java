@@ -0,0 +1,114 @@
+package org.luke.decut.render;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * One output of a multi-rendition export: a size and bitrate the composed timeline is
+ * encoded at, and how the result is packaged.
+ *
+ * @param target       the file written, the playlist or manifest for segmented packagings
+ * @param height       the height of the video in pixels, or 0 for an audio only rendition
+ * @param videoBitrate the video bitrate, e.g. 3M, or null for an audio only rendition
+ * @param audioBitrate the audio bitrate, e.g. 128k
+ * @param packaging    how the encoded streams are written
+ */
+public record Rendition(File target, int height, String videoBitrate, String audioBitrate, Packaging packaging) {
+    /**
+     * The duration of HLS and DASH segments in seconds, which every video rendition
+     * places keyframes on so players can switch between them at any segment.
+     */
+    public static final int SEGMENT_DURATION = 4;
+
+    /**
+     * The name of the master playlist listing the HLS renditions of a directory, which
+     * players load to pick a variant.
+     */
+    public static final String MASTER_PLAYLIST = "master.m3u8";
+
+    /**
+     * The heights of the ladder, best first, the HLS variants stop at {@link #HLS_MAX_HEIGHT}.
+     */
+    private static final int[] HEIGHTS = {1080, 720, 480};
+    private static final String[] VIDEO_BITRATES = {"5M", "3M", "1200k"};
+    private static final String[] AUDIO_BITRATES = {"192k", "128k", "96k"};
+    private static final int HLS_MAX_HEIGHT = 720;
+
+    public enum Packaging {
+        FILE, HLS, DASH
+    }
+
+    public static Rendition video(File target, int height, String videoBitrate, String audioBitrate) {
+        return new Rendition(target, height, videoBitrate, audioBitrate, Packaging.FILE);
+    }
+
+    public static Rendition audio(File target, String audioBitrate) {
+        return new Rendition(target, 0, null, audioBitrate, Packaging.FILE);
+    }
+
+    /**
+     * The HLS renditions of a directory are written by one output, along with a
+     * {@link #MASTER_PLAYLIST master playlist} listing them.
+     *
+     * @param playlist the .m3u8 playlist of the variant, segments are written next to it
+     */
+    public static Rendition hls(File playlist, int height, String videoBitrate, String audioBitrate) {
+        return new Rendition(playlist, height, videoBitrate, audioBitrate, Packaging.HLS);
+    }
+
+    /**
+     * @param manifest the .mpd manifest, segments are written next to it
+     */
+    public static Rendition dash(File manifest, int height, String videoBitrate, String audioBitrate) {
+        return new Rendition(manifest, height, videoBitrate, audioBitrate, Packaging.DASH);
+    }
+
+    /**
+     * The usual ladder: 1080p, 720p and 480p files, an audio only file, and 720p and 480p
+     * HLS variants. Rungs taller than the canvas are dropped rather than upscaled, a canvas
+     * shorter than every rung gets a single rung at its own height.
+     *
+     * @param dir          the directory the renditions are written to
+     * @param name         the base name of the files
+     * @param canvasHeight the height of the timeline
+     */
+    public static List<Rendition> ladder(File dir, String name, int canvasHeight) {
+        File hlsDir = new File(dir, "hls");
+        List<Rendition> files = new ArrayList<>();
+        List<Rendition> variants = new ArrayList<>();
+        for (int i = 0; i < HEIGHTS.length; i++) {
+            int height = HEIGHTS[i];
+            if (height > canvasHeight) continue;
+            files.add(video(new File(dir, name + "_" + height + "p.mp4"), height, VIDEO_BITRATES[i], AUDIO_BITRATES[i]));
+            if (height <= HLS_MAX_HEIGHT) {
+                variants.add(hls(new File(hlsDir, name + "_" + height + "p.m3u8"), height,
+                        VIDEO_BITRATES[i], AUDIO_BITRATES[i]));
+            }
+        }
+        if (files.isEmpty()) {
+            int height = Math.max(2, canvasHeight / 2 * 2);
+            String videoBitrate = VIDEO_BITRATES[HEIGHTS.length - 1];
+            String audioBitrate = AUDIO_BITRATES[HEIGHTS.length - 1];
+            files.add(video(new File(dir, name + "_" + height + "p.mp4"), height, videoBitrate, audioBitrate));
+            variants.add(hls(new File(hlsDir, name + "_" + height + "p.m3u8"), height, videoBitrate, audioBitrate));
+        }
+
+        List<Rendition> ladder = new ArrayList<>(files);
+        ladder.add(audio(new File(dir, name + "_audio.m4a"), "192k"));
+        ladder.addAll(variants);
+        return ladder;
+    }
+
+    public boolean hasVideo() {
+        return height > 0;
+    }
+
+    /**
+     * @return the width keeping the aspect ratio of the canvas, rounded to an even number
+     * as 4:2:0 encoders require
+     */
+    public int width(int canvasWidth, int canvasHeight) {
+        return Math.max(2, (int) Math.round(canvasWidth * (double) height / canvasHeight / 2) * 2);
+    }
+}
@@ -0,0 +1,92 @@
+package org.luke.decut.render;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Compact fingerprint of everything a preview segment render depends on: the clips
+ * intersecting the segment, their source files, and the render settings.
+ * Two renders with equal fingerprints produce the same frames and audio, so a
+ * cached segment stays valid as long as its fingerprint does not change.
+ * <p>
+ * Fingerprints are computed from {@link ClipSpan} snapshots without building any
+ * FFmpeg command, and are meant to be computed off the FX thread.
+ *
+ * @param high the first 64 bits of the digest
+ * @param low  the last 64 bits of the digest
+ */
+public record SegmentFingerprint(long high, long low) {
+    private static final Comparator<ClipSpan> ORDER = Comparator
+            .comparing(ClipSpan::kind)
+            .thenComparing(ClipSpan::layer, Comparator.reverseOrder())
+            .thenComparingDouble(ClipSpan::start);
+
+    /**
+     * Computes the fingerprint of a segment.
+     *
+     * @param spans     stamped snapshots of the timeline clips, the ones outside the segment are ignored
+     * @param start     the segment start time, in seconds
+     * @param duration  the segment duration, in seconds
+     * @param width     the width of the rendered frames
+     * @param height    the height of the rendered frames
+     * @param frameRate the frame rate of the render
+     */
+    public static SegmentFingerprint compute(List<ClipSpan> spans, double start, double duration,
+                                             int width, int height, double frameRate) {
+        MessageDigest digest = newDigest();
+        ByteBuffer buffer = ByteBuffer.allocate(64);
+
+        buffer.putDouble(start).putDouble(duration).putInt(width).putInt(height).putDouble(frameRate);
+        update(digest, buffer);
+
+        double end = start + duration;
+        spans.stream()
+                .filter(span -> span.intersects(start, end))
+                .sorted(ORDER)
+                .forEach(span -> {
+                    digest.update(span.file().getAbsolutePath().getBytes(StandardCharsets.UTF_8));
+                    buffer.putInt(span.kind().ordinal())
+                            .putInt(span.layer())
+                            .putDouble(span.start())
+                            .putDouble(span.end())
+                            .putDouble(span.inPoint())
+                            .putDouble(span.outPoint())
+                            .putLong(span.length())
+                            .putLong(span.lastModified());
+                    update(digest, buffer);
+                });
+
+        ByteBuffer hash = ByteBuffer.wrap(digest.digest());
+        return new SegmentFingerprint(hash.getLong(), hash.getLong());
+    }
+
+    /**
+     * @return the fingerprint as 32 hexadecimal digits
+     */
+    public String toHex() {
+        return String.format("%016x%016x", high, low);
+    }
+
+    @Override
+    public String toString() {
+        return toHex();
+    }
+
+    private static void update(MessageDigest digest, ByteBuffer buffer) {
+        buffer.flip();
+        digest.update(buffer);
+        buffer.clear();
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+}
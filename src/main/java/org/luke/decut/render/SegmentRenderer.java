@@ -6,14 +6,19 @@ import org.luke.decut.app.timeline.clips.TimelineClip;
 import org.luke.decut.app.timeline.clips.VideoClip;
 import org.luke.decut.app.timeline.tracks.Track;
 import org.luke.decut.app.timeline.viewport.content.TrackContent;
+import org.luke.decut.cmd.ProcessScheduler;
 import org.luke.decut.ffmpeg.FfmpegCommand;
-import org.luke.decut.ffmpeg.codec.AudioCodec;
+import org.luke.decut.ffmpeg.FfmpegInput;
 import org.luke.decut.ffmpeg.filter_complex.audio.*;
 import org.luke.decut.ffmpeg.filter_complex.core.ComplexFilterNode;
 import org.luke.decut.ffmpeg.filter_complex.video.*;
 import org.luke.decut.ffmpeg.options.Duration;
 import org.luke.decut.ffmpeg.options.FfmpegOption;
 import org.luke.decut.ffmpeg.options.Map;
+import org.luke.decut.ffmpeg.options.Seek;
+import org.luke.decut.ffmpeg.options.VFrames;
+import org.luke.decut.ffmpeg.pipe.RawAudioPipe;
+import org.luke.decut.ffmpeg.pipe.RawVideoPipe;
 
 import java.io.File;
 import java.util.*;
@@ -52,16 +57,74 @@ public class SegmentRenderer {
         return owner.getTracks().getTracks().indexOf(track);
     }
 
-    public FfmpegCommand renderSegmentFrames(File outputDir, double startTime, double duration, double qualityFactor) {
-        FfmpegCommand command = new FfmpegCommand();
+    private Comparator<TimelineClip> layerOrder() {
+        return (a, b) -> {
+            int layerCompare = -Integer.compare(getTrackLayer(a), getTrackLayer(b));
+            if (layerCompare != 0) return layerCompare;
+            return Double.compare(a.getStartTime(), b.getStartTime());
+        };
+    }
+
+    /**
+     * Takes a snapshot of the clips the segment renders read from. The snapshot is cheap
+     * and does no I/O, it is used to fingerprint segments without building their commands.
+     */
+    public List<ClipSpan> snapshotClips() {
+        List<ClipSpan> spans = new ArrayList<>();
+        for (Track track : getTracks()) {
+            for (TimelineClip clip : getClips(track)) {
+                ClipSpan.Kind kind;
+                if (clip instanceof VideoClip) {
+                    kind = ClipSpan.Kind.VIDEO;
+                } else if (clip instanceof AudioClip) {
+                    kind = ClipSpan.Kind.AUDIO;
+                } else {
+                    continue;
+                }
+                spans.add(new ClipSpan(kind, clip.getSourceAsset().getFile(), getTrackLayer(clip),
+                        clip.getStartTime(), clip.getEndTime(), clip.getInPoint(), clip.getOutPoint()));
+            }
+        }
+        return spans;
+    }
+
+    /**
+     * Tells whether any clip of a kind plays in a segment. Segments without video clips
+     * render to black frames and segments without audio clips to silence, callers
+     * synthesize those instead of running FFmpeg.
+     */
+    public static boolean hasActiveClips(List<ClipSpan> spans, ClipSpan.Kind kind, double startTime,
+                                         double duration) {
+        for (ClipSpan span : spans) {
+            if (span.kind() == kind && span.intersects(startTime, startTime + duration)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the number of frames FFmpeg outputs for the given duration at the given frame rate
+     */
+    public static int frameCount(double duration, double frameRate) {
+        return (int) Math.ceil(duration * frameRate - 1e-9);
+    }
+
+    public FfmpegCommand renderSegmentFrames(RawVideoPipe pipe, double startTime, double duration) {
+        return renderSegmentFrames(pipe, startTime, duration, getFrameRate());
+    }
 
-        File outputPattern = new File(outputDir, "frame_%06d.bmp");
-        command.setOutput(outputPattern);
+    /**
+     * Builds a command rendering the frames of a segment at the given frame rate, which
+     * may be lower than the timeline's to make previews of complex timelines cheaper.
+     */
+    public FfmpegCommand renderSegmentFrames(RawVideoPipe pipe, double startTime, double duration,
+                                             double frameRate) {
+        FfmpegCommand command = new FfmpegCommand().setPriority(ProcessScheduler.Priority.PREVIEW);
 
-        command.addOption(new FfmpegOption("f").setValue("image2"));
-        command.addOption(new FfmpegOption("q:v").setValue("3"));
+        command.setRawVideoOutput(pipe);
 
-        command.addOption(new FfmpegOption("r").setValue(String.valueOf(getFrameRate())));
+        command.addOption(new FfmpegOption("r").setValue(String.valueOf(frameRate)));
 
         List<Track> tracks = getTracks();
         List<VideoClip> videoClips = new ArrayList<>();
@@ -77,22 +140,11 @@ public class SegmentRenderer {
             }
         }
 
-        Set<File> inputFiles = new HashSet<>();
-        for (VideoClip clip : videoClips) {
-            inputFiles.add(clip.getSourceAsset().getFile());
-        }
-
-        HashMap<File, Integer> fileToInputIndex = new HashMap<>();
-        int inputIndex = 0;
-        for (File file : inputFiles) {
-            command.addInput(file);
-            fileToInputIndex.put(file, inputIndex++);
-        }
-
         command.setDuration((long) (duration * 1000));
         command.addOption(new Duration(duration));
 
-        String finalVideoLabel = processVideoClips(command, videoClips, fileToInputIndex, duration, startTime, qualityFactor);
+        String finalVideoLabel = processVideoClips(command, videoClips, duration, startTime,
+                pipe.getWidth(), pipe.getHeight(), frameRate);
 
         if (finalVideoLabel != null) {
             command.addOption(new Map(finalVideoLabel));
@@ -101,14 +153,69 @@ public class SegmentRenderer {
         return command;
     }
 
-    public FfmpegCommand renderSegmentAudio(File outputFile, double startTime, double duration) {
-        FfmpegCommand command = new FfmpegCommand();
+    /**
+     * Builds a command rendering only the frame at the given time, for scrubbing.
+     * Every visible clip gets its own input seeked with -ss before -i, so FFmpeg starts
+     * decoding at the keyframe before the frame instead of at the start of a segment.
+     */
+    public FfmpegCommand renderFrame(RawVideoPipe pipe, double time) {
+        FfmpegCommand command = new FfmpegCommand().setPriority(ProcessScheduler.Priority.SCRUB);
+
+        command.setRawVideoOutput(pipe);
+
+        List<VideoClip> videoClips = new ArrayList<>();
+        for (Track track : getTracks()) {
+            for (TimelineClip clip : getClips(track)) {
+                if (clip instanceof VideoClip videoClip && clip.getStartTime() <= time && clip.getEndTime() > time) {
+                    videoClips.add(videoClip);
+                }
+            }
+        }
+        videoClips.sort(layerOrder());
+
+        String currentVideoLabel = "[base_video]";
+        command.addComplexFilterNode(new ComplexFilterNode()
+                .addFilter(new ColorSrc()
+                        .setColor("black")
+                        .setSize(pipe.getWidth() + "x" + pipe.getHeight())
+                        .setDuration(1 / getFrameRate())
+                        .setRate(String.valueOf(getFrameRate())))
+                .setOutput(currentVideoLabel));
+
+        int inputIndex = 0;
+        for (VideoClip clip : videoClips) {
+            command.addInput(new FfmpegInput(clip.getSourceAsset().getFile())
+                    .addOption(new Seek(clip.getInPoint() + time - clip.getStartTime())));
+
+            String scaledLabel = "[scaled_" + inputIndex + "]";
+            String overlayLabel = "[overlay_" + inputIndex + "]";
+            command.addComplexFilterNode(new ComplexFilterNode()
+                    .setInput("[" + inputIndex + ":v]")
+                    .addFilter(new SetPts().setExpr("PTS-STARTPTS"))
+                    .addFilter(new Scale().cover(pipe.getWidth(), pipe.getHeight()))
+                    .setOutput(scaledLabel));
+
+            command.addComplexFilterNode(new ComplexFilterNode()
+                    .setInputs(currentVideoLabel, scaledLabel)
+                    .addFilter(new Overlay()
+                            .center()
+                            .setEofAction("pass"))
+                    .setOutput(overlayLabel));
+
+            currentVideoLabel = overlayLabel;
+            inputIndex++;
+        }
+
+        command.addOption(new VFrames(1));
+        command.addOption(new Map(currentVideoLabel));
+
+        return command;
+    }
 
-        command.setOutput(outputFile);
+    public FfmpegCommand renderSegmentAudio(RawAudioPipe pipe, double startTime, double duration) {
+        FfmpegCommand command = new FfmpegCommand().setPriority(ProcessScheduler.Priority.PREVIEW);
 
-        command.setCodec(new AudioCodec("pcm_s16le"));
-        command.addOption(new FfmpegOption("ar").setValue("44100"));
-        command.addOption(new FfmpegOption("ac").setValue("2"));
+        command.setRawAudioOutput(pipe);
 
         List<Track> tracks = getTracks();
         List<AudioClip> audioClips = new ArrayList<>();
@@ -124,22 +231,10 @@ public class SegmentRenderer {
             }
         }
 
-        Set<File> inputFiles = new HashSet<>();
-        for (AudioClip clip : audioClips) {
-            inputFiles.add(clip.getSourceAsset().getFile());
-        }
-
-        HashMap<File, Integer> fileToInputIndex = new HashMap<>();
-        int inputIndex = 0;
-        for (File file : inputFiles) {
-            command.addInput(file);
-            fileToInputIndex.put(file, inputIndex++);
-        }
-
         command.setDuration((long) (duration * 1000));
         command.addOption(new Duration(duration));
 
-        String finalAudioLabel = processAudioClips(command, audioClips, fileToInputIndex, duration, startTime);
+        String finalAudioLabel = processAudioClips(command, audioClips, duration, startTime);
 
         if (finalAudioLabel != null) {
             command.addOption(new Map(finalAudioLabel));
@@ -148,18 +243,15 @@ public class SegmentRenderer {
         return command;
     }
 
-    private String processVideoClips(FfmpegCommand command, List<VideoClip> videoClips,
-                                     HashMap<File, Integer> fileToInputIndex, double duration, double startTime,
-                                     double qualityFactor) {
-
-        videoClips.sort((a, b) -> {
-            int layerCompare = -Integer.compare(getTrackLayer(a), getTrackLayer(b));
-            if (layerCompare != 0) return layerCompare;
-            return Double.compare(a.getStartTime(), b.getStartTime());
-        });
+    /**
+     * Overlays the clips of a segment on a black base. Every clip gets its own input
+     * seeked to the part of its source the segment shows, so segments late in long
+     * sources start as fast as early ones.
+     */
+    private String processVideoClips(FfmpegCommand command, List<VideoClip> videoClips, double duration,
+                                     double startTime, int previewWidth, int previewHeight, double frameRate) {
 
-        int previewWidth = (int) (getWidth() * qualityFactor);
-        int previewHeight = (int) (getHeight() * qualityFactor);
+        videoClips.sort(layerOrder());
 
         String currentVideoLabel;
         int labelCounter = 0;
@@ -170,13 +262,12 @@ public class SegmentRenderer {
                         .setColor("black")
                         .setSize(previewWidth + "x" + previewHeight)
                         .setDuration(duration)
-                        .setRate(String.valueOf(getFrameRate())))
+                        .setRate(String.valueOf(frameRate)))
                 .setOutput(baseVideoLabel));
 
         currentVideoLabel = baseVideoLabel;
 
         for (VideoClip clip : videoClips) {
-            int inputIdx = fileToInputIndex.get(clip.getSourceAsset().getFile());
             String clipLabel = "[clip_" + labelCounter + "]";
             String scaledLabel = "[scaled_" + labelCounter + "]";
             String overlayLabel = "[overlay_" + labelCounter + "]";
@@ -190,10 +281,12 @@ public class SegmentRenderer {
                 clipInpoint += ds;
                 clipDuration -= ds;
             }
+            clipDuration = Math.min(clipDuration, duration - clipStart);
 
+            ClipInput input = ClipInput.add(command, clip.getSourceAsset().getFile(), clipInpoint, clipDuration);
             command.addComplexFilterNode(new ComplexFilterNode()
-                    .setInput("[" + inputIdx + ":v]")
-                    .addFilter(new TrimC(clipInpoint, clipDuration))
+                    .setInput(input.video())
+                    .addFilter(new TrimC(input.rebase(clipInpoint), clipDuration))
                     .addFilter(new SetPts().setExpr("PTS-STARTPTS+" + clipStart + "/TB"))
                     .setOutput(clipLabel));
 
@@ -216,8 +309,8 @@ public class SegmentRenderer {
         return currentVideoLabel;
     }
 
-    public String processAudioClips(FfmpegCommand command, List<AudioClip> audioClips,
-                                    HashMap<File, Integer> fileToInputIndex, double duration, double startTime) {
+    public String processAudioClips(FfmpegCommand command, List<AudioClip> audioClips, double duration,
+                                    double startTime) {
 
         String silenceBaseLabel = "[silence_base]";
         command.addComplexFilterNode(new ComplexFilterNode()
@@ -232,7 +325,6 @@ public class SegmentRenderer {
         int labelCounter = 0;
 
         for (AudioClip clip : audioClips) {
-            int inputIdx = fileToInputIndex.get(clip.getSourceAsset().getFile());
             String trimmedLabel = "[atrimmed_" + labelCounter + "]";
             String processedClipLabel = trimmedLabel;
 
@@ -245,9 +337,12 @@ public class SegmentRenderer {
                 clipInpoint += ds;
                 clipDuration -= ds;
             }
+            clipDuration = Math.min(clipDuration, duration - clipStart);
+
+            ClipInput input = ClipInput.add(command, clip.getSourceAsset().getFile(), clipInpoint, clipDuration);
             command.addComplexFilterNode(new ComplexFilterNode()
-                    .setInput("[" + inputIdx + ":a]")
-                    .addFilter(new ATrimC(clipInpoint, clipDuration))
+                    .setInput(input.audio())
+                    .addFilter(new ATrimC(input.rebase(clipInpoint), clipDuration))
                     .addFilter(new ASetPts().setExpr("PTS-STARTPTS"))
                     .setOutput(trimmedLabel));
 
@@ -0,0 +1,212 @@
+package org.luke.decut.render;
+
+import org.luke.decut.ffmpeg.FfmpegCommand;
+import org.luke.decut.ffmpeg.FfmpegInput;
+import org.luke.decut.ffmpeg.codec.VideoCodec;
+import org.luke.decut.ffmpeg.options.FfmpegOption;
+import org.luke.decut.ffmpeg.options.Map;
+import org.luke.decut.ffmpeg.options.Seek;
+import org.luke.decut.ffmpeg.options.VFrames;
+import org.luke.decut.ffprobe.MediaProbe;
+import org.luke.decut.ffprobe.VideoStreamInfo;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * Exports the timeline without re-encoding the parts of it that show a single clip
+ * already in the export format.
+ * <p>
+ * The GOPs of a span showing one H.264 yuv420p clip at the canvas size and frame rate
+ * are copied, only the frames around them and the composited, scaled or empty spans are
+ * re-encoded. Parts are written as MPEG-TS, which repeats the stream headers at every
+ * keyframe, so copied and re-encoded parts join into one stream.
+ * <p>
+ * Example usage:
+ * <pre>
+ * new SmartExport(renderer, home.snapshotTimeline(), output)
+ *     .setOnProgress(progress -> Platform.runLater(() -> progressBar.setProgress(progress)))
+ *     .run();
+ * </pre>
+ */
+public class SmartExport extends PartedExport {
+    private static final String CODEC = "h264";
+    private static final String PIXEL_FORMAT = "yuv420p";
+    private static final double MIN_COPY_DURATION = 1;
+    private static final int CORES_PER_ENCODE = 4;
+
+    private int copiedFrames;
+
+    public SmartExport(TimelineRenderer renderer, TimelineSnapshot timeline, File output) {
+        super(renderer, timeline, output);
+    }
+
+    /**
+     * @return the number of frames the last run copied from sources instead of encoding
+     */
+    public int getCopiedFrames() {
+        return copiedFrames;
+    }
+
+    @Override
+    protected int getConcurrency() {
+        return Math.max(2, Runtime.getRuntime().availableProcessors() / CORES_PER_ENCODE);
+    }
+
+    @Override
+    protected List<Part> createParts(File dir) {
+        double frameRate = timeline.getFrameRate();
+        RenderPlan plan = timeline.getPlan();
+
+        Set<File> candidates = new HashSet<>();
+        for (RenderPlan.Interval interval : plan.intervals()) {
+            if (interval.layers().size() == 1) {
+                candidates.add(interval.layers().getFirst().file());
+            }
+        }
+        HashMap<File, List<Double>> keyframes = new HashMap<>();
+        Set<String> profiles = new HashSet<>();
+        for (File file : candidates) {
+            VideoStreamInfo info = MediaProbe.videoStream(file);
+            if (info != null && info.matches(CODEC, timeline.getWidth(), timeline.getHeight(), frameRate, PIXEL_FORMAT)) {
+                keyframes.put(file, MediaProbe.keyframes(file));
+                profiles.add(encoderProfile(info.profile()));
+            }
+        }
+        // re-encoded parts follow the copied ones when they agree on a profile
+        String profile = profiles.size() == 1 ? profiles.iterator().next() : null;
+
+        List<Piece> pieces = split(plan, frameRate, file -> keyframes.getOrDefault(file, List.of()));
+        int threads = EncoderTuner.global().threadsFor(getConcurrency());
+
+        copiedFrames = 0;
+        List<Part> parts = new ArrayList<>();
+        for (int i = 0; i < pieces.size(); i++) {
+            Piece piece = pieces.get(i);
+            File part = new File(dir, "part_" + i + ".ts");
+            FfmpegCommand command;
+            if (piece.isCopy()) {
+                copiedFrames += piece.frameCount();
+                // copying starts at the last keyframe before the seek point, half a frame
+                // past the keyframe keeps rounding from landing on the previous one
+                command = new FfmpegCommand()
+                        .addInput(new FfmpegInput(piece.source())
+                                .addOption(new Seek(piece.sourceStart() + .5 / frameRate)))
+                        .addOption(new Map("0:v:0"))
+                        .setCodec(VideoCodec.COPY)
+                        .addOption(new VFrames(piece.frameCount()))
+                        .setOutput(part);
+            } else {
+                command = renderer.generateVideoChunkCommand(timeline, part, piece.startFrame(), piece.frameCount(), threads)
+                        .addOption(new FfmpegOption("pix_fmt").setValue(PIXEL_FORMAT));
+                if (profile != null) {
+                    command.addOption(new FfmpegOption("profile:v").setValue(profile));
+                }
+            }
+            parts.add(new Part(part, piece.frameCount(), command));
+        }
+        return parts;
+    }
+
+    /**
+     * Maps a profile reported by ffprobe to the matching libx264 profile.
+     *
+     * @return the libx264 profile, or null if it has none
+     */
+    private static String encoderProfile(String probed) {
+        if (probed == null) return null;
+        return switch (probed.toLowerCase()) {
+            case "baseline", "constrained baseline" -> "baseline";
+            case "main" -> "main";
+            case "high" -> "high";
+            default -> null;
+        };
+    }
+
+    /**
+     * Splits a render plan into consecutive pieces that are either copied from a source
+     * or re-encoded. A single clip interval is copied between the first and last keyframes
+     * it contains when they fall on timeline frames and are at least a second apart.
+     * Consecutive re-encoded pieces are merged so they are encoded in one go.
+     *
+     * @param keyframesOf the sorted keyframe times of a source that can be copied, or an
+     *                    empty list for a source that must be re-encoded
+     */
+    static List<Piece> split(RenderPlan plan, double frameRate, Function<File, List<Double>> keyframesOf) {
+        List<Piece> pieces = new ArrayList<>();
+        int startFrame = 0;
+        for (RenderPlan.Interval interval : plan.intervals()) {
+            if (pieces.isEmpty()) {
+                startFrame = (int) Math.round(interval.start() * frameRate);
+            }
+            int copyStart = -1;
+            int copyEnd = -1;
+            ClipSpan span = null;
+            double sourceStart = 0;
+            if (interval.layers().size() == 1) {
+                span = interval.layers().getFirst();
+                sourceStart = interval.sourceStart(span);
+                List<Double> keyframes = keyframesOf.apply(span.file());
+                double sourceEnd = sourceStart + interval.duration();
+                Double first = null;
+                Double last = null;
+                for (double keyframe : keyframes) {
+                    if (keyframe >= sourceStart - 1e-6 && keyframe <= sourceEnd + 1e-6) {
+                        if (first == null) first = keyframe;
+                        last = keyframe;
+                    }
+                }
+                if (first != null && onFrame(first - sourceStart, frameRate) && onFrame(last - sourceStart, frameRate)) {
+                    copyStart = (int) Math.round((first - sourceStart) * frameRate);
+                    copyEnd = (int) Math.round((last - sourceStart) * frameRate);
+                    if (copyEnd - copyStart < MIN_COPY_DURATION * frameRate) {
+                        copyStart = -1;
+                    }
+                }
+            }
+
+            if (copyStart < 0) {
+                addEncoded(pieces, startFrame, interval.frameCount());
+            } else {
+                addEncoded(pieces, startFrame, copyStart);
+                pieces.add(new Piece(startFrame + copyStart, copyEnd - copyStart, span.file(),
+                        sourceStart + copyStart / frameRate));
+                addEncoded(pieces, startFrame + copyEnd, interval.frameCount() - copyEnd);
+            }
+            startFrame += interval.frameCount();
+        }
+        return pieces;
+    }
+
+    private static boolean onFrame(double offset, double frameRate) {
+        double frames = offset * frameRate;
+        return Math.abs(frames - Math.round(frames)) < 1e-2;
+    }
+
+    private static void addEncoded(List<Piece> pieces, int startFrame, int frameCount) {
+        if (frameCount <= 0) return;
+        if (!pieces.isEmpty() && !pieces.getLast().isCopy()) {
+            Piece previous = pieces.removeLast();
+            pieces.add(new Piece(previous.startFrame(), previous.frameCount() + frameCount, null, 0));
+        } else {
+            pieces.add(new Piece(startFrame, frameCount, null, 0));
+        }
+    }
+
+    /**
+     * A part of the timeline, in frames at the timeline frame rate.
+     *
+     * @param source      the file the piece is copied from, or null if it is re-encoded
+     * @param sourceStart the time of the keyframe the copy starts at, relative to the start of the source
+     */
+    record Piece(int startFrame, int frameCount, File source, double sourceStart) {
+        boolean isCopy() {
+            return source != null;
+        }
+    }
+}
@@ -9,13 +9,22 @@ import org.luke.decut.app.timeline.clips.VideoClip;
 import org.luke.decut.app.timeline.tracks.Track;
 import org.luke.decut.app.timeline.viewport.content.TrackContent;
 import org.luke.decut.ffmpeg.FfmpegCommand;
+import org.luke.decut.ffmpeg.FfmpegOutput;
+import org.luke.decut.ffmpeg.bitrate.AudioBitrate;
+import org.luke.decut.ffmpeg.bitrate.VideoBitrate;
 import org.luke.decut.ffmpeg.codec.AudioCodec;
 import org.luke.decut.ffmpeg.codec.VideoCodec;
 import org.luke.decut.ffmpeg.filter_complex.audio.*;
+import org.luke.decut.ffmpeg.filter_complex.core.ComplexFilter;
 import org.luke.decut.ffmpeg.filter_complex.core.ComplexFilterNode;
+import org.luke.decut.ffmpeg.filter_complex.core.FilterChainCache;
 import org.luke.decut.ffmpeg.filter_complex.video.*;
 import org.luke.decut.ffmpeg.options.Duration;
+import org.luke.decut.ffmpeg.options.FfmpegOption;
 import org.luke.decut.ffmpeg.options.Map;
+import org.luke.decut.ffmpeg.options.VFrames;
+import org.luke.decut.ffprobe.MediaProbe;
+import org.luke.decut.ffprobe.VideoStreamInfo;
 
 import java.io.File;
 import java.util.*;
@@ -23,9 +32,11 @@ import java.util.*;
 public class TimelineRenderer {
 
     private final Home owner;
+    private final FilterChainCache chains;
 
     public TimelineRenderer(Home owner) {
         this.owner = owner;
+        this.chains = new FilterChainCache(4096);
     }
 
     private List<Track> getTracks() {
@@ -48,60 +59,60 @@ public class TimelineRenderer {
         return owner.framerateProperty().get();
     }
 
+    public double getDuration() {
+        return owner.durationProperty().get();
+    }
+
     private int getTrackLayer(TimelineClip clip) {
         TrackContent cont = (TrackContent) clip.getParent();
         Track track = cont.getTrack();
         return owner.getTracks().getTracks().indexOf(track);
     }
 
-    public FfmpegCommand generateRenderCommand(File outputFile) {
-        FfmpegCommand command = new FfmpegCommand();
-
-        command.setOutput(outputFile);
-
-        command.setCodec(VideoCodec.H264);
-        command.setCodec(new AudioCodec("aac"));
-
-        List<Track> tracks = getTracks();
-        List<VideoClip> videoClips = new ArrayList<>();
-        List<AudioClip> audioClips = new ArrayList<>();
-
-        for (Track track : tracks) {
+    /**
+     * Takes a snapshot of the timeline for an export, on the FX thread. Video clips read
+     * from the file their proxy was made from.
+     */
+    public TimelineSnapshot snapshot() {
+        List<ClipSpan> video = new ArrayList<>();
+        List<ClipSpan> audio = new ArrayList<>();
+        for (Track track : getTracks()) {
             for (TimelineClip clip : getClips(track)) {
-                if (clip instanceof VideoClip) {
-                    videoClips.add((VideoClip) clip);
+                if (clip instanceof VideoClip videoClip) {
+                    video.add(span(ClipSpan.Kind.VIDEO, sourceFile(videoClip), clip));
                 } else if (clip instanceof AudioClip) {
-                    audioClips.add((AudioClip) clip);
+                    audio.add(span(ClipSpan.Kind.AUDIO, clip.getSourceAsset().getFile(), clip));
                 }
             }
         }
+        return new TimelineSnapshot(getWidth(), getHeight(), getFrameRate(), getDuration(), video, audio);
+    }
 
-        Set<File> inputFiles = new HashSet<>();
-        for (VideoClip clip : videoClips) {
-            if(clip.getSourceAsset() instanceof SubVideoAssetData subVid) {
-                inputFiles.add(subVid.getParent().getFile());
-            } else {
-                inputFiles.add(clip.getSourceAsset().getFile());
-            }
-        }
-        for (AudioClip clip : audioClips) {
-            inputFiles.add(clip.getSourceAsset().getFile());
-        }
+    private ClipSpan span(ClipSpan.Kind kind, File file, TimelineClip clip) {
+        return new ClipSpan(kind, file, getTrackLayer(clip), clip.getStartTime(), clip.getEndTime(),
+                clip.getInPoint(), clip.getOutPoint());
+    }
 
-        HashMap<File, Integer> fileToInputIndex = new HashMap<>();
-        int inputIndex = 0;
-        for (File file : inputFiles) {
-            command.addInput(file);
-            fileToInputIndex.put(file, inputIndex++);
-        }
+    /**
+     * Builds the command exporting a snapshot of the timeline. Building it probes the video
+     * sources, so it is best done off the FX thread, the snapshot being taken on it.
+     */
+    public FfmpegCommand generateRenderCommand(TimelineSnapshot timeline, File outputFile) {
+        FfmpegCommand command = new FfmpegCommand();
 
-        double timelineDuration = owner.durationProperty().get();
+        command.setOutput(outputFile);
+
+        EncoderTuner.global().getTuningNow().applyTo(command);
+        command.setCodec(new AudioCodec("aac"));
+
+        double timelineDuration = timeline.getDuration();
         command.setDuration((long) (timelineDuration * 1000));
         command.addOption(new Duration(timelineDuration));
 
-        String finalVideoLabel = processVideoClips(command, videoClips, fileToInputIndex, timelineDuration);
+        String finalVideoLabel = timeline.getVideo().isEmpty() ? null
+                : processVideoPlan(command, timeline, timeline.getPlan());
 
-        String finalAudioLabel = processAudioClips(command, audioClips, fileToInputIndex, timelineDuration);
+        String finalAudioLabel = processAudioClips(command, timeline.getAudio(), timelineDuration);
 
         if (finalVideoLabel != null && finalAudioLabel != null) {
             command.addOption(new Map(finalVideoLabel));
@@ -115,71 +126,310 @@ public class TimelineRenderer {
         return command;
     }
 
-    private String processVideoClips(FfmpegCommand command, List<VideoClip> videoClips,
-                                     HashMap<File, Integer> fileToInputIndex, double timelineDuration) {
-        if (videoClips.isEmpty()) {
-            return null;
+    /**
+     * Builds a command encoding the timeline to several renditions in a single FFmpeg
+     * process. The timeline is decoded and composed once, then every rendition scales the
+     * composed video to its own size and encodes it with its own bitrates; the compiled
+     * graph splits the composed streams between them.
+     * <p>
+     * Video renditions place a keyframe every {@link Rendition#SEGMENT_DURATION} seconds, so
+     * segmented renditions cut at the same times and files of the ladder switch cleanly.
+     * They use the {@link EncoderTuner tuned} encoder, unless it is a hardware encoder and
+     * the ladder has more video renditions than {@link EncoderTuner#HARDWARE_SESSIONS}.
+     * The HLS renditions of a directory are the variants of one output, named after their
+     * playlists and listed in its {@link Rendition#MASTER_PLAYLIST master playlist}.
+     */
+    public FfmpegCommand generateRenditionsCommand(TimelineSnapshot timeline, List<Rendition> renditions) {
+        FfmpegCommand command = new FfmpegCommand();
+
+        double timelineDuration = timeline.getDuration();
+        command.setDuration((long) (timelineDuration * 1000));
+
+        boolean video = !timeline.getVideo().isEmpty() && renditions.stream().anyMatch(Rendition::hasVideo);
+        String videoLabel = video ? processVideoPlan(command, timeline, timeline.getPlan()) : null;
+        String audioLabel = processAudioClips(command, timeline.getAudio(), timelineDuration);
+
+        String gop = String.valueOf(Math.max(1, Math.round(timeline.getFrameRate() * Rendition.SEGMENT_DURATION)));
+        // every video rendition opens its own encoder session, too many for a hardware encoder
+        EncoderTuner.Tuning tuning = video ? EncoderTuner.global().getTuningNow()
+                .forSessions((int) renditions.stream().filter(Rendition::hasVideo).count()) : null;
+        LinkedHashMap<File, List<Integer>> hlsGroups = new LinkedHashMap<>();
+        for (int i = 0; i < renditions.size(); i++) {
+            Rendition rendition = renditions.get(i);
+            File dir = rendition.target().getAbsoluteFile().getParentFile();
+            if (rendition.packaging() != Rendition.Packaging.FILE && dir != null && !dir.exists()) {
+                dir.mkdirs();
+            }
+            if (rendition.packaging() == Rendition.Packaging.HLS) {
+                hlsGroups.computeIfAbsent(dir, _ -> new ArrayList<>()).add(i);
+                continue;
+            }
+
+            FfmpegOutput output = new FfmpegOutput(rendition.target());
+            if (videoLabel != null && rendition.hasVideo()) {
+                tuning.applyTo(output.addOption(new Map(scaleRendition(command, timeline, videoLabel, rendition, i))))
+                        .setBitrate(new VideoBitrate(rendition.videoBitrate()));
+                addKeyframes(output, gop);
+            }
+            output.addOption(new Map(splitRenditionAudio(command, audioLabel, i)))
+                    .setCodec(new AudioCodec("aac"))
+                    .setBitrate(new AudioBitrate(rendition.audioBitrate()))
+                    .addOption(new Duration(timelineDuration));
+            if (rendition.packaging() == Rendition.Packaging.DASH) {
+                output.addOption(new FfmpegOption("f").setValue("dash"))
+                        .addOption(new FfmpegOption("seg_duration").setValue(String.valueOf(Rendition.SEGMENT_DURATION)));
+            }
+            command.addOutput(output);
         }
 
-        videoClips.sort((a, b) -> {
-            int layerCompare = -Integer.compare(getTrackLayer(a), getTrackLayer(b));
-            if (layerCompare != 0) return layerCompare;
-            return Double.compare(a.getStartTime(), b.getStartTime());
+        // the variants of a directory share one output, which writes their master playlist
+        hlsGroups.forEach((dir, indices) -> {
+            FfmpegOutput output = new FfmpegOutput(new File(dir, "%v.m3u8"));
+            List<String> streams = new ArrayList<>();
+            int videoStreams = 0;
+            for (int index = 0; index < indices.size(); index++) {
+                Rendition rendition = renditions.get(indices.get(index));
+                String stream = "";
+                if (videoLabel != null && rendition.hasVideo()) {
+                    output.addOption(new Map(scaleRendition(command, timeline, videoLabel, rendition, indices.get(index))))
+                            .addOption(new FfmpegOption("b:v:" + videoStreams).setValue(rendition.videoBitrate()));
+                    stream = "v:" + videoStreams++ + ",";
+                }
+                output.addOption(new Map(splitRenditionAudio(command, audioLabel, indices.get(index))))
+                        .addOption(new FfmpegOption("b:a:" + index).setValue(rendition.audioBitrate()));
+                streams.add(stream + "a:" + index + ",name:" + baseName(rendition.target()));
+            }
+            if (videoStreams > 0) {
+                tuning.applyTo(output);
+                addKeyframes(output, gop);
+            }
+            output.setCodec(new AudioCodec("aac"))
+                    .addOption(new Duration(timelineDuration))
+                    .addOption(new FfmpegOption("f").setValue("hls"))
+                    .addOption(new FfmpegOption("hls_time").setValue(String.valueOf(Rendition.SEGMENT_DURATION)))
+                    .addOption(new FfmpegOption("hls_playlist_type").setValue("vod"))
+                    .addOption(new FfmpegOption("hls_segment_filename").setValue(
+                            new File(dir, "%v_%05d.ts").getAbsolutePath()))
+                    .addOption(new FfmpegOption("master_pl_name").setValue(Rendition.MASTER_PLAYLIST))
+                    .addOption(new FfmpegOption("var_stream_map").setValue(String.join(" ", streams)));
+            command.addOutput(output);
         });
 
-        String currentVideoLabel = null;
-        int labelCounter = 0;
+        return command;
+    }
+
+    /**
+     * Scales the composed video to the size of a rendition.
+     *
+     * @return the label of the scaled video
+     */
+    private static String scaleRendition(FfmpegCommand command, TimelineSnapshot timeline, String videoLabel,
+                                         Rendition rendition, int index) {
+        String scaledLabel = "[rendition_" + index + "_video]";
+        command.addComplexFilterNode(new ComplexFilterNode()
+                .setInput(videoLabel)
+                .addFilter(new Scale()
+                        .setWidth(String.valueOf(rendition.width(timeline.getWidth(), timeline.getHeight())))
+                        .setHeight(String.valueOf(rendition.height())))
+                .addFilter(new SetSar("1"))
+                .setOutput(scaledLabel));
+        return scaledLabel;
+    }
 
-        String baseVideoLabel = "[base_video]";
+    /**
+     * A filter output can only be mapped once, every rendition gets its own audio pad.
+     *
+     * @return the label of the audio of the rendition
+     */
+    private static String splitRenditionAudio(FfmpegCommand command, String audioLabel, int index) {
+        String audioOutLabel = "[rendition_" + index + "_audio]";
         command.addComplexFilterNode(new ComplexFilterNode()
-                .addFilter(new ColorSrc()
-                        .setColor("black")
-                        .setSize(getWidth() + "x" + getHeight())
-                        .setDuration(timelineDuration)
-                        .setRate(String.valueOf(getFrameRate())))
-                .setOutput(baseVideoLabel));
-
-        currentVideoLabel = baseVideoLabel;
-
-        for (VideoClip clip : videoClips) {
-            AssetData asset = clip.getSourceAsset();
-            if(asset instanceof SubVideoAssetData subVid) {
-                asset = subVid.getParent();
+                .setInput(audioLabel)
+                .addFilter(new ANull())
+                .setOutput(audioOutLabel));
+        return audioOutLabel;
+    }
+
+    private static void addKeyframes(FfmpegOutput output, String gop) {
+        output.addOption(new FfmpegOption("g").setValue(gop))
+                .addOption(new FfmpegOption("keyint_min").setValue(gop))
+                .addOption(new FfmpegOption("sc_threshold").setValue("0"));
+    }
+
+    private static String baseName(File file) {
+        String name = file.getName();
+        int dot = name.lastIndexOf('.');
+        return dot > 0 ? name.substring(0, dot) : name;
+    }
+
+    /**
+     * Builds a command encoding the video of a part of the timeline, for chunked exports.
+     * The part starts on a frame boundary and is cut to an exact number of frames, so
+     * consecutive parts concatenate without a missing or duplicated frame. Every part is
+     * encoded with the same settings, which lets their streams be joined without
+     * re-encoding. Parts use libx264 rather than the {@link EncoderTuner tuned} encoder,
+     * since several of them encode at once and hardware encoders limit the number of
+     * sessions.
+     *
+     * @param timeline   the timeline the export was submitted with
+     * @param startFrame the index of the first frame of the part, at the timeline frame rate
+     * @param frameCount the number of frames in the part
+     * @param threads    the number of threads, or 0 to let FFmpeg decide
+     */
+    public FfmpegCommand generateVideoChunkCommand(TimelineSnapshot timeline, File outputFile, int startFrame,
+                                                   int frameCount, int threads) {
+        FfmpegCommand command = new FfmpegCommand();
+
+        command.setOutput(outputFile);
+
+        command.setCodec(VideoCodec.H264);
+        command.addOption(new FfmpegOption("r").setValue(String.valueOf(timeline.getFrameRate())));
+        command.setThreads(threads);
+
+        double startTime = startFrame / timeline.getFrameRate();
+        double duration = frameCount / timeline.getFrameRate();
+
+        command.setDuration((long) (duration * 1000));
+        String finalVideoLabel = processVideoPlan(command, timeline, timeline.plan(startTime, startTime + duration));
+        command.addOption(new Map(finalVideoLabel));
+        command.addOption(new VFrames(frameCount));
+
+        return command;
+    }
+
+    /**
+     * Builds a command encoding only the audio of the whole timeline. Chunked exports
+     * encode the audio in one piece next to the video parts, since joining separately
+     * encoded audio would leave a gap of encoder padding at every boundary.
+     */
+    public FfmpegCommand generateAudioCommand(TimelineSnapshot timeline, File outputFile) {
+        FfmpegCommand command = new FfmpegCommand();
+
+        command.setOutput(outputFile);
+
+        command.setCodec(new AudioCodec("aac"));
+
+        double timelineDuration = timeline.getDuration();
+        command.setDuration((long) (timelineDuration * 1000));
+        command.addOption(new Duration(timelineDuration));
+
+        command.addOption(new Map(processAudioClips(command, timeline.getAudio(), timelineDuration)));
+
+        return command;
+    }
+
+    private File sourceFile(VideoClip clip) {
+        AssetData asset = clip.getSourceAsset();
+        if (asset instanceof SubVideoAssetData subVid) {
+            asset = subVid.getParent();
+        }
+        return asset.getFile();
+    }
+
+    /**
+     * Builds the video of a render plan: one small graph per interval, joined with a
+     * concat filter. A gap is a black source, and the bottom clip of an interval is cropped
+     * to fill the canvas, so the black base is only drawn where no clip is visible and
+     * an interval with a single clip is just trimmed and scaled. Opaque clips are marked so
+     * the optimizer skips the clips they hide.
+     * <p>
+     * Every clip gets its own input covering the part of its source the plan shows, which
+     * all the intervals of the clip trim from.
+     * The filters of every layer come from the chain cache, so a command regenerated after
+     * an edit only builds and renders the filters of the clips that changed.
+     *
+     * @return the label of the planned video
+     */
+    private String processVideoPlan(FfmpegCommand command, TimelineSnapshot timeline, RenderPlan plan) {
+        HashMap<ClipSpan, ClipInput> inputs = new HashMap<>();
+        HashMap<File, VideoStreamInfo> streams = new HashMap<>();
+        for (RenderPlan.Interval interval : plan.intervals()) {
+            for (ClipSpan span : interval.layers()) {
+                if (!inputs.containsKey(span)) {
+                    RenderPlan.Interval last = interval;
+                    for (RenderPlan.Interval other : plan.intervals()) {
+                        if (other.layers().contains(span)) {
+                            last = other;
+                        }
+                    }
+                    double sourceStart = interval.sourceStart(span);
+                    streams.put(span.file(), MediaProbe.videoStream(span.file()));
+                    inputs.put(span, ClipInput.add(command, span.file(), sourceStart,
+                            last.sourceStart(span) + last.duration() - sourceStart, streams.get(span.file())));
+                }
             }
-            int inputIdx = fileToInputIndex.get(asset.getFile());
-            String clipLabel = "[clip_" + labelCounter + "]";
-            String scaledLabel = "[scaled_" + labelCounter + "]";
-            String overlayLabel = "[overlay_" + labelCounter + "]";
+        }
 
-            command.addComplexFilterNode(new ComplexFilterNode()
-                    .setInput("[" + inputIdx + ":v]")
-                    .addFilter(new TrimC(clip.getInPoint(), clip.getOutPoint()))
-                    .addFilter(new SetPts().setExpr("PTS-STARTPTS+" + clip.getStartTime() + "/TB"))
-                    .setOutput(clipLabel));
+        List<String> parts = new ArrayList<>();
+        for (int i = 0; i < plan.intervals().size(); i++) {
+            RenderPlan.Interval interval = plan.intervals().get(i);
+            String partLabel = "[part_" + i + "]";
+            parts.add(partLabel);
 
-            command.addComplexFilterNode(new ComplexFilterNode()
-                    .setInput(clipLabel)
-                    .addFilter(new Scale().cover(getWidth(), getHeight()))
-                    .setOutput(scaledLabel));
+            if (interval.layers().isEmpty()) {
+                command.addComplexFilterNode(new ComplexFilterNode()
+                        .addFilter(new ColorSrc()
+                                .setColor("black")
+                                .setSize(timeline.getWidth() + "x" + timeline.getHeight())
+                                .setDuration(interval.duration())
+                                .setRate(String.valueOf(timeline.getFrameRate()))
+                                .setSar("1"))
+                        .setOutput(partLabel));
+                continue;
+            }
 
-            command.addComplexFilterNode(new ComplexFilterNode()
-                    .setInputs(currentVideoLabel, scaledLabel)
-                    .addFilter(new Overlay()
-                            .center()
-                            //.setX(String.valueOf(0 /*clip.getX()*/))
-                            //.setY(String.valueOf(0 /*clip.getY()*/))
-                            .setEofAction("pass"))
-                    .setOutput(overlayLabel));
-
-            currentVideoLabel = overlayLabel;
-            labelCounter++;
+            String currentVideoLabel = null;
+            for (int layer = 0; layer < interval.layers().size(); layer++) {
+                ClipSpan span = interval.layers().get(layer);
+                boolean top = layer == interval.layers().size() - 1;
+                String clipLabel = currentVideoLabel == null && top ? partLabel : "[part_" + i + "_" + layer + "]";
+
+                ClipInput input = inputs.get(span);
+                VideoChain chain = new VideoChain(input.rebase(interval.sourceStart(span)), interval.duration(),
+                        timeline.getWidth(), timeline.getHeight(), timeline.getFrameRate());
+                // every clip is cropped to the canvas, which is what a centered overlay of it shows,
+                // so an opaque clip hides everything under it
+                ComplexFilterNode clipNode = new ComplexFilterNode()
+                        .setInput(input.video())
+                        .addFilters(chains.get(chain, () -> List.of(
+                                new TrimC(chain.trimStart(), chain.duration()),
+                                new SetPts().setExpr("PTS-STARTPTS"),
+                                new Scale().cover(chain.width(), chain.height()),
+                                new Crop(chain.width(), chain.height()),
+                                new SetSar("1"),
+                                new Fps(chain.frameRate()))))
+                        .setOpaque(ClipInput.isOpaque(streams.get(span.file())))
+                        .setOutput(clipLabel);
+                if (currentVideoLabel == null) {
+                    command.addComplexFilterNode(clipNode);
+                    currentVideoLabel = clipLabel;
+                    continue;
+                }
+                command.addComplexFilterNode(clipNode);
+
+                String overlayLabel = top ? partLabel : "[part_" + i + "_overlay_" + layer + "]";
+                command.addComplexFilterNode(new ComplexFilterNode()
+                        .setInputs(currentVideoLabel, clipLabel)
+                        .addFilter(new Overlay()
+                                .center()
+                                .setEofAction("pass"))
+                        .setOutput(overlayLabel));
+                currentVideoLabel = overlayLabel;
+            }
         }
 
-        return currentVideoLabel;
+        if (parts.size() == 1) {
+            return parts.getFirst();
+        }
+        String planLabel = "[planned_video]";
+        command.addComplexFilterNode(new ComplexFilterNode()
+                .setInputs(parts.toArray(new String[0]))
+                .addFilter(new Concat(parts.size()))
+                .setOutput(planLabel));
+        return planLabel;
     }
 
-    public String processAudioClips(FfmpegCommand command, List<AudioClip> audioClips,
-                                    HashMap<File, Integer> fileToInputIndex, double timelineDuration) {
+    private String processAudioClips(FfmpegCommand command, List<ClipSpan> audioClips, double timelineDuration) {
 
         String silenceBaseLabel = "[silence_base]";
         command.addComplexFilterNode(new ComplexFilterNode()
@@ -193,26 +443,25 @@ public class TimelineRenderer {
 
         int labelCounter = 0;
 
-        for (AudioClip clip : audioClips) {
-            int inputIdx = fileToInputIndex.get(clip.getSourceAsset().getFile());
-            String trimmedLabel = "[atrimmed_" + labelCounter + "]";
-            String processedClipLabel = trimmedLabel;
+        for (ClipSpan clip : audioClips) {
+            double clipDuration = clip.end() - clip.start();
+            ClipInput input = ClipInput.add(command, clip.file(), clip.inPoint(), clipDuration);
+            String processedClipLabel = "[aclip_" + labelCounter + "]";
 
+            AudioChain chain = new AudioChain(input.rebase(clip.inPoint()), clipDuration,
+                    (long) (clip.start() * 1000));
             command.addComplexFilterNode(new ComplexFilterNode()
-                    .setInput("[" + inputIdx + ":a]")
-                    .addFilter(new ATrimC(clip.getInPoint(), clip.getDuration()))
-                    .addFilter(new ASetPts().setExpr("PTS-STARTPTS"))
-                    .setOutput(trimmedLabel));
-
-            if (clip.getStartTime() > 0) {
-                String delayedLabel = "[adelayed_" + labelCounter + "]";
-                long delayMs = (long) (clip.getStartTime() * 1000);
-                command.addComplexFilterNode(new ComplexFilterNode()
-                        .setInput(processedClipLabel)
-                        .addFilter(new ADelay(delayMs))
-                        .setOutput(delayedLabel));
-                processedClipLabel = delayedLabel;
-            }
+                    .setInput(input.audio())
+                    .addFilters(chains.get(chain, () -> {
+                        List<ComplexFilter> filters = new ArrayList<>();
+                        filters.add(new ATrimC(chain.trimStart(), chain.duration()));
+                        filters.add(new ASetPts().setExpr("PTS-STARTPTS"));
+                        if (chain.delayMs() > 0) {
+                            filters.add(new ADelay(chain.delayMs()));
+                        }
+                        return filters;
+                    }))
+                    .setOutput(processedClipLabel));
 
             audioMixInputs.add(processedClipLabel);
             labelCounter++;
@@ -239,4 +488,16 @@ public class TimelineRenderer {
 
         return finalMixedAudioLabel;
     }
-}
\ No newline at end of file
+
+    /**
+     * The values the filters of a video layer are built from, which key them in the chain cache.
+     */
+    private record VideoChain(double trimStart, double duration, int width, int height, double frameRate) {
+    }
+
+    /**
+     * The values the filters of an audio clip are built from, which key them in the chain cache.
+     */
+    private record AudioChain(double trimStart, double duration, long delayMs) {
+    }
+}
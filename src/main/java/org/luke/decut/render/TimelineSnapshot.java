@@ -0,0 +1,74 @@
+package org.luke.decut.render;
+
+import java.util.List;
+
+/**
+ * Immutable snapshot of what exports read from the timeline. It is taken on the FX thread
+ * when an export is submitted, commands are then built from it in the background and
+ * render the timeline as it was at that time, whatever is edited meanwhile.
+ * <p>
+ * The plan of the whole timeline is compiled with the snapshot, it only reads the spans
+ * and does no I/O.
+ */
+public final class TimelineSnapshot {
+    private final int width;
+    private final int height;
+    private final double frameRate;
+    private final double duration;
+    private final List<ClipSpan> video;
+    private final List<ClipSpan> audio;
+    private final RenderPlan plan;
+
+    /**
+     * @param video the spans of the video clips
+     * @param audio the spans of the audio clips
+     */
+    public TimelineSnapshot(int width, int height, double frameRate, double duration,
+                            List<ClipSpan> video, List<ClipSpan> audio) {
+        this.width = width;
+        this.height = height;
+        this.frameRate = frameRate;
+        this.duration = duration;
+        this.video = List.copyOf(video);
+        this.audio = List.copyOf(audio);
+        this.plan = RenderPlan.compile(this.video, 0, duration, frameRate);
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public double getFrameRate() {
+        return frameRate;
+    }
+
+    public double getDuration() {
+        return duration;
+    }
+
+    public List<ClipSpan> getVideo() {
+        return video;
+    }
+
+    public List<ClipSpan> getAudio() {
+        return audio;
+    }
+
+    /**
+     * @return the plan of the video of the whole timeline
+     */
+    public RenderPlan getPlan() {
+        return plan;
+    }
+
+    /**
+     * @return the plan of the video of [from, to)
+     */
+    public RenderPlan plan(double from, double to) {
+        return RenderPlan.compile(video, from, to, frameRate);
+    }
+}
@@ -0,0 +1,131 @@
+package org.luke.decut.app.preview;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.luke.decut.ffmpeg.pipe.PcmBuffer;
+import org.luke.decut.ffmpeg.pipe.PcmBufferPool;
+import org.luke.decut.render.SegmentFingerprint;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DiskSegmentCacheTest {
+
+    @TempDir
+    File root;
+
+    private static ByteBuffer frame(int width, int height, byte value) {
+        ByteBuffer frame = ByteBuffer.allocateDirect(width * height * 4);
+        while (frame.hasRemaining()) {
+            frame.put(value);
+        }
+        return frame.flip();
+    }
+
+    private static PcmBuffer pcm(byte[] bytes) throws IOException {
+        PcmBuffer buffer = new PcmBuffer(new PcmBufferPool());
+        buffer.readFrom(new ByteArrayInputStream(bytes), bytes.length);
+        return buffer;
+    }
+
+    @Test
+    void testStoreAndReadBack() throws Exception {
+        DiskSegmentCache cache = new DiskSegmentCache(root, Long.MAX_VALUE, new PcmBufferPool());
+        SegmentFingerprint fingerprint = new SegmentFingerprint(1, 2);
+        byte[] audio = {1, 2, 3, 4};
+        cache.store(fingerprint, 4, 2, 30, pcm(audio), List.of(frame(4, 2, (byte) 7), frame(4, 2, (byte) 9)));
+
+        try (DiskSegmentCache.Reader reader = cache.open(fingerprint)) {
+            assertNotNull(reader);
+            assertEquals(4, reader.getWidth());
+            assertEquals(2, reader.getHeight());
+            assertEquals(30, reader.getFrameRate());
+            assertEquals(2, reader.getFrameCount());
+            ByteArrayOutputStream read = new ByteArrayOutputStream();
+            reader.getAudio().writeTo(read, 0, reader.getAudio().length());
+            assertArrayEquals(audio, read.toByteArray());
+            assertEquals(7, reader.nextFrame().get(31));
+            assertEquals(9, reader.nextFrame().get(0));
+            assertNull(reader.nextFrame());
+        }
+        assertNull(cache.open(new SegmentFingerprint(1, 3)));
+    }
+
+    @Test
+    void testStalePartialFilesAreSweptOnFirstStore() throws Exception {
+        File stale = new File(root, "00ff.part12");
+        File fresh = new File(root, "00fe.part13");
+        File segment = new File(root, "00fd.seg");
+        Files.write(stale.toPath(), new byte[16]);
+        Files.write(fresh.toPath(), new byte[16]);
+        Files.write(segment.toPath(), new byte[16]);
+        long old = System.currentTimeMillis() - 3_600_000;
+        assertTrue(stale.setLastModified(old));
+        assertTrue(segment.setLastModified(old));
+
+        DiskSegmentCache cache = new DiskSegmentCache(root, Long.MAX_VALUE, new PcmBufferPool());
+        assertTrue(stale.exists());
+        cache.store(new SegmentFingerprint(2, 2), 4, 2, 30, pcm(new byte[0]), List.of(frame(4, 2, (byte) 1)));
+
+        assertFalse(stale.exists());
+        assertTrue(fresh.exists());
+        assertTrue(segment.exists());
+    }
+
+    @Test
+    void testQuotaEvictsLeastRecentlyUsed() throws Exception {
+        DiskSegmentCache cache = new DiskSegmentCache(root, Long.MAX_VALUE, new PcmBufferPool());
+        SegmentFingerprint old = new SegmentFingerprint(0, 1);
+        SegmentFingerprint recent = new SegmentFingerprint(0, 2);
+        cache.store(old, 4, 2, 30, pcm(new byte[0]), List.of(frame(4, 2, (byte) 1)));
+        cache.store(recent, 4, 2, 30, pcm(new byte[0]), List.of(frame(4, 2, (byte) 2)));
+        new File(root, old.toHex() + ".seg").setLastModified(1000);
+
+        cache.setQuota(cache.getSize() - 1);
+
+        assertNull(cache.open(old));
+        try (DiskSegmentCache.Reader reader = cache.open(recent)) {
+            assertNotNull(reader);
+        }
+    }
+
+    @Test
+    void testClosingReleasesAudioUnlessTaken() throws Exception {
+        PcmBufferPool pool = new PcmBufferPool();
+        DiskSegmentCache cache = new DiskSegmentCache(root, Long.MAX_VALUE, pool);
+        SegmentFingerprint fingerprint = new SegmentFingerprint(4, 4);
+        cache.store(fingerprint, 4, 2, 30, pcm(new byte[]{1, 2, 3, 4}), List.of(frame(4, 2, (byte) 1)));
+
+        try (DiskSegmentCache.Reader reader = cache.open(fingerprint)) {
+            assertEquals(4, reader.getAudio().length());
+        }
+        assertEquals(1, pool.getFreeChunks());
+
+        PcmBuffer taken;
+        try (DiskSegmentCache.Reader reader = cache.open(fingerprint)) {
+            taken = reader.takeAudio();
+        }
+        assertEquals(0, pool.getFreeChunks());
+        assertEquals(4, taken.length());
+        taken.release();
+        assertEquals(1, pool.getFreeChunks());
+    }
+
+    @Test
+    void testCorruptedFileIsDropped() throws Exception {
+        DiskSegmentCache cache = new DiskSegmentCache(root, Long.MAX_VALUE, new PcmBufferPool());
+        SegmentFingerprint fingerprint = new SegmentFingerprint(5, 5);
+        File file = new File(root, fingerprint.toHex() + ".seg");
+        Files.writeString(file.toPath(), "not a segment");
+
+        assertNull(cache.open(fingerprint));
+        assertFalse(file.exists());
+    }
+}
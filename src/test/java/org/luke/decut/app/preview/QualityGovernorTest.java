@@ -0,0 +1,66 @@
+package org.luke.decut.app.preview;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class QualityGovernorTest {
+
+    @Test
+    void testSlowRenderDropsAsFarAsNeeded() {
+        QualityGovernor governor = new QualityGovernor();
+
+        governor.report(0, 0.5f);
+
+        // 0.5x at full resolution would be under 1x at 75%, and about 2x at half resolution
+        assertEquals(2, governor.getLevel());
+        assertEquals(new QualityGovernor.QualityLevel(.5, 1), governor.current());
+    }
+
+    @Test
+    void testVerySlowRenderStopsAtLowestLevel() {
+        QualityGovernor governor = new QualityGovernor();
+
+        governor.report(0, 0.01f);
+
+        assertEquals(QualityGovernor.LEVELS.size() - 1, governor.getLevel());
+    }
+
+    @Test
+    void testReportsFromOtherLevelsAreIgnored() {
+        QualityGovernor governor = new QualityGovernor();
+        governor.report(0, 0.9f);
+        int level = governor.getLevel();
+
+        governor.report(0, 0.1f);
+        governor.report(0, 100f);
+
+        assertEquals(level, governor.getLevel());
+    }
+
+    @Test
+    void testUpshiftNeedsAStreakOfFastRenders() {
+        QualityGovernor governor = new QualityGovernor();
+        governor.report(0, 0.9f);
+        int level = governor.getLevel();
+
+        governor.report(level, 20f);
+        assertEquals(level, governor.getLevel());
+        governor.report(level, 1.2f);
+        governor.report(level, 20f);
+        assertEquals(level, governor.getLevel());
+        governor.report(level, 20f);
+        assertEquals(level - 1, governor.getLevel());
+    }
+
+    @Test
+    void testResetGoesBackToHighestLevel() {
+        QualityGovernor governor = new QualityGovernor();
+        governor.report(0, 0.2f);
+
+        governor.reset();
+
+        assertEquals(0, governor.getLevel());
+        assertEquals(QualityGovernor.LEVELS.getFirst(), governor.current());
+    }
+}
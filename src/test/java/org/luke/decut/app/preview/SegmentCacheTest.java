@@ -0,0 +1,105 @@
+package org.luke.decut.app.preview;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SegmentCacheTest {
+
+    @Test
+    void testChargesRealSize() {
+        SegmentCache<byte[]> cache = new SegmentCache<>(100, b -> b.length, _ -> {});
+        cache.put(0, new byte[30]);
+        cache.put(1, new byte[20]);
+
+        assertEquals(50, cache.getOccupancy());
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    void testEvictsFarthestFromPlayheadFirst() {
+        List<byte[]> evicted = new ArrayList<>();
+        SegmentCache<byte[]> cache = new SegmentCache<>(100, b -> b.length, evicted::add);
+        byte[] far = new byte[40];
+        cache.put(0, far);
+        cache.put(5, new byte[40]);
+        cache.setPlayhead(5);
+        cache.put(6, new byte[40]);
+
+        assertFalse(cache.contains(0));
+        assertTrue(cache.contains(5));
+        assertTrue(cache.contains(6));
+        assertEquals(1, evicted.size());
+        assertSame(far, evicted.getFirst());
+        assertEquals(80, cache.getOccupancy());
+    }
+
+    @Test
+    void testEvictsLeastRecentlyUsedAtEqualDistance() {
+        SegmentCache<byte[]> cache = new SegmentCache<>(100, b -> b.length, _ -> {});
+        cache.setPlayhead(5);
+        cache.put(4, new byte[40]);
+        cache.put(6, new byte[40]);
+        cache.get(4);
+        cache.put(5, new byte[40]);
+
+        assertTrue(cache.contains(4));
+        assertFalse(cache.contains(6));
+    }
+
+    @Test
+    void testPlayheadSegmentIsNeverEvicted() {
+        SegmentCache<byte[]> cache = new SegmentCache<>(10, b -> b.length, _ -> {});
+        cache.setPlayhead(2);
+        cache.put(2, new byte[50]);
+
+        assertTrue(cache.contains(2));
+        assertEquals(50, cache.getOccupancy());
+    }
+
+    @Test
+    void testRechargeUpdatesOccupancy() {
+        List<Integer> sizes = new ArrayList<>(List.of(10));
+        SegmentCache<List<Integer>> cache = new SegmentCache<>(100, List::getFirst, _ -> {});
+        cache.put(0, sizes);
+        sizes.set(0, 60);
+        cache.recharge(0);
+
+        assertEquals(60, cache.getOccupancy());
+    }
+
+    @Test
+    void testHitRateAndStats() {
+        SegmentCache<byte[]> cache = new SegmentCache<>(100, b -> b.length, _ -> {});
+        cache.put(0, new byte[10]);
+        cache.get(0);
+        cache.get(0);
+        cache.get(1);
+
+        SegmentCache.CacheStats stats = cache.getStats();
+        assertEquals(2, stats.hits());
+        assertEquals(1, stats.misses());
+        assertEquals(2.0 / 3, stats.getHitRate(), 1e-9);
+        assertEquals(0.1, stats.getFill(), 1e-9);
+    }
+
+    @Test
+    void testInvalidateAndClearFreeSegments() {
+        List<byte[]> evicted = new ArrayList<>();
+        SegmentCache<byte[]> cache = new SegmentCache<>(100, b -> b.length, evicted::add);
+        cache.put(0, new byte[10]);
+        cache.put(1, new byte[10]);
+        cache.invalidate(0);
+
+        assertEquals(1, evicted.size());
+        assertEquals(10, cache.getOccupancy());
+
+        cache.clear();
+        assertEquals(2, evicted.size());
+        assertEquals(0, cache.getOccupancy());
+        assertEquals(0, cache.size());
+    }
+}
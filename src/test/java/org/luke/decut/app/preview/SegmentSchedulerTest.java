@@ -0,0 +1,111 @@
+package org.luke.decut.app.preview;
+
+import org.junit.jupiter.api.Test;
+import org.luke.decut.ffmpeg.FfmpegCommand;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SegmentSchedulerTest {
+
+    @Test
+    void testRunsPlayheadThenAheadThenBehind() throws Exception {
+        SegmentScheduler<Integer> scheduler = new SegmentScheduler<>("test", 1);
+        CountDownLatch release = new CountDownLatch(1);
+        List<Integer> order = new ArrayList<>();
+
+        scheduler.submit(100, (_, _) -> {
+            release.await();
+            return 100;
+        });
+        scheduler.setPlayhead(1, 1);
+        List<CompletableFuture<Integer>> futures = new ArrayList<>();
+        for (int index : new int[]{-1, 3, 0, 2, 1}) {
+            futures.add(scheduler.submit(index, (i, _) -> {
+                synchronized (order) {
+                    order.add(i);
+                }
+                return i;
+            }));
+        }
+        release.countDown();
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).get(5, TimeUnit.SECONDS);
+
+        assertEquals(List.of(1, 2, 3, 0, -1), order);
+        scheduler.shutdown();
+    }
+
+    @Test
+    void testBackwardsDirectionPrefersLowerSegments() throws Exception {
+        SegmentScheduler<Integer> scheduler = new SegmentScheduler<>("test", 1);
+        CountDownLatch release = new CountDownLatch(1);
+        List<Integer> order = new ArrayList<>();
+
+        scheduler.submit(100, (_, _) -> {
+            release.await();
+            return 100;
+        });
+        scheduler.setPlayhead(5, -1);
+        List<CompletableFuture<Integer>> futures = new ArrayList<>();
+        for (int index : new int[]{6, 4, 5, 3}) {
+            futures.add(scheduler.submit(index, (i, _) -> {
+                synchronized (order) {
+                    order.add(i);
+                }
+                return i;
+            }));
+        }
+        release.countDown();
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).get(5, TimeUnit.SECONDS);
+
+        assertEquals(List.of(5, 4, 3, 6), order);
+        scheduler.shutdown();
+    }
+
+    @Test
+    void testRetainCancelsAndKillsLeftSegments() throws Exception {
+        SegmentScheduler<Integer> scheduler = new SegmentScheduler<>("test", 1);
+        CountDownLatch started = new CountDownLatch(1);
+        FfmpegCommand command = new FfmpegCommand();
+
+        CompletableFuture<Integer> running = scheduler.submit(0, (_, ticket) -> {
+            ticket.track(command);
+            started.countDown();
+            while (!ticket.isCancelled()) {
+                Thread.sleep(5);
+            }
+            return 0;
+        });
+        CompletableFuture<Integer> pending = scheduler.submit(1, (_, _) -> 1);
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        scheduler.retain(5, 9);
+
+        assertTrue(running.isCancelled());
+        assertTrue(pending.isCancelled());
+        assertTrue(command.isKilled());
+        assertFalse(scheduler.isScheduled(0));
+        assertFalse(scheduler.isScheduled(1));
+        scheduler.shutdown();
+    }
+
+    @Test
+    void testSubmitReturnsExistingFuture() {
+        SegmentScheduler<Integer> scheduler = new SegmentScheduler<>("test", 1);
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<Integer> first = scheduler.submit(0, (_, _) -> {
+            release.await();
+            return 0;
+        });
+
+        assertSame(first, scheduler.submit(0, (_, _) -> 1));
+        release.countDown();
+        assertEquals(0, first.join());
+        scheduler.shutdown();
+    }
+}
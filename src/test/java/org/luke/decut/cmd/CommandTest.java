@@ -5,6 +5,9 @@ import org.junit.jupiter.api.Test;
 import org.luke.decut.crossplatform.Os;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -73,4 +76,16 @@ class CommandTest {
         assertFalse(errOut.toString().trim().isEmpty());
         assertNotEquals(0, exitCode.get());
     }
-}
\ No newline at end of file
+
+    @Test
+    void testCompletionFollowsTheOutput() {
+        Command command = new Command(os.isWindows() ? "echo first& echo second" : "echo first; echo second");
+        command.terminalCommand();
+
+        List<String> lines = Collections.synchronizedList(new ArrayList<>());
+        command.addInputHandler(lines::add).execute();
+
+        assertEquals(0, command.getCompletion().join());
+        assertEquals(List.of("first", "second"), lines);
+    }
+}
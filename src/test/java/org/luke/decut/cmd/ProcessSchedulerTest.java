@@ -0,0 +1,153 @@
+package org.luke.decut.cmd;
+
+import org.junit.jupiter.api.Test;
+import org.luke.decut.cmd.ProcessScheduler.Priority;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ProcessSchedulerTest {
+
+    /**
+     * A process that runs until the test finishes it.
+     */
+    private static class FakeProcess extends Process {
+        private final CompletableFuture<Process> exit = new CompletableFuture<>();
+
+        void finish() {
+            exit.complete(this);
+        }
+
+        @Override
+        public CompletableFuture<Process> onExit() {
+            return exit;
+        }
+
+        @Override
+        public OutputStream getOutputStream() {
+            return OutputStream.nullOutputStream();
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            return InputStream.nullInputStream();
+        }
+
+        @Override
+        public InputStream getErrorStream() {
+            return InputStream.nullInputStream();
+        }
+
+        @Override
+        public int waitFor() {
+            exit.join();
+            return 0;
+        }
+
+        @Override
+        public int exitValue() {
+            return 0;
+        }
+
+        @Override
+        public void destroy() {
+            finish();
+        }
+    }
+
+    private static void awaitStarted(ProcessScheduler.Ticket ticket) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!ticket.isStarted() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertTrue(ticket.isStarted());
+    }
+
+    @Test
+    void testUrgentClassesOvertakeTheQueue() throws InterruptedException {
+        ProcessScheduler scheduler = new ProcessScheduler(1);
+        List<String> started = Collections.synchronizedList(new ArrayList<>());
+        List<FakeProcess> processes = Collections.synchronizedList(new ArrayList<>());
+        record Job(String name, Priority priority) {
+        }
+
+        List<ProcessScheduler.Ticket> tickets = new ArrayList<>();
+        for (Job job : List.of(new Job("export", Priority.EXPORT), new Job("proxy", Priority.PROXY),
+                new Job("thumbnail", Priority.THUMBNAIL), new Job("preview", Priority.PREVIEW))) {
+            tickets.add(scheduler.submit(job.priority(), () -> {
+                started.add(job.name());
+                FakeProcess process = new FakeProcess();
+                processes.add(process);
+                return process;
+            }));
+        }
+
+        assertEquals(List.of("export"), started);
+        assertEquals(3, scheduler.getQueueDepth());
+
+        for (int i = 1; i < 4; i++) {
+            processes.getLast().finish();
+            awaitStarted(tickets.get(4 - i));
+        }
+
+        assertEquals(List.of("export", "preview", "thumbnail", "proxy"), started);
+        assertEquals(0, scheduler.getQueueDepth());
+    }
+
+    @Test
+    void testLowerClassesLeaveSlotsFree() {
+        ProcessScheduler scheduler = new ProcessScheduler(3);
+
+        scheduler.submit(Priority.EXPORT, FakeProcess::new);
+        ProcessScheduler.Ticket second = scheduler.submit(Priority.EXPORT, FakeProcess::new);
+        ProcessScheduler.Ticket preview = scheduler.submit(Priority.PREVIEW, FakeProcess::new);
+
+        assertEquals(1, scheduler.getLimit(Priority.EXPORT));
+        assertFalse(second.isStarted());
+        assertTrue(preview.isStarted());
+        assertEquals(2, scheduler.getRunningCount());
+        assertEquals(1, scheduler.getQueueDepth(Priority.EXPORT));
+        assertEquals(0, scheduler.getQueueDepth(Priority.PREVIEW));
+    }
+
+    @Test
+    void testFloorLetsExportsRunSideBySide() {
+        ProcessScheduler scheduler = new ProcessScheduler(4);
+        scheduler.setFloor(Priority.EXPORT, 2);
+
+        ProcessScheduler.Ticket first = scheduler.submit(Priority.EXPORT, FakeProcess::new);
+        ProcessScheduler.Ticket second = scheduler.submit(Priority.EXPORT, FakeProcess::new);
+        ProcessScheduler.Ticket third = scheduler.submit(Priority.EXPORT, FakeProcess::new);
+
+        assertEquals(2, scheduler.getLimit(Priority.EXPORT));
+        assertTrue(first.isStarted());
+        assertTrue(second.isStarted());
+        assertFalse(third.isStarted());
+
+        scheduler.setFloor(Priority.EXPORT, 8);
+        assertEquals(4, scheduler.getLimit(Priority.EXPORT));
+    }
+
+    @Test
+    void testCancelledTicketsNeverStart() throws InterruptedException {
+        ProcessScheduler scheduler = new ProcessScheduler(1);
+        FakeProcess running = new FakeProcess();
+        scheduler.submit(Priority.THUMBNAIL, () -> running);
+        ProcessScheduler.Ticket queued = scheduler.submit(Priority.THUMBNAIL, () -> fail("cancelled ticket started"));
+
+        assertTrue(queued.cancel());
+        assertNull(queued.await());
+        assertEquals(0, scheduler.getQueueDepth());
+
+        running.finish();
+        ProcessScheduler.Ticket next = scheduler.submit(Priority.THUMBNAIL, FakeProcess::new);
+        awaitStarted(next);
+        assertEquals(1, scheduler.getRunningCount());
+    }
+}
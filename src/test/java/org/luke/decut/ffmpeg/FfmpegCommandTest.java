@@ -3,11 +3,15 @@ package org.luke.decut.ffmpeg;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.MethodSource;
+import org.luke.decut.cmd.ProcessResult;
 import org.luke.decut.crossplatform.Os;
 import org.luke.decut.ffmpeg.codec.VideoCodec;
+import org.luke.decut.ffmpeg.filter_complex.video.TrimC;
 import org.luke.decut.ffmpeg.handlers.ProgressHandler;
+import org.luke.decut.ffmpeg.options.Map;
 import org.luke.decut.ffmpeg.preset.Preset;
 
 import java.io.File;
@@ -16,6 +20,9 @@ import java.net.URISyntaxException;
 import java.net.URL;
 import java.nio.file.Paths;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -58,11 +65,48 @@ class FfmpegCommandTest {
                 .setCodec(codec)
                 .setOutput(out)
                 .execute()
-                .waitFor();
+                .join();
         assertTrue(out.exists());
         assertNotEquals(0, out.length());
     }
 
+    @Test
+    void testStreamOutputsArePiped() {
+        FfmpegCommand command = new FfmpegCommand()
+                .addHandler(new ProgressHandler())
+                .addInput(src)
+                .setOnOutputStream(_ -> {
+                }, ".png");
+        List<String> args = command.apply(command, "ffmpeg");
+
+        assertEquals(List.of("ffmpeg", "-progress", "pipe:2"), args.subList(0, 3));
+        assertEquals("pipe:1", args.getLast());
+        assertTrue(String.join(" ", args).contains("-c:v png"));
+        assertTrue(String.join(" ", args).contains("-f image2pipe"));
+        assertNull(command.getOutput());
+    }
+
+    @Test
+    void testInvalidGraphFailsTheResult() {
+        String resolved = FfmpegCommand.getBinary();
+        FfmpegCommand.setBinary("ffmpeg");
+        try {
+            CompletableFuture<ProcessResult> result = new FfmpegCommand()
+                    .addInput(src)
+                    .addComplexFilter("[nowhere]", new TrimC(0, 1), "[out]")
+                    .addOption(new Map("[out]"))
+                    .setOutput(out)
+                    .execute();
+
+            CompletionException error = assertThrows(CompletionException.class,
+                    () -> result.orTimeout(5, TimeUnit.SECONDS).join());
+            assertInstanceOf(IllegalStateException.class, error.getCause());
+            assertTrue(error.getCause().getMessage().contains("[nowhere] is consumed but never produced"));
+        } finally {
+            FfmpegCommand.setBinary(resolved);
+        }
+    }
+
     static List<VideoCodec> getCodecs() {
         return VideoCodec.getNeededCodecs();
     }
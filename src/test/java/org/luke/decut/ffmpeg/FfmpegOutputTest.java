@@ -0,0 +1,50 @@
+package org.luke.decut.ffmpeg;
+
+import org.junit.jupiter.api.Test;
+import org.luke.decut.ffmpeg.bitrate.VideoBitrate;
+import org.luke.decut.ffmpeg.codec.AudioCodec;
+import org.luke.decut.ffmpeg.codec.VideoCodec;
+import org.luke.decut.ffmpeg.filter_complex.audio.ANull;
+import org.luke.decut.ffmpeg.filter_complex.core.ComplexFilterNode;
+import org.luke.decut.ffmpeg.filter_complex.video.Scale;
+import org.luke.decut.ffmpeg.options.Map;
+
+import java.io.File;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FfmpegOutputTest {
+
+    @Test
+    void testOutputsShareOneDecode() {
+        File hd = new File("hd.mp4");
+        File sd = new File("sd.mp4");
+        FfmpegCommand command = new FfmpegCommand()
+                .addInput(new File("clip.mp4"))
+                .addComplexFilterNode(new ComplexFilterNode().setInput("[0:v]")
+                        .addFilter(new Scale().setWidth("1280").setHeight("720")).setOutput("[hd]"))
+                .addComplexFilterNode(new ComplexFilterNode().setInput("[0:v]")
+                        .addFilter(new Scale().setWidth("854").setHeight("480")).setOutput("[sd]"))
+                .addComplexFilterNode(new ComplexFilterNode().setInput("[0:a]")
+                        .addFilter(new ANull()).setOutput("[hd_audio]"))
+                .addComplexFilterNode(new ComplexFilterNode().setInput("[0:a]")
+                        .addFilter(new ANull()).setOutput("[sd_audio]"))
+                .addOutput(new FfmpegOutput(hd).addOption(new Map("[hd]")).addOption(new Map("[hd_audio]"))
+                        .setCodec(VideoCodec.H264).setBitrate(new VideoBitrate("3M")))
+                .addOutput(new FfmpegOutput(sd).addOption(new Map("[sd]")).addOption(new Map("[sd_audio]"))
+                        .setCodec(new AudioCodec("aac")));
+
+        assertEquals(List.of("[hd]", "[hd_audio]", "[sd]", "[sd_audio]"), command.getMappedLabels());
+
+        String graph = command.getFilterGraph();
+        assertTrue(graph.startsWith("[0:v]split=outputs=2"), graph);
+        assertTrue(graph.contains("[0:a]asplit=outputs=2"), graph);
+
+        List<String> args = command.apply(command, "ffmpeg");
+        assertEquals(List.of("-c:v", "libx264", "-b:v", "3M", "-map", "[hd]", "-map", "[hd_audio]", hd.getAbsolutePath(),
+                        "-c:a", "aac", "-map", "[sd]", "-map", "[sd_audio]", sd.getAbsolutePath()),
+                args.subList(args.indexOf(hd.getAbsolutePath()) - 8, args.size()));
+        assertTrue(args.indexOf("-filter_complex") < args.indexOf("-i"), args.toString());
+    }
+}
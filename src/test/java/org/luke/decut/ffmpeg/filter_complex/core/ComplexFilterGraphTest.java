@@ -0,0 +1,113 @@
+package org.luke.decut.ffmpeg.filter_complex.core;
+
+import org.junit.jupiter.api.Test;
+import org.luke.decut.ffmpeg.FfmpegCommand;
+import org.luke.decut.ffmpeg.filter_complex.video.SetPts;
+import org.luke.decut.ffmpeg.filter_complex.video.TrimC;
+import org.luke.decut.ffmpeg.options.Map;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ComplexFilterGraphTest {
+
+    private static FfmpegCommand trimCommand() {
+        return new FfmpegCommand()
+                .addInput(new File("clip.mp4"))
+                .addComplexFilterNode(new ComplexFilterNode().setInput("[0:v]")
+                        .addFilters(new TrimC(1, 2), new SetPts().setExpr("PTS-STARTPTS"))
+                        .setOutput("[out]"))
+                .addOption(new Map("[out]"));
+    }
+
+    @Test
+    void testShortGraphIsPassedInline() {
+        FfmpegCommand command = trimCommand();
+        List<String> args = command.apply(command, "ffmpeg");
+
+        int index = args.indexOf("-filter_complex");
+        assertTrue(index > 0, args.toString());
+        assertEquals("[0:v]trim=start=1.0:duration=2.0,setpts=expr=PTS-STARTPTS[out]", args.get(index + 1));
+    }
+
+    @Test
+    void testLongGraphIsWrittenToScript() throws IOException {
+        FfmpegCommand command = trimCommand().setFilterScriptThreshold(0);
+        List<String> args = command.apply(command, "ffmpeg");
+
+        assertFalse(args.contains("-filter_complex"), args.toString());
+        int index = args.indexOf("-filter_complex_script");
+        assertTrue(index > 0, args.toString());
+        File script = new File(args.get(index + 1));
+        try {
+            assertEquals("[0:v]trim=start=1.0:duration=2.0,setpts=expr=PTS-STARTPTS[out]",
+                    Files.readString(script.toPath()));
+        } finally {
+            script.delete();
+        }
+    }
+
+    @Test
+    void testScriptIsReusedAndNotWrittenToDescribe() {
+        FfmpegCommand command = trimCommand().setFilterScriptThreshold(0);
+
+        assertTrue(command.describe().contains("-filter_complex_script <"), command.describe());
+
+        List<String> first = command.apply(command, "ffmpeg");
+        List<String> second = command.apply(command, "ffmpeg");
+        File script = new File(first.get(first.indexOf("-filter_complex_script") + 1));
+        try {
+            assertEquals(first, second);
+            assertTrue(command.describe().contains(script.getAbsolutePath()));
+        } finally {
+            script.delete();
+        }
+    }
+
+    @Test
+    void testGraphIsCompiledOnceUntilItChanges() {
+        SetPts setPts = new SetPts().setExpr("PTS-STARTPTS");
+        ComplexFilterNode node = new ComplexFilterNode().setInput("[0:v]")
+                .addFilters(new TrimC(1, 2), setPts)
+                .setOutput("[out]");
+        FfmpegCommand command = new FfmpegCommand()
+                .addInput(new File("clip.mp4"))
+                .addComplexFilterNode(node)
+                .addOption(new Map("[out]"));
+
+        String first = command.getFilterGraph();
+        assertSame(first, command.getFilterGraph());
+
+        setPts.setExpr("PTS-STARTPTS+1/TB");
+        String edited = command.getFilterGraph();
+        assertEquals("[0:v]trim=start=1.0:duration=2.0,setpts=expr=PTS-STARTPTS+1/TB[out]", edited);
+        assertSame(edited, command.getFilterGraph());
+
+        node.setOutput("[cut]");
+        assertThrows(IllegalStateException.class, command::getFilterGraph);
+        node.setOutput("[out]");
+        assertEquals(edited, command.getFilterGraph());
+    }
+
+    @Test
+    void testFilterTextIsReusedUntilAnOptionChanges() {
+        FilterChainCache cache = new FilterChainCache(1);
+        List<ComplexFilter> first = cache.get("a", () -> List.of(new TrimC(1, 2)));
+        assertSame(first, cache.get("a", () -> List.of(new TrimC(3, 4))));
+
+        ComplexFilter trim = first.getFirst();
+        String text = trim.apply(null);
+        assertSame(text, trim.apply(null));
+
+        ((TrimC) trim).setEnable("gte(t,1)");
+        assertEquals("trim=enable=gte(t,1):start=1.0:duration=2.0", trim.apply(null));
+
+        cache.get("b", () -> List.of(new TrimC(5, 6)));
+        assertEquals(1, cache.size());
+        assertNotSame(first, cache.get("a", () -> List.of(new TrimC(1, 2))));
+    }
+}
@@ -0,0 +1,79 @@
+package org.luke.decut.ffmpeg.filter_complex.core;
+
+import org.junit.jupiter.api.Test;
+import org.luke.decut.ffmpeg.filter_complex.audio.AEvalSrc;
+import org.luke.decut.ffmpeg.filter_complex.audio.AMix;
+import org.luke.decut.ffmpeg.filter_complex.video.Concat;
+import org.luke.decut.ffmpeg.filter_complex.video.SetPts;
+import org.luke.decut.ffmpeg.filter_complex.video.TrimC;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FilterGraphDagTest {
+
+    private static String render(List<ComplexFilterNode> nodes) {
+        return String.join(";", nodes.stream().map(node -> node.apply(null)).toList());
+    }
+
+    @Test
+    void testSharedInputIsSplitOnce() {
+        List<ComplexFilterNode> nodes = List.of(
+                new ComplexFilterNode().setInput("[0:v]").addFilter(new TrimC(0, 1)).setOutput("[a]"),
+                new ComplexFilterNode().setInput("[0:v]").addFilter(new TrimC(5, 1)).setOutput("[b]"),
+                new ComplexFilterNode().setInputs("[a]", "[b]").addFilter(new Concat(2)).setOutput("[out]"));
+
+        List<ComplexFilterNode> compiled = new FilterGraphDag(nodes, 1, List.of("[out]")).compile();
+
+        assertEquals("[0:v]split=outputs=2[0_v_fan_0][0_v_fan_1];"
+                        + "[0_v_fan_0]trim=start=0.0:duration=1.0[a];"
+                        + "[0_v_fan_1]trim=start=5.0:duration=1.0[b];"
+                        + "[a][b]concat=n=2:v=1:a=0[out]",
+                render(compiled));
+        assertEquals(List.of("[0:v]"), nodes.getFirst().getInputs());
+    }
+
+    @Test
+    void testSharedAudioPadUsesAsplit() {
+        List<ComplexFilterNode> nodes = List.of(
+                new ComplexFilterNode().addFilter(new AEvalSrc().setExprs("0")).setOutput("[silence]"),
+                new ComplexFilterNode().setInputs("[silence]", "[1:a]", "[silence]")
+                        .addFilter(new AMix(3)).setOutput("[mix]"));
+
+        String compiled = render(new FilterGraphDag(nodes, 2, List.of("[mix]")).compile());
+
+        assertTrue(compiled.contains("[silence]asplit=outputs=2[silence_fan_0][silence_fan_1]"), compiled);
+        assertTrue(compiled.contains("[silence_fan_0][1:a][silence_fan_1]amix"), compiled);
+    }
+
+    @Test
+    void testUnmappedBranchesAreDropped() {
+        List<ComplexFilterNode> nodes = List.of(
+                new ComplexFilterNode().setInput("[0:v]").addFilter(new SetPts().setExpr("PTS-STARTPTS")).setOutput("[used]"),
+                new ComplexFilterNode().setInput("[0:v]").addFilter(new TrimC(0, 1)).setOutput("[dead]"),
+                new ComplexFilterNode().setInput("[dead]").addFilter(new SetPts().setExpr("PTS")).setOutput("[dead2]"));
+
+        List<ComplexFilterNode> compiled = new FilterGraphDag(nodes, 1, List.of("[used]")).compile();
+
+        assertEquals("[0:v]setpts=expr=PTS-STARTPTS[used]", render(compiled));
+    }
+
+    @Test
+    void testInvalidGraphsAreRejected() {
+        List<ComplexFilterNode> missing = List.of(
+                new ComplexFilterNode().setInput("[nowhere]").addFilter(new TrimC(0, 1)).setOutput("[out]"),
+                new ComplexFilterNode().setInput("[3:v]").addFilter(new TrimC(0, 1)).setOutput("[out]"));
+        IllegalStateException error = assertThrows(IllegalStateException.class,
+                () -> new FilterGraphDag(missing, 1, List.of("[out]", "[other]")).compile());
+        assertTrue(error.getMessage().contains("[nowhere] is consumed but never produced"));
+        assertTrue(error.getMessage().contains("[3:v] refers to a missing input"));
+        assertTrue(error.getMessage().contains("[out] is produced by more than one node"));
+        assertTrue(error.getMessage().contains("[other] is mapped but never produced"));
+
+        List<ComplexFilterNode> cycle = List.of(
+                new ComplexFilterNode().setInput("[b]").addFilter(new TrimC(0, 1)).setOutput("[a]"),
+                new ComplexFilterNode().setInput("[a]").addFilter(new TrimC(0, 1)).setOutput("[b]"));
+        assertThrows(IllegalStateException.class, () -> new FilterGraphDag(cycle, 0, List.of()).compile());
+    }
+}
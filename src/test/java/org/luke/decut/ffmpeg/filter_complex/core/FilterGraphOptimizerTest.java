@@ -0,0 +1,132 @@
+package org.luke.decut.ffmpeg.filter_complex.core;
+
+import org.junit.jupiter.api.Test;
+import org.luke.decut.ffmpeg.FfmpegInput;
+import org.luke.decut.ffmpeg.filter_complex.audio.AMix;
+import org.luke.decut.ffmpeg.filter_complex.audio.Volume;
+import org.luke.decut.ffmpeg.filter_complex.video.ColorSrc;
+import org.luke.decut.ffmpeg.filter_complex.video.Crop;
+import org.luke.decut.ffmpeg.filter_complex.video.Overlay;
+import org.luke.decut.ffmpeg.filter_complex.video.Scale;
+import org.luke.decut.ffmpeg.filter_complex.video.SetPts;
+import org.luke.decut.ffmpeg.filter_complex.video.TrimC;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FilterGraphOptimizerTest {
+
+    private static String render(List<ComplexFilterNode> nodes) {
+        return String.join(";", nodes.stream().map(node -> node.apply(null)).toList());
+    }
+
+    private static FfmpegInput input(int width, int height) {
+        return new FfmpegInput(new File("clip.mp4")).setFrameSize(width, height);
+    }
+
+    @Test
+    void testOverlayUnderOpaqueClipIsDropped() {
+        List<ComplexFilterNode> nodes = List.of(
+                new ComplexFilterNode().setInput("[0:v]").addFilter(new TrimC(0, 2)).setOutput("[bottom]"),
+                new ComplexFilterNode().setInput("[1:v]").addFilter(new TrimC(3, 2)).setOutput("[top]").setOpaque(true),
+                new ComplexFilterNode().setInputs("[bottom]", "[top]").addFilter(new Overlay().center()).setOutput("[out]"));
+
+        List<ComplexFilterNode> optimized = new FilterGraphOptimizer(List.of(input(0, 0), input(0, 0)), List.of("[out]"))
+                .optimize(nodes);
+
+        assertEquals("[1:v]trim=start=3.0:duration=2.0[out]", render(new FilterGraphDag(optimized, 2, List.of("[out]")).compile()));
+        assertEquals(List.of("[out]"), nodes.getLast().getOutputs());
+    }
+
+    @Test
+    void testDroppingAnOverlayUncoversTheOneUnderIt() {
+        List<ComplexFilterNode> nodes = List.of(
+                new ComplexFilterNode().setInputs("[base]", "[stack]").addFilter(new Overlay().center()).setOutput("[out]"),
+                new ComplexFilterNode().setInput("[0:v]").addFilter(new TrimC(0, 2)).setOutput("[base]"),
+                new ComplexFilterNode().setInput("[1:v]").addFilter(new TrimC(1, 2)).setOutput("[mid]"),
+                new ComplexFilterNode().setInput("[2:v]").addFilter(new TrimC(2, 2)).setOutput("[top]").setOpaque(true),
+                new ComplexFilterNode().setInputs("[mid]", "[top]").addFilter(new Overlay().center()).setOutput("[stack]"));
+
+        List<ComplexFilterNode> optimized = new FilterGraphOptimizer(
+                List.of(input(0, 0), input(0, 0), input(0, 0)), List.of("[out]")).optimize(nodes);
+
+        assertEquals("[2:v]trim=start=2.0:duration=2.0[out]", render(new FilterGraphDag(optimized, 3, List.of("[out]")).compile()));
+    }
+
+    @Test
+    void testLongChainsAreFusedInOnePass() {
+        int length = 20_000;
+        List<ComplexFilterNode> nodes = new ArrayList<>();
+        for (int i = 0; i < length; i++) {
+            nodes.add(new ComplexFilterNode()
+                    .setInput(i == 0 ? "[0:v]" : "[step_" + (i - 1) + "]")
+                    .addFilter(new SetPts().setExpr("PTS+1/TB"))
+                    .setOutput(i == length - 1 ? "[out]" : "[step_" + i + "]"));
+        }
+        // the nodes are listed from the last one, every fuse is found by following the pads
+        Collections.reverse(nodes);
+
+        List<ComplexFilterNode> optimized = new FilterGraphOptimizer(List.of(input(0, 0)), List.of("[out]"))
+                .optimize(nodes);
+
+        assertEquals(1, optimized.size());
+        assertEquals(List.of("[0:v]"), optimized.getFirst().getInputs());
+        assertEquals(List.of("[out]"), optimized.getFirst().getOutputs());
+        assertEquals(length, optimized.getFirst().getFilters().size());
+    }
+
+    @Test
+    void testScaleToKnownSizeIsRemoved() {
+        List<ComplexFilterNode> nodes = List.of(
+                new ComplexFilterNode().setInput("[0:v]")
+                        .addFilters(new Scale().cover(1920, 1080), new Crop(1920, 1080))
+                        .setOutput("[same]"),
+                new ComplexFilterNode().setInput("[1:v]")
+                        .addFilters(new Scale().cover(1920, 1080), new Crop(1920, 1080))
+                        .setOutput("[scaled]"),
+                new ComplexFilterNode().addFilter(new ColorSrc().setColor("black").setSize("640x360"))
+                        .addFilter(new Scale().setWidth("640").setHeight("360"))
+                        .setOutput("[color]"));
+
+        String optimized = render(new FilterGraphOptimizer(List.of(input(1920, 1080), input(1280, 720)),
+                List.of("[same]", "[scaled]", "[color]")).optimize(nodes));
+
+        assertTrue(optimized.contains("[0:v]null[same]"), optimized);
+        assertTrue(optimized.contains("[1:v]scale="), optimized);
+        assertTrue(optimized.contains("crop="), optimized);
+        assertFalse(optimized.contains("color=color=black:size=640x360,scale"), optimized);
+    }
+
+    @Test
+    void testTrimsAndResetsAreMerged() {
+        List<ComplexFilterNode> nodes = List.of(
+                new ComplexFilterNode().setInput("[0:v]")
+                        .addFilters(new TrimC(10, 5), new SetPts().setExpr("PTS-STARTPTS"))
+                        .setOutput("[clip]"),
+                new ComplexFilterNode().setInput("[clip]")
+                        .addFilters(new TrimC(1, 2), new SetPts().setExpr("PTS+1/TB"), new SetPts().setExpr("PTS-STARTPTS"))
+                        .setOutput("[out]"));
+
+        String optimized = render(new FilterGraphOptimizer(List.of(input(0, 0)), List.of("[out]")).optimize(nodes));
+
+        assertEquals("[0:v]trim=start=11.0:duration=2.0,setpts=expr=PTS-STARTPTS[out]", optimized);
+    }
+
+    @Test
+    void testUnitVolumeAndSingleMixAreBypassed() {
+        List<ComplexFilterNode> nodes = List.of(
+                new ComplexFilterNode().setInput("[0:a]").addFilter(new Volume(1)).setOutput("[loud]"),
+                new ComplexFilterNode().setInput("[loud]").addFilter(new AMix(1)).setOutput("[mix]"),
+                new ComplexFilterNode().setInput("[1:a]").addFilter(new Volume(1)).setOutput("[other]"),
+                new ComplexFilterNode().setInputs("[other]", "[mix]").addFilter(new AMix(2)).setOutput("[out]"));
+
+        String optimized = render(new FilterGraphOptimizer(List.of(input(0, 0), input(0, 0)), List.of("[out]"))
+                .optimize(nodes));
+
+        assertEquals("[1:a][0:a]amix=inputs=2:duration=longest[out]", optimized);
+    }
+}
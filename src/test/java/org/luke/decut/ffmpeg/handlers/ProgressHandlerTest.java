@@ -0,0 +1,74 @@
+package org.luke.decut.ffmpeg.handlers;
+
+import org.junit.jupiter.api.Test;
+import org.luke.decut.ffmpeg.FfmpegCommand;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ProgressHandlerTest {
+
+    private static List<ProgressInfo> feed(ProgressHandler handler, List<String> lines) {
+        FfmpegCommand command = new FfmpegCommand();
+        List<ProgressInfo> received = new ArrayList<>();
+        handler.addHandler(received::add);
+        for (String line : lines) {
+            if (handler.match(command, line)) {
+                handler.handle(command, line);
+            }
+        }
+        return received;
+    }
+
+    private static List<String> block(int frame, long outTimeUs, String progress) {
+        return List.of(
+                "frame=" + frame,
+                "fps=29.97",
+                "bitrate=1024.5kbits/s",
+                "total_size=N/A",
+                "out_time_us=" + outTimeUs,
+                "out_time_ms=" + outTimeUs,
+                "speed=1.5x",
+                "progress=" + progress);
+    }
+
+    @Test
+    void testOneSnapshotPerBlock() {
+        List<String> lines = new ArrayList<>();
+        lines.add("Duration: 00:01:02.50, start: 0.000000, bitrate: 1205 kb/s");
+        lines.addAll(block(30, 1_000_000, "continue"));
+        lines.addAll(block(60, 2_000_000, "end"));
+
+        List<ProgressInfo> received = feed(new ProgressHandler().setInterval(0), lines);
+
+        assertEquals(2, received.size());
+        assertEquals(new ProgressInfo(30, 29.97f, "1024.5kbits/s", 0, 1000, 62_500, 1.5f), received.getFirst());
+        assertEquals(60, received.getLast().frame());
+        assertEquals(2000, received.getLast().time());
+    }
+
+    @Test
+    void testBlocksAreThrottledButTheLastIsKept() {
+        List<String> lines = new ArrayList<>();
+        for (int i = 1; i <= 10; i++) {
+            lines.addAll(block(i, i * 100_000L, "continue"));
+        }
+        lines.addAll(block(11, 1_100_000, "end"));
+
+        List<ProgressInfo> received = feed(new ProgressHandler().setInterval(60_000), lines);
+
+        assertEquals(List.of(1, 11), received.stream().map(ProgressInfo::frame).toList());
+    }
+
+    @Test
+    void testNumbersAreReadInPlace() {
+        assertEquals(1234, ProgressHandler.parseLong("frame=1234", 6, 10));
+        assertEquals(-1, ProgressHandler.parseLong("total_size=N/A", 11, 14));
+        assertEquals(2.25f, ProgressHandler.parseFloat("speed=2.25x", 6, 11));
+        assertEquals(-1, ProgressHandler.parseFloat("speed=N/A", 6, 9));
+        assertEquals(3_723_040, ProgressHandler.parseClock("Duration: 01:02:03.04, start: 0", 9));
+        assertEquals(-1, ProgressHandler.parseClock("Duration: N/A", 9));
+    }
+}
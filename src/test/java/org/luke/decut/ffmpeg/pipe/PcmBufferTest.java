@@ -0,0 +1,65 @@
+package org.luke.decut.ffmpeg.pipe;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PcmBufferTest {
+
+    private static byte[] ramp(int length) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = (byte) i;
+        }
+        return bytes;
+    }
+
+    @Test
+    void testReadSpansChunks() throws Exception {
+        PcmBufferPool pool = new PcmBufferPool(8, 4);
+        PcmBuffer buffer = new PcmBuffer(pool);
+        byte[] bytes = ramp(20);
+
+        assertEquals(20, buffer.readFrom(new ByteArrayInputStream(bytes), Long.MAX_VALUE));
+        assertEquals(20, buffer.length());
+        assertEquals(bytes[17], buffer.chunk(17)[buffer.chunkOffset(17)]);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        buffer.writeTo(out, 6, 10);
+        assertArrayEquals(Arrays.copyOfRange(bytes, 6, 16), out.toByteArray());
+    }
+
+    @Test
+    void testChunksReturnToPoolOnLastRelease() throws Exception {
+        PcmBufferPool pool = new PcmBufferPool(8, 4);
+        PcmBuffer buffer = new PcmBuffer(pool);
+        buffer.readFrom(new ByteArrayInputStream(ramp(16)), Long.MAX_VALUE);
+
+        int free = pool.getFreeChunks();
+
+        buffer.retain();
+        buffer.release();
+        assertEquals(free, pool.getFreeChunks());
+        buffer.release();
+        assertEquals(free + 2, pool.getFreeChunks());
+
+        PcmBuffer reused = new PcmBuffer(pool);
+        reused.readFrom(new ByteArrayInputStream(ramp(4)), 4);
+        assertEquals(free + 1, pool.getFreeChunks());
+    }
+
+    @Test
+    void testSilenceIsZeroed() {
+        PcmBuffer silence = PcmBuffer.silence(1 << 20);
+
+        assertEquals(1 << 20, silence.length());
+        assertEquals(0, silence.getRetainedBytes());
+        assertEquals(0, silence.chunk(123_456)[silence.chunkOffset(123_456)]);
+        assertThrows(IllegalStateException.class,
+                () -> silence.readFrom(new ByteArrayInputStream(new byte[1]), 1));
+    }
+}
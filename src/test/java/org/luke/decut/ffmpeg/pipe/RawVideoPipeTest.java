@@ -0,0 +1,58 @@
+package org.luke.decut.ffmpeg.pipe;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RawVideoPipeTest {
+
+    @Test
+    void testFramesAreReadIntoPooledBuffers() {
+        FrameBufferPool pool = new FrameBufferPool(1024);
+        List<ByteBuffer> frames = new ArrayList<>();
+        RawVideoPipe pipe = new RawVideoPipe(2, 1, pool, frames::add);
+
+        // two frames and the start of a third one, cut short
+        pipe.accept(new ByteArrayInputStream(new byte[20]));
+
+        assertEquals(2, frames.size());
+        assertEquals(8, frames.getFirst().remaining());
+        // the buffer of the truncated frame went back to the pool
+        assertEquals(8, pool.getRetainedBytes());
+
+        frames.forEach(pool::release);
+        assertEquals(24, pool.getRetainedBytes());
+        ByteBuffer reused = pool.acquire(8);
+        assertTrue(frames.stream().anyMatch(frame -> frame == reused));
+        assertEquals(8, reused.remaining());
+        assertEquals(16, pool.getRetainedBytes());
+    }
+
+    @Test
+    void testPoolKeepsAtMostItsLimit() {
+        FrameBufferPool pool = new FrameBufferPool(16);
+        pool.release(ByteBuffer.allocateDirect(12));
+        pool.release(ByteBuffer.allocateDirect(12));
+        pool.release(ByteBuffer.allocate(4));
+
+        assertEquals(12, pool.getRetainedBytes());
+        assertNotNull(pool.acquire(4));
+        assertEquals(12, pool.getRetainedBytes());
+    }
+
+    @Test
+    void testStoppedPipeReadsNoMoreFrames() {
+        List<ByteBuffer> frames = new ArrayList<>();
+        RawVideoPipe pipe = new RawVideoPipe(2, 1, frames::add);
+        pipe.stop();
+
+        pipe.accept(new ByteArrayInputStream(new byte[16]));
+
+        assertTrue(frames.isEmpty());
+    }
+}
@@ -0,0 +1,100 @@
+package org.luke.decut.local.managers;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ToolRegistryTest {
+
+    @TempDir
+    File dir;
+
+    @Test
+    void testEncodersAreParsedWithoutTheLegend() {
+        List<String> lines = List.of(
+                "Encoders:",
+                " V..... = Video",
+                " A..... = Audio",
+                " ------",
+                " V....D libx264              libx264 H.264 / AVC / MPEG-4 AVC / MPEG-4 part 10 (codec h264)",
+                " V....D h264_nvenc           NVIDIA NVENC H.264 encoder (codec h264)",
+                " A....D aac                  AAC (Advanced Audio Coding)");
+
+        assertEquals(List.of("libx264", "h264_nvenc", "aac"), List.copyOf(ToolRegistry.parseEncoders(lines)));
+    }
+
+    @Test
+    void testFiltersAreParsedWithoutTheLegend() {
+        List<String> lines = List.of(
+                "Filters:",
+                "  T.. = Timeline support",
+                "  ..C = Command support",
+                "  | = Source or sink filter",
+                " ... abench            A->A       Benchmark part of a filtergraph.",
+                " TSC scale             V->V       Scale the input video size and/or convert the image format.",
+                " ... testsrc2          |->V       Generate another test pattern.");
+
+        assertEquals(List.of("abench", "scale", "testsrc2"), List.copyOf(ToolRegistry.parseFilters(lines)));
+    }
+
+    private static Function<String, String> counting(AtomicInteger probes, String version) {
+        return _ -> {
+            probes.incrementAndGet();
+            return version;
+        };
+    }
+
+    @Test
+    void testVersionIsProbedOncePerBinary() throws IOException {
+        File binary = new File(dir, "ffmpeg");
+        Files.writeString(binary.toPath(), "build 1");
+        File store = new File(dir, "tools.json");
+        AtomicInteger probes = new AtomicInteger();
+
+        ToolRegistry registry = new ToolRegistry(store);
+        assertEquals("7.0", registry.getVersion(binary.getPath(), counting(probes, "7.0")));
+        assertEquals("7.0", registry.getVersion(binary.getPath(), counting(probes, "wrong")));
+        assertEquals(1, probes.get());
+
+        // a new session reads the saved probe
+        ToolRegistry reloaded = new ToolRegistry(store);
+        assertEquals("7.0", reloaded.getVersion(binary.getPath(), counting(probes, "wrong")));
+        assertEquals(1, probes.get());
+
+        // replacing the binary changes its size and time, it is probed again
+        Files.writeString(binary.toPath(), "build 2, larger");
+        assertTrue(binary.setLastModified(binary.lastModified() + 2000));
+        assertEquals("7.1", reloaded.getVersion(binary.getPath(), counting(probes, "7.1")));
+        assertEquals(2, probes.get());
+
+        assertTrue(binary.delete());
+        assertNull(reloaded.getVersion(binary.getPath(), counting(probes, "wrong")));
+        assertEquals(2, probes.get());
+    }
+
+    @Test
+    void testFailedProbeIsNotSaved() throws IOException {
+        File binary = new File(dir, "ffmpeg");
+        Files.writeString(binary.toPath(), "build 1");
+        File store = new File(dir, "tools.json");
+        AtomicInteger probes = new AtomicInteger();
+
+        ToolRegistry registry = new ToolRegistry(store);
+        assertNull(registry.getVersion(binary.getPath(), counting(probes, null)));
+        // the failure is remembered for a while in this session only
+        assertNull(registry.getVersion(binary.getPath(), counting(probes, "7.0")));
+        assertEquals(1, probes.get());
+
+        ToolRegistry reloaded = new ToolRegistry(store);
+        assertEquals("7.0", reloaded.getVersion(binary.getPath(), counting(probes, "7.0")));
+        assertEquals(2, probes.get());
+    }
+}
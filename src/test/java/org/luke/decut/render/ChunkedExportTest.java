@@ -0,0 +1,36 @@
+package org.luke.decut.render;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ChunkedExportTest {
+
+    @Test
+    void testSplitCoversEveryFrameOnce() {
+        List<ChunkedExport.Chunk> chunks = ChunkedExport.split(1001, 4);
+
+        assertEquals(4, chunks.size());
+        int next = 0;
+        for (ChunkedExport.Chunk chunk : chunks) {
+            assertEquals(next, chunk.startFrame());
+            assertTrue(chunk.frameCount() == 250 || chunk.frameCount() == 251);
+            next += chunk.frameCount();
+        }
+        assertEquals(1001, next);
+    }
+
+    @Test
+    void testSplitNeverMakesEmptyChunks() {
+        assertEquals(List.of(new ChunkedExport.Chunk(0, 1), new ChunkedExport.Chunk(1, 1)),
+                ChunkedExport.split(2, 8));
+        assertEquals(List.of(new ChunkedExport.Chunk(0, 0)), ChunkedExport.split(0, 3));
+    }
+
+    @Test
+    void testShortTimelinesAreNotSplit() {
+        assertEquals(1, ChunkedExport.defaultChunkCount(5));
+    }
+}
@@ -0,0 +1,41 @@
+package org.luke.decut.render;
+
+import org.junit.jupiter.api.Test;
+import org.luke.decut.ffmpeg.FfmpegCommand;
+
+import java.io.File;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ClipInputTest {
+
+    @Test
+    void testSeekLandsBeforeTheClipAndTrimsAreRebased() {
+        FfmpegCommand command = new FfmpegCommand();
+        command.addInput(new File("other.mp4"));
+
+        ClipInput input = ClipInput.add(command, new File("source.mp4"), 2400.04167, 5);
+
+        assertEquals(1, input.index());
+        assertEquals("[1:v]", input.video());
+        assertTrue(input.seek() <= 2400.04167);
+        assertEquals(input.seek(), Math.floor(input.seek() * 1000) / 1000);
+        assertEquals(2400.04167 - input.seek(), input.rebase(2400.04167), 1e-9);
+
+        List<String> args = command.apply(command);
+        int ss = args.indexOf("-ss");
+        assertTrue(ss >= 0 && ss < args.lastIndexOf("-i"));
+    }
+
+    @Test
+    void testClipAtSourceStartIsNotSeeked() {
+        FfmpegCommand command = new FfmpegCommand();
+
+        ClipInput input = ClipInput.add(command, new File("source.mp4"), 0.05, 5);
+
+        assertEquals(0, input.seek());
+        assertFalse(command.apply(command).contains("-ss"));
+        assertTrue(command.apply(command).contains("-t"));
+    }
+}
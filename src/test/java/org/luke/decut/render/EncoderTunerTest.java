@@ -0,0 +1,73 @@
+package org.luke.decut.render;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.luke.decut.ffmpeg.FfmpegCommand;
+import org.luke.decut.ffmpeg.FfmpegOutput;
+import org.luke.decut.ffmpeg.codec.VideoCodec;
+import org.luke.decut.ffmpeg.preset.Preset;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class EncoderTunerTest {
+
+    @TempDir
+    File dir;
+
+    @Test
+    void testHardwareEncodersComeFirstWhenListed() {
+        HardwareProfile nvidia = new HardwareProfile(8, "intel", List.of("nvidia corporation", "intel corporation"));
+
+        assertEquals(List.of(VideoCodec.H264_NVENC, VideoCodec.H264_QSV, VideoCodec.H264),
+                EncoderTuner.candidates(nvidia, false, Set.of("libx264", "h264_nvenc", "h264_qsv", "h264_amf")));
+        assertEquals(List.of(VideoCodec.H264),
+                EncoderTuner.candidates(nvidia, false, Set.of("libx264", "h264_amf")));
+    }
+
+    @Test
+    void testPresetsMappingToTheSameSettingAreBenchmarkedOnce() {
+        assertEquals(List.of(Preset.MEDIUM, Preset.FAST, Preset.FASTER, Preset.VERYFAST, Preset.ULTRAFAST),
+                EncoderTuner.distinctPresets(VideoCodec.H264));
+        assertEquals(List.of(Preset.FAST, Preset.VERYFAST, Preset.ULTRAFAST),
+                EncoderTuner.distinctPresets(VideoCodec.H264_NVENC));
+        assertEquals(Collections.singletonList(null), EncoderTuner.distinctPresets(VideoCodec.H264_VIDEOTOOLBOX));
+    }
+
+    @Test
+    void testHardwareTuningFallsBackToSoftwarePastTheSessionLimit() {
+        EncoderTuner.Tuning nvenc = new EncoderTuner.Tuning(VideoCodec.H264_NVENC, Preset.FAST);
+        EncoderTuner.Tuning x264 = new EncoderTuner.Tuning(VideoCodec.H264, Preset.FAST);
+
+        assertSame(nvenc, nvenc.forSessions(EncoderTuner.HARDWARE_SESSIONS));
+        assertSame(EncoderTuner.Tuning.DEFAULT, nvenc.forSessions(EncoderTuner.HARDWARE_SESSIONS + 1));
+        assertSame(x264, x264.forSessions(EncoderTuner.HARDWARE_SESSIONS + 1));
+    }
+
+    @Test
+    void testThreadsAreSplitBetweenJobs() {
+        EncoderTuner tuner = new EncoderTuner(new File(dir, "tuning.json"), new HardwareProfile(12, "amd", List.of()));
+
+        assertEquals(12, tuner.threadsFor(1));
+        assertEquals(4, tuner.threadsFor(3));
+        assertEquals(1, tuner.threadsFor(20));
+
+        File out = new File("out.mp4");
+        File extra = new File("extra.mp4");
+        FfmpegCommand command = new FfmpegCommand()
+                .addInput(new File("clip.mp4"))
+                .addOutput(new FfmpegOutput(extra).setCodec(VideoCodec.H264).setPreset(Preset.FAST))
+                .setOutput(out)
+                .setThreads(tuner.threadsFor(3));
+        List<String> args = command.apply(command, "ffmpeg");
+
+        assertEquals(List.of("ffmpeg", "-y", "-filter_threads", "4", "-filter_complex_threads", "4"), args.subList(0, 6));
+        assertEquals(List.of("-threads", "4", "-c:v", "libx264", "-preset", "fast", extra.getAbsolutePath(),
+                "-threads", "4", out.getAbsolutePath()), args.subList(args.indexOf("-threads"), args.size()));
+        assertFalse(command.getArguments().contains("-threads"));
+    }
+}
@@ -0,0 +1,61 @@
+package org.luke.decut.render;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RenderPlanTest {
+    private static final File SOURCE = new File("source.mp4");
+
+    private static ClipSpan video(int layer, double start, double end) {
+        return new ClipSpan(ClipSpan.Kind.VIDEO, SOURCE, layer, start, end, 1, 1 + end - start);
+    }
+
+    @Test
+    void testSlicesAtClipBoundaries() {
+        ClipSpan base = video(1, 0, 10);
+        ClipSpan title = video(0, 4, 6);
+        RenderPlan plan = RenderPlan.compile(List.of(title, base), 0, 12, 30);
+
+        List<RenderPlan.Interval> intervals = plan.intervals();
+        assertEquals(4, intervals.size());
+        assertEquals(List.of(base), intervals.get(0).layers());
+        assertEquals(List.of(base, title), intervals.get(1).layers());
+        assertEquals(List.of(base), intervals.get(2).layers());
+        assertEquals(List.of(), intervals.get(3).layers());
+        assertEquals(4, intervals.get(1).start(), 1e-9);
+        assertEquals(60, intervals.get(1).frameCount());
+        assertEquals(5, intervals.get(1).sourceStart(base), 1e-9);
+        assertEquals(360, intervals.stream().mapToInt(RenderPlan.Interval::frameCount).sum());
+    }
+
+    @Test
+    void testCostCountsOnlyVisibleClips() {
+        List<ClipSpan> spans = List.of(video(0, 0, 2), video(0, 2, 4), video(0, 4, 6));
+        RenderPlan plan = RenderPlan.compile(spans, 0, 6, 10);
+
+        assertEquals(3, plan.intervals().size());
+        assertEquals(60, plan.getCost());
+    }
+
+    @Test
+    void testBoundariesSnapToFrames() {
+        RenderPlan plan = RenderPlan.compile(List.of(video(0, 1.01, 3)), 0, 3, 10);
+
+        assertEquals(1.0, plan.intervals().getFirst().end(), 1e-9);
+        assertEquals(10, plan.intervals().getFirst().frameCount());
+    }
+
+    @Test
+    void testWindowClipsIntervals() {
+        ClipSpan clip = video(0, 0, 10);
+        RenderPlan plan = RenderPlan.compile(List.of(clip), 3, 5, 25);
+
+        assertEquals(1, plan.intervals().size());
+        assertEquals(50, plan.intervals().getFirst().frameCount());
+        assertEquals(4, plan.intervals().getFirst().sourceStart(clip), 1e-9);
+    }
+}
@@ -0,0 +1,87 @@
+package org.luke.decut.render;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.luke.decut.ffmpeg.FfmpegCommand;
+import org.luke.decut.ffmpeg.filter_complex.core.ComplexFilterNode;
+import org.luke.decut.ffmpeg.filter_complex.video.TrimC;
+import org.luke.decut.ffmpeg.options.Map;
+
+import java.io.File;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RenderQueueTest {
+
+    @TempDir
+    File dir;
+
+    private static RenderJob job(String name) {
+        return RenderJob.of(name, new FfmpegCommand()
+                .addInput(new File("clip.mp4"))
+                .addComplexFilterNode(new ComplexFilterNode().setInput("[0:v]")
+                        .addFilter(new TrimC(1, 2)).setOutput("[out]"))
+                .addOption(new Map("[out]"))
+                .setDuration(2000)
+                .setOutput(new File(name)));
+    }
+
+    @Test
+    void testJobsRunByPriorityThenSubmission() {
+        RenderQueue queue = new RenderQueue(new File(dir, "queue.json"), 0);
+        RenderJob first = queue.submit(job("a.mp4"));
+        RenderJob second = queue.submit(job("b.mp4"));
+        RenderJob urgent = queue.submit(job("c.mp4"));
+
+        queue.setPriority(urgent, 5);
+
+        assertEquals(List.of(urgent, first, second), queue.getJobs());
+        assertTrue(queue.getJobs().stream().allMatch(job -> job.getState() == RenderJob.State.QUEUED));
+    }
+
+    @Test
+    void testPendingJobsSurviveARestart() {
+        File store = new File(dir, "queue.json");
+        RenderQueue queue = new RenderQueue(store, 0);
+        RenderJob kept = queue.submit(job("a.mp4"));
+        RenderJob paused = queue.submit(job("b.mp4"));
+        RenderJob cancelled = queue.submit(job("c.mp4"));
+        queue.pause(paused);
+        queue.cancel(cancelled);
+        queue.setPriority(paused, 2);
+
+        List<RenderJob> restored = new RenderQueue(store, 0).getJobs();
+
+        assertEquals(List.of(paused.getId(), kept.getId()), restored.stream().map(RenderJob::getId).toList());
+        assertEquals(RenderJob.State.PAUSED, restored.getFirst().getState());
+        assertEquals(RenderJob.State.QUEUED, restored.getLast().getState());
+        assertEquals(2, restored.getFirst().getPriority());
+
+        FfmpegCommand original = new FfmpegCommand()
+                .addInput(new File("clip.mp4"))
+                .addComplexFilterNode(new ComplexFilterNode().setInput("[0:v]")
+                        .addFilter(new TrimC(1, 2)).setOutput("[out]"))
+                .addOption(new Map("[out]"));
+        FfmpegCommand rebuilt = restored.getLast().createCommand(_ -> {});
+        assertEquals(original.getArguments(), rebuilt.getArguments());
+        assertEquals(original.getFilterGraph(), rebuilt.getFilterGraph());
+        assertEquals(new File("a.mp4").getAbsolutePath(), rebuilt.getOutput().getAbsolutePath());
+        assertEquals(2000, rebuilt.getDuration());
+    }
+
+    @Test
+    void testPartedJobsAreNotSaved() {
+        File store = new File(dir, "queue.json");
+        RenderQueue queue = new RenderQueue(store, 0);
+        RenderJob kept = queue.submit(job("a.mp4"));
+        RenderJob parted = queue.submit(RenderJob.of("b.mp4", new File("b.mp4"), () -> {
+            throw new AssertionError("a held job never creates its export");
+        }));
+
+        assertTrue(parted.isParted());
+        assertEquals(RenderJob.State.QUEUED, parted.getState());
+        assertEquals(0, parted.getProgress());
+        assertEquals(List.of(kept.getId()), new RenderQueue(store, 0).getJobs().stream().map(RenderJob::getId).toList());
+    }
+}
@@ -0,0 +1,37 @@
+package org.luke.decut.render;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RenditionTest {
+
+    @Test
+    void testWidthKeepsTheCanvasAspect() {
+        assertEquals(1280, Rendition.video(new File("a.mp4"), 720, "3M", "128k").width(1920, 1080));
+        assertEquals(270, Rendition.video(new File("a.mp4"), 480, "1M", "96k").width(1080, 1920));
+        assertEquals(640, Rendition.video(new File("a.mp4"), 480, "1M", "96k").width(640, 480));
+    }
+
+    @Test
+    void testLadderHasAudioAndSegmentedRenditions() {
+        List<Rendition> ladder = Rendition.ladder(new File("out"), "film", 1080);
+
+        assertEquals(1, ladder.stream().filter(rendition -> !rendition.hasVideo()).count());
+        assertEquals(2, ladder.stream().filter(rendition -> rendition.packaging() == Rendition.Packaging.HLS).count());
+        assertEquals(ladder.size(), ladder.stream().map(Rendition::target).distinct().count());
+    }
+
+    @Test
+    void testLadderIsNotUpscaled() {
+        assertEquals(List.of(720, 480, 0, 720, 480),
+                Rendition.ladder(new File("out"), "film", 720).stream().map(Rendition::height).toList());
+        assertEquals(List.of(480, 0, 480),
+                Rendition.ladder(new File("out"), "film", 600).stream().map(Rendition::height).toList());
+        assertEquals(List.of(360, 0, 360),
+                Rendition.ladder(new File("out"), "film", 361).stream().map(Rendition::height).toList());
+    }
+}
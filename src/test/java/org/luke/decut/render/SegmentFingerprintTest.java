@@ -0,0 +1,55 @@
+package org.luke.decut.render;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SegmentFingerprintTest {
+    private static final File SOURCE = new File("source.mp4");
+
+    private static ClipSpan video(int layer, double start, double end) {
+        return new ClipSpan(ClipSpan.Kind.VIDEO, SOURCE, layer, start, end, 0, end - start);
+    }
+
+    private static SegmentFingerprint segment(List<ClipSpan> spans, int index) {
+        return SegmentFingerprint.compute(spans, index * 3, 3, 960, 540, 30);
+    }
+
+    @Test
+    void testEqualInputsGiveEqualFingerprints() {
+        List<ClipSpan> spans = List.of(video(0, 0, 5), video(1, 2, 4));
+        assertEquals(segment(spans, 0), segment(List.of(video(1, 2, 4), video(0, 0, 5)), 0));
+        assertEquals(32, segment(spans, 0).toHex().length());
+    }
+
+    @Test
+    void testOnlyIntersectingSegmentsChange() {
+        List<ClipSpan> before = List.of(video(0, 0, 5), video(0, 7, 8));
+        List<ClipSpan> after = List.of(video(0, 0, 5), video(0, 7.5, 8.5));
+
+        assertEquals(segment(before, 0), segment(after, 0));
+        assertEquals(segment(before, 1), segment(after, 1));
+        assertNotEquals(segment(before, 2), segment(after, 2));
+    }
+
+    @Test
+    void testSettingsAreFingerprinted() {
+        List<ClipSpan> spans = List.of(video(0, 0, 5));
+        SegmentFingerprint base = segment(spans, 0);
+
+        assertNotEquals(base, SegmentFingerprint.compute(spans, 0, 3, 480, 270, 30));
+        assertNotEquals(base, SegmentFingerprint.compute(spans, 0, 3, 960, 540, 25));
+    }
+
+    @Test
+    void testLayerAndTrimAreFingerprinted() {
+        SegmentFingerprint base = segment(List.of(video(0, 0, 5)), 0);
+
+        assertNotEquals(base, segment(List.of(video(1, 0, 5)), 0));
+        assertNotEquals(base, segment(List.of(new ClipSpan(ClipSpan.Kind.VIDEO, SOURCE, 0, 0, 5, 1, 6)), 0));
+        assertNotEquals(base, segment(List.of(new ClipSpan(ClipSpan.Kind.AUDIO, SOURCE, 0, 0, 5, 0, 5)), 0));
+    }
+}
@@ -0,0 +1,47 @@
+package org.luke.decut.render;
+
+import org.junit.jupiter.api.Test;
+import org.luke.decut.ffmpeg.pipe.RawVideoPipe;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SegmentRendererTest {
+    private static final File SOURCE = new File("source.mp4");
+
+    @Test
+    void testActiveClipsByKind() {
+        List<ClipSpan> spans = List.of(
+                new ClipSpan(ClipSpan.Kind.VIDEO, SOURCE, 0, 0, 4, 0, 4),
+                new ClipSpan(ClipSpan.Kind.AUDIO, SOURCE, 1, 5, 7, 0, 2));
+
+        assertTrue(SegmentRenderer.hasActiveClips(spans, ClipSpan.Kind.VIDEO, 3, 3));
+        assertFalse(SegmentRenderer.hasActiveClips(spans, ClipSpan.Kind.AUDIO, 0, 3));
+        assertTrue(SegmentRenderer.hasActiveClips(spans, ClipSpan.Kind.AUDIO, 3, 3));
+        assertFalse(SegmentRenderer.hasActiveClips(spans, ClipSpan.Kind.VIDEO, 6, 3));
+        assertFalse(SegmentRenderer.hasActiveClips(spans, ClipSpan.Kind.AUDIO, 9, 3));
+    }
+
+    @Test
+    void testFrameCountMatchesFfmpeg() {
+        assertEquals(90, SegmentRenderer.frameCount(3, 30));
+        assertEquals(45, SegmentRenderer.frameCount(3, 15));
+        assertEquals(90, SegmentRenderer.frameCount(3, 29.97));
+    }
+
+    @Test
+    void testBlankFramesAreSharedAndOpaque() {
+        ByteBuffer first = RawVideoPipe.blankFrame(4, 2);
+        ByteBuffer second = RawVideoPipe.blankFrame(4, 2);
+
+        assertEquals(4 * 2 * RawVideoPipe.BYTES_PER_PIXEL, first.remaining());
+        assertEquals(0, first.get(0));
+        assertEquals((byte) 0xFF, first.get(3));
+        first.position(8);
+        assertEquals(0, second.position());
+        assertNotSame(first, second);
+    }
+}
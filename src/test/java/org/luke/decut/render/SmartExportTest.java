@@ -0,0 +1,66 @@
+package org.luke.decut.render;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SmartExportTest {
+    private static final double FPS = 25;
+    private static final File SOURCE = new File("source.mp4");
+    private static final File OVERLAY = new File("overlay.mp4");
+    private static final List<Double> EVERY_TWO_SECONDS = List.of(0.0, 2.0, 4.0, 6.0, 8.0, 10.0, 12.0);
+
+    private static ClipSpan video(File file, int layer, double start, double end, double inPoint) {
+        return new ClipSpan(ClipSpan.Kind.VIDEO, file, layer, start, end, inPoint, inPoint + end - start);
+    }
+
+    @Test
+    void testSingleClipIsCopiedBetweenKeyframes() {
+        // source 1s to 10s: the first second up to the keyframe at 2s is encoded, the rest copied
+        RenderPlan plan = RenderPlan.compile(List.of(video(SOURCE, 0, 0, 9, 1)), 0, 9, FPS);
+
+        List<SmartExport.Piece> pieces = SmartExport.split(plan, FPS, _ -> EVERY_TWO_SECONDS);
+
+        assertEquals(List.of(
+                new SmartExport.Piece(0, 25, null, 0),
+                new SmartExport.Piece(25, 200, SOURCE, 2.0)), pieces);
+    }
+
+    @Test
+    void testCompositedSpansAreEncodedInOnePiece() {
+        RenderPlan plan = RenderPlan.compile(List.of(
+                video(SOURCE, 1, 0, 10, 0),
+                video(OVERLAY, 0, 4, 10, 0)), 0, 10, FPS);
+
+        List<SmartExport.Piece> pieces = SmartExport.split(plan, FPS,
+                file -> file.equals(SOURCE) ? EVERY_TWO_SECONDS : List.of());
+
+        assertEquals(List.of(
+                new SmartExport.Piece(0, 100, SOURCE, 0.0),
+                new SmartExport.Piece(100, 150, null, 0)), pieces);
+        assertEquals(plan.intervals().stream().mapToInt(RenderPlan.Interval::frameCount).sum(),
+                pieces.stream().mapToInt(SmartExport.Piece::frameCount).sum());
+    }
+
+    @Test
+    void testKeyframesOffTheFrameGridAreEncoded() {
+        RenderPlan plan = RenderPlan.compile(List.of(video(SOURCE, 0, 0, 9, 0)), 0, 9, FPS);
+
+        List<SmartExport.Piece> pieces = SmartExport.split(plan, FPS, _ -> List.of(0.013, 4.013, 8.013));
+
+        assertEquals(List.of(new SmartExport.Piece(0, 225, null, 0)), pieces);
+    }
+
+    @Test
+    void testShortSpansAreEncoded() {
+        // source 1.5s to 3.5s holds a single keyframe, there is no whole GOP to copy
+        RenderPlan plan = RenderPlan.compile(List.of(video(SOURCE, 0, 0, 2, 1.5)), 0, 2, FPS);
+
+        List<SmartExport.Piece> pieces = SmartExport.split(plan, FPS, _ -> EVERY_TWO_SECONDS);
+
+        assertEquals(List.of(new SmartExport.Piece(0, 50, null, 0)), pieces);
+    }
+}
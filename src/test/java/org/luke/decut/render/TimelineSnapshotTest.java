@@ -0,0 +1,29 @@
+package org.luke.decut.render;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TimelineSnapshotTest {
+    private static final File SOURCE = new File("source.mp4");
+
+    @Test
+    void testLaterEditsDoNotReachTheSnapshot() {
+        ClipSpan base = new ClipSpan(ClipSpan.Kind.VIDEO, SOURCE, 0, 0, 4, 0, 4);
+        List<ClipSpan> video = new ArrayList<>(List.of(base));
+        TimelineSnapshot snapshot = new TimelineSnapshot(1920, 1080, 30, 6, video, List.of());
+
+        video.add(new ClipSpan(ClipSpan.Kind.VIDEO, SOURCE, 0, 4, 6, 0, 2));
+
+        assertEquals(List.of(base), snapshot.getVideo());
+        assertEquals(2, snapshot.getPlan().intervals().size());
+        assertEquals(List.of(), snapshot.getPlan().intervals().getLast().layers());
+        assertEquals(180, snapshot.getPlan().intervals().stream().mapToInt(RenderPlan.Interval::frameCount).sum());
+        assertEquals(1, snapshot.plan(0, 2).intervals().size());
+        assertThrows(UnsupportedOperationException.class, () -> snapshot.getAudio().add(base));
+    }
+}